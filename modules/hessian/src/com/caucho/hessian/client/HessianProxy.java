@@ -57,6 +57,10 @@ import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
@@ -106,6 +110,85 @@ public class HessianProxy implements InvocationHandler, Serializable {
     return _url;
   }
 
+  /**
+   * Finds the API method for an asynchronous call by name and
+   * argument count.
+   */
+  Method findMethod(Object proxy, String methodName, Object []args)
+  {
+    int argCount = args != null ? args.length : 0;
+    Method foundMethod = null;
+
+    for (Class<?> api : proxy.getClass().getInterfaces()) {
+      for (Method method : api.getMethods()) {
+        if (! method.getName().equals(methodName))
+          continue;
+
+        Class<?> []params = method.getParameterTypes();
+
+        if (params.length != argCount || ! isAssignable(params, args))
+          continue;
+
+        if (foundMethod != null && ! foundMethod.equals(method)) {
+          throw new IllegalArgumentException("'" + methodName + "' is an"
+                                             + " ambiguous method for "
+                                             + _url);
+        }
+
+        foundMethod = method;
+      }
+    }
+
+    if (foundMethod == null) {
+      throw new IllegalArgumentException("'" + methodName + "' is an"
+                                         + " unknown method for "
+                                         + _url);
+    }
+
+    return foundMethod;
+  }
+
+  private static boolean isAssignable(Class<?> []params, Object []args)
+  {
+    for (int i = 0; i < params.length; i++) {
+      if (args[i] != null
+          && ! params[i].isPrimitive()
+          && ! params[i].isAssignableFrom(args[i].getClass()))
+        return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * Queues the invocation on the executor, returning the future result.
+   */
+  <T> Future<T> invokeAsync(final Object proxy,
+                            final Method method,
+                            final Object []args,
+                            Executor executor)
+  {
+    FutureTask<T> task = new FutureTask<T>(new Callable<T>() {
+        public T call()
+          throws Exception
+        {
+          try {
+            return (T) invoke(proxy, method, args);
+          } catch (Exception e) {
+            throw e;
+          } catch (Error e) {
+            throw e;
+          } catch (Throwable e) {
+            throw new HessianRuntimeException(e);
+          }
+        }
+      });
+
+    executor.execute(task);
+
+    return task;
+  }
+
   /**
    * Handles the object invocation.
    *
@@ -163,6 +246,7 @@ public class HessianProxy implements InvocationHandler, Serializable {
 
     InputStream is = null;
     HessianConnection conn = null;
+    boolean isValid = false;
     
     try {
       if (log.isLoggable(Level.FINER))
@@ -190,16 +274,22 @@ public class HessianProxy implements InvocationHandler, Serializable {
         int major = is.read();
         int minor = is.read();
 
-        in = _factory.getHessian2Input(is);
+        isValid = true;
 
-        Object value = in.readReply(method.getReturnType());
+        in = _factory.getHessian2Input(is);
 
-        return value;
+        try {
+          return in.readReply(method.getReturnType());
+        } finally {
+          _factory.freeHessianInput(in);
+        }
       }
       else if (code == 'r') {
         int major = is.read();
         int minor = is.read();
 
+        isValid = true;
+
         in = _factory.getHessianInput(is);
 
         in.startReplyBody();
@@ -229,7 +319,12 @@ public class HessianProxy implements InvocationHandler, Serializable {
       }
       
       try {
-        if (conn != null)
+        // a complete response lets the connection keep its socket alive
+        if (conn == null) {
+        }
+        else if (isValid)
+          conn.close();
+        else
           conn.destroy();
       } catch (Exception e) {
         log.log(Level.FINE, e.toString(), e);
@@ -293,6 +388,8 @@ public class HessianProxy implements InvocationHandler, Serializable {
       out.call(methodName, args);
       out.flush();
 
+      _factory.freeHessianOutput(out);
+
       conn.sendRequest();
 
       isValid = true;
@@ -52,10 +52,17 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Hashtable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 import javax.naming.Context;
@@ -70,6 +77,7 @@ import com.caucho.hessian.io.AbstractHessianOutput;
 import com.caucho.hessian.io.Hessian2Input;
 import com.caucho.hessian.io.Hessian2Output;
 import com.caucho.hessian.io.HessianDebugInputStream;
+import com.caucho.hessian.io.HessianFactory;
 import com.caucho.hessian.io.HessianInput;
 import com.caucho.hessian.io.HessianOutput;
 import com.caucho.hessian.io.HessianRemoteObject;
@@ -116,6 +124,19 @@ import com.caucho.services.client.ServiceProxyFactory;
  *
  * <p>The proxy can use HTTP basic authentication if the user and the
  * password are set.
+ *
+ * <h3>Asynchronous calls</h3>
+ *
+ * <p><code>invokeAsync</code> runs a proxy call on the factory's executor
+ * and returns a <code>Future</code> for the result.  Combined with
+ * {@link HessianSocketConnectionFactory}, concurrent calls share a small
+ * pool of persistent sockets and are pipelined on them.
+ *
+ * <pre>
+ * factory.setConnectionFactory(new HessianSocketConnectionFactory());
+ *
+ * Future&lt;String> future = factory.invokeAsync(hello, "hello", "world");
+ * </pre>
  */
 public class HessianProxyFactory implements ServiceProxyFactory, ObjectFactory {
   protected static Logger log
@@ -125,6 +146,10 @@ public class HessianProxyFactory implements ServiceProxyFactory, ObjectFactory {
   
   private SerializerFactory _serializerFactory;
 
+  private final HessianFactory _hessianFactory = new HessianFactory();
+
+  private Executor _executor;
+
   private HessianConnectionFactory _connFactory;
   
   private HessianRemoteResolver _resolver;
@@ -213,6 +238,33 @@ public class HessianProxyFactory implements ServiceProxyFactory, ObjectFactory {
     return _connFactory;
   }
 
+  /**
+   * Sets the executor for asynchronous calls.
+   */
+  public void setExecutor(Executor executor)
+  {
+    _executor = executor;
+  }
+
+  /**
+   * Returns the executor for asynchronous calls, creating a daemon
+   * thread pool if none is configured.
+   */
+  public Executor getExecutor()
+  {
+    synchronized (this) {
+      if (_executor == null)
+        _executor = createExecutor();
+
+      return _executor;
+    }
+  }
+
+  protected ExecutorService createExecutor()
+  {
+    return Executors.newCachedThreadPool(new AsyncThreadFactory());
+  }
+
   /**
    * Sets the debug
    */
@@ -458,6 +510,59 @@ public class HessianProxyFactory implements ServiceProxyFactory, ObjectFactory {
                                   handler);
   }
 
+  /**
+   * Calls a proxy method asynchronously.  The call runs on the
+   * factory's executor and the returned future completes with the
+   * method's result or the remote exception.
+   *
+   * @param proxy a proxy created by this factory
+   * @param methodName the name of the API method
+   * @param args the method arguments
+   *
+   * @return the future result of the call.
+   */
+  public <T> Future<T> invokeAsync(Object proxy,
+                                   String methodName,
+                                   Object ...args)
+  {
+    HessianProxy handler = getHandler(proxy);
+
+    Method method = handler.findMethod(proxy, methodName, args);
+
+    return handler.invokeAsync(proxy, method, args, getExecutor());
+  }
+
+  /**
+   * Calls a proxy method asynchronously.
+   *
+   * @param proxy a proxy created by this factory
+   * @param method the API method
+   * @param args the method arguments
+   *
+   * @return the future result of the call.
+   */
+  public <T> Future<T> invokeAsync(Object proxy,
+                                   Method method,
+                                   Object ...args)
+  {
+    HessianProxy handler = getHandler(proxy);
+
+    return handler.invokeAsync(proxy, method, args, getExecutor());
+  }
+
+  private HessianProxy getHandler(Object proxy)
+  {
+    if (proxy == null || ! Proxy.isProxyClass(proxy.getClass()))
+      throw new IllegalArgumentException(proxy + " is not a Hessian proxy");
+
+    InvocationHandler handler = Proxy.getInvocationHandler(proxy);
+
+    if (! (handler instanceof HessianProxy))
+      throw new IllegalArgumentException(proxy + " is not a Hessian proxy");
+
+    return (HessianProxy) handler;
+  }
+
   public AbstractHessianInput getHessianInput(InputStream is)
   {
     return getHessian2Input(is);
@@ -486,7 +591,7 @@ public class HessianProxyFactory implements ServiceProxyFactory, ObjectFactory {
     if (_isDebug)
       is = new HessianDebugInputStream(is, new PrintWriter(System.out));
 
-    in = new Hessian2Input(is);
+    in = _hessianFactory.createHessian2Input(is);
 
     in.setRemoteResolver(getRemoteResolver());
 
@@ -500,7 +605,7 @@ public class HessianProxyFactory implements ServiceProxyFactory, ObjectFactory {
     AbstractHessianOutput out;
 
     if (_isHessian2Request)
-      out = new Hessian2Output(os);
+      out = _hessianFactory.createHessian2Output(os);
     else {
       HessianOutput out1 = new HessianOutput(os);
       out = out1;
@@ -514,6 +619,27 @@ public class HessianProxyFactory implements ServiceProxyFactory, ObjectFactory {
     return out;
   }
 
+  /**
+   * Returns a Hessian 2.0 input to the free list after the reply.
+   */
+  public void freeHessianInput(AbstractHessianInput in)
+  {
+    if (in instanceof Hessian2Input) {
+      in.setRemoteResolver(null);
+
+      _hessianFactory.freeHessian2Input((Hessian2Input) in);
+    }
+  }
+
+  /**
+   * Returns a Hessian 2.0 output to the free list after the call.
+   */
+  public void freeHessianOutput(AbstractHessianOutput out)
+  {
+    if (out instanceof Hessian2Output)
+      _hessianFactory.freeHessian2Output((Hessian2Output) out);
+  }
+
   /**
    * JNDI object factory so the proxy can be used as a resource.
    */
@@ -609,5 +735,18 @@ public class HessianProxyFactory implements ServiceProxyFactory, ObjectFactory {
     else
       return '/';
   }
+
+  static class AsyncThreadFactory implements ThreadFactory {
+    private static final AtomicInteger _count = new AtomicInteger();
+
+    public Thread newThread(Runnable task)
+    {
+      Thread thread = new Thread(task,
+                                 "hessian-async-" + _count.incrementAndGet());
+      thread.setDaemon(true);
+
+      return thread;
+    }
+  }
 }
 
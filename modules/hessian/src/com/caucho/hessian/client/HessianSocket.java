@@ -0,0 +1,293 @@
+/*
+ * Copyright (c) 2001-2004 Caucho Technology, Inc.  All rights reserved.
+ *
+ * The Apache Software License, Version 1.1
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution, if
+ *    any, must include the following acknowlegement:
+ *       "This product includes software developed by the
+ *        Caucho Technology (http://www.caucho.com/)."
+ *    Alternately, this acknowlegement may appear in the software itself,
+ *    if and wherever such third-party acknowlegements normally appear.
+ *
+ * 4. The names "Burlap", "Resin", and "Caucho" must not be used to
+ *    endorse or promote products derived from this software without prior
+ *    written permission. For written permission, please contact
+ *    info@caucho.com.
+ *
+ * 5. Products derived from this software may not be called "Resin"
+ *    nor may "Resin" appear in their names without prior written
+ *    permission of Caucho Technology.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL CAUCHO TECHNOLOGY OR ITS CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.hessian.client;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.LinkedList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A persistent HTTP/1.1 socket shared by pipelined Hessian calls.
+ *
+ * Requests are written in queue order, and each call reads its response
+ * when it reaches the head of the queue, so a call can be written while
+ * earlier responses are still in flight.
+ */
+class HessianSocket {
+  private static final Logger log
+    = Logger.getLogger(HessianSocket.class.getName());
+
+  private final HessianSocketConnectionFactory.HostPool _pool;
+
+  private final Socket _socket;
+  private final InputStream _is;
+  private final OutputStream _os;
+
+  private final Object _writeLock = new Object();
+
+  private final LinkedList<HessianSocketConnection> _requestQueue
+    = new LinkedList<HessianSocketConnection>();
+
+  private int _requestCount;
+  private long _idleStartTime;
+
+  private boolean _isClosed;
+
+  HessianSocket(HessianSocketConnectionFactory.HostPool pool,
+                String host, int port,
+                long connectTimeout,
+                long readTimeout)
+    throws IOException
+  {
+    _pool = pool;
+
+    Socket socket = new Socket();
+
+    try {
+      if (connectTimeout > 0)
+        socket.connect(new InetSocketAddress(host, port),
+                       (int) connectTimeout);
+      else
+        socket.connect(new InetSocketAddress(host, port));
+
+      if (readTimeout > 0)
+        socket.setSoTimeout((int) readTimeout);
+
+      socket.setTcpNoDelay(true);
+
+      _is = new BufferedInputStream(socket.getInputStream(), 8192);
+      _os = socket.getOutputStream();
+    } catch (IOException e) {
+      socket.close();
+
+      throw e;
+    }
+
+    _socket = socket;
+    _idleStartTime = System.currentTimeMillis();
+  }
+
+  /**
+   * Returns the stream for reading responses.  Only the connection at the
+   * head of the queue may read.
+   */
+  InputStream getInputStream()
+  {
+    return _is;
+  }
+
+  /**
+   * Returns the number of requests waiting for a response.
+   */
+  synchronized int getPendingCount()
+  {
+    return _requestQueue.size();
+  }
+
+  /**
+   * True if the socket has been idle longer than the timeout.
+   */
+  synchronized boolean isIdleExpired(long now, long idleTimeout)
+  {
+    return (_requestQueue.size() == 0
+            && idleTimeout > 0
+            && _idleStartTime + idleTimeout < now);
+  }
+
+  /**
+   * Returns the number of requests written to the socket.
+   */
+  synchronized int getRequestCount()
+  {
+    return _requestCount;
+  }
+
+  synchronized boolean isClosed()
+  {
+    return _isClosed;
+  }
+
+  /**
+   * Writes the request and queues the connection for its response.
+   *
+   * @return true if the request reused an idle socket
+   */
+  boolean writeRequest(HessianSocketConnection conn,
+                       byte []header, int headerLength,
+                       byte []body, int bodyLength)
+    throws IOException
+  {
+    boolean isReuse;
+
+    synchronized (_writeLock) {
+      synchronized (this) {
+        if (_isClosed)
+          throw new HessianConnectionException(this + " is closed");
+
+        isReuse = _requestCount > 0 && _requestQueue.size() == 0;
+
+        _requestCount++;
+        _requestQueue.add(conn);
+      }
+
+      try {
+        _os.write(header, 0, headerLength);
+        _os.write(body, 0, bodyLength);
+        _os.flush();
+      } catch (IOException e) {
+        close();
+
+        throw e;
+      }
+    }
+
+    return isReuse;
+  }
+
+  /**
+   * Waits until the connection's response is next on the socket.
+   */
+  void waitForResponse(HessianSocketConnection conn, long timeout)
+    throws IOException
+  {
+    long expires = timeout > 0 ? System.currentTimeMillis() + timeout : 0;
+
+    synchronized (this) {
+      while (! _isClosed && _requestQueue.getFirst() != conn) {
+        try {
+          if (expires <= 0)
+            wait();
+          else {
+            long delta = expires - System.currentTimeMillis();
+
+            if (delta <= 0)
+              break;
+
+            wait(delta);
+          }
+        } catch (InterruptedException e) {
+          log.log(Level.FINEST, e.toString(), e);
+
+          break;
+        }
+      }
+
+      if (! _isClosed && _requestQueue.getFirst() == conn)
+        return;
+    }
+
+    // the queued responses can no longer be matched to their calls
+    close();
+
+    throw new HessianConnectionException(this + " closed before the"
+                                         + " response was received");
+  }
+
+  /**
+   * Completes the response at the head of the queue, letting the next
+   * pipelined call read.
+   */
+  void complete(HessianSocketConnection conn, boolean isKeepalive)
+  {
+    if (! isKeepalive) {
+      close();
+      return;
+    }
+
+    synchronized (this) {
+      if (_isClosed || _requestQueue.getFirst() != conn)
+        return;
+
+      _requestQueue.removeFirst();
+
+      if (_requestQueue.size() == 0)
+        _idleStartTime = System.currentTimeMillis();
+
+      notifyAll();
+    }
+
+    _pool.free(this);
+  }
+
+  /**
+   * Closes the socket, failing any calls still waiting for a response.
+   */
+  void close()
+  {
+    synchronized (this) {
+      if (_isClosed)
+        return;
+
+      _isClosed = true;
+
+      notifyAll();
+    }
+
+    _pool.remove(this);
+
+    try {
+      _socket.close();
+    } catch (IOException e) {
+      log.log(Level.FINEST, e.toString(), e);
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    return (getClass().getSimpleName()
+            + "[" + _socket.getRemoteSocketAddress() + "]");
+  }
+}
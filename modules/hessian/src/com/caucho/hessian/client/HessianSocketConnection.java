@@ -0,0 +1,518 @@
+/*
+ * Copyright (c) 2001-2004 Caucho Technology, Inc.  All rights reserved.
+ *
+ * The Apache Software License, Version 1.1
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution, if
+ *    any, must include the following acknowlegement:
+ *       "This product includes software developed by the
+ *        Caucho Technology (http://www.caucho.com/)."
+ *    Alternately, this acknowlegement may appear in the software itself,
+ *    if and wherever such third-party acknowlegements normally appear.
+ *
+ * 4. The names "Burlap", "Resin", and "Caucho" must not be used to
+ *    endorse or promote products derived from this software without prior
+ *    written permission. For written permission, please contact
+ *    info@caucho.com.
+ *
+ * 5. Products derived from this software may not be called "Resin"
+ *    nor may "Resin" appear in their names without prior written
+ *    permission of Caucho Technology.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL CAUCHO TECHNOLOGY OR ITS CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.hessian.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Connection to a server over a pooled persistent socket.  The request
+ * is buffered until <code>sendRequest</code>, then written as a single
+ * HTTP/1.1 POST, possibly pipelined behind other calls on the socket.
+ */
+public class HessianSocketConnection extends AbstractHessianConnection {
+  private static final Logger log
+    = Logger.getLogger(HessianSocketConnection.class.getName());
+
+  private final HessianSocketConnectionFactory _factory;
+  private final HessianSocketConnectionFactory.HostPool _pool;
+  private final URL _url;
+
+  private final StringBuilder _headers = new StringBuilder();
+  private final RequestStream _requestStream = new RequestStream();
+
+  private HessianSocket _socket;
+
+  private int _statusCode;
+  private String _statusMessage;
+  private String _contentEncoding;
+  private boolean _isKeepalive;
+
+  private ResponseStream _responseStream;
+
+  HessianSocketConnection(HessianSocketConnectionFactory factory,
+                          HessianSocketConnectionFactory.HostPool pool,
+                          URL url)
+  {
+    _factory = factory;
+    _pool = pool;
+    _url = url;
+  }
+
+  /**
+   * Adds a HTTP header.
+   */
+  @Override
+  public void addHeader(String key, String value)
+  {
+    _headers.append(key).append(": ").append(value).append("\r\n");
+  }
+
+  /**
+   * Returns the output stream for the request.
+   */
+  public OutputStream getOutputStream()
+    throws IOException
+  {
+    return _requestStream;
+  }
+
+  /**
+   * Sends the request and waits for the response headers.
+   */
+  public void sendRequest()
+    throws IOException
+  {
+    byte []header = createRequestHeader();
+
+    // each pooled socket may have been closed by the server while idle
+    int maxRetry = _factory.getMaxConnections();
+
+    for (int retry = 0; ; retry++) {
+      HessianSocket socket = _pool.allocate();
+      boolean isReuse;
+
+      try {
+        isReuse = socket.writeRequest(this, header, header.length,
+                                      _requestStream.getBuffer(),
+                                      _requestStream.size());
+      } catch (IOException e) {
+        if (retry < maxRetry && socket.getRequestCount() > 1) {
+          log.log(Level.FINER, e.toString(), e);
+          continue;
+        }
+
+        throw new HessianConnectionException(_url + ": " + e, e);
+      }
+
+      _socket = socket;
+
+      socket.waitForResponse(this, _factory.getReadTimeout());
+
+      try {
+        if (readResponseHeaders())
+          break;
+      } catch (IOException e) {
+        destroy();
+
+        throw new HessianConnectionException(_url + ": " + e, e);
+      }
+
+      // EOF before the status on a reused socket means the server
+      // closed its side while the socket was idle
+      destroy();
+
+      if (retry >= maxRetry || ! isReuse) {
+        throw new HessianConnectionException(_url + ": unexpected end of"
+                                             + " file before response");
+      }
+    }
+
+    if (_statusCode != 200) {
+      StringBuilder sb = new StringBuilder();
+      int ch;
+
+      try {
+        InputStream is = _responseStream;
+
+        while ((ch = is.read()) >= 0)
+          sb.append((char) ch);
+      } catch (IOException e) {
+        log.log(Level.FINE, e.toString(), e);
+      }
+
+      _statusMessage = sb.toString();
+
+      close();
+
+      throw new HessianConnectionException(_statusCode + ": " + sb);
+    }
+  }
+
+  private byte []createRequestHeader()
+  {
+    StringBuilder sb = new StringBuilder();
+
+    String path = _url.getFile();
+
+    if (path == null || path.length() == 0)
+      path = "/";
+
+    sb.append("POST ").append(path).append(" HTTP/1.1\r\n");
+    sb.append("Host: ").append(_url.getHost());
+
+    if (_url.getPort() >= 0)
+      sb.append(':').append(_url.getPort());
+
+    sb.append("\r\n");
+    sb.append("Content-Length: ").append(_requestStream.size());
+    sb.append("\r\n");
+    sb.append(_headers);
+    sb.append("\r\n");
+
+    int length = sb.length();
+    byte []header = new byte[length];
+
+    for (int i = 0; i < length; i++)
+      header[i] = (byte) sb.charAt(i);
+
+    return header;
+  }
+
+  /**
+   * Parses the status line and headers.
+   *
+   * @return false if the socket ended before the status line
+   */
+  private boolean readResponseHeaders()
+    throws IOException
+  {
+    InputStream is = _socket.getInputStream();
+    StringBuilder sb = new StringBuilder();
+
+    do {
+      if (! readLine(is, sb))
+        return false;
+
+      String status = sb.toString();
+
+      if (! status.startsWith("HTTP/") || status.length() < 12)
+        throw new IOException("'" + status + "' is an invalid HTTP status");
+
+      _statusCode = Integer.parseInt(status.substring(9, 12));
+      _isKeepalive = ! status.startsWith("HTTP/1.0");
+
+      long contentLength = -1;
+      boolean isChunked = false;
+
+      while (readLine(is, sb) && sb.length() > 0) {
+        int p = sb.indexOf(":");
+
+        if (p <= 0)
+          continue;
+
+        String key = sb.substring(0, p).trim();
+        String value = sb.substring(p + 1).trim();
+
+        if (key.equalsIgnoreCase("Content-Length"))
+          contentLength = Long.parseLong(value);
+        else if (key.equalsIgnoreCase("Transfer-Encoding"))
+          isChunked = value.equalsIgnoreCase("chunked");
+        else if (key.equalsIgnoreCase("Content-Encoding"))
+          _contentEncoding = value;
+        else if (key.equalsIgnoreCase("Connection")) {
+          if (value.equalsIgnoreCase("close"))
+            _isKeepalive = false;
+          else if (value.equalsIgnoreCase("keep-alive"))
+            _isKeepalive = true;
+        }
+      }
+
+      if (! isChunked && contentLength < 0)
+        _isKeepalive = false;
+
+      _responseStream = new ResponseStream(is, isChunked, contentLength);
+
+      // informational responses like 100-continue have no body
+    } while (_statusCode / 100 == 1);
+
+    return true;
+  }
+
+  private static boolean readLine(InputStream is, StringBuilder sb)
+    throws IOException
+  {
+    sb.setLength(0);
+
+    int ch = is.read();
+
+    if (ch < 0)
+      return false;
+
+    for (; ch >= 0 && ch != '\n'; ch = is.read()) {
+      if (ch != '\r')
+        sb.append((char) ch);
+    }
+
+    return true;
+  }
+
+  /**
+   * Returns the status code.
+   */
+  public int getStatusCode()
+  {
+    return _statusCode;
+  }
+
+  /**
+   * Returns the status string.
+   */
+  public String getStatusMessage()
+  {
+    return _statusMessage;
+  }
+
+  /**
+   * Returns the InputStream to the result
+   */
+  @Override
+  public InputStream getInputStream()
+    throws IOException
+  {
+    return _responseStream;
+  }
+
+  @Override
+  public String getContentEncoding()
+  {
+    return _contentEncoding;
+  }
+
+  /**
+   * Completes the response, returning the socket to the pool if the
+   * response was read to its end.
+   */
+  @Override
+  public void close()
+  {
+    HessianSocket socket = _socket;
+    _socket = null;
+
+    if (socket == null)
+      return;
+
+    ResponseStream rs = _responseStream;
+    boolean isKeepalive = _isKeepalive && rs != null && rs.drain();
+
+    socket.complete(this, isKeepalive);
+  }
+
+  /**
+   * Closes the socket.
+   */
+  @Override
+  public void destroy()
+  {
+    HessianSocket socket = _socket;
+    _socket = null;
+
+    if (socket != null)
+      socket.close();
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _url + "]";
+  }
+
+  static class RequestStream extends ByteArrayOutputStream {
+    RequestStream()
+    {
+      super(256);
+    }
+
+    byte []getBuffer()
+    {
+      return buf;
+    }
+  }
+
+  /**
+   * The response body, bounded by the content length or chunking so
+   * reads never consume the following pipelined response.
+   */
+  static class ResponseStream extends InputStream {
+    private final InputStream _is;
+    private final boolean _isChunked;
+
+    private long _length;
+    private boolean _isEOF;
+
+    ResponseStream(InputStream is, boolean isChunked, long contentLength)
+    {
+      _is = is;
+      _isChunked = isChunked;
+
+      if (isChunked)
+        _length = 0;
+      else
+        _length = contentLength;
+
+      _isEOF = ! isChunked && contentLength == 0;
+    }
+
+    public int read()
+      throws IOException
+    {
+      if (! fill())
+        return -1;
+
+      int ch = _is.read();
+
+      if (ch < 0) {
+        if (_length < 0) {
+          _isEOF = true;
+          return -1;
+        }
+
+        throw new EOFException("unexpected end of file in response");
+      }
+
+      if (_length > 0)
+        _length--;
+
+      return ch;
+    }
+
+    public int read(byte []buffer, int offset, int length)
+      throws IOException
+    {
+      if (! fill())
+        return -1;
+
+      if (_length > 0 && _length < length)
+        length = (int) _length;
+
+      int sublen = _is.read(buffer, offset, length);
+
+      if (sublen < 0) {
+        if (_length < 0) {
+          _isEOF = true;
+          return -1;
+        }
+
+        throw new EOFException("unexpected end of file in response");
+      }
+
+      if (_length > 0)
+        _length -= sublen;
+
+      return sublen;
+    }
+
+    /**
+     * Returns false at the end of the body.  A negative length reads
+     * until the socket closes.
+     */
+    private boolean fill()
+      throws IOException
+    {
+      if (_isEOF)
+        return false;
+
+      if (_length != 0)
+        return true;
+
+      if (! _isChunked) {
+        _isEOF = true;
+        return false;
+      }
+
+      StringBuilder sb = new StringBuilder();
+
+      // the CRLF ending the previous chunk
+      if (! readLine(_is, sb))
+        throw new EOFException("unexpected end of file in response");
+
+      if (sb.length() == 0 && ! readLine(_is, sb))
+        throw new EOFException("unexpected end of file in response");
+
+      int p = sb.indexOf(";");
+      String size = p >= 0 ? sb.substring(0, p) : sb.toString();
+
+      _length = Long.parseLong(size.trim(), 16);
+
+      if (_length == 0) {
+        // trailers
+        while (readLine(_is, sb) && sb.length() > 0) {
+        }
+
+        _isEOF = true;
+        return false;
+      }
+
+      return true;
+    }
+
+    /**
+     * Reads the rest of the body, returning true if the body was
+     * completely read.
+     */
+    boolean drain()
+    {
+      try {
+        byte []buffer = new byte[256];
+
+        while (read(buffer, 0, buffer.length) > 0) {
+        }
+
+        return _isEOF && _length == 0;
+      } catch (IOException e) {
+        log.log(Level.FINEST, e.toString(), e);
+
+        return false;
+      }
+    }
+
+    /**
+     * The connection, not the stream, completes the response.
+     */
+    public void close()
+    {
+    }
+  }
+}
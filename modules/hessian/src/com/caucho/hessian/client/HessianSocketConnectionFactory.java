@@ -0,0 +1,375 @@
+/*
+ * Copyright (c) 2001-2004 Caucho Technology, Inc.  All rights reserved.
+ *
+ * The Apache Software License, Version 1.1
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution, if
+ *    any, must include the following acknowlegement:
+ *       "This product includes software developed by the
+ *        Caucho Technology (http://www.caucho.com/)."
+ *    Alternately, this acknowlegement may appear in the software itself,
+ *    if and wherever such third-party acknowlegements normally appear.
+ *
+ * 4. The names "Burlap", "Resin", and "Caucho" must not be used to
+ *    endorse or promote products derived from this software without prior
+ *    written permission. For written permission, please contact
+ *    info@caucho.com.
+ *
+ * 5. Products derived from this software may not be called "Resin"
+ *    nor may "Resin" appear in their names without prior written
+ *    permission of Caucho Technology.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL CAUCHO TECHNOLOGY OR ITS CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.hessian.client;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Connection factory keeping a small pool of persistent HTTP/1.1 sockets
+ * for each server.  Concurrent calls are pipelined on the pooled sockets,
+ * so service-to-service calls avoid a connection setup per call.
+ *
+ * <pre>
+ * HessianProxyFactory factory = new HessianProxyFactory();
+ * factory.setConnectionFactory(new HessianSocketConnectionFactory());
+ * </pre>
+ *
+ * Calls to non-http URLs, e.g. https, use the java.net connection.
+ */
+public class HessianSocketConnectionFactory
+  extends AbstractHessianConnectionFactory
+{
+  private static final Logger log
+    = Logger.getLogger(HessianSocketConnectionFactory.class.getName());
+
+  private final HashMap<String,HostPool> _poolMap
+    = new HashMap<String,HostPool>();
+
+  private HessianURLConnectionFactory _urlFactory;
+
+  private int _maxConnections = 4;
+  private int _maxPipeline = 16;
+  private long _idleTimeout = 15000L;
+
+  /**
+   * Sets the maximum number of sockets to each server.
+   */
+  public void setMaxConnections(int max)
+  {
+    if (max < 1)
+      throw new IllegalArgumentException("max-connections must be positive");
+
+    _maxConnections = max;
+  }
+
+  /**
+   * Returns the maximum number of sockets to each server.
+   */
+  public int getMaxConnections()
+  {
+    return _maxConnections;
+  }
+
+  /**
+   * Sets the maximum number of calls pipelined on a single socket.
+   */
+  public void setMaxPipeline(int max)
+  {
+    if (max < 1)
+      throw new IllegalArgumentException("max-pipeline must be positive");
+
+    _maxPipeline = max;
+  }
+
+  /**
+   * Returns the maximum number of calls pipelined on a single socket.
+   */
+  public int getMaxPipeline()
+  {
+    return _maxPipeline;
+  }
+
+  /**
+   * Sets the time in milliseconds an idle socket stays in the pool.
+   * The timeout should be shorter than the server's keepalive timeout.
+   */
+  public void setIdleTimeout(long timeout)
+  {
+    _idleTimeout = timeout;
+  }
+
+  /**
+   * Returns the time in milliseconds an idle socket stays in the pool.
+   */
+  public long getIdleTimeout()
+  {
+    return _idleTimeout;
+  }
+
+  long getConnectTimeout()
+  {
+    HessianProxyFactory factory = getHessianProxyFactory();
+
+    return factory != null ? factory.getConnectTimeout() : -1;
+  }
+
+  long getReadTimeout()
+  {
+    HessianProxyFactory factory = getHessianProxyFactory();
+
+    return factory != null ? factory.getReadTimeout() : -1;
+  }
+
+  /**
+   * Opens a new connection, which will use a pooled socket to the server.
+   */
+  public HessianConnection open(URL url)
+    throws IOException
+  {
+    if (! "http".equals(url.getProtocol()))
+      return getURLConnectionFactory().open(url);
+
+    if (log.isLoggable(Level.FINER))
+      log.finer(this + " open(" + url + ")");
+
+    String host = url.getHost();
+    int port = url.getPort();
+
+    if (port < 0)
+      port = url.getDefaultPort();
+
+    return new HessianSocketConnection(this, getPool(host, port), url);
+  }
+
+  private HessianConnectionFactory getURLConnectionFactory()
+  {
+    synchronized (_poolMap) {
+      if (_urlFactory == null) {
+        _urlFactory = new HessianURLConnectionFactory();
+        _urlFactory.setHessianProxyFactory(getHessianProxyFactory());
+      }
+
+      return _urlFactory;
+    }
+  }
+
+  private HostPool getPool(String host, int port)
+  {
+    String key = host + ":" + port;
+
+    synchronized (_poolMap) {
+      HostPool pool = _poolMap.get(key);
+
+      if (pool == null) {
+        pool = new HostPool(host, port);
+        _poolMap.put(key, pool);
+      }
+
+      return pool;
+    }
+  }
+
+  /**
+   * Closes all pooled sockets.
+   */
+  public void close()
+  {
+    ArrayList<HostPool> pools;
+
+    synchronized (_poolMap) {
+      pools = new ArrayList<HostPool>(_poolMap.values());
+    }
+
+    for (HostPool pool : pools)
+      pool.close();
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[]";
+  }
+
+  /**
+   * The sockets to a single server.
+   */
+  class HostPool {
+    private final String _host;
+    private final int _port;
+
+    private final ArrayList<HessianSocket> _socketList
+      = new ArrayList<HessianSocket>();
+
+    private int _connectingCount;
+
+    HostPool(String host, int port)
+    {
+      _host = host;
+      _port = port;
+    }
+
+    String getHost()
+    {
+      return _host;
+    }
+
+    int getPort()
+    {
+      return _port;
+    }
+
+    /**
+     * Returns a socket for a new call, preferring an idle socket, then
+     * a new socket, then the least loaded pipeline.
+     */
+    HessianSocket allocate()
+      throws IOException
+    {
+      ArrayList<HessianSocket> expiredList = null;
+      HessianSocket socket = null;
+
+      synchronized (this) {
+        while (true) {
+          long now = System.currentTimeMillis();
+          int bestCount = Integer.MAX_VALUE;
+          socket = null;
+
+          for (int i = _socketList.size() - 1; i >= 0; i--) {
+            HessianSocket item = _socketList.get(i);
+
+            if (item.isClosed()) {
+              _socketList.remove(i);
+            }
+            else if (item.isIdleExpired(now, _idleTimeout)) {
+              _socketList.remove(i);
+
+              if (expiredList == null)
+                expiredList = new ArrayList<HessianSocket>();
+
+              expiredList.add(item);
+            }
+            else {
+              int count = item.getPendingCount();
+
+              if (count < bestCount) {
+                socket = item;
+                bestCount = count;
+              }
+            }
+          }
+
+          if (socket != null && bestCount == 0)
+            break;
+
+          if (_socketList.size() + _connectingCount < _maxConnections) {
+            socket = null;
+            _connectingCount++;
+            break;
+          }
+
+          if (socket != null && bestCount < _maxPipeline)
+            break;
+
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            throw new HessianConnectionException(e);
+          }
+        }
+      }
+
+      if (expiredList != null) {
+        for (HessianSocket expired : expiredList)
+          expired.close();
+      }
+
+      if (socket != null)
+        return socket;
+
+      try {
+        socket = new HessianSocket(this, _host, _port,
+                                   getConnectTimeout(),
+                                   getReadTimeout());
+
+        if (log.isLoggable(Level.FINE))
+          log.fine(socket + " connected");
+
+        return socket;
+      } finally {
+        synchronized (this) {
+          _connectingCount--;
+
+          if (socket != null)
+            _socketList.add(socket);
+
+          notifyAll();
+        }
+      }
+    }
+
+    /**
+     * Called when a socket completes a response.
+     */
+    void free(HessianSocket socket)
+    {
+      synchronized (this) {
+        notifyAll();
+      }
+    }
+
+    /**
+     * Called when a socket closes.
+     */
+    void remove(HessianSocket socket)
+    {
+      synchronized (this) {
+        _socketList.remove(socket);
+
+        notifyAll();
+      }
+    }
+
+    void close()
+    {
+      ArrayList<HessianSocket> socketList;
+
+      synchronized (this) {
+        socketList = new ArrayList<HessianSocket>(_socketList);
+      }
+
+      for (HessianSocket socket : socketList)
+        socket.close();
+    }
+  }
+}
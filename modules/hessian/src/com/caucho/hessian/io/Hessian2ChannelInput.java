@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2001-2008 Caucho Technology, Inc.  All rights reserved.
+ *
+ * The Apache Software License, Version 1.1
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution, if
+ *    any, must include the following acknowlegement:
+ *       "This product includes software developed by the
+ *        Caucho Technology (http://www.caucho.com/)."
+ *    Alternately, this acknowlegement may appear in the software itself,
+ *    if and wherever such third-party acknowlegements normally appear.
+ *
+ * 4. The names "Burlap", "Resin", and "Caucho" must not be used to
+ *    endorse or promote products derived from this software without prior
+ *    written permission. For written permission, please contact
+ *    info@caucho.com.
+ *
+ * 5. Products derived from this software may not be called "Resin"
+ *    nor may "Resin" appear in their names without prior written
+ *    permission of Caucho Technology.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL CAUCHO TECHNOLOGY OR ITS CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.hessian.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.IllegalBlockingModeException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+
+/**
+ * Hessian 2.0 input reading from a blocking NIO channel, e.g. a
+ * <code>SocketChannel</code> or <code>FileChannel</code>.
+ *
+ * <p>Large binary values read with <code>readBytes(ByteBuffer)</code>
+ * are read from the channel directly into the caller's heap or direct
+ * buffer instead of being copied through the input buffer.
+ *
+ * <pre>
+ * Hessian2ChannelInput in = new Hessian2ChannelInput(socketChannel);
+ * ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+ *
+ * while (in.readBytes(buffer) >= 0) {
+ *   buffer.flip();
+ *   fileChannel.write(buffer);
+ *   buffer.clear();
+ * }
+ * </pre>
+ */
+public class Hessian2ChannelInput extends Hessian2Input {
+  private ReadableByteChannel _channel;
+
+  /**
+   * Creates an uninitialized channel input.
+   */
+  public Hessian2ChannelInput()
+  {
+  }
+
+  /**
+   * Creates a new Hessian input reading from the channel.
+   *
+   * @param channel the underlying blocking channel.
+   */
+  public Hessian2ChannelInput(ReadableByteChannel channel)
+  {
+    init(channel);
+  }
+
+  /**
+   * Initializes the input with a new channel.
+   */
+  public void init(ReadableByteChannel channel)
+  {
+    if (channel instanceof SelectableChannel
+        && ! ((SelectableChannel) channel).isBlocking())
+      throw new IllegalBlockingModeException();
+
+    _channel = channel;
+
+    init(Channels.newInputStream(channel));
+  }
+
+  /**
+   * Returns the underlying channel.
+   */
+  public ReadableByteChannel getChannel()
+  {
+    return _channel;
+  }
+
+  /**
+   * Reads from the channel directly into the caller's buffer.
+   */
+  @Override
+  protected int readStream(ByteBuffer buffer, int length)
+    throws IOException
+  {
+    int limit = buffer.limit();
+
+    buffer.limit(buffer.position() + length);
+
+    try {
+      return _channel.read(buffer);
+    } finally {
+      buffer.limit(limit);
+    }
+  }
+
+  @Override
+  public void free()
+  {
+    super.free();
+
+    _channel = null;
+  }
+}
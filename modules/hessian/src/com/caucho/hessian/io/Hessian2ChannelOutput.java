@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2001-2008 Caucho Technology, Inc.  All rights reserved.
+ *
+ * The Apache Software License, Version 1.1
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution, if
+ *    any, must include the following acknowlegement:
+ *       "This product includes software developed by the
+ *        Caucho Technology (http://www.caucho.com/)."
+ *    Alternately, this acknowlegement may appear in the software itself,
+ *    if and wherever such third-party acknowlegements normally appear.
+ *
+ * 4. The names "Burlap", "Resin", and "Caucho" must not be used to
+ *    endorse or promote products derived from this software without prior
+ *    written permission. For written permission, please contact
+ *    info@caucho.com.
+ *
+ * 5. Products derived from this software may not be called "Resin"
+ *    nor may "Resin" appear in their names without prior written
+ *    permission of Caucho Technology.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL CAUCHO TECHNOLOGY OR ITS CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.hessian.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.IllegalBlockingModeException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Hessian 2.0 output writing to a blocking NIO channel, e.g. a
+ * <code>SocketChannel</code> or <code>FileChannel</code>.
+ *
+ * <p>Large binary values, from <code>byte[]</code> or heap and direct
+ * <code>ByteBuffer</code>s, are written in place with a gathering write
+ * of the chunk header and the caller's data instead of being copied
+ * through the output buffer.  The encoded bytes are identical to
+ * <code>Hessian2Output</code>.
+ *
+ * <pre>
+ * Hessian2ChannelOutput out = new Hessian2ChannelOutput(socketChannel);
+ *
+ * out.writeBytes(document);
+ * out.flush();
+ * </pre>
+ */
+public class Hessian2ChannelOutput extends Hessian2Output {
+  private WritableByteChannel _channel;
+
+  private final ByteBuffer []_gatherBuffers = new ByteBuffer[2];
+
+  /**
+   * Creates an uninitialized channel output.
+   */
+  public Hessian2ChannelOutput()
+  {
+  }
+
+  /**
+   * Creates a new Hessian output writing to the channel.
+   *
+   * @param channel the underlying blocking channel.
+   */
+  public Hessian2ChannelOutput(WritableByteChannel channel)
+  {
+    init(channel);
+  }
+
+  /**
+   * Initializes the output with a new channel.
+   */
+  public void init(WritableByteChannel channel)
+  {
+    if (channel instanceof SelectableChannel
+        && ! ((SelectableChannel) channel).isBlocking())
+      throw new IllegalBlockingModeException();
+
+    _channel = channel;
+
+    init(Channels.newOutputStream(channel));
+  }
+
+  /**
+   * Returns the underlying channel.
+   */
+  public WritableByteChannel getChannel()
+  {
+    return _channel;
+  }
+
+  /**
+   * Writes the buffered output and the chunk data with a single
+   * gathering write when the channel supports it.
+   */
+  @Override
+  protected void writeBuffer(byte []buffer, int length,
+                             ByteBuffer data, int dataLength)
+    throws IOException
+  {
+    WritableByteChannel channel = _channel;
+
+    if (channel == null) {
+      data.position(data.position() + dataLength);
+      return;
+    }
+
+    ByteBuffer head = ByteBuffer.wrap(buffer, 0, length);
+
+    int limit = data.limit();
+    data.limit(data.position() + dataLength);
+
+    try {
+      if (channel instanceof GatheringByteChannel) {
+        GatheringByteChannel gatherChannel = (GatheringByteChannel) channel;
+        ByteBuffer []buffers = _gatherBuffers;
+
+        buffers[0] = head;
+        buffers[1] = data;
+
+        while (head.hasRemaining() || data.hasRemaining())
+          gatherChannel.write(buffers);
+      }
+      else {
+        while (head.hasRemaining())
+          channel.write(head);
+
+        while (data.hasRemaining())
+          channel.write(data);
+      }
+    } finally {
+      _gatherBuffers[0] = null;
+      _gatherBuffers[1] = null;
+
+      data.limit(limit);
+    }
+  }
+
+  @Override
+  public void free()
+  {
+    super.free();
+
+    _channel = null;
+  }
+}
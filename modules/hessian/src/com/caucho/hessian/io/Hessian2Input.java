@@ -50,7 +50,9 @@ package com.caucho.hessian.io;
 
 import java.io.*;
 import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.logging.*;
@@ -1417,16 +1419,37 @@ public class Hessian2Input
 
     case BC_BINARY:
     case BC_BINARY_CHUNK:
-      _isLastChunk = tag == BC_BINARY;
-      _chunkLength = (read() << 8) + read();
+      {
+        _isLastChunk = tag == BC_BINARY;
+        _chunkLength = (read() << 8) + read();
+
+        byte []buffer = new byte[_chunkLength];
+        int offset = 0;
+
+        while (true) {
+          if (offset == buffer.length) {
+            if (_isLastChunk && _chunkLength <= 0)
+              break;
+
+            int capacity = Math.max(2 * buffer.length,
+                                    offset + _chunkLength);
+
+            buffer = Arrays.copyOf(buffer, Math.max(capacity, 256));
+          }
+
+          int sublen = read(buffer, offset, buffer.length - offset);
+
+          if (sublen <= 0)
+            break;
 
-      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+          offset += sublen;
+        }
 
-      int data;
-      while ((data = parseByte()) >= 0)
-        bos.write(data);
+        if (offset < buffer.length)
+          buffer = Arrays.copyOf(buffer, offset);
 
-      return bos.toByteArray();
+        return buffer;
+      }
 
     case 0x20: case 0x21: case 0x22: case 0x23:
     case 0x24: case 0x25: case 0x26: case 0x27:
@@ -1439,8 +1462,8 @@ public class Hessian2Input
         byte []buffer = new byte[_chunkLength];
 
         int offset = 0;
-        while (offset < _chunkLength) {
-          int sublen = read(buffer, 0, _chunkLength - offset);
+        while (offset < buffer.length) {
+          int sublen = read(buffer, offset, buffer.length - offset);
 
           if (sublen <= 0)
             break;
@@ -1459,8 +1482,8 @@ public class Hessian2Input
         byte []buffer = new byte[_chunkLength];
 
         int offset = 0;
-        while (offset < _chunkLength) {
-          int sublen = read(buffer, 0, _chunkLength - offset);
+        while (offset < buffer.length) {
+          int sublen = read(buffer, offset, buffer.length - offset);
 
           if (sublen <= 0)
             break;
@@ -1560,78 +1583,156 @@ public class Hessian2Input
   public int readBytes(byte []buffer, int offset, int length)
     throws IOException
   {
+    if (! startBytes())
+      return -1;
+
+    int readLength = 0;
+
+    while (length > 0) {
+      if (_chunkLength > 0) {
+        int sublen = _chunkLength;
+
+        if (length < sublen)
+          sublen = length;
+
+        sublen = readRaw(buffer, offset, sublen);
+
+        if (sublen < 0)
+          throw error("unexpected end of file in binary");
+
+        _chunkLength -= sublen;
+        offset += sublen;
+        length -= sublen;
+        readLength += sublen;
+      }
+      else if (! nextBytesChunk())
+        break;
+    }
+
+    return endBytes(readLength);
+  }
+
+  /**
+   * Reads binary data into a heap or direct buffer, up to the buffer's
+   * remaining space.  Large reads go directly from the underlying
+   * stream into the buffer.
+   *
+   * @return the number of bytes read, or -1 at the end of the binary.
+   */
+  public int readBytes(ByteBuffer buffer)
+    throws IOException
+  {
+    if (! startBytes())
+      return -1;
+
     int readLength = 0;
+    int length = buffer.remaining();
+
+    while (length > 0) {
+      if (_chunkLength > 0) {
+        int sublen = _chunkLength;
+
+        if (length < sublen)
+          sublen = length;
+
+        sublen = readRaw(buffer, sublen);
+
+        if (sublen < 0)
+          throw error("unexpected end of file in binary");
+
+        _chunkLength -= sublen;
+        length -= sublen;
+        readLength += sublen;
+      }
+      else if (! nextBytesChunk())
+        break;
+    }
+
+    return endBytes(readLength);
+  }
 
+  /**
+   * Starts a binary read, returning false at the end of the binary.
+   */
+  private boolean startBytes()
+    throws IOException
+  {
     if (_chunkLength == END_OF_DATA) {
       _chunkLength = 0;
-      return -1;
+      return false;
     }
-    else if (_chunkLength == 0) {
-      int tag = read();
+    else if (_chunkLength != 0)
+      return true;
 
-      switch (tag) {
-      case 'N':
-        return -1;
-      
-      case 'B':
-      case BC_BINARY_CHUNK:
-        _isLastChunk = tag == 'B';
-        _chunkLength = (read() << 8) + read();
-        break;
+    int tag = read();
+
+    switch (tag) {
+    case 'N':
+      return false;
+
+    case 'B':
+    case BC_BINARY_CHUNK:
+      _isLastChunk = tag == 'B';
+      _chunkLength = (read() << 8) + read();
+      return true;
 
     case 0x20: case 0x21: case 0x22: case 0x23:
     case 0x24: case 0x25: case 0x26: case 0x27:
     case 0x28: case 0x29: case 0x2a: case 0x2b:
     case 0x2c: case 0x2d: case 0x2e: case 0x2f:
-      {
-        _isLastChunk = true;
-        _chunkLength = tag - 0x20;
-        break;
-      }
-      
+      _isLastChunk = true;
+      _chunkLength = tag - 0x20;
+      return true;
+
     case 0x34: case 0x35: case 0x36: case 0x37:
-      {
-        _isLastChunk = true;
-        _chunkLength = (tag - 0x34) * 256 + read();
-        break;
-      }
-      
-      default:
-        throw expect("binary", tag);
-      }
+      _isLastChunk = true;
+      _chunkLength = (tag - 0x34) * 256 + read();
+      return true;
+
+    default:
+      throw expect("binary", tag);
     }
+  }
 
-    while (length > 0) {
-      if (_chunkLength > 0) {
-        buffer[offset++] = (byte) read();
-        _chunkLength--;
-        length--;
-        readLength++;
-      }
-      else if (_isLastChunk) {
-        if (readLength == 0)
-          return -1;
-        else {
-          _chunkLength = END_OF_DATA;
-          return readLength;
-        }
-      }
-      else {
-        int tag = read();
+  /**
+   * Reads the next chunk header, returning false after the last chunk.
+   * The final chunk may use the compact binary encodings.
+   */
+  private boolean nextBytesChunk()
+    throws IOException
+  {
+    if (_isLastChunk)
+      return false;
 
-        switch (tag) {
-        case 'B':
-        case BC_BINARY_CHUNK:
-          _isLastChunk = tag == 'B';
-          _chunkLength = (read() << 8) + read();
-          break;
-      
-        default:
-          throw expect("binary", tag);
-        }
-      }
+    int tag = read();
+
+    switch (tag) {
+    case 'B':
+    case BC_BINARY_CHUNK:
+      _isLastChunk = tag == 'B';
+      _chunkLength = (read() << 8) + read();
+      return true;
+
+    case 0x20: case 0x21: case 0x22: case 0x23:
+    case 0x24: case 0x25: case 0x26: case 0x27:
+    case 0x28: case 0x29: case 0x2a: case 0x2b:
+    case 0x2c: case 0x2d: case 0x2e: case 0x2f:
+      _isLastChunk = true;
+      _chunkLength = tag - 0x20;
+      return true;
+
+    case 0x34: case 0x35: case 0x36: case 0x37:
+      _isLastChunk = true;
+      _chunkLength = (tag - 0x34) * 256 + read();
+      return true;
+
+    default:
+      throw expect("binary", tag);
     }
-    
+  }
+
+  private int endBytes(int readLength)
+  {
     if (readLength == 0)
       return -1;
     else if (_chunkLength > 0 || ! _isLastChunk)
@@ -2787,15 +2888,10 @@ public class Hessian2Input
       if (length < sublen)
         sublen = length;
 
-      if (_length <= _offset && ! readBuffer())
-        return -1;
-      
-      if (_length - _offset < sublen)
-        sublen = _length - _offset;
+      sublen = readRaw(buffer, offset, sublen);
 
-      System.arraycopy(_buffer, _offset, buffer, offset, sublen);
-
-      _offset += sublen;
+      if (sublen < 0)
+        return -1;
       
       offset += sublen;
       readLength += sublen;
@@ -2819,6 +2915,105 @@ public class Hessian2Input
     return _buffer[_offset++] & 0xff;
   }
 
+  /**
+   * Reads up to <code>length</code> bytes of raw data, using buffered
+   * data first.  Large reads bypass the buffer.
+   */
+  private int readRaw(byte []buffer, int offset, int length)
+    throws IOException
+  {
+    if (_length <= _offset) {
+      if (SIZE <= length) {
+        int len = readStream(buffer, offset, length);
+
+        return len > 0 ? len : -1;
+      }
+
+      if (! readBuffer())
+        return -1;
+    }
+
+    int sublen = _length - _offset;
+
+    if (length < sublen)
+      sublen = length;
+
+    System.arraycopy(_buffer, _offset, buffer, offset, sublen);
+
+    _offset += sublen;
+
+    return sublen;
+  }
+
+  /**
+   * Reads up to <code>length</code> bytes of raw data into the buffer,
+   * using buffered data first.  Large reads bypass the buffer.
+   */
+  private int readRaw(ByteBuffer buffer, int length)
+    throws IOException
+  {
+    if (_length <= _offset) {
+      if (SIZE <= length) {
+        int len = readStream(buffer, length);
+
+        return len > 0 ? len : -1;
+      }
+
+      if (! readBuffer())
+        return -1;
+    }
+
+    int sublen = _length - _offset;
+
+    if (length < sublen)
+      sublen = length;
+
+    buffer.put(_buffer, _offset, sublen);
+
+    _offset += sublen;
+
+    return sublen;
+  }
+
+  /**
+   * Reads from the underlying stream.
+   */
+  protected int readStream(byte []buffer, int offset, int length)
+    throws IOException
+  {
+    return _is.read(buffer, offset, length);
+  }
+
+  /**
+   * Reads up to <code>length</code> bytes from the underlying stream
+   * into a heap or direct buffer, bypassing the input buffer.  Channel
+   * inputs override this to read into the buffer in place.
+   */
+  protected int readStream(ByteBuffer buffer, int length)
+    throws IOException
+  {
+    if (buffer.hasArray()) {
+      int offset = buffer.arrayOffset() + buffer.position();
+      int len = readStream(buffer.array(), offset, length);
+
+      if (len > 0)
+        buffer.position(buffer.position() + len);
+
+      return len;
+    }
+
+    // the input buffer is empty, so it can hold the direct data
+    if (SIZE < length)
+      length = SIZE;
+
+    int len = readStream(_buffer, 0, length);
+
+    if (len > 0)
+      buffer.put(_buffer, 0, len);
+
+    return len;
+  }
+
   protected void unread()
   {
     if (_offset <= 0)
@@ -2841,7 +3036,7 @@ public class Hessian2Input
     else
       offset = 0;
     
-    int len = _is.read(buffer, offset, SIZE - offset);
+    int len = readStream(buffer, offset, SIZE - offset);
 
     if (len <= 0) {
       _length = offset;
@@ -2946,6 +3141,14 @@ public class Hessian2Input
   public void free()
   {
     reset();
+
+    _is = null;
+    _offset = 0;
+    _length = 0;
+    _method = null;
+    _replyFault = null;
+    _isLastChunk = false;
+    _chunkLength = 0;
   }
 
   @Override
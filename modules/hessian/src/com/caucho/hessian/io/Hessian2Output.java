@@ -53,6 +53,7 @@ import com.caucho.hessian.util.IdentityIntMap;
 import java.io.InputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 
 /**
@@ -1175,13 +1176,10 @@ public class Hessian2Output
         _buffer[_offset++] = (byte) (sublen >> 8);
         _buffer[_offset++] = (byte) sublen;
 
-        System.arraycopy(buffer, offset, _buffer, _offset, sublen);
-        _offset += sublen;
+        flushBuffer(ByteBuffer.wrap(buffer, offset, sublen), sublen);
 
         length -= sublen;
         offset += sublen;
-
-        flushBuffer();
       }
 
       if (SIZE < _offset + 16)
@@ -1206,6 +1204,74 @@ public class Hessian2Output
     }
   }
 
+  /**
+   * Writes the remaining bytes of a heap or direct buffer as a binary
+   * value, with the same encoding as <code>writeBytes(byte [])</code>.
+   * The buffer's position is advanced to its limit.
+   *
+   * If the value is null, it will be written as
+   *
+   * <code><pre>
+   * N
+   * </pre></code>
+   *
+   * @param data the bytes to write.
+   */
+  public void writeBytes(ByteBuffer data)
+    throws IOException
+  {
+    if (data == null) {
+      if (SIZE < _offset + 16)
+        flushBuffer();
+
+      _buffer[_offset++] = (byte) 'N';
+      return;
+    }
+
+    int length = data.remaining();
+
+    while (SIZE - _offset - 3 < length) {
+      int sublen = SIZE - _offset - 3;
+
+      if (sublen < 16) {
+        flushBuffer();
+
+        sublen = SIZE - _offset - 3;
+
+        if (length < sublen)
+          sublen = length;
+      }
+
+      _buffer[_offset++] = (byte) BC_BINARY_CHUNK;
+      _buffer[_offset++] = (byte) (sublen >> 8);
+      _buffer[_offset++] = (byte) sublen;
+
+      flushBuffer(data, sublen);
+
+      length -= sublen;
+    }
+
+    if (SIZE < _offset + 16)
+      flushBuffer();
+
+    if (length <= BINARY_DIRECT_MAX) {
+      _buffer[_offset++] = (byte) (BC_BINARY_DIRECT + length);
+    }
+    else if (length <= BINARY_SHORT_MAX) {
+      _buffer[_offset++] = (byte) (BC_BINARY_SHORT + (length >> 8));
+      _buffer[_offset++] = (byte) (length);
+    }
+    else {
+      _buffer[_offset++] = (byte) 'B';
+      _buffer[_offset++] = (byte) (length >> 8);
+      _buffer[_offset++] = (byte) (length);
+    }
+
+    data.get(_buffer, _offset, length);
+
+    _offset += length;
+  }
+
   /**
    * Writes a byte buffer to the stream.
    *
@@ -1646,6 +1712,49 @@ public class Hessian2Output
     }
   }
 
+  /**
+   * Flushes the buffer followed by a binary chunk which exactly fills
+   * the rest of the buffer.
+   */
+  private void flushBuffer(ByteBuffer data, int length)
+    throws IOException
+  {
+    if (_isPacket) {
+      data.get(_buffer, _offset, length);
+      _offset += length;
+
+      flushBuffer();
+    }
+    else {
+      int offset = _offset;
+      _offset = 0;
+
+      writeBuffer(_buffer, offset, data, length);
+    }
+  }
+
+  /**
+   * Writes the buffered output followed by <code>dataLength</code> bytes
+   * of <code>data</code>, whose chunk header is already at the end of the
+   * buffer.  The buffer has room for the data, so the default copies it
+   * and writes the full buffer.  Channel outputs override this to write
+   * the data in place with a gathering write.
+   *
+   * @param buffer the output buffer
+   * @param length the number of buffered bytes
+   * @param data the chunk data, advanced by <code>dataLength</code>
+   * @param dataLength the number of bytes in the chunk
+   */
+  protected void writeBuffer(byte []buffer, int length,
+                             ByteBuffer data, int dataLength)
+    throws IOException
+  {
+    data.get(buffer, length, dataLength);
+
+    if (_os != null)
+      _os.write(buffer, 0, length + dataLength);
+  }
+
   @Override
   public void close()
     throws IOException
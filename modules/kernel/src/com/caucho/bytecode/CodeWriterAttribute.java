@@ -183,6 +183,25 @@ public class CodeWriterAttribute extends CodeAttribute {
     write(value);
   }
 
+  public void pushLong(long value)
+  {
+    _stack += 2;
+
+    int index = getConstantPool().addLong(value).getIndex();
+
+    write(CodeVisitor.LDC2_W);
+    write(index >> 8);
+    write(index);
+  }
+
+  /**
+   * Adds an instruction without operands, e.g. a primitive conversion.
+   */
+  public void addCode(int opcode)
+  {
+    write(opcode);
+  }
+
   public void invoke(String className,
                      String methodName,
                      String signature,
@@ -0,0 +1,332 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.env.meter;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Log-bucketed latency histogram, reporting percentiles per sample.
+ *
+ * <p>Samples are recorded in microseconds into 32 linear sub-buckets per
+ * power of two, so a percentile is within about 3% of the exact value.
+ * Threads record into striped counter arrays, so the hot path is a
+ * single atomic increment with no locks.  Values are reported in
+ * milliseconds.
+ */
+public final class HistogramMeter extends AbstractMeter
+  implements HistogramSensor
+{
+  private static final int SUB_BITS = 5;
+  private static final int SUB_COUNT = 1 << SUB_BITS;
+
+  // largest tracked power of two, about 25 days in microseconds
+  private static final int MAX_SHIFT = 36;
+  private static final long MAX_VALUE = (1L << (MAX_SHIFT + SUB_BITS)) - 1;
+
+  static final int BUCKET_COUNT = SUB_COUNT + MAX_SHIFT * SUB_COUNT;
+
+  private static final int MAX_STRIPES = 8;
+
+  private final double _scale;
+
+  private final AtomicLongArray []_stripes;
+  private final int _stripeMask;
+
+  private final AtomicLong _max = new AtomicLong();
+
+  private final HistogramMeterAdmin _admin;
+
+  private final long []_lastCounts = new long[BUCKET_COUNT];
+  private double _value;
+
+  public HistogramMeter(String name)
+  {
+    super(name);
+
+    _scale = 0.001;
+
+    int stripeCount = 1;
+
+    while (stripeCount < Runtime.getRuntime().availableProcessors()
+           && stripeCount < MAX_STRIPES) {
+      stripeCount *= 2;
+    }
+
+    _stripes = new AtomicLongArray[stripeCount];
+    _stripeMask = stripeCount - 1;
+
+    for (int i = 0; i < stripeCount; i++) {
+      _stripes[i] = new AtomicLongArray(BUCKET_COUNT);
+    }
+
+    _admin = new HistogramMeterAdmin(this);
+  }
+
+  @Override
+  public final long start()
+  {
+    return System.nanoTime();
+  }
+
+  @Override
+  public final long end(long startTime)
+  {
+    long value = (System.nanoTime() - startTime) / 1000L;
+
+    add(value);
+
+    return value;
+  }
+
+  @Override
+  public final void add(long value)
+  {
+    if (value < 0)
+      value = 0;
+    else if (MAX_VALUE < value)
+      value = MAX_VALUE;
+
+    int stripe = (int) Thread.currentThread().getId() & _stripeMask;
+
+    _stripes[stripe].incrementAndGet(getIndex(value));
+
+    long max;
+    while ((max = _max.get()) < value
+           && ! _max.compareAndSet(max, value)) {
+    }
+  }
+
+  public AbstractMeter createPercentile(String name, double percentile)
+  {
+    return new PercentileProbe(name, percentile);
+  }
+
+  public AbstractMeter createCount(String name)
+  {
+    return new CountProbe(name);
+  }
+
+  HistogramMeterAdmin getAdmin()
+  {
+    return _admin;
+  }
+
+  /**
+   * Samples the median for the period.
+   */
+  @Override
+  public final void sample()
+  {
+    _value = samplePercentile(_lastCounts, 0.5);
+  }
+
+  @Override
+  public final double calculate()
+  {
+    return _value;
+  }
+
+  /**
+   * Returns the total number of samples since start.
+   */
+  public long getCountTotal()
+  {
+    long []counts = getCounts();
+
+    long total = 0;
+
+    for (long count : counts) {
+      total += count;
+    }
+
+    return total;
+  }
+
+  /**
+   * Returns the largest sample since start in milliseconds.
+   */
+  public double getMax()
+  {
+    return _scale * _max.get();
+  }
+
+  /**
+   * Returns a percentile of all samples since start in milliseconds.
+   */
+  public double getPercentile(double percentile)
+  {
+    long []counts = getCounts();
+
+    long total = 0;
+
+    for (long count : counts) {
+      total += count;
+    }
+
+    return _scale * Math.min(getPercentile(counts, total, percentile),
+                             _max.get());
+  }
+
+  /**
+   * Returns a percentile of the samples since the last call with the
+   * same last array, updating the array.
+   */
+  final double samplePercentile(long []lastCounts, double percentile)
+  {
+    long []counts = getCounts();
+
+    long total = 0;
+
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      long count = counts[i];
+
+      counts[i] = count - lastCounts[i];
+      lastCounts[i] = count;
+
+      total += counts[i];
+    }
+
+    return _scale * getPercentile(counts, total, percentile);
+  }
+
+  /**
+   * Sums the stripes.
+   */
+  private long []getCounts()
+  {
+    long []counts = new long[BUCKET_COUNT];
+
+    for (AtomicLongArray stripe : _stripes) {
+      for (int i = 0; i < BUCKET_COUNT; i++) {
+        counts[i] += stripe.get(i);
+      }
+    }
+
+    return counts;
+  }
+
+  private static long getPercentile(long []counts,
+                                    long total,
+                                    double percentile)
+  {
+    if (total <= 0)
+      return 0;
+
+    long rank = Math.max(1, (long) Math.ceil(percentile * total));
+
+    long sum = 0;
+
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      sum += counts[i];
+
+      if (rank <= sum)
+        return getUpperBound(i);
+    }
+
+    return MAX_VALUE;
+  }
+
+  static int getIndex(long value)
+  {
+    if (value < SUB_COUNT)
+      return (int) value;
+
+    int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+    int sub = (int) (value >>> shift) - SUB_COUNT;
+
+    return SUB_COUNT + shift * SUB_COUNT + sub;
+  }
+
+  /**
+   * Returns the largest value that maps to the bucket.
+   */
+  static long getUpperBound(int index)
+  {
+    if (index < SUB_COUNT)
+      return index;
+
+    int shift = (index - SUB_COUNT) >> SUB_BITS;
+    int sub = (index - SUB_COUNT) & (SUB_COUNT - 1);
+
+    return ((long) (SUB_COUNT + sub + 1) << shift) - 1;
+  }
+
+  class PercentileProbe extends AbstractMeter {
+    private final double _percentile;
+    private final long []_lastCounts = new long[BUCKET_COUNT];
+
+    private double _value;
+
+    PercentileProbe(String name, double percentile)
+    {
+      super(name);
+
+      _percentile = percentile;
+    }
+
+    @Override
+    public void sample()
+    {
+      _value = samplePercentile(_lastCounts, _percentile);
+    }
+
+    @Override
+    public double calculate()
+    {
+      return _value;
+    }
+  }
+
+  class CountProbe extends AbstractMeter {
+    private long _lastCount;
+    private double _value;
+
+    CountProbe(String name)
+    {
+      super(name);
+    }
+
+    @Override
+    public void sample()
+    {
+      long count = getCountTotal();
+
+      _value = count - _lastCount;
+      _lastCount = count;
+    }
+
+    @Override
+    public double calculate()
+    {
+      return _value;
+    }
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.env.meter;
+
+import com.caucho.management.server.AbstractManagedObject;
+import com.caucho.management.server.HistogramMeterMXBean;
+
+/**
+ * JMX view of a histogram meter.
+ */
+class HistogramMeterAdmin extends AbstractManagedObject
+  implements HistogramMeterMXBean
+{
+  private final HistogramMeter _meter;
+
+  HistogramMeterAdmin(HistogramMeter meter)
+  {
+    // meters are shared by all environments
+    super(ClassLoader.getSystemClassLoader());
+
+    _meter = meter;
+  }
+
+  @Override
+  public String getName()
+  {
+    return _meter.getName();
+  }
+
+  @Override
+  public long getCountTotal()
+  {
+    return _meter.getCountTotal();
+  }
+
+  @Override
+  public double getMax()
+  {
+    return _meter.getMax();
+  }
+
+  @Override
+  public double getPercentile50()
+  {
+    return _meter.getPercentile(0.5);
+  }
+
+  @Override
+  public double getPercentile90()
+  {
+    return _meter.getPercentile(0.9);
+  }
+
+  @Override
+  public double getPercentile99()
+  {
+    return _meter.getPercentile(0.99);
+  }
+
+  @Override
+  public double getPercentile999()
+  {
+    return _meter.getPercentile(0.999);
+  }
+
+  void register()
+  {
+    registerSelf();
+  }
+}
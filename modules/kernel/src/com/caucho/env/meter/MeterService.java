@@ -331,6 +331,45 @@ public class MeterService extends AbstractResinSubSystem {
     return (ActiveTimeMeter) meter;
   }
 
+  /**
+   * A HistogramMeter records a latency distribution, e.g. request time,
+   * and generates 90%, 99%, 99.9%, Max and Count meters.  The meter is
+   * also registered with JMX.
+   */
+  public static HistogramMeter createHistogramMeter(String name,
+                                                    String type)
+  {
+    return create().createHistogramMeterImpl(name, type);
+  }
+
+  private HistogramMeter createHistogramMeterImpl(String baseName,
+                                                  String type)
+  {
+    String name = baseName + " " + type;
+
+    AbstractMeter meter = _meterMap.get(name);
+
+    if (meter == null) {
+      HistogramMeter newMeter = new HistogramMeter(name);
+
+      meter = createMeter(newMeter);
+
+      if (meter == newMeter) {
+        createMeter(newMeter.createPercentile(name + " 90%", 0.9));
+        createMeter(newMeter.createPercentile(name + " 99%", 0.99));
+        createMeter(newMeter.createPercentile(name + " 99.9%", 0.999));
+        createMeter(newMeter.createPercentile(name + " Max", 1.0));
+
+        String countName = baseName + " Count";
+        createMeter(newMeter.createCount(countName));
+
+        newMeter.getAdmin().register();
+      }
+    }
+
+    return (HistogramMeter) meter;
+  }
+
   /**
    * An ActiveMeter counts the number of an active resource, e.g. the
    * number of active connections.
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.hessian.bytecode;
+
+import com.caucho.hessian.io.Deserializer;
+import com.caucho.hessian.io.Serializer;
+import com.caucho.hessian.io.SerializerFactory;
+import com.caucho.hessian.io.UnsafeDeserializer;
+import com.caucho.hessian.io.UnsafeSerializer;
+
+/**
+ * Serializer factory replacing the Unsafe field serializers with
+ * generated classes writing each field in straight-line code.  The wire
+ * format is identical, so either side can use the plain
+ * SerializerFactory.
+ *
+ * <code><pre>
+ * HessianOutput out = new Hessian2Output(os);
+ * out.setSerializerFactory(new BytecodeSerializerFactory());
+ * </pre></code>
+ */
+public class BytecodeSerializerFactory extends SerializerFactory
+{
+  public BytecodeSerializerFactory()
+  {
+  }
+
+  public BytecodeSerializerFactory(ClassLoader loader)
+  {
+    super(loader);
+  }
+
+  @Override
+  protected Serializer getDefaultSerializer(Class cl)
+  {
+    Serializer serializer = super.getDefaultSerializer(cl);
+
+    // only plain field serialization, not unshared or writeReplace
+    if (serializer.getClass() == UnsafeSerializer.class) {
+      Serializer generated = SerializerGenerator.createSerializer(cl);
+
+      if (generated != null)
+        return generated;
+    }
+
+    return serializer;
+  }
+
+  @Override
+  protected Deserializer getDefaultDeserializer(Class cl)
+  {
+    Deserializer deserializer = super.getDefaultDeserializer(cl);
+
+    if (deserializer.getClass() == UnsafeDeserializer.class) {
+      Deserializer generated = SerializerGenerator.createDeserializer(cl);
+
+      if (generated != null)
+        return generated;
+    }
+
+    return deserializer;
+  }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.hessian.bytecode;
+
+import com.caucho.hessian.io.AbstractHessianInput;
+import com.caucho.hessian.io.HessianFieldException;
+import com.caucho.hessian.io.UnsafeDeserializer;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+
+import sun.misc.Unsafe;
+
+/**
+ * Base class for generated deserializers.  When the stream's class
+ * definition lists the fields in the local serialization order, the
+ * generated readFields reads them in straight-line code.  Any other
+ * field list uses the UnsafeDeserializer field lookup.
+ */
+public abstract class GeneratedDeserializer extends UnsafeDeserializer
+{
+  protected static final Unsafe _unsafe = SerializerGenerator.getUnsafe();
+
+  // types for readObject(Class), indexed like the generated fields
+  protected final Class<?> []_fieldTypes;
+
+  private final Object []_localFields;
+  private volatile Object []_matchedFields;
+
+  protected GeneratedDeserializer(Class<?> cl)
+  {
+    super(cl);
+
+    Field []fields = SerializerGenerator.getDeserializedFields(cl);
+
+    _fieldTypes = new Class<?>[fields.length];
+    _localFields = new Object[fields.length];
+
+    for (int i = 0; i < fields.length; i++) {
+      _fieldTypes[i] = fields[i].getType();
+      _localFields[i] = createField(fields[i].getName());
+    }
+  }
+
+  @Override
+  public Object readObject(AbstractHessianInput in, Object []fields)
+    throws IOException
+  {
+    // the field array is cached per class definition in the stream
+    if (fields != _matchedFields) {
+      if (! isLocalOrder(fields))
+        return super.readObject(in, fields);
+
+      _matchedFields = fields;
+    }
+
+    try {
+      Object obj = instantiate();
+
+      int ref = in.addRef(obj);
+
+      readFields(in, obj);
+
+      Object resolve = resolve(in, obj);
+
+      if (obj != resolve)
+        in.setRef(ref, resolve);
+
+      return resolve;
+    } catch (HessianFieldException e) {
+      throw e;
+    } catch (IOException e) {
+      throw new HessianFieldException(getType().getName() + ": "
+                                      + e.getMessage(), e);
+    } catch (Exception e) {
+      throw new HessianFieldException(getType().getName() + ": " + e, e);
+    }
+  }
+
+  private boolean isLocalOrder(Object []fields)
+  {
+    if (fields.length != _localFields.length)
+      return false;
+
+    for (int i = 0; i < fields.length; i++) {
+      if (fields[i] != _localFields[i])
+        return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * Reads the field values in local order, generated for each class.
+   */
+  protected abstract void readFields(AbstractHessianInput in, Object obj)
+    throws IOException;
+
+  protected static char toChar(String value)
+  {
+    if (value != null && value.length() > 0)
+      return value.charAt(0);
+    else
+      return 0;
+  }
+
+  protected static Object readSqlDate(AbstractHessianInput in)
+    throws IOException
+  {
+    java.util.Date date = (java.util.Date) in.readObject();
+
+    return date != null ? new java.sql.Date(date.getTime()) : null;
+  }
+
+  protected static Object readSqlTimestamp(AbstractHessianInput in)
+    throws IOException
+  {
+    java.util.Date date = (java.util.Date) in.readObject();
+
+    return date != null ? new java.sql.Timestamp(date.getTime()) : null;
+  }
+
+  protected static Object readSqlTime(AbstractHessianInput in)
+    throws IOException
+  {
+    java.util.Date date = (java.util.Date) in.readObject();
+
+    return date != null ? new java.sql.Time(date.getTime()) : null;
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.hessian.bytecode;
+
+import com.caucho.hessian.io.AbstractHessianOutput;
+import com.caucho.hessian.io.IOExceptionWrapper;
+import com.caucho.hessian.io.UnsafeSerializer;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+
+import sun.misc.Unsafe;
+
+/**
+ * Base class for generated serializers.  The generated writeFields
+ * writes the fields in the same order and with the same encoding as
+ * UnsafeSerializer.
+ */
+public abstract class GeneratedSerializer extends UnsafeSerializer
+{
+  protected static final Unsafe _unsafe = SerializerGenerator.getUnsafe();
+
+  private final String []_fieldNames;
+
+  protected GeneratedSerializer(Class<?> cl)
+  {
+    super(cl);
+
+    Field []fields = SerializerGenerator.getSerializedFields(cl);
+
+    _fieldNames = new String[fields.length];
+
+    for (int i = 0; i < fields.length; i++)
+      _fieldNames[i] = fields[i].getName();
+  }
+
+  @Override
+  public void writeObject(Object obj, AbstractHessianOutput out)
+    throws IOException
+  {
+    if (out.addRef(obj)) {
+      return;
+    }
+
+    Class<?> cl = obj.getClass();
+
+    int ref = out.writeObjectBegin(cl.getName());
+
+    if (ref >= 0) {
+      writeFieldsWrapped(obj, out);
+    }
+    else if (ref == -1) {
+      out.writeClassFieldLength(_fieldNames.length);
+
+      for (int i = 0; i < _fieldNames.length; i++)
+        out.writeString(_fieldNames[i]);
+
+      out.writeObjectBegin(cl.getName());
+      writeFieldsWrapped(obj, out);
+    }
+    else {
+      writeObject10(obj, out);
+    }
+  }
+
+  private void writeFieldsWrapped(Object obj, AbstractHessianOutput out)
+    throws IOException
+  {
+    try {
+      writeFields(obj, out);
+    } catch (RuntimeException e) {
+      throw new RuntimeException(e.getMessage() + "\n class: "
+                                 + obj.getClass().getName()
+                                 + " (object=" + obj + ")",
+                                 e);
+    } catch (IOException e) {
+      throw new IOExceptionWrapper(e.getMessage() + "\n class: "
+                                   + obj.getClass().getName()
+                                   + " (object=" + obj + ")",
+                                   e);
+    }
+  }
+
+  /**
+   * Writes the field values, generated for each class.
+   */
+  protected abstract void writeFields(Object obj, AbstractHessianOutput out)
+    throws IOException;
+
+  /**
+   * Writes a java.util.Date or java.sql date field.
+   */
+  protected static void writeDate(AbstractHessianOutput out, Object value)
+    throws IOException
+  {
+    if (value == null)
+      out.writeNull();
+    else
+      out.writeUTCDate(((java.util.Date) value).getTime());
+  }
+}
@@ -0,0 +1,530 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.hessian.bytecode;
+
+import com.caucho.bytecode.CodeVisitor;
+import com.caucho.bytecode.CodeWriterAttribute;
+import com.caucho.bytecode.JavaClass;
+import com.caucho.bytecode.JavaClassLoader;
+import com.caucho.bytecode.JavaMethod;
+import com.caucho.loader.ProxyClassLoader;
+import com.caucho.vfs.Vfs;
+import com.caucho.vfs.WriteStream;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.ref.SoftReference;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import sun.misc.Unsafe;
+
+/**
+ * Generates GeneratedSerializer and GeneratedDeserializer classes.
+ *
+ * The generated code reads and writes the fields with Unsafe at constant
+ * offsets, so it never names the serialized class and can live in a
+ * loader that only sees this package.
+ */
+class SerializerGenerator {
+  private static final Logger log
+    = Logger.getLogger(SerializerGenerator.class.getName());
+
+  private static final String SERIALIZER_CLASS
+    = "com/caucho/hessian/bytecode/GeneratedSerializer";
+  private static final String DESERIALIZER_CLASS
+    = "com/caucho/hessian/bytecode/GeneratedDeserializer";
+
+  private static final String UNSAFE = "sun/misc/Unsafe";
+  private static final String UNSAFE_SIG = "Lsun/misc/Unsafe;";
+  private static final String OUTPUT
+    = "com/caucho/hessian/io/AbstractHessianOutput";
+  private static final String INPUT
+    = "com/caucho/hessian/io/AbstractHessianInput";
+
+  // keeps the generated methods well under the 64k code limit
+  private static final int MAX_FIELDS = 1024;
+
+  private static final Unsafe _unsafe;
+
+  private static final AtomicInteger _sequence = new AtomicInteger();
+
+  private static final
+    WeakHashMap<Class<?>,SoftReference<GeneratedSerializer>> _serializerMap
+    = new WeakHashMap<Class<?>,SoftReference<GeneratedSerializer>>();
+
+  private static final
+    WeakHashMap<Class<?>,SoftReference<GeneratedDeserializer>>
+    _deserializerMap
+    = new WeakHashMap<Class<?>,SoftReference<GeneratedDeserializer>>();
+
+  private SerializerGenerator()
+  {
+  }
+
+  static Unsafe getUnsafe()
+  {
+    return _unsafe;
+  }
+
+  /**
+   * Returns the generated serializer for the class, or null if it
+   * can't be generated.
+   */
+  static GeneratedSerializer createSerializer(Class<?> cl)
+  {
+    if (_unsafe == null)
+      return null;
+
+    synchronized (_serializerMap) {
+      SoftReference<GeneratedSerializer> ref = _serializerMap.get(cl);
+      GeneratedSerializer serializer = ref != null ? ref.get() : null;
+
+      if (serializer != null)
+        return serializer;
+    }
+
+    GeneratedSerializer serializer;
+
+    try {
+      serializer = generateSerializer(cl);
+    } catch (Throwable e) {
+      log.log(Level.FINER, e.toString(), e);
+
+      return null;
+    }
+
+    if (serializer != null) {
+      synchronized (_serializerMap) {
+        _serializerMap.put(cl,
+                           new SoftReference<GeneratedSerializer>(serializer));
+      }
+    }
+
+    return serializer;
+  }
+
+  /**
+   * Returns the generated deserializer for the class, or null if it
+   * can't be generated.
+   */
+  static GeneratedDeserializer createDeserializer(Class<?> cl)
+  {
+    if (_unsafe == null)
+      return null;
+
+    synchronized (_deserializerMap) {
+      SoftReference<GeneratedDeserializer> ref = _deserializerMap.get(cl);
+      GeneratedDeserializer deserializer = ref != null ? ref.get() : null;
+
+      if (deserializer != null)
+        return deserializer;
+    }
+
+    GeneratedDeserializer deserializer;
+
+    try {
+      deserializer = generateDeserializer(cl);
+    } catch (Throwable e) {
+      log.log(Level.FINER, e.toString(), e);
+
+      return null;
+    }
+
+    if (deserializer != null) {
+      synchronized (_deserializerMap) {
+        SoftReference<GeneratedDeserializer> ref
+          = new SoftReference<GeneratedDeserializer>(deserializer);
+
+        _deserializerMap.put(cl, ref);
+      }
+    }
+
+    return deserializer;
+  }
+
+  /**
+   * Returns the serialized fields in UnsafeSerializer order: primitive
+   * and java.lang fields first, then the others, each walking from the
+   * class to its superclasses.
+   */
+  static Field []getSerializedFields(Class<?> cl)
+  {
+    ArrayList<Field> primitiveFields = new ArrayList<Field>();
+    ArrayList<Field> compoundFields = new ArrayList<Field>();
+
+    for (; cl != null; cl = cl.getSuperclass()) {
+      for (Field field : cl.getDeclaredFields()) {
+        if (Modifier.isTransient(field.getModifiers())
+            || Modifier.isStatic(field.getModifiers())) {
+          continue;
+        }
+
+        Class<?> type = field.getType();
+
+        if (type.isPrimitive()
+            || (type.getName().startsWith("java.lang.")
+                && ! type.equals(Object.class))) {
+          primitiveFields.add(field);
+        }
+        else {
+          compoundFields.add(field);
+        }
+      }
+    }
+
+    ArrayList<Field> fields = new ArrayList<Field>(primitiveFields);
+    fields.addAll(compoundFields);
+
+    return fields.toArray(new Field[fields.size()]);
+  }
+
+  /**
+   * Returns the field receiving each serialized field on deserialization.
+   * As in UnsafeDeserializer, a name shadowed in a subclass resolves to
+   * the subclass field.
+   */
+  static Field []getDeserializedFields(Class<?> cl)
+  {
+    HashMap<String,Field> fieldMap = new HashMap<String,Field>();
+
+    for (Class<?> ptr = cl; ptr != null; ptr = ptr.getSuperclass()) {
+      for (Field field : ptr.getDeclaredFields()) {
+        if (Modifier.isTransient(field.getModifiers())
+            || Modifier.isStatic(field.getModifiers())
+            || fieldMap.containsKey(field.getName())) {
+          continue;
+        }
+
+        fieldMap.put(field.getName(), field);
+      }
+    }
+
+    Field []fields = getSerializedFields(cl);
+
+    for (int i = 0; i < fields.length; i++)
+      fields[i] = fieldMap.get(fields[i].getName());
+
+    return fields;
+  }
+
+  private static GeneratedSerializer generateSerializer(Class<?> cl)
+    throws Exception
+  {
+    Field []fields = getSerializedFields(cl);
+
+    if (fields.length > MAX_FIELDS)
+      return null;
+
+    JavaClass jClass = createClass(SERIALIZER_CLASS, cl);
+
+    JavaMethod method
+      = jClass.createMethod("writeFields",
+                            "(Ljava/lang/Object;L" + OUTPUT + ";)V");
+    method.setAccessFlags(Modifier.PROTECTED);
+
+    CodeWriterAttribute code = method.createCodeWriter();
+    code.setMaxLocals(3);
+    code.setMaxStack(6);
+
+    for (Field field : fields) {
+      long offset = _unsafe.objectFieldOffset(field);
+
+      code.pushObjectVar(2);
+      code.getStatic(SERIALIZER_CLASS, "_unsafe", UNSAFE_SIG);
+      code.pushObjectVar(1);
+      code.pushLong(offset);
+
+      writeField(code, field.getType());
+    }
+
+    code.addReturn();
+    code.close();
+
+    Class<?> serClass = defineClass(jClass);
+
+    return (GeneratedSerializer) serClass.getConstructor(Class.class)
+                                         .newInstance(cl);
+  }
+
+  /**
+   * Writes the field value on the stack, matching the UnsafeSerializer
+   * field serializers.  The stack holds out, unsafe, obj, offset.
+   */
+  private static void writeField(CodeWriterAttribute code, Class<?> type)
+  {
+    String getSig = "(Ljava/lang/Object;J)";
+
+    if (boolean.class.equals(type)) {
+      code.invoke(UNSAFE, "getBoolean", getSig + "Z", 4, 1);
+      code.invoke(OUTPUT, "writeBoolean", "(Z)V", 2, 0);
+    }
+    else if (byte.class.equals(type)) {
+      code.invoke(UNSAFE, "getByte", getSig + "B", 4, 1);
+      code.invoke(OUTPUT, "writeInt", "(I)V", 2, 0);
+    }
+    else if (short.class.equals(type)) {
+      code.invoke(UNSAFE, "getShort", getSig + "S", 4, 1);
+      code.invoke(OUTPUT, "writeInt", "(I)V", 2, 0);
+    }
+    else if (int.class.equals(type)) {
+      code.invoke(UNSAFE, "getInt", getSig + "I", 4, 1);
+      code.invoke(OUTPUT, "writeInt", "(I)V", 2, 0);
+    }
+    else if (char.class.equals(type)) {
+      code.invoke(UNSAFE, "getChar", getSig + "C", 4, 1);
+      code.invokestatic("java/lang/String", "valueOf",
+                        "(C)Ljava/lang/String;", 1, 1);
+      code.invoke(OUTPUT, "writeString", "(Ljava/lang/String;)V", 2, 0);
+    }
+    else if (long.class.equals(type)) {
+      code.invoke(UNSAFE, "getLong", getSig + "J", 4, 2);
+      code.invoke(OUTPUT, "writeLong", "(J)V", 3, 0);
+    }
+    else if (float.class.equals(type)) {
+      code.invoke(UNSAFE, "getFloat", getSig + "F", 4, 1);
+      code.addCode(CodeVisitor.F2D);
+      code.invoke(OUTPUT, "writeDouble", "(D)V", 3, 0);
+    }
+    else if (double.class.equals(type)) {
+      code.invoke(UNSAFE, "getDouble", getSig + "D", 4, 2);
+      code.invoke(OUTPUT, "writeDouble", "(D)V", 3, 0);
+    }
+    else if (String.class.equals(type)) {
+      code.invoke(UNSAFE, "getObject", getSig + "Ljava/lang/Object;", 4, 1);
+      code.cast("java/lang/String");
+      code.invoke(OUTPUT, "writeString", "(Ljava/lang/String;)V", 2, 0);
+    }
+    else if (java.util.Date.class.equals(type)
+             || java.sql.Date.class.equals(type)
+             || java.sql.Timestamp.class.equals(type)
+             || java.sql.Time.class.equals(type)) {
+      code.invoke(UNSAFE, "getObject", getSig + "Ljava/lang/Object;", 4, 1);
+      code.invokestatic(SERIALIZER_CLASS, "writeDate",
+                        "(L" + OUTPUT + ";Ljava/lang/Object;)V", 2, 0);
+    }
+    else {
+      code.invoke(UNSAFE, "getObject", getSig + "Ljava/lang/Object;", 4, 1);
+      code.invoke(OUTPUT, "writeObject", "(Ljava/lang/Object;)V", 2, 0);
+    }
+  }
+
+  private static GeneratedDeserializer generateDeserializer(Class<?> cl)
+    throws Exception
+  {
+    Field []fields = getDeserializedFields(cl);
+
+    if (fields.length > MAX_FIELDS)
+      return null;
+
+    JavaClass jClass = createClass(DESERIALIZER_CLASS, cl);
+
+    JavaMethod method
+      = jClass.createMethod("readFields",
+                            "(L" + INPUT + ";Ljava/lang/Object;)V");
+    method.setAccessFlags(Modifier.PROTECTED);
+
+    CodeWriterAttribute code = method.createCodeWriter();
+    code.setMaxLocals(3);
+    code.setMaxStack(8);
+
+    for (int i = 0; i < fields.length; i++) {
+      long offset = _unsafe.objectFieldOffset(fields[i]);
+
+      code.getStatic(DESERIALIZER_CLASS, "_unsafe", UNSAFE_SIG);
+      code.pushObjectVar(2);
+      code.pushLong(offset);
+      code.pushObjectVar(1);
+
+      readField(code, fields[i].getType(), i);
+    }
+
+    code.addReturn();
+    code.close();
+
+    Class<?> deserClass = defineClass(jClass);
+
+    return (GeneratedDeserializer) deserClass.getConstructor(Class.class)
+                                             .newInstance(cl);
+  }
+
+  /**
+   * Reads and stores the field value, matching the UnsafeDeserializer
+   * field deserializers.  The stack holds unsafe, obj, offset, in.
+   */
+  private static void readField(CodeWriterAttribute code,
+                                Class<?> type,
+                                int index)
+  {
+    String putSig = "(Ljava/lang/Object;J";
+
+    if (boolean.class.equals(type)) {
+      code.invoke(INPUT, "readBoolean", "()Z", 1, 1);
+      code.invoke(UNSAFE, "putBoolean", putSig + "Z)V", 5, 0);
+    }
+    else if (byte.class.equals(type)) {
+      code.invoke(INPUT, "readInt", "()I", 1, 1);
+      code.addCode(CodeVisitor.I2B);
+      code.invoke(UNSAFE, "putByte", putSig + "B)V", 5, 0);
+    }
+    else if (short.class.equals(type)) {
+      code.invoke(INPUT, "readInt", "()I", 1, 1);
+      code.addCode(CodeVisitor.I2S);
+      code.invoke(UNSAFE, "putShort", putSig + "S)V", 5, 0);
+    }
+    else if (int.class.equals(type)) {
+      code.invoke(INPUT, "readInt", "()I", 1, 1);
+      code.invoke(UNSAFE, "putInt", putSig + "I)V", 5, 0);
+    }
+    else if (char.class.equals(type)) {
+      code.invoke(INPUT, "readString", "()Ljava/lang/String;", 1, 1);
+      code.invokestatic(DESERIALIZER_CLASS, "toChar",
+                        "(Ljava/lang/String;)C", 1, 1);
+      code.invoke(UNSAFE, "putChar", putSig + "C)V", 5, 0);
+    }
+    else if (long.class.equals(type)) {
+      code.invoke(INPUT, "readLong", "()J", 1, 2);
+      code.invoke(UNSAFE, "putLong", putSig + "J)V", 6, 0);
+    }
+    else if (float.class.equals(type)) {
+      code.invoke(INPUT, "readDouble", "()D", 1, 2);
+      code.addCode(CodeVisitor.D2F);
+      code.invoke(UNSAFE, "putFloat", putSig + "F)V", 5, 0);
+    }
+    else if (double.class.equals(type)) {
+      code.invoke(INPUT, "readDouble", "()D", 1, 2);
+      code.invoke(UNSAFE, "putDouble", putSig + "D)V", 6, 0);
+    }
+    else {
+      if (String.class.equals(type))
+        code.invoke(INPUT, "readString", "()Ljava/lang/String;", 1, 1);
+      else if (java.sql.Date.class.equals(type))
+        readSqlDate(code, "readSqlDate");
+      else if (java.sql.Timestamp.class.equals(type))
+        readSqlDate(code, "readSqlTimestamp");
+      else if (java.sql.Time.class.equals(type))
+        readSqlDate(code, "readSqlTime");
+      else {
+        code.pushObjectVar(0);
+        code.getField(DESERIALIZER_CLASS, "_fieldTypes",
+                      "[Ljava/lang/Class;");
+        code.pushInt(index);
+        code.getArrayObject();
+        code.invoke(INPUT, "readObject",
+                    "(Ljava/lang/Class;)Ljava/lang/Object;", 2, 1);
+      }
+
+      code.invoke(UNSAFE, "putObject", putSig + "Ljava/lang/Object;)V",
+                  5, 0);
+    }
+  }
+
+  private static void readSqlDate(CodeWriterAttribute code, String name)
+  {
+    code.invokestatic(DESERIALIZER_CLASS, name,
+                      "(L" + INPUT + ";)Ljava/lang/Object;", 1, 1);
+  }
+
+  private static JavaClass createClass(String superClass, Class<?> cl)
+  {
+    JavaClassLoader jLoader
+      = new JavaClassLoader(SerializerGenerator.class.getClassLoader());
+
+    JavaClass jClass = new JavaClass(jLoader);
+    jClass.setAccessFlags(Modifier.PUBLIC | Modifier.FINAL);
+
+    jClass.setWrite(true);
+
+    jClass.setMajor(49);
+    jClass.setMinor(0);
+
+    String name = cl.getName().replace('.', '_');
+
+    jClass.setSuperClass(superClass);
+    jClass.setThisClass(superClass + "$" + _sequence.incrementAndGet()
+                        + "$" + name);
+
+    JavaMethod ctor = jClass.createMethod("<init>", "(Ljava/lang/Class;)V");
+    ctor.setAccessFlags(Modifier.PUBLIC);
+
+    CodeWriterAttribute code = ctor.createCodeWriter();
+    code.setMaxLocals(2);
+    code.setMaxStack(2);
+
+    code.pushObjectVar(0);
+    code.pushObjectVar(1);
+    code.invokespecial(superClass, "<init>", "(Ljava/lang/Class;)V", 2, 0);
+    code.addReturn();
+    code.close();
+
+    return jClass;
+  }
+
+  /**
+   * Loads the generated class in a loader whose parent sees this package.
+   */
+  private static Class<?> defineClass(JavaClass jClass)
+    throws Exception
+  {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    WriteStream out = Vfs.openWrite(bos);
+
+    jClass.write(out);
+
+    out.close();
+
+    String name = jClass.getThisClass().replace('/', '.');
+
+    ProxyClassLoader loader
+      = new ProxyClassLoader(SerializerGenerator.class.getClassLoader());
+
+    return loader.loadClass(name, bos.toByteArray());
+  }
+
+  static {
+    Unsafe unsafe = null;
+
+    try {
+      Field theUnsafe = Unsafe.class.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+
+      unsafe = (Unsafe) theUnsafe.get(null);
+    } catch (Throwable e) {
+      log.log(Level.FINER, e.toString(), e);
+    }
+
+    _unsafe = unsafe;
+  }
+}
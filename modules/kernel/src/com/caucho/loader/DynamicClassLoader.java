@@ -33,6 +33,8 @@ import java.io.FilePermission;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.instrument.ClassFileTransformer;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
@@ -47,6 +49,7 @@ import java.util.Enumeration;
 import java.util.Vector;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.jar.Attributes;
 import java.util.jar.Manifest;
 import java.util.logging.Level;
@@ -110,7 +113,14 @@ public class DynamicClassLoader extends java.net.URLClassLoader
   private ConcurrentHashMap<String,ClassEntry> _entryCache
     = new ConcurrentHashMap<String,ClassEntry>(8);
 
-  private TimedCache<String,URL> _resourceCache;
+  private volatile TimedCache<String,URL> _resourceCache;
+
+  // package index over the loaders, rebuilt after the loaders change
+  private volatile LoaderIndex _loaderIndex;
+  private final AtomicInteger _loaderIndexSequence = new AtomicInteger();
+
+  // recent findClassImpl misses, expiring like the resource cache
+  private volatile TimedCache<String,Boolean> _classMissCache;
   
   private boolean _isDisableURLs;
 
@@ -386,6 +396,8 @@ public class DynamicClassLoader extends java.net.URLClassLoader
         }
       }
     }
+
+    clearLoaderIndex();
   }
 
   /**
@@ -425,6 +437,8 @@ public class DynamicClassLoader extends java.net.URLClassLoader
     }
 
     _hasNewLoader = true;
+
+    clearLoaderIndex();
   }
 
   public ArrayList<Loader> getLoaders()
@@ -432,6 +446,64 @@ public class DynamicClassLoader extends java.net.URLClassLoader
     return _loaders;
   }
 
+  /**
+   * Drops the loader index and the lookup caches when the loaders or
+   * their jars change.
+   */
+  void clearLoaderIndex()
+  {
+    _loaderIndexSequence.incrementAndGet();
+
+    _loaderIndex = null;
+    _classMissCache = null;
+    _resourceCache = null;
+  }
+
+  /**
+   * Returns the package index over the loaders, building it if the
+   * loaders have changed.
+   */
+  private LoaderIndex getLoaderIndex()
+  {
+    LoaderIndex index = _loaderIndex;
+
+    if (index != null)
+      return index;
+
+    ArrayList<Loader> loaders = _loaders;
+
+    if (loaders == null)
+      return null;
+
+    int sequence = _loaderIndexSequence.get();
+
+    index = LoaderIndex.create(loaders);
+
+    _loaderIndex = index;
+
+    // a change during the build makes the new index stale
+    if (sequence != _loaderIndexSequence.get())
+      _loaderIndex = null;
+
+    if (log().isLoggable(Level.FINEST))
+      log().finest(this + " built " + index);
+
+    return index;
+  }
+
+  /**
+   * Returns the loaders, in order, which might contain the resource.
+   */
+  private Loader []getIndexLoaders(String pathName)
+  {
+    LoaderIndex index = getLoaderIndex();
+
+    if (index != null)
+      return index.getLoaders(pathName);
+    else
+      return new Loader[0];
+  }
+
   /**
    * Adds jars based on a manifest classpath.
    */
@@ -564,6 +636,8 @@ public class DynamicClassLoader extends java.net.URLClassLoader
     }
 
     _pathLoader.put(className, path);
+
+    clearLoaderIndex();
   }
 
   /**
@@ -1453,6 +1527,8 @@ public class DynamicClassLoader extends java.net.URLClassLoader
     try {
       sendAddLoaderEvent();
 
+      getLoaderIndex();
+
       ArrayList<ClassLoaderListener> listeners = getListeners();
 
       if (listeners != null) {
@@ -1694,6 +1770,13 @@ public class DynamicClassLoader extends java.net.URLClassLoader
     entry = _entryCache == null ? null : _entryCache.get(name);
 
     if (entry == null) {
+      TimedCache<String,Boolean> missCache = _classMissCache;
+
+      if (missCache != null && missCache.get(name) != null)
+        return null;
+
+      int sequence = _loaderIndexSequence.get();
+      
       int len = _loaders.size();
 
       for (int i = 0; i < len; i++) {
@@ -1705,10 +1788,13 @@ public class DynamicClassLoader extends java.net.URLClassLoader
       }
 
       entry = getClassEntry(name);
-    }
 
-    if (entry == null)
-      return null;
+      if (entry == null) {
+        addClassMiss(name, sequence);
+
+        return null;
+      }
+    }
 
     if (entry != null && _isVerbose)
       verbose(name, (isNormalJdkOrder(name) ? "found" : "found (took priority from parent)"));
@@ -1739,6 +1825,28 @@ public class DynamicClassLoader extends java.net.URLClassLoader
     }
   }
 
+  /**
+   * Remembers a class which none of the loaders have, so repeated probes,
+   * e.g. for optional classes, don't search the loaders again.
+   */
+  private void addClassMiss(String name, int sequence)
+  {
+    TimedCache<String,Boolean> missCache = _classMissCache;
+
+    if (missCache == null) {
+      long expireInterval = getDependencyCheckInterval();
+
+      missCache = new TimedCache<String,Boolean>(1024, expireInterval);
+      _classMissCache = missCache;
+    }
+
+    // the loaders changed during the lookup
+    if (sequence != _loaderIndexSequence.get())
+      return;
+
+    missCache.put(name, Boolean.TRUE);
+  }
+
   /**
    * Returns the matching class entry.
    */
@@ -1747,9 +1855,9 @@ public class DynamicClassLoader extends java.net.URLClassLoader
   {
     String pathName = name.replace('.', '/') + ".class";
 
-    ArrayList<Loader> loaders = getLoaders();
-    for (int i = 0; i < loaders.size(); i++) {
-      Loader loader = loaders.get(i);
+    Loader []loaders = getIndexLoaders(pathName);
+    for (int i = 0; i < loaders.length; i++) {
+      Loader loader = loaders[i];
 
       ClassEntry entry = loader.getClassEntry(name, pathName);
 
@@ -1936,13 +2044,16 @@ public class DynamicClassLoader extends java.net.URLClassLoader
   @Override
   public URL getResource(String name)
   {
-    if (_resourceCache == null) {
+    TimedCache<String,URL> resourceCache = _resourceCache;
+
+    if (resourceCache == null) {
       long expireInterval = getDependencyCheckInterval();
 
-      _resourceCache = new TimedCache<String,URL>(256, expireInterval);
+      resourceCache = new TimedCache<String,URL>(256, expireInterval);
+      _resourceCache = resourceCache;
     }
 
-    URL url = _resourceCache.get(name);
+    URL url = resourceCache.get(name);
     
     if (url == NULL_URL)
       return null;
@@ -1973,15 +2084,15 @@ public class DynamicClassLoader extends java.net.URLClassLoader
     if (url != null)
       return url;
 
-    ArrayList<Loader> loaders = getLoaders();
+    Loader []loaders = getIndexLoaders(name);
 
-    for (int i = 0; loaders != null && i < loaders.size(); i++) {
-      Loader loader = loaders.get(i);
+    for (int i = 0; i < loaders.length; i++) {
+      Loader loader = loaders[i];
 
       url = loader.getResource(name);
       
       if (url != null) {
-        _resourceCache.put(name, url);
+        resourceCache.put(name, url);
 
         return url;
       }
@@ -1994,7 +2105,7 @@ public class DynamicClassLoader extends java.net.URLClassLoader
         return url;
     }
 
-    _resourceCache.put(name, NULL_URL);
+    resourceCache.put(name, NULL_URL);
 
     return null;
   }
@@ -2018,6 +2129,8 @@ public class DynamicClassLoader extends java.net.URLClassLoader
 
     ClassLoader systemLoader = ClassLoader.getSystemClassLoader();
 
+    TimedCache<String,URL> resourceCache = _resourceCache;
+
     URL url = null;
 
     if (parent != null) {
@@ -2028,7 +2141,8 @@ public class DynamicClassLoader extends java.net.URLClassLoader
       }
 
       if (url != null) {
-        _resourceCache.put(name, url);
+        if (resourceCache != null)
+          resourceCache.put(name, url);
 
         return url;
       }
@@ -2037,7 +2151,8 @@ public class DynamicClassLoader extends java.net.URLClassLoader
       url = getSystemResource(name);
 
       if (url != null) {
-        _resourceCache.put(name, url);
+        if (resourceCache != null)
+          resourceCache.put(name, url);
 
         return url;
       }
@@ -2065,6 +2180,12 @@ public class DynamicClassLoader extends java.net.URLClassLoader
     
     // String alias = getResourceAlias(name);
 
+    // a recent getResource miss
+    TimedCache<String,URL> resourceCache = _resourceCache;
+
+    if (resourceCache != null && resourceCache.get(name) == NULL_URL)
+      return null;
+
     boolean isNormalJdkOrder = isNormalJdkOrder(name);
     InputStream is = null;
 
@@ -2075,10 +2196,10 @@ public class DynamicClassLoader extends java.net.URLClassLoader
         return is;
     }
 
-    ArrayList<Loader> loaders = getLoaders();
+    Loader []loaders = getIndexLoaders(name);
 
-    for (int i = 0; loaders != null && i < loaders.size(); i++) {
-      Loader loader = loaders.get(i);
+    for (int i = 0; i < loaders.length; i++) {
+      Loader loader = loaders[i];
 
       try {
         is = loader.getResourceAsStream(name);
@@ -2202,13 +2323,12 @@ public class DynamicClassLoader extends java.net.URLClassLoader
     if (name.startsWith("/"))
       name = name.substring(1);
     
-    ArrayList<Loader> loaders = getLoaders();
-    if (loaders != null) {
-      for (int i = 0; i < loaders.size(); i++) {
-        Loader loader = loaders.get(i);
+    Loader []loaders = getIndexLoaders(name);
 
-        loader.getResources(resources, name);
-      }
+    for (int i = 0; i < loaders.length; i++) {
+      Loader loader = loaders[i];
+
+      loader.getResources(resources, name);
     }
   }
 
@@ -2253,9 +2373,9 @@ public class DynamicClassLoader extends java.net.URLClassLoader
    */
   public Path findPath(String name)
   {
-    ArrayList<Loader> loaders = getLoaders();
-    for (int i = 0; i < loaders.size(); i++) {
-      Loader loader = loaders.get(i);
+    Loader []loaders = getIndexLoaders(name);
+    for (int i = 0; i < loaders.length; i++) {
+      Loader loader = loaders[i];
 
       Path path = loader.getPath(name);
 
@@ -2377,6 +2497,8 @@ public class DynamicClassLoader extends java.net.URLClassLoader
       _nativePath = null;
       _entryCache = null;
       _resourceCache = null;
+      _loaderIndex = null;
+      _classMissCache = null;
 
       _dependencies = null;
       _makeList = null;
@@ -2437,6 +2559,8 @@ public class DynamicClassLoader extends java.net.URLClassLoader
     _loaders.addAll(source._loaders);
     _jarLoader = source._jarLoader;
 
+    clearLoaderIndex();
+
     _dependencies = source._dependencies;
 
     _makeList = source._makeList;
@@ -2516,6 +2640,23 @@ public class DynamicClassLoader extends java.net.URLClassLoader
     }
 
     NULL_URL = url;
+
+    // JDK 7 parallel class loading, called by reflection for JDK 6
+    try {
+      Method method
+        = ClassLoader.class.getDeclaredMethod("registerAsParallelCapable");
+      method.setAccessible(true);
+      method.invoke(null);
+    } catch (NoSuchMethodException e) {
+      // JDK 6 has no parallel class loading
+      log().log(Level.FINER, e.toString(), e);
+    } catch (IllegalAccessException e) {
+      log().log(Level.FINE, e.toString(), e);
+    } catch (InvocationTargetException e) {
+      log().log(Level.FINE, e.toString(), e);
+    } catch (SecurityException e) {
+      log().log(Level.FINE, e.toString(), e);
+    }
   }
 
 }
@@ -32,6 +32,8 @@ package com.caucho.loader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.net.URLDecoder;
@@ -773,9 +775,13 @@ public class EnvironmentClassLoader extends DynamicClassLoader
       selfList.add(listener);
       ScanManager scanManager = new ScanManager(selfList);
 
+      scanManager.prepare(this, urlList);
+
       for (URL url : urlList) {
         scanManager.scan(this, url, null);
       }
+
+      scanManager.logScanTime(this);
     }
   }
   
@@ -897,11 +903,21 @@ public class EnvironmentClassLoader extends DynamicClassLoader
 
         ScanManager scanManager = new ScanManager(_scanListeners);
 
+        ArrayList<URL> urlList = new ArrayList<URL>();
+
+        for (int i = 0; i < rootListSize; i++) {
+          urlList.add(rootList.get(i).getUrl());
+        }
+
+        scanManager.prepare(this, urlList);
+
         for (int i = 0; i < rootListSize; i++) {
           ScanRoot root = rootList.get(i);
 
           scanManager.scan(this, root.getUrl(), root.getPackageName());
         }
+
+        scanManager.logScanTime(this);
       }
 
       // configureEnhancerEvent();
@@ -1191,4 +1207,23 @@ public class EnvironmentClassLoader extends DynamicClassLoader
       }
     }
   }
+
+  static {
+    // JDK 7 parallel class loading, called by reflection for JDK 6
+    try {
+      Method method
+        = ClassLoader.class.getDeclaredMethod("registerAsParallelCapable");
+      method.setAccessible(true);
+      method.invoke(null);
+    } catch (NoSuchMethodException e) {
+      // JDK 6 has no parallel class loading
+      log().log(Level.FINER, e.toString(), e);
+    } catch (IllegalAccessException e) {
+      log().log(Level.FINE, e.toString(), e);
+    } catch (InvocationTargetException e) {
+      log().log(Level.FINE, e.toString(), e);
+    } catch (SecurityException e) {
+      log().log(Level.FINE, e.toString(), e);
+    }
+  }
 }
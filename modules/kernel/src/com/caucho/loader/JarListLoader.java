@@ -32,6 +32,7 @@ package com.caucho.loader;
 import java.io.IOException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Vector;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -173,6 +174,27 @@ abstract public class JarListLoader extends Loader implements Dependency {
     if (_pathMap != null) {
       _pathMap.scan(jar, jarEntry);
     }
+
+    if (getClassLoader() != null)
+      getClassLoader().clearLoaderIndex();
+  }
+
+  /**
+   * The loader is indexed when the jar cache has mapped all the entries.
+   */
+  @Override
+  protected boolean isIndexed()
+  {
+    return _pathMap != null;
+  }
+
+  @Override
+  protected void fillIndexPackages(HashSet<String> packages)
+  {
+    JarMap pathMap = _pathMap;
+
+    if (pathMap != null)
+      pathMap.fillPackages(packages);
   }
 
   /**
@@ -369,6 +391,9 @@ abstract public class JarListLoader extends Loader implements Dependency {
         jarPath.closeJar();
       }
     }
+
+    if (getClassLoader() != null)
+      getClassLoader().clearLoaderIndex();
   }
 
   @Override
@@ -31,6 +31,7 @@ package com.caucho.loader;
 
 import java.io.IOException;
 import java.util.Enumeration;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
@@ -54,7 +55,7 @@ public class JarMap {
     = new AtomicReference<JarList>();
   
   // list of the jars in the directory
-  private JarList []_entries;
+  private volatile JarList []_entries;
   private int _mask;
   private int _size;
 
@@ -86,10 +87,12 @@ public class JarMap {
       key = new JarList();
     
     key.init(name);
+
+    JarList []entries = _entries;
     
-    int hash = key.hashCode() & _mask;
+    int hash = key.hashCode() & (entries.length - 1);
     
-    for (JarList ptr = _entries[hash]; ptr != null; ptr = ptr._nextHash) {
+    for (JarList ptr = entries[hash]; ptr != null; ptr = ptr._nextHash) {
       if (ptr.equals(key)) {
         _key.set(key);
         
@@ -107,8 +110,46 @@ public class JarMap {
     return new JarKeyIterator();
   }
 
+  /**
+   * Adds the package directories of the map's entries, i.e. the parent
+   * directory of each name, with "" for the root.
+   */
+  void fillPackages(HashSet<String> packages)
+  {
+    JarList []entries = _entries;
+
+    for (int i = 0; i < entries.length; i++) {
+      for (JarList ptr = entries[i]; ptr != null; ptr = ptr._nextHash) {
+        packages.add(ptr.getPackageName());
+      }
+    }
+  }
+
+  /**
+   * Doubles the hash table.  The buckets of the new table are built from
+   * copies of the chain heads, so a concurrent get() walking the old
+   * table is unaffected.
+   */
   private void resize()
   {
+    JarList []oldEntries = _entries;
+    JarList []newEntries = new JarList[2 * oldEntries.length];
+    int mask = newEntries.length - 1;
+
+    for (int i = 0; i < oldEntries.length; i++) {
+      for (JarList ptr = oldEntries[i]; ptr != null; ptr = ptr._nextHash) {
+        JarList copy = new JarList(ptr._entry, ptr._next);
+        copy.init(ptr._name, ptr._length);
+
+        int hash = copy.hashCode() & mask;
+
+        copy._nextHash = newEntries[hash];
+        newEntries[hash] = copy;
+      }
+    }
+
+    _mask = mask;
+    _entries = newEntries;
   }
 
   public void scan(Path jar)
@@ -292,6 +333,19 @@ public class JarMap {
       return new String(_name, 0, _length);
     }
 
+    String getPackageName()
+    {
+      char []name = _name;
+
+      // a trailing '/' belongs to a directory name, not its package
+      for (int i = _length - 2; i > 0; i--) {
+        if (name[i] == '/')
+          return new String(name, 0, i);
+      }
+
+      return "";
+    }
+
     JarEntry getEntry()
     {
       return _entry;
@@ -34,6 +34,7 @@ import java.net.URL;
 import java.security.CodeSource;
 import java.security.cert.Certificate;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Vector;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -207,6 +208,24 @@ abstract public class Loader {
     return null;
   }
   
+  /**
+   * True if the loader can list its package directories for the
+   * class loader's index.  An indexed loader must only find names whose
+   * package directory is returned by fillIndexPackages.
+   */
+  protected boolean isIndexed()
+  {
+    return false;
+  }
+
+  /**
+   * Adds the package directories of the loader's entries, e.g. "com/foo"
+   * for "com/foo/Bar.class" and "" for the root.
+   */
+  protected void fillIndexPackages(HashSet<String> packages)
+  {
+  }
+  
   /**
    * Returns the code source for the path.
    */
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.loader;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Package index over a class loader's loaders.  A lookup for a name only
+ * probes the loaders which can contain its package directory, in the
+ * class loader's order.  Unindexed loaders, e.g. class directories, are
+ * probed for every name.
+ */
+final class LoaderIndex {
+  private static final Loader []NULL_LOADERS = new Loader[0];
+
+  private final Loader []_loaders;
+  private final Loader []_unindexedLoaders;
+
+  private final HashMap<String,Loader[]> _packageMap
+    = new HashMap<String,Loader[]>();
+
+  private LoaderIndex(Loader []loaders)
+  {
+    _loaders = loaders;
+
+    ArrayList<Loader> unindexedLoaders = new ArrayList<Loader>();
+    ArrayList<HashSet<String>> packageSets = new ArrayList<HashSet<String>>();
+    HashSet<String> packages = new HashSet<String>();
+
+    for (Loader loader : loaders) {
+      if (loader.isIndexed()) {
+        HashSet<String> loaderPackages = new HashSet<String>();
+
+        loader.fillIndexPackages(loaderPackages);
+
+        packageSets.add(loaderPackages);
+        packages.addAll(loaderPackages);
+      }
+      else {
+        packageSets.add(null);
+        unindexedLoaders.add(loader);
+      }
+    }
+
+    _unindexedLoaders = toArray(unindexedLoaders);
+
+    // packages found in the same loaders share the loader array
+    HashMap<ArrayList<Loader>,Loader[]> loaderSets
+      = new HashMap<ArrayList<Loader>,Loader[]>();
+
+    for (String pkg : packages) {
+      ArrayList<Loader> pkgLoaders = new ArrayList<Loader>();
+
+      for (int i = 0; i < loaders.length; i++) {
+        HashSet<String> loaderPackages = packageSets.get(i);
+
+        if (loaderPackages == null || loaderPackages.contains(pkg))
+          pkgLoaders.add(loaders[i]);
+      }
+
+      Loader []loaderArray = loaderSets.get(pkgLoaders);
+
+      if (loaderArray == null) {
+        loaderArray = toArray(pkgLoaders);
+        loaderSets.put(pkgLoaders, loaderArray);
+      }
+
+      _packageMap.put(pkg, loaderArray);
+    }
+  }
+
+  /**
+   * Creates the index for the current loaders.
+   */
+  static LoaderIndex create(ArrayList<Loader> loaders)
+  {
+    Loader []loaderArray;
+
+    synchronized (loaders) {
+      loaderArray = loaders.toArray(new Loader[loaders.size()]);
+    }
+
+    return new LoaderIndex(loaderArray);
+  }
+
+  /**
+   * Returns all the loaders in order.
+   */
+  Loader []getLoaders()
+  {
+    return _loaders;
+  }
+
+  /**
+   * Returns the loaders which might contain the named resource.
+   */
+  Loader []getLoaders(String pathName)
+  {
+    Loader []loaders = _packageMap.get(getPackageName(pathName));
+
+    if (loaders != null)
+      return loaders;
+    else
+      return _unindexedLoaders;
+  }
+
+  /**
+   * Returns the package directory of a resource name, ignoring any
+   * trailing '/' of a directory name.
+   */
+  static String getPackageName(String pathName)
+  {
+    int p = pathName.lastIndexOf('/', pathName.length() - 2);
+
+    if (p > 0)
+      return pathName.substring(0, p);
+    else
+      return "";
+  }
+
+  private static Loader []toArray(ArrayList<Loader> loaders)
+  {
+    if (loaders.size() == 0)
+      return NULL_LOADERS;
+    else
+      return loaders.toArray(new Loader[loaders.size()]);
+  }
+
+  @Override
+  public String toString()
+  {
+    return (getClass().getSimpleName()
+            + "[loaders=" + _loaders.length
+            + ",packages=" + _packageMap.size() + "]");
+  }
+}
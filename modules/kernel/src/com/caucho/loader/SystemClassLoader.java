@@ -31,8 +31,11 @@ package com.caucho.loader;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.security.AllPermission;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.caucho.config.Config;
@@ -345,6 +348,23 @@ public class SystemClassLoader
     
     return _log;
   }
-}
-
 
+  static {
+    // JDK 7 parallel class loading, called by reflection for JDK 6
+    try {
+      Method method
+        = ClassLoader.class.getDeclaredMethod("registerAsParallelCapable");
+      method.setAccessible(true);
+      method.invoke(null);
+    } catch (NoSuchMethodException e) {
+      // JDK 6 has no parallel class loading
+      log().log(Level.FINER, e.toString(), e);
+    } catch (IllegalAccessException e) {
+      log().log(Level.FINE, e.toString(), e);
+    } catch (InvocationTargetException e) {
+      log().log(Level.FINE, e.toString(), e);
+    } catch (SecurityException e) {
+      log().log(Level.FINE, e.toString(), e);
+    }
+  }
+}
@@ -0,0 +1,530 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.loader.enhancer;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import com.caucho.bytecode.ByteCodeClassMatcher;
+import com.caucho.bytecode.ByteCodeClassScanner;
+import com.caucho.inject.Module;
+import com.caucho.util.CharBuffer;
+import com.caucho.util.Crc64;
+import com.caucho.vfs.Path;
+import com.caucho.vfs.ReadStream;
+import com.caucho.vfs.Vfs;
+import com.caucho.vfs.WriteStream;
+
+/**
+ * The recorded bytecode scan of a jar: the class names, modifiers,
+ * superclasses, interfaces, annotations and pool strings of every class.
+ *
+ * <p>The index is independent of the scan listeners, so it can be saved
+ * in the work directory and replayed on the next start instead of
+ * re-reading the jar's class files.
+ */
+@Module
+class ScanIndex {
+  private static final int MAGIC = 0x53434958; // "SCIX"
+  private static final int VERSION = 1;
+
+  private final String _jarName;
+  private final long _length;
+  private final long _crc;
+
+  private final String []_strings;
+  private final char [][]_chars;
+
+  // per class: name, modifiers, super, then counted lists of interfaces,
+  // annotations and pool strings, all as string indexes
+  private final int []_data;
+
+  private ScanIndex(String jarName,
+                    long length,
+                    long crc,
+                    String []strings,
+                    int []data)
+  {
+    _jarName = jarName;
+    _length = length;
+    _crc = crc;
+    _strings = strings;
+    _data = data;
+
+    _chars = new char[strings.length][];
+
+    for (int i = 0; i < strings.length; i++) {
+      _chars[i] = strings[i].toCharArray();
+    }
+  }
+
+  /**
+   * Scans the jar's class files, building the index.
+   */
+  static ScanIndex create(Path jar, ZipFile zipFile, long crc)
+    throws IOException
+  {
+    IndexBuilder builder = new IndexBuilder();
+
+    ByteCodeClassScanner scanner = new ByteCodeClassScanner();
+
+    Enumeration<? extends ZipEntry> e = zipFile.entries();
+
+    while (e.hasMoreElements()) {
+      ZipEntry entry = e.nextElement();
+
+      String entryName = entry.getName();
+      if (! entryName.endsWith(".class"))
+        continue;
+
+      ReadStream is = Vfs.openRead(zipFile.getInputStream(entry));
+      try {
+        scanner.init(entryName, is, builder);
+
+        scanner.scan();
+      } finally {
+        is.close();
+      }
+    }
+
+    return builder.build(jar.getFullPath(), jar.getLength(), crc);
+  }
+
+  /**
+   * Returns a checksum of the jar's directory, covering the name, size and
+   * CRC of every entry.
+   */
+  static long getCrc(ZipFile zipFile)
+  {
+    long crc = 0;
+
+    Enumeration<? extends ZipEntry> e = zipFile.entries();
+
+    while (e.hasMoreElements()) {
+      ZipEntry entry = e.nextElement();
+
+      crc = Crc64.generate(crc, entry.getName());
+      crc = Crc64.generate(crc, entry.getSize());
+      crc = Crc64.generate(crc, entry.getCrc());
+    }
+
+    return crc;
+  }
+
+  /**
+   * Returns true if the index was built from the current jar contents.
+   */
+  boolean isValid(Path jar, long crc)
+  {
+    return (_jarName.equals(jar.getFullPath())
+            && _length == jar.getLength()
+            && _crc == crc);
+  }
+
+  int getClassCount()
+  {
+    int count = 0;
+
+    for (int i = 0; i < _data.length; ) {
+      i += 3;
+      i += 1 + _data[i];
+      i += 1 + _data[i];
+      i += 1 + _data[i];
+
+      count++;
+    }
+
+    return count;
+  }
+
+  /**
+   * Replays the recorded scan to the matcher.
+   *
+   * @return true if any class matched
+   */
+  boolean scan(String packagePath, ScanManager.ScanByteCodeMatcher matcher)
+  {
+    String []strings = _strings;
+    char [][]chars = _chars;
+    int []data = _data;
+
+    boolean isScanMatch = false;
+
+    int i = 0;
+    while (i < data.length) {
+      int nameIndex = data[i++];
+      int modifiers = data[i++];
+      int superIndex = data[i++];
+
+      int interfaceOffset = i;
+      i += 1 + data[i];
+
+      int annotationOffset = i;
+      i += 1 + data[i];
+
+      int poolOffset = i;
+      i += 1 + data[i];
+
+      String className = strings[nameIndex];
+
+      if (packagePath != null && ! className.startsWith(packagePath))
+        continue;
+
+      matcher.init();
+
+      if (! matcher.scanClass(className, modifiers))
+        continue;
+
+      if (superIndex >= 0) {
+        char []name = chars[superIndex];
+
+        matcher.addSuperClass(name, 0, name.length);
+      }
+
+      int interfaceCount = data[interfaceOffset];
+      for (int j = 1; j <= interfaceCount; j++) {
+        char []name = chars[data[interfaceOffset + j]];
+
+        matcher.addInterface(name, 0, name.length);
+      }
+
+      int annotationCount = data[annotationOffset];
+      for (int j = 1; j <= annotationCount; j++) {
+        char []name = chars[data[annotationOffset + j]];
+
+        matcher.addClassAnnotation(name, 0, name.length);
+      }
+
+      int poolCount = data[poolOffset];
+      for (int j = 1; j <= poolCount; j++) {
+        char []name = chars[data[poolOffset + j]];
+
+        matcher.addPoolString(name, 0, name.length);
+      }
+
+      if (matcher.finishScan())
+        isScanMatch = true;
+    }
+
+    return isScanMatch;
+  }
+
+  /**
+   * Reads a saved index, returning null if it is missing or corrupt.
+   */
+  static ScanIndex read(Path path)
+    throws IOException
+  {
+    if (! path.canRead())
+      return null;
+
+    long fileLength = path.getLength();
+
+    ReadStream is = path.openRead();
+
+    try {
+      DataInputStream in = new DataInputStream(is);
+
+      if (in.readInt() != MAGIC || in.readInt() != VERSION)
+        return null;
+
+      String jarName = in.readUTF();
+      long length = in.readLong();
+      long crc = in.readLong();
+
+      // the counts are bounded by the file, since a string takes at least
+      // two bytes and a data value four
+      int stringCount = in.readInt();
+
+      if (stringCount < 0 || fileLength < 2L * stringCount)
+        return null;
+
+      String []strings = new String[stringCount];
+
+      for (int i = 0; i < strings.length; i++) {
+        strings[i] = in.readUTF();
+      }
+
+      int dataCount = in.readInt();
+
+      if (dataCount < 0 || fileLength < 4L * dataCount)
+        return null;
+
+      int []data = new int[dataCount];
+
+      for (int i = 0; i < data.length; i++) {
+        data[i] = in.readInt();
+      }
+
+      if (! isValidData(strings.length, data))
+        return null;
+
+      return new ScanIndex(jarName, length, crc, strings, data);
+    } finally {
+      is.close();
+    }
+  }
+
+  /**
+   * Checks the record layout, so a damaged index can't index outside
+   * the string or data arrays when it's replayed.
+   */
+  private static boolean isValidData(int stringCount, int []data)
+  {
+    int i = 0;
+
+    while (i < data.length) {
+      if (data.length < i + 3)
+        return false;
+
+      int nameIndex = data[i++];
+      i++; // modifiers
+      int superIndex = data[i++];
+
+      if (nameIndex < 0 || stringCount <= nameIndex
+          || superIndex < -1 || stringCount <= superIndex)
+        return false;
+
+      // interfaces, annotations and pool strings
+      for (int list = 0; list < 3; list++) {
+        if (data.length <= i)
+          return false;
+
+        int count = data[i++];
+
+        if (count < 0 || data.length - i < count)
+          return false;
+
+        for (int j = 0; j < count; j++) {
+          int index = data[i++];
+
+          if (index < 0 || stringCount <= index)
+            return false;
+        }
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Saves the index, writing a temp file first so a concurrent start
+   * never reads a partial index.
+   */
+  void write(Path path)
+    throws IOException
+  {
+    Path parent = path.getParent();
+
+    parent.mkdirs();
+
+    Path tmp = parent.lookup(path.getTail() + ".tmp");
+
+    WriteStream os = tmp.openWrite();
+
+    try {
+      DataOutputStream out = new DataOutputStream(os);
+
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+
+      out.writeUTF(_jarName);
+      out.writeLong(_length);
+      out.writeLong(_crc);
+
+      out.writeInt(_strings.length);
+
+      for (String string : _strings) {
+        out.writeUTF(string);
+      }
+
+      out.writeInt(_data.length);
+
+      for (int value : _data) {
+        out.writeInt(value);
+      }
+
+      out.flush();
+    } finally {
+      os.close();
+    }
+
+    if (! tmp.renameTo(path))
+      tmp.remove();
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _jarName + "]";
+  }
+
+  /**
+   * Records the scanner events for every class.
+   */
+  static class IndexBuilder implements ByteCodeClassMatcher {
+    private final HashMap<String,Integer> _stringMap
+      = new HashMap<String,Integer>();
+    private final ArrayList<String> _strings = new ArrayList<String>();
+
+    private int []_data = new int[1024];
+    private int _length;
+
+    private String _className;
+    private int _modifiers;
+    private int _superIndex;
+
+    private final ArrayList<Integer> _interfaces = new ArrayList<Integer>();
+    private final ArrayList<Integer> _annotations = new ArrayList<Integer>();
+    private final ArrayList<Integer> _poolStrings = new ArrayList<Integer>();
+
+    @Override
+    public boolean scanClass(String className, int modifiers)
+    {
+      _className = className;
+      _modifiers = modifiers;
+      _superIndex = -1;
+
+      _interfaces.clear();
+      _annotations.clear();
+      _poolStrings.clear();
+
+      // always continue, since the index is shared by all listeners
+      return true;
+    }
+
+    @Override
+    public boolean isAnnotationMatch(CharBuffer annotationClassName)
+    {
+      return false;
+    }
+
+    @Override
+    public void addSuperClass(char []buffer, int offset, int length)
+    {
+      if (_className != null)
+        _superIndex = getIndex(buffer, offset, length);
+    }
+
+    @Override
+    public void addInterface(char []buffer, int offset, int length)
+    {
+      if (_className != null)
+        _interfaces.add(getIndex(buffer, offset, length));
+    }
+
+    @Override
+    public void addClassAnnotation(char []buffer, int offset, int length)
+    {
+      if (_className != null)
+        _annotations.add(getIndex(buffer, offset, length));
+    }
+
+    @Override
+    public void addPoolString(char []buffer, int offset, int length)
+    {
+      if (_className != null)
+        _poolStrings.add(getIndex(buffer, offset, length));
+    }
+
+    @Override
+    public boolean finishScan()
+    {
+      if (_className == null)
+        return false;
+
+      add(getIndex(_className));
+      add(_modifiers);
+      add(_superIndex);
+      add(_interfaces);
+      add(_annotations);
+      add(_poolStrings);
+
+      _className = null;
+
+      return false;
+    }
+
+    ScanIndex build(String jarName, long length, long crc)
+    {
+      int []data = new int[_length];
+      System.arraycopy(_data, 0, data, 0, _length);
+
+      String []strings = new String[_strings.size()];
+      _strings.toArray(strings);
+
+      return new ScanIndex(jarName, length, crc, strings, data);
+    }
+
+    private void add(ArrayList<Integer> list)
+    {
+      add(list.size());
+
+      for (int i = 0; i < list.size(); i++) {
+        add(list.get(i));
+      }
+    }
+
+    private void add(int value)
+    {
+      if (_data.length <= _length) {
+        int []data = new int[2 * _data.length];
+        System.arraycopy(_data, 0, data, 0, _length);
+        _data = data;
+      }
+
+      _data[_length++] = value;
+    }
+
+    private int getIndex(char []buffer, int offset, int length)
+    {
+      return getIndex(new String(buffer, offset, length));
+    }
+
+    private int getIndex(String value)
+    {
+      Integer index = _stringMap.get(value);
+
+      if (index == null) {
+        index = _strings.size();
+        _strings.add(value);
+        _stringMap.put(value, index);
+      }
+
+      return index;
+    }
+  }
+}
@@ -32,18 +32,22 @@ package com.caucho.loader.enhancer;
 import java.io.IOException;
 import java.net.URL;
 import java.util.ArrayList;
-import java.util.Enumeration;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
 import com.caucho.bytecode.ByteCodeClassMatcher;
 import com.caucho.bytecode.ByteCodeClassScanner;
+import com.caucho.env.thread.ThreadPool;
 import com.caucho.inject.Module;
+import com.caucho.java.WorkDir;
 import com.caucho.loader.EnvironmentClassLoader;
 import com.caucho.util.CharBuffer;
+import com.caucho.util.Crc64;
 import com.caucho.vfs.Depend;
 import com.caucho.vfs.Jar;
 import com.caucho.vfs.JarPath;
@@ -64,11 +68,80 @@ public class ScanManager {
 
   private final ScanListener []_listeners;
 
+  // jar indexes loaded by prepare()
+  private final ConcurrentHashMap<Path,ScanIndex> _indexMap
+    = new ConcurrentHashMap<Path,ScanIndex>();
+
+  // nanoseconds spent in each listener's callbacks
+  private final long []_listenerTimes;
+
+  private final long _startTime;
+
+  private final AtomicInteger _indexReadCount = new AtomicInteger();
+  private final AtomicInteger _indexCreateCount = new AtomicInteger();
+
   public ScanManager(ArrayList<ScanListener> listeners)
   {
     _listeners = new ScanListener[listeners.size()];
     
     listeners.toArray(_listeners);
+
+    _listenerTimes = new long[_listeners.length];
+
+    _startTime = System.nanoTime();
+  }
+
+  /**
+   * Loads the scan indexes for the jar roots before the scan, building
+   * the missing ones in parallel.  The following scan() calls replay the
+   * indexes in order, so the listeners still see a single thread.
+   */
+  public void prepare(EnvironmentClassLoader loader, ArrayList<URL> urls)
+  {
+    ConcurrentLinkedQueue<Path> jarQueue = new ConcurrentLinkedQueue<Path>();
+
+    for (URL url : urls) {
+      Path root = Vfs.lookup(url);
+
+      if (root.getPath().endsWith(".jar") && ! (root instanceof JarPath)) {
+        root = JarPath.create(root);
+      }
+
+      if (! (root instanceof JarPath) || ! isRootScannable(root, null))
+        continue;
+
+      Path jar = ((JarPath) root).getContainer();
+
+      if (! isNullScanPath(jar) && ! jarQueue.contains(jar))
+        jarQueue.add(jar);
+    }
+
+    int jarCount = jarQueue.size();
+
+    if (jarCount == 0)
+      return;
+
+    CountDownLatch latch = new CountDownLatch(jarCount);
+
+    IndexTask task = new IndexTask(loader, jarQueue, latch);
+
+    int threadCount = Math.min(jarCount,
+                               Runtime.getRuntime().availableProcessors());
+
+    ThreadPool threadPool = ThreadPool.getCurrent();
+
+    for (int i = 1; i < threadCount; i++) {
+      threadPool.schedule(task);
+    }
+
+    // the current thread also works, so a busy pool can't stall startup
+    task.run();
+
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      log.log(Level.FINER, e.toString(), e);
+    }
   }
 
   public void scan(EnvironmentClassLoader loader, URL url, String packageRoot)
@@ -99,8 +172,6 @@ public class ScanManager {
       return;
     }
 
-    ByteCodeClassScanner scanner = new ByteCodeClassScanner();
-
     String packagePath = null;
 
     if (packageRoot != null)
@@ -111,14 +182,17 @@ public class ScanManager {
       Path jar = jarRoot.getContainer();
       
       JarByteCodeMatcher matcher
-        = new JarByteCodeMatcher(loader, root, packageRoot, listeners);
+        = new JarByteCodeMatcher(loader, root, packageRoot, listeners,
+                                 _listenerTimes);
 
-      scanForJarClasses(jar, packageRoot,
-                        scanner, matcher);
+      scanForJarClasses(loader, jar, packageRoot, matcher);
     }
     else {
+      ByteCodeClassScanner scanner = new ByteCodeClassScanner();
+
       PathByteCodeMatcher matcher
-        = new PathByteCodeMatcher(loader, root, packageRoot, listeners);
+        = new PathByteCodeMatcher(loader, root, packageRoot, listeners,
+                                  _listenerTimes);
       
       Path scanRoot = root;
 
@@ -129,6 +203,41 @@ public class ScanManager {
     }
   }
 
+  private boolean isRootScannable(Path root, String packageRoot)
+  {
+    for (ScanListener listener : _listeners) {
+      if (listener.isRootScannable(root, packageRoot))
+        return true;
+    }
+
+    return false;
+  }
+
+  /**
+   * Logs the scan time, with the time spent in each listener.
+   */
+  public void logScanTime(EnvironmentClassLoader loader)
+  {
+    if (! log.isLoggable(Level.FINE))
+      return;
+
+    long time = (System.nanoTime() - _startTime) / 1000000L;
+
+    StringBuilder sb = new StringBuilder();
+
+    sb.append(loader).append(" scan ").append(time).append("ms");
+    sb.append(" (index-read=").append(_indexReadCount.get());
+    sb.append(", index-create=").append(_indexCreateCount.get());
+    sb.append(")");
+
+    for (int i = 0; i < _listeners.length; i++) {
+      sb.append("\n  ").append(_listeners[i]);
+      sb.append(" ").append(_listenerTimes[i] / 1000000L).append("ms");
+    }
+
+    log.fine(sb.toString());
+  }
+
   private void scanForClasses(Path root,
                               Path path,
                               ByteCodeClassScanner classScanner,
@@ -166,59 +275,104 @@ public class ScanManager {
     }
   }
 
-  private void scanForJarClasses(Path path,
+  private void scanForJarClasses(EnvironmentClassLoader loader,
+                                 Path path,
                                  String packagePath,
-                                 ByteCodeClassScanner classScanner,
                                  JarByteCodeMatcher matcher)
   {
     if (isNullScanPath(path)) {
       return;
     }
-    
-    ZipFile zipFile = null;
-    Jar jar = JarPath.create(path).getJar();
 
     try {
-      zipFile = jar.getZipFile();
+      ScanIndex index = _indexMap.remove(path);
+
+      if (index == null)
+        index = loadScanIndex(loader, path);
 
-      if (zipFile == null)
+      if (index == null)
         return;
-      
-      boolean isScanMatch = false;
 
-      Enumeration<? extends ZipEntry> e = zipFile.entries();
+      if (! index.scan(packagePath, matcher))
+        addNullScanPath(path);
+    } catch (IOException e) {
+      log.log(Level.FINE, e.toString(), e);
+    }
+  }
+
+  /**
+   * Returns the jar's scan index, from the work directory if the jar is
+   * unchanged or by scanning its classes.
+   */
+  private ScanIndex loadScanIndex(EnvironmentClassLoader loader, Path path)
+    throws IOException
+  {
+    Jar jar = JarPath.create(path).getJar();
 
-      while (e.hasMoreElements()) {
-        ZipEntry entry = e.nextElement();
+    ZipFile zipFile = jar.getZipFile();
 
-        String entryName = entry.getName();
-        if (! entryName.endsWith(".class"))
-          continue;
+    if (zipFile == null)
+      return null;
 
-        if (packagePath != null && ! entryName.startsWith(packagePath))
-          continue;
+    try {
+      long crc = ScanIndex.getCrc(zipFile);
+
+      Path indexPath = getIndexPath(loader, path);
 
-        matcher.init();
+      if (indexPath != null) {
+        ScanIndex index = null;
 
-        ReadStream is = Vfs.openRead(zipFile.getInputStream(entry));
         try {
-          classScanner.init(entryName, is, matcher);
+          index = ScanIndex.read(indexPath);
+        } catch (IOException e) {
+          log.log(Level.FINER, e.toString(), e);
+        } catch (RuntimeException e) {
+          log.log(Level.FINER, e.toString(), e);
+        }
 
-          if (classScanner.scan())
-            isScanMatch = true;
-        } finally {
-          is.close();
+        if (index != null && index.isValid(path, crc)) {
+          _indexReadCount.incrementAndGet();
+
+          return index;
+        }
+
+        // a damaged or stale index is removed and rebuilt from the jar
+        try {
+          indexPath.remove();
+        } catch (IOException e) {
+          log.log(Level.FINER, e.toString(), e);
         }
       }
-      
-      if (! isScanMatch)
-        addNullScanPath(path);
-    } catch (IOException e) {
-      log.log(Level.FINE, e.toString(), e);
+
+      ScanIndex index = ScanIndex.create(path, zipFile, crc);
+
+      _indexCreateCount.incrementAndGet();
+
+      if (indexPath != null) {
+        try {
+          index.write(indexPath);
+        } catch (IOException e) {
+          log.log(Level.FINER, e.toString(), e);
+        }
+      }
+
+      return index;
     } finally {
       jar.closeZipFile(zipFile);
     }
   }
+
+  private Path getIndexPath(EnvironmentClassLoader loader, Path jar)
+  {
+    Path workDir = WorkDir.getLocalWorkDir(loader);
+
+    if (workDir == null)
+      return null;
+
+    long hash = Crc64.generate(jar.getFullPath());
+
+    return workDir.lookup("scan-index/" + Long.toHexString(hash) + ".idx");
+  }
   
   /**
    * Adds a jar where none of the classes have a scanned match.
@@ -243,9 +397,10 @@ public class ScanManager {
     JarByteCodeMatcher(EnvironmentClassLoader loader,
                        Path root,
                        String packageName,
-                       ScanListener []listeners)
+                       ScanListener []listeners,
+                       long []listenerTimes)
     {
-      super(loader, root, packageName, listeners);
+      super(loader, root, packageName, listeners, listenerTimes);
     }
   }
 
@@ -256,9 +411,10 @@ public class ScanManager {
     PathByteCodeMatcher(EnvironmentClassLoader loader,
                         Path root,
                         String packageName,
-                        ScanListener []listeners)
+                        ScanListener []listeners,
+                        long []listenerTimes)
     {
-      super(loader, root, packageName, listeners);
+      super(loader, root, packageName, listeners, listenerTimes);
     }
 
     void init(Path root, Path path)
@@ -289,16 +445,19 @@ public class ScanManager {
     private final ScanListener []_listeners;
     private final ScanListener []_currentListeners;
     private final ScanClass []_currentClasses;
+    private final long []_listenerTimes;
 
     ScanByteCodeMatcher(EnvironmentClassLoader loader,
                         Path root,
                         String packageRoot,
-                        ScanListener []listeners)
+                        ScanListener []listeners,
+                        long []listenerTimes)
     {
       _root = root;
       _packageRoot = packageRoot;
       
       _listeners = listeners;
+      _listenerTimes = listenerTimes;
       _currentListeners = new ScanListener[listeners.length];
       _currentClasses = new ScanClass[listeners.length];
     }
@@ -325,9 +484,13 @@ public class ScanManager {
         if (listener == null)
           continue;
 
+        long startTime = System.nanoTime();
+
         ScanClass scanClass = listener.scanClass(_root, _packageRoot, 
                                                  className, modifiers);
 
+        _listenerTimes[i] += System.nanoTime() - startTime;
+
         if (scanClass != null) {
           activeCount++;
           _currentClasses[i] = scanClass;
@@ -385,10 +548,16 @@ public class ScanManager {
     {
       boolean isScanValue = false;
       
-      for (ScanClass scanClass : _currentClasses) {
+      for (int i = 0; i < _currentClasses.length; i++) {
+        ScanClass scanClass = _currentClasses[i];
+
         if (scanClass != null) {
+          long startTime = System.nanoTime();
+
           if (scanClass.finishScan())
             isScanValue = true;
+
+          _listenerTimes[i] += System.nanoTime() - startTime;
         }
       }
       
@@ -418,4 +587,41 @@ public class ScanManager {
       return activeCount == 0;
     }
   }
+
+  /**
+   * Loads jar indexes from the shared queue until it is empty.
+   */
+  class IndexTask implements Runnable {
+    private final EnvironmentClassLoader _loader;
+    private final ConcurrentLinkedQueue<Path> _jarQueue;
+    private final CountDownLatch _latch;
+
+    IndexTask(EnvironmentClassLoader loader,
+              ConcurrentLinkedQueue<Path> jarQueue,
+              CountDownLatch latch)
+    {
+      _loader = loader;
+      _jarQueue = jarQueue;
+      _latch = latch;
+    }
+
+    @Override
+    public void run()
+    {
+      Path jar;
+
+      while ((jar = _jarQueue.poll()) != null) {
+        try {
+          ScanIndex index = loadScanIndex(_loader, jar);
+
+          if (index != null)
+            _indexMap.put(jar, index);
+        } catch (Throwable e) {
+          log.log(Level.FINE, e.toString(), e);
+        } finally {
+          _latch.countDown();
+        }
+      }
+    }
+  }
 }
@@ -30,24 +30,52 @@
 package com.caucho.log;
 
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Filter;
 import java.util.logging.Handler;
+import java.util.logging.Level;
 import java.util.logging.LogRecord;
 
+import com.caucho.config.ConfigException;
 import com.caucho.env.actor.AbstractActorProcessor;
-import com.caucho.env.actor.ValueActorQueue;
+import com.caucho.env.actor.ActorQueue;
+import com.caucho.util.CurrentTime;
 import com.caucho.util.L10N;
+import com.caucho.util.RingItem;
+import com.caucho.util.RingItemFactory;
 import com.caucho.vfs.WriteStream;
 
 /**
  * Configures a log handler
+ *
+ * <p>An async handler publishes records into a preallocated ring which a
+ * single writer drains, so a slow disk or a rollover doesn't stall the
+ * logging threads.  The writer flushes once per drained batch.
  */
 abstract public class AbstractLogHandler extends Handler {
-  private final ValueActorQueue<LogRecord> _logQueue
-    = new ValueActorQueue<LogRecord>(256, new LogQueue());
+  private static final L10N L = new L10N(AbstractLogHandler.class);
+
+  // the async record being written by the current thread
+  private static final ThreadLocal<LogItem> _publishItem
+    = new ThreadLocal<LogItem>();
+
+  // true while the current thread is an async writer
+  private static final ThreadLocal<Boolean> _isAsyncWriter
+    = new ThreadLocal<Boolean>();
 
   private Filter _filter;
 
+  private boolean _isAsync;
+  private int _asyncQueueSize = 4096;
+  private Overflow _asyncOverflow = Overflow.BLOCK;
+  private Level _asyncDropLevel = Level.INFO;
+
+  private volatile ActorQueue<LogItem> _logQueue;
+  private volatile boolean _isClosed;
+
+  private final AtomicLong _dropCount = new AtomicLong();
+  private long _reportedDropCount;
+
   /**
    * Sets the filter.
    */
@@ -62,6 +90,67 @@ abstract public class AbstractLogHandler extends Handler {
     return _filter;
   }
 
+  /**
+   * Enables asynchronous writes.  Records are formatted by the writer
+   * thread, so formats which read the current request should stay
+   * synchronous.
+   */
+  public void setAsync(boolean isAsync)
+  {
+    _isAsync = isAsync;
+  }
+
+  public boolean isAsync()
+  {
+    return _isAsync;
+  }
+
+  /**
+   * Sets the size of the async ring.
+   */
+  public void setAsyncQueueSize(int size)
+  {
+    if (size <= 0)
+      throw new ConfigException(L.l("async-queue-size '{0}' must be positive",
+                                    size));
+
+    _asyncQueueSize = size;
+  }
+
+  /**
+   * Sets the policy when the async ring is full: "block" waits for the
+   * writer, "drop" drops the record, and "drop-below-level" drops records
+   * below the async-drop-level and waits for the others.
+   */
+  public void setAsyncOverflow(String overflow)
+  {
+    if ("block".equals(overflow))
+      _asyncOverflow = Overflow.BLOCK;
+    else if ("drop".equals(overflow))
+      _asyncOverflow = Overflow.DROP;
+    else if ("drop-below-level".equals(overflow))
+      _asyncOverflow = Overflow.DROP_BELOW_LEVEL;
+    else
+      throw new ConfigException(L.l("'{0}' is an unknown async-overflow. Valid values are 'block', 'drop', and 'drop-below-level'.",
+                                    overflow));
+  }
+
+  /**
+   * Sets the level for the drop-below-level policy.
+   */
+  public void setAsyncDropLevel(Level level)
+  {
+    _asyncDropLevel = level;
+  }
+
+  /**
+   * Returns the number of records dropped because the async ring was full.
+   */
+  public long getDropCount()
+  {
+    return _dropCount.get();
+  }
+
   /**
    * Publishes the record.
    */
@@ -80,36 +169,171 @@ abstract public class AbstractLogHandler extends Handler {
       System.out.println(this + ": no record");
       return;
     }
+
+    if (_isAsync && ! _isClosed && _isAsyncWriter.get() == null) {
+      offerAsync(record);
+
+      if (CurrentTime.isTest()) {
+        waitForEmpty(20);
+      }
+
+      return;
+    }
     
+    LogItem publishItem = _publishItem.get();
+
+    if (publishItem != null) {
+      // a record logged while an async writer writes a record, e.g. by a
+      // formatter, is written directly since the writer can't drain its
+      // own ring
+      try {
+        _publishItem.set(null);
+
+        processPublish(record);
+
+        // the writer flushes its batch when the ring is drained
+        if (_isAsync)
+          processFlushBuffer();
+        else
+          processFlush();
+      } finally {
+        _publishItem.set(publishItem);
+      }
+
+      return;
+    }
+
     //synchronized (this) {
       processPublish(record);
       processFlush();
     //}
-    
-    /*
-    _logQueue.offer(record);
-    
-    if (CurrentTime.isTest()) {
-      waitForEmpty();
+  }
+
+  private void offerAsync(LogRecord record)
+  {
+    ActorQueue<LogItem> logQueue = getLogQueue();
+
+    boolean isWait = isBlockOnOverflow(record);
+
+    LogItem item = logQueue.startOffer(isWait);
+
+    // startOffer only waits for a single timeout
+    while (item == null && isWait && ! _isClosed) {
+      item = logQueue.startOffer(true);
     }
-    */
+
+    if (item == null) {
+      if (isWait) {
+        // closed while waiting
+        processPublish(record);
+        processFlush();
+      }
+      else
+        _dropCount.incrementAndGet();
+
+      return;
+    }
+
+    Thread thread = Thread.currentThread();
+
+    item.init(record,
+              CurrentTime.getExactTime(),
+              thread.getName(),
+              thread.getContextClassLoader());
+
+    logQueue.finishOffer(item);
+  }
+
+  private boolean isBlockOnOverflow(LogRecord record)
+  {
+    switch (_asyncOverflow) {
+    case DROP:
+      return false;
+
+    case DROP_BELOW_LEVEL:
+      return _asyncDropLevel.intValue() <= record.getLevel().intValue();
+
+    default:
+      return true;
+    }
+  }
+
+  private ActorQueue<LogItem> getLogQueue()
+  {
+    ActorQueue<LogItem> logQueue = _logQueue;
+
+    if (logQueue == null) {
+      synchronized (this) {
+        logQueue = _logQueue;
+
+        if (logQueue == null) {
+          logQueue = new ActorQueue<LogItem>(_asyncQueueSize,
+                                             new LogItemFactory(),
+                                             new LogQueue());
+          _logQueue = logQueue;
+        }
+      }
+    }
+
+    return logQueue;
   }
   
-  private void waitForEmpty()
+  private void waitForEmpty(int timeoutMillis)
   {
-    _logQueue.wake();
+    ActorQueue<LogItem> logQueue = _logQueue;
+
+    if (logQueue == null)
+      return;
+
+    logQueue.wake();
       
-    for (int i = 0; i < 20 && ! _logQueue.isEmpty(); i++) {
+    for (int i = 0; i < timeoutMillis && ! logQueue.isEmpty(); i++) {
       try {
         Thread.sleep(1);
       } catch (Exception e) {
       }
     }
   }
+
+  /**
+   * Returns the publishing thread's name for the record being written,
+   * which differs from the current thread for an async handler.
+   */
+  static String getPublishThreadName()
+  {
+    LogItem item = _publishItem.get();
+
+    if (item != null)
+      return item.getThreadName();
+    else
+      return Thread.currentThread().getName();
+  }
+
+  /**
+   * Returns the publish time of the async record being written, or
+   * the given time for a synchronous write.
+   */
+  static long getPublishTime(long now)
+  {
+    LogItem item = _publishItem.get();
+
+    if (item != null)
+      return item.getTime();
+    else
+      return now;
+  }
     
   abstract protected void processPublish(LogRecord record);
   
   abstract protected void processFlush();
+
+  /**
+   * Ends an async record without flushing the batch to the file, e.g. to
+   * let a timestamp filter see each record.
+   */
+  protected void processFlushBuffer()
+  {
+  }
   
   protected void printMessage(WriteStream os,
                               String message, 
@@ -133,11 +357,36 @@ abstract public class AbstractLogHandler extends Handler {
   }
 
   /**
-   * Closes the handler.
+   * Closes the handler, writing any queued async records.
    */
   @Override
   public void close()
   {
+    _isClosed = true;
+
+    waitForEmpty(5000);
+  }
+
+  /**
+   * Logs the records dropped since the last report.
+   */
+  private void publishDropCount()
+  {
+    long dropCount = _dropCount.get();
+    long delta = dropCount - _reportedDropCount;
+
+    if (delta <= 0)
+      return;
+
+    _reportedDropCount = dropCount;
+
+    LogRecord record
+      = new LogRecord(Level.WARNING,
+                      L.l("{0} log records dropped because the async log queue for {1} was full ({2} total).",
+                          delta, this, dropCount));
+    record.setLoggerName(AbstractLogHandler.class.getName());
+
+    processPublish(record);
   }
 
   @Override
@@ -145,8 +394,74 @@ abstract public class AbstractLogHandler extends Handler {
   {
     return getClass().getSimpleName() + "[]";
   }
+
+  private enum Overflow {
+    BLOCK,
+    DROP,
+    DROP_BELOW_LEVEL;
+  }
+
+  private static final class LogItem extends RingItem {
+    private LogRecord _record;
+    private long _time;
+    private String _threadName;
+    private ClassLoader _loader;
+
+    LogItem(int index)
+    {
+      super(index);
+    }
+
+    void init(LogRecord record,
+              long time,
+              String threadName,
+              ClassLoader loader)
+    {
+      _record = record;
+      _time = time;
+      _threadName = threadName;
+      _loader = loader;
+    }
+
+    LogRecord getRecord()
+    {
+      return _record;
+    }
+
+    long getTime()
+    {
+      return _time;
+    }
+
+    String getThreadName()
+    {
+      return _threadName;
+    }
+
+    ClassLoader getClassLoader()
+    {
+      return _loader;
+    }
+
+    void clear()
+    {
+      _record = null;
+      _threadName = null;
+      _loader = null;
+    }
+  }
+
+  private static final class LogItemFactory
+    implements RingItemFactory<LogItem>
+  {
+    @Override
+    public LogItem createItem(int index)
+    {
+      return new LogItem(index);
+    }
+  }
   
-  private class LogQueue extends AbstractActorProcessor<LogRecord>
+  private class LogQueue extends AbstractActorProcessor<LogItem>
   {
     @Override
     public String getThreadName()
@@ -157,15 +472,40 @@ abstract public class AbstractLogHandler extends Handler {
     }
 
     @Override
-    public void process(LogRecord value) throws Exception
+    public void process(LogItem item) throws Exception
     {
-      processPublish(value);
+      Thread thread = Thread.currentThread();
+      ClassLoader oldLoader = thread.getContextClassLoader();
+
+      try {
+        // the publishing loader selects the environment for timestamps
+        thread.setContextClassLoader(item.getClassLoader());
+        _publishItem.set(item);
+        _isAsyncWriter.set(Boolean.TRUE);
+
+        processPublish(item.getRecord());
+        processFlushBuffer();
+      } finally {
+        _publishItem.set(null);
+        _isAsyncWriter.set(null);
+        thread.setContextClassLoader(oldLoader);
+
+        item.clear();
+      }
     }
 
     @Override
     public void onProcessComplete() throws Exception
     {
-      processFlush();
+      try {
+        _isAsyncWriter.set(Boolean.TRUE);
+
+        publishDropCount();
+
+        processFlush();
+      } finally {
+        _isAsyncWriter.set(null);
+      }
     }
   }
 }
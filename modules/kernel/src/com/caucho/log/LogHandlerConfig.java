@@ -65,6 +65,11 @@ public class LogHandlerConfig extends BeanConfig {
   
   private String _timestamp = "[%Y/%m/%d %H:%M:%S.%s] {%{thread}} ";
   private PathHandler _pathHandler;
+
+  private boolean _isAsync;
+  private int _asyncQueueSize;
+  private String _asyncOverflow;
+  private Level _asyncDropLevel;
   
   private boolean _isSkipInit;
 
@@ -174,6 +179,38 @@ public class LogHandlerConfig extends BeanConfig {
     _pathHandler.setRolloverCount(count);
   }
 
+  /**
+   * Sets async writes through a ring buffer
+   */
+  public void setAsync(boolean isAsync)
+  {
+    _isAsync = isAsync;
+  }
+
+  /**
+   * Sets the async ring size
+   */
+  public void setAsyncQueueSize(int size)
+  {
+    _asyncQueueSize = size;
+  }
+
+  /**
+   * Sets the async overflow policy: block, drop, or drop-below-level
+   */
+  public void setAsyncOverflow(String overflow)
+  {
+    _asyncOverflow = overflow;
+  }
+
+  /**
+   * Sets the level for the drop-below-level policy
+   */
+  public void setAsyncDropLevel(Level level)
+  {
+    _asyncDropLevel = level;
+  }
+
   /**
    * Sets the use-parent-handlers
    */
@@ -348,9 +385,33 @@ public class LogHandlerConfig extends BeanConfig {
     if (_filter != null)
       _handler.setFilter(_filter);
 
+    if (_isAsync)
+      initAsync();
+
     logger.addHandler(_handler);
   }
 
+  private void initAsync()
+  {
+    if (! (_handler instanceof AbstractLogHandler)) {
+      throw new ConfigException(L.l("<log-handler> async requires a path or a Resin log handler, not '{0}'",
+                                    _handler));
+    }
+
+    AbstractLogHandler handler = (AbstractLogHandler) _handler;
+
+    if (_asyncQueueSize > 0)
+      handler.setAsyncQueueSize(_asyncQueueSize);
+
+    if (_asyncOverflow != null)
+      handler.setAsyncOverflow(_asyncOverflow);
+
+    if (_asyncDropLevel != null)
+      handler.setAsyncDropLevel(_asyncDropLevel);
+
+    handler.setAsync(true);
+  }
+
   static Level toLevel(String level)
     throws ConfigException
   {
@@ -224,6 +224,18 @@ public class PathHandler extends AbstractLogHandler {
     }
   }
 
+  @Override
+  protected void processFlushBuffer()
+  {
+    synchronized (_os) {
+      try {
+        _os.flushBuffer();
+      } catch (Exception e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
   /**
    * Returns the hash code.
    */
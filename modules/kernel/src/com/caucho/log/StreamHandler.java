@@ -159,6 +159,18 @@ public class StreamHandler extends AbstractLogHandler {
     }
   }
 
+  @Override
+  protected void processFlushBuffer()
+  {
+    try {
+      synchronized (_os) {
+        _os.flushBuffer();
+      }
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+  }
+
   /**
    * Returns the hash code.
    */
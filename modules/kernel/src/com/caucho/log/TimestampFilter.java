@@ -210,10 +210,6 @@ public class TimestampFilter extends StreamImpl {
     if (length == 0) {
       return;
     }
-    
-    long now;
-
-    now = CurrentTime.getExactTime();
 
     for (int i = 0; i < length; i++) {
       int ch = buffer[offset + i];
@@ -224,6 +220,10 @@ public class TimestampFilter extends StreamImpl {
       if (! _isLineBegin) {
       }
       else if (_isRecordBegin) {
+        long now = CurrentTime.getExactTime();
+
+        now = AbstractLogHandler.getPublishTime(now);
+        
         long start = _stream.getPosition();
 
         QDate localDate = QDate.allocateLocalDate();
@@ -483,7 +483,7 @@ public class TimestampFilter extends StreamImpl {
     public void print(WriteStream out, QDate cal)
       throws IOException
     {
-      out.print(Thread.currentThread().getName());
+      out.print(AbstractLogHandler.getPublishThreadName());
     }
   }
 
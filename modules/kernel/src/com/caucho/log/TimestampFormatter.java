@@ -165,6 +165,8 @@ public class TimestampFormatter extends Formatter {
     else
       now = System.currentTimeMillis();
 
+    now = AbstractLogHandler.getPublishTime(now);
+
     StringBuilder sb = new StringBuilder();
 
     QDate localDate = QDate.allocateLocalDate();
@@ -356,7 +358,7 @@ public class TimestampFormatter extends Formatter {
     @Override
     public void format(StringBuilder sb, QDate cal, LogRecord log)
     {
-      sb.append(Thread.currentThread().getName());
+      sb.append(AbstractLogHandler.getPublishThreadName());
     }
   }
 
@@ -167,6 +167,39 @@ public interface ConnectionPoolMXBean extends ManagedObjectMXBean {
   @Description("The last time of connection failure")
   public Date getLastFailTime();
 
+  /**
+   * Returns the number of allocations which waited for a connection.
+   */
+  @Description("The total number of allocations which waited for an idle connection or a create slot")
+  public long getConnectionWaitCountTotal();
+
+  /**
+   * Returns the total time spent waiting for connections.
+   */
+  @Units("milliseconds")
+  @Description("The total time in milliseconds spent waiting for connections")
+  public long getConnectionWaitTimeTotal();
+
+  /**
+   * Returns the longest wait for a connection.
+   */
+  @Units("milliseconds")
+  @Description("The longest time in milliseconds spent waiting for a connection")
+  public long getConnectionWaitTimeMax();
+
+  /**
+   * Returns the upper bounds of the wait histogram buckets.
+   */
+  @Units("milliseconds")
+  @Description("The exclusive upper bounds in milliseconds of the connection wait histogram buckets")
+  public long []getConnectionWaitHistogramBounds();
+
+  /**
+   * Returns the connection wait histogram.
+   */
+  @Description("The number of connection waits in each histogram bucket, with a final bucket for waits past the last bound")
+  public long []getConnectionWaitHistogram();
+
   //
   // Operations
   //
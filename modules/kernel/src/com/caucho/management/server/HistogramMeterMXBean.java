@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.management.server;
+
+import com.caucho.jmx.Description;
+import com.caucho.jmx.Units;
+
+/**
+ * MBean API for a latency histogram meter.  The percentiles cover all
+ * samples since the server started.
+ *
+ * <pre>
+ * resin:type=HistogramMeter,name=Resin|Port|Request Time
+ * </pre>
+ */
+@Description("A latency histogram with percentile values")
+public interface HistogramMeterMXBean extends ManagedObjectMXBean {
+  @Description("The total number of samples")
+  public long getCountTotal();
+
+  @Description("The largest sample")
+  @Units("milliseconds")
+  public double getMax();
+
+  @Description("The median sample")
+  @Units("milliseconds")
+  public double getPercentile50();
+
+  @Description("The 90th percentile sample")
+  @Units("milliseconds")
+  public double getPercentile90();
+
+  @Description("The 99th percentile sample")
+  @Units("milliseconds")
+  public double getPercentile99();
+
+  @Description("The 99.9th percentile sample")
+  @Units("milliseconds")
+  public double getPercentile999();
+}
@@ -65,7 +65,7 @@ public class Alarm implements ThreadTask, ClassLoaderListener {
   */
 
   // private static final AlarmHeap _heap = new AlarmHeap();
-  private static final AlarmClock _clock = new AlarmClock();
+  private static final AlarmWheel _clock = new AlarmWheel();
 
   private static final AtomicInteger _runningAlarmCount
     = new AtomicInteger();
@@ -78,6 +78,8 @@ public class Alarm implements ThreadTask, ClassLoaderListener {
   */
   
   private volatile Alarm _next;
+  // guarded by the alarm's wheel
+  private Alarm _prev;
   private volatile long _wakeTime;
   
   private AlarmListener _listener;
@@ -365,6 +367,16 @@ public class Alarm implements ThreadTask, ClassLoaderListener {
     _next = next;
   }
 
+  Alarm getPrev()
+  {
+    return _prev;
+  }
+
+  void setPrev(Alarm prev)
+  {
+    _prev = prev;
+  }
+
   /**
    * Return the alarm's listener.
    */
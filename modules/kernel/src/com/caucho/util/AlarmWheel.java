@@ -0,0 +1,545 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.util;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import com.caucho.env.thread.ThreadPool;
+
+/**
+ * Hierarchical timing wheel for the alarm queue.
+ *
+ * <p>Alarms are striped across several independent wheels by identity,
+ * so queueing and dequeueing only contend with alarms in the same stripe.
+ * Each wheel has four levels of 256 buckets with 1ms, 256ms, 65s and
+ * 4.6h resolution.  Buckets are doubly linked, so re-arming an alarm
+ * is a constant-time unlink and push regardless of the queue size.
+ * Alarms cascade to the finer levels as the coordinator advances time.
+ */
+public class AlarmWheel {
+  private static final Logger log
+    = Logger.getLogger(AlarmWheel.class.getName());
+  private static final L10N L = new L10N(AlarmWheel.class);
+
+  private static final int LEVEL_BITS = 8;
+  private static final int LEVEL_SIZE = 1 << LEVEL_BITS;
+  private static final int LEVEL_MASK = LEVEL_SIZE - 1;
+  private static final int LEVELS = 4;
+
+  // alarms whose wake time has already passed
+  private static final int DUE_BUCKET = LEVELS * LEVEL_SIZE;
+
+  private static final int MAX_WHEELS = 64;
+
+  private final Wheel []_wheels;
+  private final int _wheelMask;
+
+  private final AtomicLong _nextAlarmTime = new AtomicLong();
+
+  private volatile long _lastTime;
+
+  private ThreadPool _threadPool = ThreadPool.getThreadPool();
+
+  public AlarmWheel()
+  {
+    this(getDefaultWheelCount());
+  }
+
+  /**
+   * Creates the alarm queue.
+   *
+   * @param wheelCount the number of lock stripes, a power of two
+   */
+  public AlarmWheel(int wheelCount)
+  {
+    if (wheelCount <= 0 || Integer.bitCount(wheelCount) != 1) {
+      throw new IllegalArgumentException(L.l("{0} is an invalid wheel count",
+                                             wheelCount));
+    }
+
+    long now = CurrentTime.getExactTime();
+
+    _wheels = new Wheel[wheelCount];
+    _wheelMask = wheelCount - 1;
+
+    for (int i = 0; i < wheelCount; i++) {
+      _wheels[i] = new Wheel(now);
+    }
+
+    _lastTime = now;
+  }
+
+  private static int getDefaultWheelCount()
+  {
+    int cpuCount = Runtime.getRuntime().availableProcessors();
+
+    int count = 4;
+
+    while (count < 2 * cpuCount && count < MAX_WHEELS) {
+      count *= 2;
+    }
+
+    return count;
+  }
+
+  /**
+   * Queue the alarm for wakeup.
+   *
+   * @param wakeTime the absolute time in milliseconds to wake
+   *
+   * @return true if the coordinator needs to wake before its next alarm
+   */
+  public boolean queueAt(Alarm alarm, long wakeTime)
+  {
+    if (! getWheel(alarm).queueAt(alarm, wakeTime))
+      return false;
+
+    return updateNextAlarmTime(wakeTime);
+  }
+
+  void dequeue(Alarm alarm)
+  {
+    getWheel(alarm).dequeue(alarm);
+  }
+
+  private Wheel getWheel(Alarm alarm)
+  {
+    int hash = System.identityHashCode(alarm);
+
+    return _wheels[(hash ^ (hash >>> 16)) & _wheelMask];
+  }
+
+  /**
+   * Advances the wheels to now, dispatching the expired alarms.
+   *
+   * @return the time of the next alarm or cascade
+   */
+  public long extractAlarm(long now, boolean isTest)
+  {
+    long lastTime = _lastTime;
+    long nextTime = _nextAlarmTime.get();
+
+    if (lastTime <= now && now < nextTime) {
+      return nextTime;
+    }
+
+    _lastTime = now;
+
+    // queueAt calls from here on lower the time again
+    _nextAlarmTime.set(Long.MAX_VALUE);
+
+    ArrayList<Alarm> expiredList = new ArrayList<Alarm>();
+
+    nextTime = Long.MAX_VALUE;
+
+    for (Wheel wheel : _wheels) {
+      nextTime = Math.min(nextTime,
+                          wheel.advance(now, lastTime, expiredList));
+    }
+
+    updateNextAlarmTime(nextTime);
+
+    for (int i = 0; i < expiredList.size(); i++) {
+      dispatch(expiredList.get(i), isTest);
+    }
+
+    return _nextAlarmTime.get();
+  }
+
+  private boolean updateNextAlarmTime(long time)
+  {
+    long prevTime;
+
+    do {
+      prevTime = _nextAlarmTime.get();
+
+      if (prevTime <= time) {
+        return false;
+      }
+    } while (! _nextAlarmTime.compareAndSet(prevTime, time));
+
+    return true;
+  }
+
+  private void dispatch(Alarm alarm, boolean isTest)
+  {
+    if (isTest) {
+      try {
+        alarm.run();
+      } catch (Throwable e) {
+        e.printStackTrace();
+      }
+    }
+    else if (alarm.isPriority()) {
+      _threadPool.schedulePriority(alarm);
+    }
+    else {
+      _threadPool.schedule(alarm);
+    }
+  }
+
+  /**
+   * Returns the next alarm ready to run
+   */
+  long getNextAlarmTime()
+  {
+    return _nextAlarmTime.get();
+  }
+
+  // test
+
+  void testClear()
+  {
+    _nextAlarmTime.set(0);
+
+    long now = CurrentTime.getExactTime();
+
+    for (Wheel wheel : _wheels) {
+      wheel.clear(now);
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _wheels.length + "]";
+  }
+
+  /**
+   * One lock stripe of the alarm queue.  All bucket lists and the
+   * occupancy bitmap are guarded by the wheel's monitor.
+   */
+  static final class Wheel {
+    private final Alarm []_buckets = new Alarm[DUE_BUCKET + 1];
+    private final long []_occupied = new long[DUE_BUCKET / 64];
+
+    private long _time;
+
+    Wheel(long time)
+    {
+      _time = time;
+    }
+
+    synchronized boolean queueAt(Alarm alarm, long wakeTime)
+    {
+      if (alarm.getBucket() >= 0) {
+        if (alarm.getWakeTime() == wakeTime)
+          return false;
+
+        remove(alarm);
+      }
+
+      alarm.setWakeTime(wakeTime);
+
+      if (wakeTime <= 0)
+        return false;
+
+      add(alarm);
+
+      return true;
+    }
+
+    synchronized void dequeue(Alarm alarm)
+    {
+      alarm.setWakeTime(0);
+
+      if (alarm.getBucket() >= 0)
+        remove(alarm);
+    }
+
+    /**
+     * Moves the wheel forward to now, cascading the coarse buckets
+     * and collecting the expired alarms.
+     *
+     * @return the time of the wheel's next alarm or cascade
+     */
+    synchronized long advance(long now,
+                              long lastTime,
+                              ArrayList<Alarm> expiredList)
+    {
+      if (now < _time) {
+        // the clock moved backwards, e.g. a test time
+        rehash(now);
+      }
+
+      long time;
+
+      while ((time = getNextEventTime()) <= now) {
+        _time = time;
+
+        for (int level = LEVELS - 1; level >= 0; level--) {
+          int shift = level * LEVEL_BITS;
+
+          if ((time & ((1L << shift) - 1)) == 0) {
+            int index = (int) ((time >> shift) & LEVEL_MASK);
+
+            cascade((level << LEVEL_BITS) + index);
+          }
+        }
+      }
+
+      _time = now;
+
+      Alarm alarm = removeBucket(DUE_BUCKET);
+
+      while (alarm != null) {
+        Alarm next = alarm.getNext();
+
+        alarm.setNext(null);
+
+        long delta = now - alarm.getWakeTime();
+
+        if (delta > 10000) {
+          log.warning("AlarmWheel slow alarm " + alarm + " " + delta + "ms"
+                      + " coordinator-delta " + (now - lastTime) + "ms");
+        }
+
+        alarm.setWakeTime(0);
+
+        expiredList.add(alarm);
+
+        alarm = next;
+      }
+
+      return getNextEventTime();
+    }
+
+    /**
+     * Returns the earliest time a bucket needs processing.  Level 0 gives
+     * the exact alarm time, the higher levels give the cascade time.
+     */
+    private long getNextEventTime()
+    {
+      long time = _time;
+      long nextTime = Long.MAX_VALUE;
+
+      for (int level = 0; level < LEVELS; level++) {
+        int shift = level * LEVEL_BITS;
+        int index = (int) ((time >> shift) & LEVEL_MASK);
+
+        int delta = getNextOccupied(level, index);
+
+        if (delta > 0) {
+          nextTime = Math.min(nextTime, ((time >> shift) + delta) << shift);
+        }
+      }
+
+      return nextTime;
+    }
+
+    /**
+     * Returns the distance from index to the next occupied bucket in the
+     * level, wrapping around to index itself, or 0 if the level is empty.
+     */
+    private int getNextOccupied(int level, int index)
+    {
+      long []occupied = _occupied;
+      int base = level * (LEVEL_SIZE / 64);
+
+      for (int delta = 1; delta <= LEVEL_SIZE; ) {
+        int bucket = (index + delta) & LEVEL_MASK;
+
+        long word = occupied[base + (bucket >> 6)] >>> (bucket & 63);
+
+        if (word != 0) {
+          delta += Long.numberOfTrailingZeros(word);
+
+          return delta <= LEVEL_SIZE ? delta : 0;
+        }
+
+        delta += 64 - (bucket & 63);
+      }
+
+      return 0;
+    }
+
+    private void cascade(int bucket)
+    {
+      Alarm alarm = removeBucket(bucket);
+
+      while (alarm != null) {
+        Alarm next = alarm.getNext();
+
+        add(alarm);
+
+        alarm = next;
+      }
+    }
+
+    /**
+     * Rebuilds the wheel around a new current time.
+     */
+    private void rehash(long now)
+    {
+      Alarm list = null;
+
+      for (int i = 0; i <= DUE_BUCKET; i++) {
+        Alarm alarm = removeBucket(i);
+
+        while (alarm != null) {
+          Alarm next = alarm.getNext();
+
+          alarm.setNext(list);
+          list = alarm;
+
+          alarm = next;
+        }
+      }
+
+      _time = now;
+
+      while (list != null) {
+        Alarm next = list.getNext();
+
+        add(list);
+
+        list = next;
+      }
+    }
+
+    private void add(Alarm alarm)
+    {
+      int bucket = getBucket(alarm.getWakeTime());
+
+      Alarm head = _buckets[bucket];
+
+      alarm.setBucket(bucket);
+      alarm.setPrev(null);
+      alarm.setNext(head);
+
+      if (head != null) {
+        head.setPrev(alarm);
+      }
+      else if (bucket < DUE_BUCKET) {
+        _occupied[bucket >> 6] |= 1L << bucket;
+      }
+
+      _buckets[bucket] = alarm;
+    }
+
+    private void remove(Alarm alarm)
+    {
+      int bucket = alarm.getBucket();
+      Alarm prev = alarm.getPrev();
+      Alarm next = alarm.getNext();
+
+      if (next != null) {
+        next.setPrev(prev);
+      }
+
+      if (prev != null) {
+        prev.setNext(next);
+      }
+      else {
+        _buckets[bucket] = next;
+
+        if (next == null && bucket < DUE_BUCKET) {
+          _occupied[bucket >> 6] &= ~(1L << bucket);
+        }
+      }
+
+      alarm.setBucket(-1);
+      alarm.setPrev(null);
+      alarm.setNext(null);
+    }
+
+    /**
+     * Detaches a bucket's list.  The alarms stay chained through their
+     * next links for the caller.
+     */
+    private Alarm removeBucket(int bucket)
+    {
+      Alarm head = _buckets[bucket];
+
+      if (head == null)
+        return null;
+
+      _buckets[bucket] = null;
+
+      if (bucket < DUE_BUCKET) {
+        _occupied[bucket >> 6] &= ~(1L << bucket);
+      }
+
+      for (Alarm ptr = head; ptr != null; ptr = ptr.getNext()) {
+        ptr.setBucket(-1);
+        ptr.setPrev(null);
+      }
+
+      return head;
+    }
+
+    private int getBucket(long wakeTime)
+    {
+      long time = _time;
+
+      if (wakeTime <= time)
+        return DUE_BUCKET;
+
+      long delta = wakeTime - time;
+
+      for (int level = 0; level < LEVELS; level++) {
+        int shift = level * LEVEL_BITS;
+
+        if (delta < (1L << (shift + LEVEL_BITS))) {
+          int index = (int) ((wakeTime >> shift) & LEVEL_MASK);
+
+          return (level << LEVEL_BITS) + index;
+        }
+      }
+
+      // beyond the wheel's span: park in the farthest top-level bucket,
+      // which re-checks the wake time when it cascades
+      int shift = (LEVELS - 1) * LEVEL_BITS;
+
+      return ((LEVELS - 1) << LEVEL_BITS)
+             + (int) (((time >> shift) - 1) & LEVEL_MASK);
+    }
+
+    synchronized void clear(long now)
+    {
+      _time = now;
+
+      for (int i = 0; i <= DUE_BUCKET; i++) {
+        Alarm alarm = removeBucket(i);
+
+        while (alarm != null) {
+          Alarm next = alarm.getNext();
+
+          alarm.setNext(null);
+          alarm.setWakeTime(0);
+
+          alarm = next;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,418 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.util;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fixed length cache with an approximate LRU replacement policy, split
+ * into independent LruCache segments.
+ *
+ * <p>Each segment has its own LRU lock, so threads touching different
+ * keys don't contend on a single LRU list. The LRU order is kept per
+ * segment, which approximates a global LRU when keys hash evenly.
+ * Each segment evicts on its own share of the capacity, so a skewed key
+ * set can evict before the cache is full.  Caches which need an exact
+ * capacity, like the session cache, use LruCache.
+ * The API matches LruCache, including the CacheListener, SyncCacheListener
+ * and LruListener callbacks, so a call site can choose either class.
+ *
+ * <p>Null keys are not allowed.  SegmentedLruCache is synchronized.
+ */
+public final class SegmentedLruCache<K,V> {
+  private static final int DEFAULT_SEGMENTS = 16;
+  private static final int MIN_SEGMENT_CAPACITY = 64;
+
+  private final LruCache<K,V> []_segments;
+  private final int _mask;
+
+  private final AtomicInteger _tailIndex = new AtomicInteger();
+
+  /**
+   * Create the cache with a specific capacity.
+   *
+   * @param initialCapacity minimum capacity of the cache
+   */
+  public SegmentedLruCache(int initialCapacity)
+  {
+    this(initialCapacity, false);
+  }
+
+  /**
+   * Create the cache with a specific capacity.
+   *
+   * @param initialCapacity minimum capacity of the cache
+   */
+  public SegmentedLruCache(int initialCapacity, boolean isStatistics)
+  {
+    this(initialCapacity, DEFAULT_SEGMENTS, isStatistics);
+  }
+
+  /**
+   * Create the cache with a specific capacity and segment count.
+   *
+   * @param initialCapacity minimum capacity of the cache
+   * @param segmentCount the maximum number of segments, rounded to a
+   *   power of two
+   */
+  @SuppressWarnings("unchecked")
+  public SegmentedLruCache(int initialCapacity,
+                           int segmentCount,
+                           boolean isStatistics)
+  {
+    int count = 1;
+
+    // small caches keep fewer segments so each segment's LRU is useful
+    while (count < segmentCount
+           && MIN_SEGMENT_CAPACITY * 2 * count <= initialCapacity) {
+      count *= 2;
+    }
+
+    _segments = new LruCache[count];
+    _mask = count - 1;
+
+    int segmentCapacity = (initialCapacity + count - 1) / count;
+
+    for (int i = 0; i < count; i++) {
+      _segments[i] = new LruCache<K,V>(segmentCapacity, isStatistics);
+    }
+  }
+
+  /**
+   * Disable the listeners
+   */
+  public void setEnableListeners(boolean isEnable)
+  {
+    for (LruCache<K,V> segment : _segments) {
+      segment.setEnableListeners(isEnable);
+    }
+  }
+
+  public void setEnableStatistics(boolean isEnable)
+  {
+    for (LruCache<K,V> segment : _segments) {
+      segment.setEnableStatistics(isEnable);
+    }
+  }
+
+  /**
+   * Returns the number of segments.
+   */
+  public int getSegmentCount()
+  {
+    return _segments.length;
+  }
+
+  /**
+   * Returns the current number of entries in the cache.
+   */
+  public int size()
+  {
+    int size = 0;
+
+    for (LruCache<K,V> segment : _segments) {
+      size += segment.size();
+    }
+
+    return size;
+  }
+
+  /**
+   * Returns the capacity.
+   */
+  public int getCapacity()
+  {
+    int capacity = 0;
+
+    for (LruCache<K,V> segment : _segments) {
+      capacity += segment.getCapacity();
+    }
+
+    return capacity;
+  }
+
+  /**
+   * Clears the cache
+   */
+  public void clear()
+  {
+    for (LruCache<K,V> segment : _segments) {
+      segment.clear();
+    }
+  }
+
+  /**
+   * Get an item from the cache and make it most recently used.
+   *
+   * @param key key to lookup the item
+   * @return the matching object in the cache
+   */
+  public V get(K key)
+  {
+    return getSegment(key).get(key);
+  }
+
+  /**
+   * Puts a new item in the cache.  If the segment is full, remove its
+   * LRU item.
+   *
+   * @param key key to store data
+   * @param value value to be stored
+   *
+   * @return old value stored under the key
+   */
+  public V put(K key, V value)
+  {
+    return getSegment(key).put(key, value);
+  }
+
+  /**
+   * Puts a new item in the cache.  If the segment is full, remove its
+   * LRU item.
+   *
+   * @param key key to store data
+   * @param value value to be stored
+   *
+   * @return the value actually stored
+   */
+  public V putIfNew(K key, V value)
+  {
+    return getSegment(key).putIfNew(key, value);
+  }
+
+  /**
+   * Puts a new item in the cache if the current value matches oldValue.
+   *
+   * @param key the key
+   * @param value the new value
+   * @param testValue the value to test against the current
+   *
+   * @return true if the put succeeds
+   */
+  public boolean compareAndPut(V testValue, K key, V value)
+  {
+    return getSegment(key).compareAndPut(testValue, key, value);
+  }
+
+  /**
+   * Removes an item from the cache
+   *
+   * @param key the key to remove
+   *
+   * @return the value removed
+   */
+  public V remove(K key)
+  {
+    return getSegment(key).remove(key);
+  }
+
+  /**
+   * Remove the last item in the LRU of the next non-empty segment.
+   */
+  public boolean removeTail()
+  {
+    int length = _segments.length;
+    int start = _tailIndex.getAndIncrement();
+
+    for (int i = 0; i < length; i++) {
+      if (_segments[(start + i) & _mask].removeTail())
+        return true;
+    }
+
+    return false;
+  }
+
+  /**
+   * Remove the last item in the LRU of the largest segment.
+   */
+  public boolean removeLongestTail()
+  {
+    LruCache<K,V> longest = null;
+
+    for (LruCache<K,V> segment : _segments) {
+      if (longest == null || longest.size() < segment.size())
+        longest = segment;
+    }
+
+    return longest.removeLongestTail();
+  }
+
+  /**
+   * Returns the keys stored in the cache
+   */
+  public Iterator<K> keys()
+  {
+    return new SegmentIterator<K>() {
+      @Override
+      Iterator<K> segmentIterator(LruCache<K,V> segment)
+      {
+        return segment.keys();
+      }
+    };
+  }
+
+  /**
+   * Returns keys stored in the cache. The old iterator isn't reused.
+   */
+  public Iterator<K> keys(Iterator<K> oldIter)
+  {
+    return keys();
+  }
+
+  /**
+   * Returns the values in the cache
+   */
+  public Iterator<V> values()
+  {
+    return new SegmentIterator<V>() {
+      @Override
+      Iterator<V> segmentIterator(LruCache<K,V> segment)
+      {
+        return segment.values();
+      }
+    };
+  }
+
+  /**
+   * Returns the values in the cache. The old iterator isn't reused.
+   */
+  public Iterator<V> values(Iterator<V> oldIter)
+  {
+    return values();
+  }
+
+  /**
+   * Returns the entries
+   */
+  public Iterator<LruCache.Entry<K,V>> iterator()
+  {
+    return new SegmentIterator<LruCache.Entry<K,V>>() {
+      @Override
+      Iterator<LruCache.Entry<K,V>> segmentIterator(LruCache<K,V> segment)
+      {
+        return segment.iterator();
+      }
+    };
+  }
+
+  /**
+   * Returns the hit count.
+   */
+  public long getHitCount()
+  {
+    long count = 0;
+
+    for (LruCache<K,V> segment : _segments) {
+      count += segment.getHitCount();
+    }
+
+    return count;
+  }
+
+  /**
+   * Returns the miss count.
+   */
+  public long getMissCount()
+  {
+    long count = 0;
+
+    for (LruCache<K,V> segment : _segments) {
+      count += segment.getMissCount();
+    }
+
+    return count;
+  }
+
+  private LruCache<K,V> getSegment(K key)
+  {
+    if (_mask == 0)
+      return _segments[0];
+
+    int hash = key != null ? key.hashCode() : 0;
+
+    // spread the high bits, since LruCache uses the low bits modulo a prime
+    hash ^= (hash >>> 16);
+    hash *= 0x85ebca6b;
+    hash ^= (hash >>> 13);
+
+    return _segments[hash & _mask];
+  }
+
+  @Override
+  public String toString()
+  {
+    return (getClass().getSimpleName()
+            + "[" + size() + "/" + getCapacity()
+            + ",segments=" + _segments.length + "]");
+  }
+
+  /**
+   * Iterates over each segment in turn.
+   */
+  abstract class SegmentIterator<T> implements Iterator<T> {
+    private int _index;
+    private Iterator<T> _iter;
+
+    abstract Iterator<T> segmentIterator(LruCache<K,V> segment);
+
+    @Override
+    public boolean hasNext()
+    {
+      while (_iter == null || ! _iter.hasNext()) {
+        if (_segments.length <= _index)
+          return false;
+
+        _iter = segmentIterator(_segments[_index++]);
+      }
+
+      return true;
+    }
+
+    @Override
+    public T next()
+    {
+      if (! hasNext())
+        throw new NoSuchElementException();
+
+      return _iter.next();
+    }
+
+    @Override
+    public void remove()
+    {
+      if (_iter == null)
+        throw new IllegalStateException();
+
+      _iter.remove();
+    }
+  }
+}
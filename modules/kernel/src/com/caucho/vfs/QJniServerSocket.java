@@ -37,7 +37,9 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.BindException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
+import java.nio.channels.ServerSocketChannel;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -92,7 +94,7 @@ public class QJniServerSocket {
 
     for (int i = 0; i < 10; i++) {
       try {
-        ServerSocket ss = new ServerSocket(port, listenBacklog, host);
+        ServerSocket ss = createServerSocket(host, port, listenBacklog);
       
         return new QServerSocketWrapper(ss);
       } catch (BindException e) {
@@ -105,7 +107,7 @@ public class QJniServerSocket {
     }
     
     try {
-      ServerSocket ss = new ServerSocket(port, listenBacklog, host);
+      ServerSocket ss = createServerSocket(host, port, listenBacklog);
       
       return new QServerSocketWrapper(ss);
     } catch (BindException e) {
@@ -117,6 +119,30 @@ public class QJniServerSocket {
 
   }
 
+  /**
+   * Creates a channel-backed server socket, so accepted sockets can be
+   * registered with a java.nio selector for keepalive.
+   */
+  private static ServerSocket createServerSocket(InetAddress host,
+                                                 int port,
+                                                 int listenBacklog)
+    throws IOException
+  {
+    ServerSocketChannel channel = ServerSocketChannel.open();
+
+    try {
+      ServerSocket ss = channel.socket();
+
+      ss.bind(new InetSocketAddress(host, port), listenBacklog);
+
+      return ss;
+    } catch (IOException e) {
+      channel.close();
+
+      throw e;
+    }
+  }
+
   /**
    * Creates the SSL ServerSocket.
    */
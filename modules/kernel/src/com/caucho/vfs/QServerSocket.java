@@ -31,6 +31,7 @@ package com.caucho.vfs;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.nio.channels.SelectableChannel;
 import java.nio.channels.Selector;
 
 /**
@@ -106,6 +107,14 @@ abstract public class QServerSocket {
     return null;
   }
 
+  /**
+   * Returns the selectable channel for accepted sockets, if available.
+   */
+  public SelectableChannel getSelectableChannel()
+  {
+    return null;
+  }
+
   public boolean isClosed()
   {
     return false;
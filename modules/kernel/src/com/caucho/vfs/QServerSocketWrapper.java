@@ -33,6 +33,7 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.SelectableChannel;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.spi.SelectorProvider;
@@ -196,6 +197,20 @@ public class QServerSocketWrapper extends QServerSocket {
     }
   }
 
+  /**
+   * Returns the channel when the server socket was opened with nio.
+   */
+  @Override
+  public SelectableChannel getSelectableChannel()
+  {
+    ServerSocket ss = _ss;
+
+    if (ss != null)
+      return ss.getChannel();
+    else
+      return null;
+  }
+
   /**
    * Closes the underlying socket.
    */
@@ -28,10 +28,12 @@
 
 package com.caucho.quercus;
 
+import java.io.Serializable;
+
 /**
  * Records the source file location of a statement or expression.
  */
-public class Location {
+public class Location implements Serializable {
   public static final Location UNKNOWN = new Location();
 
   private final String _fileName;
@@ -121,4 +123,16 @@ public class Location {
   {
     return "Location[" + _fileName + ":" + _lineNumber + "]";
   }
+
+  /**
+   * Restores the UNKNOWN singleton, which is compared by identity.
+   */
+  private Object readResolve()
+  {
+    if (_fileName == null && _userPath == null && _lineNumber == 0
+        && _className == null && _functionName == null)
+      return UNKNOWN;
+    else
+      return this;
+  }
 }
@@ -779,6 +779,22 @@ public class QuercusContext
     _pageManager.setPageCacheSize(size);
   }
 
+  /**
+   * Set to true if parsed programs are saved in the work directory.
+   */
+  public void setProgramCache(boolean isProgramCache)
+  {
+    _pageManager.setProgramCache(isProgramCache);
+  }
+
+  /**
+   * Returns true if parsed programs are saved in the work directory.
+   */
+  public boolean isProgramCache()
+  {
+    return _pageManager.isProgramCache();
+  }
+
   /**
    * Gets the max size of the regexp cache.
    */
@@ -34,12 +34,18 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.PrintWriter;
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.IdentityHashMap;
 import java.util.Map;
 import com.caucho.util.RandomUtil;
 
 /**
  * Represents a PHP array value.
+ *
+ * Arrays start packed: while the keys are 0..n-1 in insertion order,
+ * entries are indexed directly by key in _packed, without a hash
+ * table or hash chains.  The first key that breaks the sequence
+ * converts the array to the hashed form.
  */
 public class ArrayValueImpl extends ArrayValue
   implements Serializable
@@ -54,6 +60,13 @@ public class ArrayValueImpl extends ArrayValue
   // save memory on short arrays
   private static final int MIN_HASH = 4;
 
+  private static final int MIN_PACKED = 8;
+
+  // true once the keys are no longer 0..n-1 in order
+  private boolean _isHashed;
+  // entries indexed by key for a packed array
+  private Entry []_packed;
+
   private Entry []_entries;
   private int _hashMask;
 
@@ -118,6 +131,8 @@ public class ArrayValueImpl extends ArrayValue
     _isDirty = true;
 
     _size = source._size;
+    _isHashed = source._isHashed;
+    _packed = source._packed;
     _entries = source._entries;
     _hashMask = source._hashMask;
 
@@ -134,7 +149,11 @@ public class ArrayValueImpl extends ArrayValue
 
     _isDirty = true;
 
+    ArrayValueImpl sourceImpl = source;
+
     _size = source.getSize();
+    _isHashed = sourceImpl._isHashed;
+    _packed = sourceImpl._packed;
     _entries = source.getEntries();
     _hashMask = source.getHashMask();
 
@@ -247,11 +266,21 @@ public class ArrayValueImpl extends ArrayValue
     else
       entries = null;
 
+    Entry []packed = _packed;
+
+    if (packed != null)
+      packed = new Entry[packed.length];
+
+    int index = 0;
+
     Entry prev = null;
     for (Entry ptr = _head; ptr != null; ptr = ptr.getNext()) {
       Entry ptrCopy = new Entry(ptr);
 
-      if (entries != null) {
+      if (! _isHashed) {
+        packed[index++] = ptrCopy;
+      }
+      else if (entries != null) {
         int hash = ptr.getKey().hashCode() & _hashMask;
 
         Entry head = entries[hash];
@@ -282,6 +311,111 @@ public class ArrayValueImpl extends ArrayValue
     _tail = prev;
 
     _entries = entries;
+    _packed = packed;
+  }
+
+  /**
+   * Converts a packed array to the hashed form.
+   */
+  private void toHashed()
+  {
+    if (_isHashed)
+      return;
+
+    _isHashed = true;
+    _packed = null;
+    _entries = null;
+    _hashMask = 0;
+
+    if (_size < MIN_HASH) {
+      // short arrays use the next-hash chain as a list
+      Entry prev = null;
+
+      for (Entry ptr = _head; ptr != null; ptr = ptr.getNext()) {
+        ptr.setNextHash(null);
+
+        if (prev != null)
+          prev.setNextHash(ptr);
+
+        prev = ptr;
+      }
+    }
+    else {
+      int capacity = 8;
+
+      while (capacity <= 2 * _size) {
+        capacity *= 2;
+      }
+
+      _entries = new Entry[capacity];
+      _hashMask = capacity - 1;
+
+      for (Entry entry = _head; entry != null; entry = entry.getNext()) {
+        addEntry(entry);
+      }
+    }
+  }
+
+  /**
+   * Returns the entry of a packed array, or null if missing.
+   */
+  private Entry getPackedEntry(Value key)
+  {
+    if (key instanceof LongValue) {
+      long index = key.toLong();
+
+      if (0 <= index && index < _size)
+        return _packed[(int) index];
+    }
+
+    return null;
+  }
+
+  /**
+   * Returns true if the key extends a packed array.
+   */
+  private boolean isPackedTail(Value key)
+  {
+    return key instanceof LongValue && key.toLong() == _size;
+  }
+
+  /**
+   * Appends a new entry to a packed array.
+   */
+  private Entry createPackedEntry(Value key)
+  {
+    Entry []packed = _packed;
+    int size = _size;
+
+    if (packed == null) {
+      packed = new Entry[MIN_PACKED];
+      _packed = packed;
+    }
+    else if (packed.length <= size) {
+      packed = Arrays.copyOf(packed, 2 * packed.length);
+      _packed = packed;
+    }
+
+    Entry newEntry = new Entry(key);
+
+    packed[size] = newEntry;
+
+    _size = size + 1;
+    _nextAvailableIndex = size + 1;
+
+    if (_head == null) {
+      _head = newEntry;
+      _tail = newEntry;
+      setCurrent(newEntry);
+    }
+    else {
+      newEntry.setPrev(_tail);
+
+      _tail.setNext(newEntry);
+      _tail = newEntry;
+    }
+
+    return newEntry;
   }
 
   /**
@@ -440,6 +574,8 @@ public class ArrayValueImpl extends ArrayValue
       _isDirty = false;
     }
 
+    _isHashed = false;
+    _packed = null;
     _entries = null;
 
     _size = 0;
@@ -487,6 +623,8 @@ public class ArrayValueImpl extends ArrayValue
     if (_isDirty)
       copyOnWrite();
 
+    toHashed();
+
     _size++;
 
     Entry []entries = _entries;
@@ -521,6 +659,8 @@ public class ArrayValueImpl extends ArrayValue
     if (_isDirty)
       copyOnWrite();
 
+    toHashed();
+
     int index = 0;
 
     ArrayValueImpl result = new ArrayValueImpl();
@@ -786,6 +926,15 @@ public class ArrayValueImpl extends ArrayValue
   {
     key = key.toKey();
 
+    if (! _isHashed) {
+      Entry entry = getPackedEntry(key);
+
+      if (entry != null)
+        return entry.toValue();
+      else
+        return UnsetValue.UNSET;
+    }
+
     Entry []entries = _entries;
     Entry entry;
 
@@ -825,6 +974,15 @@ public class ArrayValueImpl extends ArrayValue
   {
     key = key.toKey();
 
+    if (! _isHashed) {
+      Entry entry = getPackedEntry(key);
+
+      if (entry != null)
+        return entry.getRawValue();
+      else
+        return UnsetValue.UNSET;
+    }
+
     Entry []entries = _entries;
     Entry entry;
 
@@ -914,6 +1072,9 @@ public class ArrayValueImpl extends ArrayValue
   {
     key = key.toKey();
 
+    if (! _isHashed)
+      return getPackedEntry(key);
+
     Entry []entries = _entries;
     Entry entry;
 
@@ -946,6 +1107,21 @@ public class ArrayValueImpl extends ArrayValue
 
     key = key.toKey();
 
+    if (! _isHashed) {
+      Entry entry = getPackedEntry(key);
+
+      if (entry == null)
+        return UnsetValue.UNSET;
+      else if (entry == _tail) {
+        // removing the tail keeps the array packed
+        _packed[_size - 1] = null;
+
+        return removeEntry(key, entry);
+      }
+
+      toHashed();
+    }
+
     Entry []entries = _entries;
     Entry entry;
 
@@ -1054,6 +1230,17 @@ public class ArrayValueImpl extends ArrayValue
 
     key = key.toKey();
 
+    if (! _isHashed) {
+      Entry entry = getPackedEntry(key);
+
+      if (entry != null)
+        return entry;
+      else if (isPackedTail(key))
+        return createPackedEntry(key);
+
+      toHashed();
+    }
+
     int hash = key.hashCode();
 
     int hashMask = _hashMask;
@@ -1125,6 +1312,13 @@ public class ArrayValueImpl extends ArrayValue
   {
     key = key.toKey();
 
+    if (! _isHashed) {
+      if (isPackedTail(key))
+        return createPackedEntry(key);
+
+      toHashed();
+    }
+
     int hashMask = _hashMask;
     int hash = key.hashCode() & hashMask;
 
@@ -1250,6 +1444,8 @@ public class ArrayValueImpl extends ArrayValue
     if (_isDirty)
       copyOnWrite();
 
+    toHashed();
+
     Entry []values = new Entry[size()];
 
     int length = values.length;
@@ -1331,15 +1527,6 @@ public class ArrayValueImpl extends ArrayValue
   {
     int size = in.readInt();
 
-    int capacity = DEFAULT_SIZE;
-
-    while (capacity < 4 * size) {
-      capacity *= 2;
-    }
-
-    _entries = new Entry[capacity];
-    _hashMask = _entries.length - 1;
-
     for (int i = 0; i < size; i++) {
       put((Value) in.readObject(), (Value) in.readObject());
     }
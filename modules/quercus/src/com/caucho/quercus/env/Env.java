@@ -34,6 +34,7 @@ import java.io.InputStream;
 import java.lang.ref.WeakReference;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -238,6 +239,17 @@ public class Env
   private static final FreeList<Value[]> _freeConstList
     = new FreeList<Value[]>(256);
 
+  private static final int CALL_STACK_SIZE = 256;
+
+  private static final FreeList<Expr[]> _freeCallStackList
+    = new FreeList<Expr[]>(256);
+
+  private static final FreeList<Value[]> _freeCallThisStackList
+    = new FreeList<Value[]>(256);
+
+  private static final FreeList<Value[][]> _freeCallArgStackList
+    = new FreeList<Value[][]>(256);
+
   private static final FreeList<QDate> _freeGmtDateList
     = new FreeList<QDate>(256);
 
@@ -374,8 +386,9 @@ public class Env
   private ArrayValue _inputEnv;
   private ArrayValue _inputServer;
 
-  private ArrayValue _inputPost = new ArrayValueImpl();
-  private ArrayValue _files = new ArrayValueImpl();
+  // POST data and uploads are parsed on first use
+  private ArrayValue _inputPost;
+  private ArrayValue _files;
 
   private StringValue _inputData;
 
@@ -975,9 +988,40 @@ public class Env
 
   public ArrayValue getInputPostArray()
   {
+    initPost();
+
     return _inputPost;
   }
 
+  /**
+   * Returns the uploaded files.
+   */
+  public ArrayValue getInputFilesArray()
+  {
+    initPost();
+
+    return _files;
+  }
+
+  /**
+   * Parses the request body the first time the script asks for POST,
+   * upload or raw input data, so requests that never look at the body
+   * don't pay for parsing it.
+   */
+  private void initPost()
+  {
+    if (_inputPost != null)
+      return;
+
+    _inputPost = new ArrayValueImpl();
+    _files = new ArrayValueImpl();
+
+    fillPost(_inputPost,
+             _files,
+             _request,
+             getIniBoolean("magic_quotes_gpc"));
+  }
+
   public ArrayValue getInputCookieArray()
   {
     ArrayValue array = _inputCookie;
@@ -1021,6 +1065,8 @@ public class Env
    */
   public StringValue getInputData()
   {
+    initPost();
+
     return _inputData;
   }
 
@@ -1079,11 +1125,6 @@ public class Env
 
     _threadEnv.set(this);
 
-    fillPost(_inputPost,
-             _files,
-             _request,
-             getIniBoolean("magic_quotes_gpc"));
-
     // quercus/1b06
     String encoding = getOutputEncoding();
 
@@ -2648,9 +2689,11 @@ public class Env
 
         envVar.set(post);
 
+        ArrayValue inputPost;
+
         if (_variablesOrder.indexOf('P') >= 0
-            && _inputPost.getSize() > 0) {
-          for (Map.Entry<Value, Value> entry : _inputPost.entrySet()) {
+            && (inputPost = getInputPostArray()).getSize() > 0) {
+          for (Map.Entry<Value, Value> entry : inputPost.entrySet()) {
             post.put(entry.getKey(), entry.getValue());
           }
         }
@@ -2673,8 +2716,10 @@ public class Env
 
         ArrayValue files = new ArrayValueImpl();
 
-        if (_files != null) {
-          for (Map.Entry<Value, Value> entry : _files.entrySet()) {
+        ArrayValue inputFiles = getInputFilesArray();
+
+        if (inputFiles != null) {
+          for (Map.Entry<Value, Value> entry : inputFiles.entrySet()) {
             files.put(entry.getKey(), entry.getValue());
           }
         }
@@ -2741,8 +2786,8 @@ public class Env
               array.putAll(getInputGetArray());
               break;
             case 'P':
-              if (_inputPost.getSize() > 0)
-                fillPost(array, _inputPost);
+              if (getInputPostArray().getSize() > 0)
+                fillPost(array, getInputPostArray());
               break;
             case 'C':
               array.putAll(getInputCookieArray());
@@ -2761,7 +2806,9 @@ public class Env
             return null;
         }
 
-        if (_inputData == null)
+        StringValue inputData = getInputData();
+
+        if (inputData == null)
           return null;
 
         Var var = new Var();
@@ -2769,7 +2816,7 @@ public class Env
 
         _globalMap.put(name, envVar);
 
-        var.set(_inputData);
+        var.set(inputData);
 
         return envVar;
       }
@@ -3211,9 +3258,7 @@ public class Env
   public void pushCall(Expr call, Value obj, Value []args)
   {
     if (_callStack == null) {
-      _callStack = new Expr[256];
-      _callThisStack = new Value[256];
-      _callArgStack = new Value[256][];
+      allocateCallStack();
     }
 
     if (_callStack.length <= _callStackTop) {
@@ -3243,6 +3288,49 @@ public class Env
     _callStackTop++;
   }
 
+  private void allocateCallStack()
+  {
+    _callStack = _freeCallStackList.allocate();
+    if (_callStack == null)
+      _callStack = new Expr[CALL_STACK_SIZE];
+
+    _callThisStack = _freeCallThisStackList.allocate();
+    if (_callThisStack == null)
+      _callThisStack = new Value[CALL_STACK_SIZE];
+
+    _callArgStack = _freeCallArgStackList.allocate();
+    if (_callArgStack == null)
+      _callArgStack = new Value[CALL_STACK_SIZE][];
+  }
+
+  /**
+   * Returns the call stacks to the free lists.  Stacks which grew past
+   * the initial size are left for the gc.
+   */
+  private void freeCallStack()
+  {
+    Expr []callStack = _callStack;
+    Value []callThisStack = _callThisStack;
+    Value [][]callArgStack = _callArgStack;
+
+    _callStack = null;
+    _callThisStack = null;
+    _callArgStack = null;
+    _callStackTop = 0;
+
+    if (callStack == null || callStack.length != CALL_STACK_SIZE)
+      return;
+
+    // popped entries are not cleared, so clear the whole stack
+    Arrays.fill(callStack, null);
+    Arrays.fill(callThisStack, null);
+    Arrays.fill(callArgStack, null);
+
+    _freeCallStackList.free(callStack);
+    _freeCallThisStackList.free(callThisStack);
+    _freeCallArgStackList.free(callArgStack);
+  }
+
   /**
    * Pops the top call.
    */
@@ -7630,6 +7718,8 @@ public class Env
       _freeConstList.free(consts);
     }
 
+    freeCallStack();
+
     if (_gmtDate != null)
       _freeGmtDateList.free(_gmtDate);
 
@@ -55,6 +55,9 @@ abstract public class JavaInvoker
 
   private static final Value []NULL_VALUES = new Value[0];
 
+  // calls before a method is bound to a generated invoker
+  private static final int DIRECT_INVOKE_THRESHOLD = 64;
+
   private final ModuleContext _moduleContext;
   private final JavaClassDef _classDef;
 
@@ -79,6 +82,10 @@ abstract public class JavaInvoker
 
   private boolean _isRestReference;
 
+  private int _invokeCount;
+  private volatile boolean _isDirectBound;
+  private volatile JavaMethodInvoker _directInvoker;
+
   private boolean _isCallUsesVariableArgs;
   private boolean _isCallUsesSymbolTable;
 
@@ -818,6 +825,31 @@ abstract public class JavaInvoker
 
   abstract public Object invoke(Object obj, Object []args);
 
+  /**
+   * Returns the generated invoker for a frequently called method, or null
+   * when the method is still called, or must be called, with reflection.
+   */
+  protected final JavaMethodInvoker getDirectInvoker()
+  {
+    JavaMethodInvoker invoker = _directInvoker;
+
+    if (invoker != null || _isDirectBound)
+      return invoker;
+
+    // the count is racy, but only delays the binding
+    if (++_invokeCount < DIRECT_INVOKE_THRESHOLD)
+      return null;
+
+    synchronized (this) {
+      if (! _isDirectBound) {
+        _directInvoker = JavaMethodInvokerGenerator.create(_method);
+        _isDirectBound = true;
+      }
+
+      return _directInvoker;
+    }
+  }
+
   //
   // Utility methods
   //
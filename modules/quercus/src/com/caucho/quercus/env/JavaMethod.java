@@ -101,6 +101,11 @@ public class JavaMethod extends JavaInvoker {
   @Override
   public Object invoke(Object obj, Object []args)
   {
+    JavaMethodInvoker invoker = getDirectInvoker();
+
+    if (invoker != null)
+      return invokeDirect(invoker, obj, args);
+
     try {
       return _method.invoke(obj, args);
     }
@@ -126,6 +131,22 @@ public class JavaMethod extends JavaInvoker {
     }
   }
 
+  private Object invokeDirect(JavaMethodInvoker invoker,
+                              Object obj,
+                              Object []args)
+  {
+    try {
+      return invoker.invoke(obj, args);
+    } catch (QuercusException e) {
+      throw e;
+    } catch (Throwable e) {
+      String methodName = (_method.getDeclaringClass().getName() + "."
+                           + _method.getName());
+
+      throw new QuercusException(methodName + ": " + e.getMessage(), e);
+    }
+  }
+
   @Override
   public String toString()
   {
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+
+package com.caucho.quercus.env;
+
+/**
+ * Direct invoker for a java method, generated as bytecode to replace
+ * reflection on frequently called functions.
+ *
+ * The arguments are the boxed values produced by the marshals, and a
+ * primitive return value is boxed as with Method.invoke.  Exceptions
+ * thrown by the method are not wrapped.
+ */
+public abstract class JavaMethodInvoker {
+  protected JavaMethodInvoker()
+  {
+  }
+
+  /**
+   * Invokes the method.
+   *
+   * @param obj the target object, ignored for static methods
+   * @param args the marshaled java arguments
+   */
+  abstract public Object invoke(Object obj, Object []args)
+    throws Throwable;
+}
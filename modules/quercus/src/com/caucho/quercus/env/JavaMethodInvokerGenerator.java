@@ -0,0 +1,391 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+
+package com.caucho.quercus.env;
+
+import com.caucho.bytecode.CodeWriterAttribute;
+import com.caucho.bytecode.JavaClass;
+import com.caucho.bytecode.JavaClassLoader;
+import com.caucho.loader.ProxyClassLoader;
+import com.caucho.vfs.Vfs;
+import com.caucho.vfs.WriteStream;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Generates a JavaMethodInvoker calling a public java method directly.
+ */
+class JavaMethodInvokerGenerator {
+  private static final Logger log
+    = Logger.getLogger(JavaMethodInvokerGenerator.class.getName());
+
+  private static final String INVOKER_CLASS
+    = "com/caucho/quercus/env/JavaMethodInvoker";
+
+  private static final AtomicInteger _sequence = new AtomicInteger();
+
+  private final Method _method;
+
+  private JavaMethodInvokerGenerator(Method method)
+  {
+    _method = method;
+  }
+
+  /**
+   * Returns a generated invoker for the method, or null if the method
+   * must be called with reflection.
+   */
+  static JavaMethodInvoker create(Method method)
+  {
+    if (method == null || ! isDirectInvokable(method))
+      return null;
+
+    try {
+      return new JavaMethodInvokerGenerator(method).generate();
+    } catch (Throwable e) {
+      log.log(Level.FINER, e.toString(), e);
+
+      return null;
+    }
+  }
+
+  /**
+   * True if the generated class can link against the method, i.e. the
+   * method and all of its types are public and visible from the
+   * method's class loader.
+   */
+  private static boolean isDirectInvokable(Method method)
+  {
+    Class<?> cl = method.getDeclaringClass();
+
+    if (! Modifier.isPublic(method.getModifiers()) || ! isPublic(cl))
+      return false;
+
+    if (! isPublic(method.getReturnType()))
+      return false;
+
+    for (Class<?> param : method.getParameterTypes()) {
+      if (! isPublic(param))
+        return false;
+    }
+
+    ClassLoader loader = getParentLoader(cl);
+
+    try {
+      Class<?> invokerClass
+        = Class.forName(JavaMethodInvoker.class.getName(), false, loader);
+
+      return invokerClass == JavaMethodInvoker.class;
+    } catch (ClassNotFoundException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Returns the loader for the generated class, which must see both the
+   * method's class and JavaMethodInvoker.
+   */
+  private static ClassLoader getParentLoader(Class<?> cl)
+  {
+    ClassLoader loader = cl.getClassLoader();
+
+    // system classes are visible from any loader
+    if (loader == null)
+      loader = JavaMethodInvoker.class.getClassLoader();
+
+    return loader;
+  }
+
+  private static boolean isPublic(Class<?> cl)
+  {
+    while (cl.isArray())
+      cl = cl.getComponentType();
+
+    if (cl.isPrimitive())
+      return true;
+
+    for (; cl != null; cl = cl.getDeclaringClass()) {
+      if (! Modifier.isPublic(cl.getModifiers()))
+        return false;
+    }
+
+    return true;
+  }
+
+  private JavaMethodInvoker generate()
+    throws Exception
+  {
+    Class<?> cl = _method.getDeclaringClass();
+
+    ClassLoader parentLoader = getParentLoader(cl);
+
+    JavaClassLoader jLoader = new JavaClassLoader(parentLoader);
+
+    JavaClass jClass = new JavaClass(jLoader);
+    jClass.setAccessFlags(Modifier.PUBLIC | Modifier.FINAL);
+
+    jClass.setWrite(true);
+
+    jClass.setMajor(49);
+    jClass.setMinor(0);
+
+    String thisClassName = (INVOKER_CLASS + "$" + _sequence.incrementAndGet()
+                            + "$" + _method.getName());
+
+    jClass.setSuperClass(INVOKER_CLASS);
+    jClass.setThisClass(thisClassName);
+
+    generateConstructor(jClass);
+    generateInvoke(jClass);
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    WriteStream out = Vfs.openWrite(bos);
+
+    jClass.write(out);
+
+    out.close();
+
+    byte []buffer = bos.toByteArray();
+
+    String cleanName = thisClassName.replace('/', '.');
+
+    ProxyClassLoader loader = new ProxyClassLoader(parentLoader);
+    Class<?> invokerClass = loader.loadClass(cleanName, buffer);
+
+    return (JavaMethodInvoker) invokerClass.newInstance();
+  }
+
+  private void generateConstructor(JavaClass jClass)
+  {
+    com.caucho.bytecode.JavaMethod ctor = jClass.createMethod("<init>", "()V");
+    ctor.setAccessFlags(Modifier.PUBLIC);
+
+    CodeWriterAttribute code = ctor.createCodeWriter();
+    code.setMaxLocals(1);
+    code.setMaxStack(1);
+
+    code.pushObjectVar(0);
+    code.invokespecial(INVOKER_CLASS, "<init>", "()V", 1, 0);
+    code.addReturn();
+    code.close();
+  }
+
+  /**
+   * Generates invoke(Object, Object[]), unboxing each argument to the
+   * parameter type and boxing a primitive return value.
+   */
+  private void generateInvoke(JavaClass jClass)
+  {
+    com.caucho.bytecode.JavaMethod invoke
+      = jClass.createMethod("invoke",
+                            "(Ljava/lang/Object;[Ljava/lang/Object;)"
+                            + "Ljava/lang/Object;");
+    invoke.setAccessFlags(Modifier.PUBLIC);
+
+    Class<?> cl = _method.getDeclaringClass();
+    Class<?> []types = _method.getParameterTypes();
+    Class<?> retType = _method.getReturnType();
+
+    String className = cl.getName().replace('.', '/');
+    String descriptor = createDescriptor(types, retType);
+
+    CodeWriterAttribute code = invoke.createCodeWriter();
+    code.setMaxLocals(3);
+    code.setMaxStack(4 + 2 * types.length);
+
+    boolean isStatic = Modifier.isStatic(_method.getModifiers());
+
+    int argStack = 0;
+
+    if (! isStatic) {
+      code.pushObjectVar(1);
+      code.cast(className);
+      argStack++;
+    }
+
+    for (int i = 0; i < types.length; i++) {
+      code.pushObjectVar(2);
+      code.pushInt(i);
+      code.getArrayObject();
+
+      unbox(code, types[i]);
+
+      argStack += getStackSize(types[i]);
+    }
+
+    int retStack = getStackSize(retType);
+
+    if (isStatic)
+      code.invokestatic(className, _method.getName(), descriptor,
+                        argStack, retStack);
+    else if (cl.isInterface())
+      code.invokeInterface(className, _method.getName(), descriptor,
+                           argStack, retStack);
+    else
+      code.invoke(className, _method.getName(), descriptor,
+                  argStack, retStack);
+
+    box(code, retType);
+
+    code.addObjectReturn();
+    code.close();
+  }
+
+  private static void unbox(CodeWriterAttribute code, Class<?> type)
+  {
+    if (! type.isPrimitive()) {
+      if (! Object.class.equals(type))
+        code.cast(getInternalName(type));
+    }
+    else if (boolean.class.equals(type)) {
+      code.cast("java/lang/Boolean");
+      code.invoke("java/lang/Boolean", "booleanValue", "()Z", 1, 1);
+    }
+    else if (char.class.equals(type)) {
+      code.cast("java/lang/Character");
+      code.invoke("java/lang/Character", "charValue", "()C", 1, 1);
+    }
+    else {
+      // marshals may return any Number subclass for a numeric parameter
+      String sig = getDescriptor(type);
+
+      code.cast("java/lang/Number");
+      code.invoke("java/lang/Number", type.getName() + "Value", "()" + sig,
+                  1, getStackSize(type));
+    }
+  }
+
+  private static void box(CodeWriterAttribute code, Class<?> type)
+  {
+    if (void.class.equals(type)) {
+      code.pushNull();
+    }
+    else if (type.isPrimitive()) {
+      String boxName = getBoxName(type);
+
+      code.invokestatic(boxName, "valueOf",
+                        "(" + getDescriptor(type) + ")L" + boxName + ";",
+                        getStackSize(type), 1);
+    }
+  }
+
+  private static String getBoxName(Class<?> type)
+  {
+    if (boolean.class.equals(type))
+      return "java/lang/Boolean";
+    else if (char.class.equals(type))
+      return "java/lang/Character";
+    else if (byte.class.equals(type))
+      return "java/lang/Byte";
+    else if (short.class.equals(type))
+      return "java/lang/Short";
+    else if (int.class.equals(type))
+      return "java/lang/Integer";
+    else if (long.class.equals(type))
+      return "java/lang/Long";
+    else if (float.class.equals(type))
+      return "java/lang/Float";
+    else if (double.class.equals(type))
+      return "java/lang/Double";
+    else
+      throw new IllegalStateException(String.valueOf(type));
+  }
+
+  private static int getStackSize(Class<?> type)
+  {
+    if (void.class.equals(type))
+      return 0;
+    else if (long.class.equals(type) || double.class.equals(type))
+      return 2;
+    else
+      return 1;
+  }
+
+  /**
+   * Returns the name used by checkcast: the internal name for a class
+   * and the descriptor for an array.
+   */
+  private static String getInternalName(Class<?> type)
+  {
+    if (type.isArray())
+      return getDescriptor(type);
+    else
+      return type.getName().replace('.', '/');
+  }
+
+  private static String createDescriptor(Class<?> []types, Class<?> retType)
+  {
+    StringBuilder sb = new StringBuilder();
+
+    sb.append("(");
+
+    for (Class<?> type : types) {
+      sb.append(getDescriptor(type));
+    }
+
+    sb.append(")");
+    sb.append(getDescriptor(retType));
+
+    return sb.toString();
+  }
+
+  private static String getDescriptor(Class<?> type)
+  {
+    if (type.isArray())
+      return "[" + getDescriptor(type.getComponentType());
+    else if (! type.isPrimitive())
+      return "L" + type.getName().replace('.', '/') + ";";
+    else if (void.class.equals(type))
+      return "V";
+    else if (boolean.class.equals(type))
+      return "Z";
+    else if (char.class.equals(type))
+      return "C";
+    else if (byte.class.equals(type))
+      return "B";
+    else if (short.class.equals(type))
+      return "S";
+    else if (int.class.equals(type))
+      return "I";
+    else if (long.class.equals(type))
+      return "J";
+    else if (float.class.equals(type))
+      return "F";
+    else if (double.class.equals(type))
+      return "D";
+    else
+      throw new IllegalStateException(String.valueOf(type));
+  }
+}
@@ -33,9 +33,12 @@ import com.caucho.quercus.Location;
 import com.caucho.quercus.env.Env;
 import com.caucho.quercus.env.Value;
 import com.caucho.quercus.env.Var;
+import com.caucho.quercus.gen.PhpWriter;
 import com.caucho.quercus.parser.QuercusParser;
 import com.caucho.quercus.statement.Statement;
 
+import java.io.IOException;
+
 /**
  * Represents an expression that is assignable
  */
@@ -230,5 +233,41 @@ abstract public class AbstractVarExpr extends Expr {
    * @return the expression value.
    */
   abstract public Value evalAssignRef(Env env, Value value);
-}
 
+  /**
+   * Generates code to evaluate the expression as a copyable result.
+   *
+   * @param out the writer to the Java source code.
+   */
+  @Override
+  public void generateCopy(PhpWriter out)
+    throws IOException
+  {
+    generate(out);
+    out.print(".copy()");
+  }
+
+  /**
+   * Generates code to evaluate the expression as a function argument.
+   *
+   * @param out the writer to the Java source code.
+   */
+  @Override
+  public void generateArg(PhpWriter out)
+    throws IOException
+  {
+    generateVar(out);
+  }
+
+  /**
+   * Generates code to assign a value to the variable.
+   *
+   * @param out the writer to the Java source code.
+   * @param value the expression to assign
+   */
+  public void generateAssign(PhpWriter out, Expr value)
+    throws IOException
+  {
+    throw out.unsupported(this);
+  }
+}
@@ -33,6 +33,9 @@ import com.caucho.quercus.Location;
 import com.caucho.quercus.env.Env;
 import com.caucho.quercus.env.Value;
 import com.caucho.quercus.env.Var;
+import com.caucho.quercus.gen.PhpWriter;
+
+import java.io.IOException;
 
 /**
  * Represents a PHP array reference expression.
@@ -261,6 +264,34 @@ public class ArrayGetExpr extends AbstractVarExpr {
     return array.isEmpty(env, index);
   }
 
+  /**
+   * Generates code to evaluate the expression.
+   *
+   * @param out the writer to the Java source code.
+   */
+  @Override
+  public void generate(PhpWriter out)
+    throws IOException
+  {
+    _expr.generate(out);
+    out.print(".get(");
+    _index.generate(out);
+    out.print(")");
+  }
+
+  /**
+   * Arguments may be modified by reference, which compiled code does not
+   * support for array elements.
+   *
+   * @param out the writer to the Java source code.
+   */
+  @Override
+  public void generateArg(PhpWriter out)
+    throws IOException
+  {
+    throw out.unsupported(this);
+  }
+
   @Override
   public String toString()
   {
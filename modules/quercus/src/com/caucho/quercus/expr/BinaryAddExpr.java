@@ -32,6 +32,9 @@ package com.caucho.quercus.expr;
 import com.caucho.quercus.Location;
 import com.caucho.quercus.env.Env;
 import com.caucho.quercus.env.Value;
+import com.caucho.quercus.gen.PhpWriter;
+
+import java.io.IOException;
 
 /**
  * Represents a PHP add expression.
@@ -79,6 +82,21 @@ public class BinaryAddExpr extends AbstractBinaryExpr {
     return true;
   }
 
+  /**
+   * Generates code to evaluate the expression.
+   *
+   * @param out the writer to the Java source code.
+   */
+  @Override
+  public void generate(PhpWriter out)
+    throws IOException
+  {
+    _left.generate(out);
+    out.print(".add(");
+    _right.generate(out);
+    out.print(")");
+  }
+
   public String toString()
   {
     return "(" + _left + " + " + _right + ")";
@@ -33,6 +33,9 @@ import com.caucho.quercus.Location;
 import com.caucho.quercus.env.BooleanValue;
 import com.caucho.quercus.env.Env;
 import com.caucho.quercus.env.Value;
+import com.caucho.quercus.gen.PhpWriter;
+
+import java.io.IOException;
 
 /**
  * Represents a logical and expression.
@@ -83,6 +86,36 @@ public class BinaryAndExpr extends AbstractBinaryExpr {
     return _left.evalBoolean(env) && _right.evalBoolean(env);
   }
 
+  /**
+   * Generates code to evaluate the expression.
+   *
+   * @param out the writer to the Java source code.
+   */
+  @Override
+  public void generate(PhpWriter out)
+    throws IOException
+  {
+    out.print("BooleanValue.create(");
+    generateBoolean(out);
+    out.print(")");
+  }
+
+  /**
+   * Generates code to evaluate the expression as a boolean.
+   *
+   * @param out the writer to the Java source code.
+   */
+  @Override
+  public void generateBoolean(PhpWriter out)
+    throws IOException
+  {
+    out.print("(");
+    _left.generateBoolean(out);
+    out.print(" && ");
+    _right.generateBoolean(out);
+    out.print(")");
+  }
+
   public String toString()
   {
     return "(" + _left + " && " + _right + ")";
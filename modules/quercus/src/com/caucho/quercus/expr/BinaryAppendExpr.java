@@ -33,6 +33,9 @@ import com.caucho.quercus.env.BinaryBuilderValue;
 import com.caucho.quercus.env.Env;
 import com.caucho.quercus.env.StringValue;
 import com.caucho.quercus.env.Value;
+import com.caucho.quercus.gen.PhpWriter;
+
+import java.io.IOException;
 
 /**
  * Represents a PHP append ('.') expression.
@@ -131,6 +134,25 @@ public class BinaryAppendExpr extends Expr
       return null;
   }
 
+  /**
+   * Generates code to evaluate the expression.
+   *
+   * @param out the writer to the Java source code.
+   */
+  @Override
+  public void generate(PhpWriter out)
+    throws IOException
+  {
+    _value.generate(out);
+    out.print(".toStringBuilder(env)");
+
+    for (BinaryAppendExpr ptr = _next; ptr != null; ptr = ptr._next) {
+      out.print(".appendUnicode(");
+      ptr._value.generate(out);
+      out.print(")");
+    }
+  }
+
   public String toString()
   {
     if (_next != null)
@@ -33,6 +33,9 @@ import com.caucho.quercus.Location;
 import com.caucho.quercus.env.Env;
 import com.caucho.quercus.env.Value;
 import com.caucho.quercus.env.Var;
+import com.caucho.quercus.gen.PhpWriter;
+
+import java.io.IOException;
 
 /**
  * Represents a PHP assignment expression.
@@ -120,6 +123,31 @@ public class BinaryAssignExpr extends Expr {
     return _var.eval(env);
   }
 
+  /**
+   * Generates code to evaluate the expression.
+   *
+   * @param out the writer to the Java source code.
+   */
+  @Override
+  public void generate(PhpWriter out)
+    throws IOException
+  {
+    _var.generateAssign(out, _value);
+  }
+
+  /**
+   * Generates code to evaluate the expression as a copyable result.
+   *
+   * @param out the writer to the Java source code.
+   */
+  @Override
+  public void generateCopy(PhpWriter out)
+    throws IOException
+  {
+    generate(out);
+    out.print(".copy()");
+  }
+
   public String toString()
   {
     return _var + "=" + _value;
@@ -33,6 +33,9 @@ import com.caucho.quercus.Location;
 import com.caucho.quercus.env.Env;
 import com.caucho.quercus.env.LongValue;
 import com.caucho.quercus.env.Value;
+import com.caucho.quercus.gen.PhpWriter;
+
+import java.io.IOException;
 
 /**
  * Represents a PHP bitwise and expression.
@@ -71,6 +74,21 @@ public class BinaryBitAndExpr extends AbstractBinaryExpr {
     return lValue.bitAnd(rValue);
   }
 
+  /**
+   * Generates code to evaluate the expression.
+   *
+   * @param out the writer to the Java source code.
+   */
+  @Override
+  public void generate(PhpWriter out)
+    throws IOException
+  {
+    _left.generate(out);
+    out.print(".bitAnd(");
+    _right.generate(out);
+    out.print(")");
+  }
+
   public String toString()
   {
     return "(" + _left + " & " + _right + ")";
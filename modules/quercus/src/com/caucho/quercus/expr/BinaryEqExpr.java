@@ -33,6 +33,9 @@ import com.caucho.quercus.Location;
 import com.caucho.quercus.env.BooleanValue;
 import com.caucho.quercus.env.Env;
 import com.caucho.quercus.env.Value;
+import com.caucho.quercus.gen.PhpWriter;
+
+import java.io.IOException;
 
 /**
  * Represents a PHP equality testing expression.
@@ -73,6 +76,36 @@ public class BinaryEqExpr extends AbstractBinaryExpr
     return lValue.eq(rValue);
   }
 
+  /**
+   * Generates code to evaluate the expression.
+   *
+   * @param out the writer to the Java source code.
+   */
+  @Override
+  public void generate(PhpWriter out)
+    throws IOException
+  {
+    out.print("BooleanValue.create(");
+    generateBoolean(out);
+    out.print(")");
+  }
+
+  /**
+   * Generates code to evaluate the expression as a boolean.
+   *
+   * @param out the writer to the Java source code.
+   */
+  @Override
+  public void generateBoolean(PhpWriter out)
+    throws IOException
+  {
+    out.print("(");
+    _left.generate(out);
+    out.print(".eq(");
+    _right.generate(out);
+    out.print("))");
+  }
+
   public String toString()
   {
     return "(" + _left + " == " + _right + ")";
@@ -32,6 +32,9 @@ package com.caucho.quercus.expr;
 import com.caucho.quercus.Location;
 import com.caucho.quercus.env.Env;
 import com.caucho.quercus.env.Value;
+import com.caucho.quercus.gen.PhpWriter;
+
+import java.io.IOException;
 
 /**
  * Represents a PHP mod expression.
@@ -78,6 +81,21 @@ public class BinaryModExpr extends AbstractBinaryExpr {
     return lValue.mod(rValue);
   }
 
+  /**
+   * Generates code to evaluate the expression.
+   *
+   * @param out the writer to the Java source code.
+   */
+  @Override
+  public void generate(PhpWriter out)
+    throws IOException
+  {
+    _left.generate(out);
+    out.print(".mod(");
+    _right.generate(out);
+    out.print(")");
+  }
+
   public String toString()
   {
     return "(" + _left + " % " + _right + ")";
@@ -36,9 +36,13 @@ import com.caucho.quercus.env.StringValue;
 import com.caucho.quercus.env.QuercusClass;
 import com.caucho.quercus.env.Value;
 import com.caucho.quercus.function.AbstractFunction;
+import com.caucho.quercus.gen.PhpWriter;
 import com.caucho.util.L10N;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Locale;
 
 /**
  * A "foo(...)" function call.
@@ -50,6 +54,9 @@ public class CallExpr extends Expr {
   protected final StringValue _nsName;
   protected final Expr []_args;
 
+  private static final HashSet<String> SYMBOL_TABLE_FUNCTIONS
+    = new HashSet<String>();
+
   private int _funId;
 
   protected boolean _isRef;
@@ -176,6 +183,47 @@ public class CallExpr extends Expr {
    * @return the expression value.
    */
   private Value evalImpl(Env env, boolean isRef, boolean isCopy)
+  {
+    AbstractFunction fun = findFunction(env);
+
+    if (fun == null) {
+      env.error(L.l("'{0}' is an unknown function.", _name), getLocation());
+
+      return NullValue.NULL;
+    }
+
+    Value []args = evalArgs(env, _args);
+
+    return evalCall(env, fun, args, isRef, isCopy);
+  }
+
+  /**
+   * Evaluates the call with already evaluated arguments, used by the
+   * compiled functions.
+   *
+   * @param env the calling environment.
+   * @param args the evaluated arguments
+   * @param isCopy true if the result is a copyable result
+   *
+   * @return the expression value.
+   */
+  public Value evalCall(Env env, Value []args, boolean isCopy)
+  {
+    AbstractFunction fun = findFunction(env);
+
+    if (fun == null) {
+      env.error(L.l("'{0}' is an unknown function.", _name), getLocation());
+
+      return NullValue.NULL;
+    }
+
+    return evalCall(env, fun, args, false, isCopy);
+  }
+
+  /**
+   * Returns the called function, caching its id.
+   */
+  private AbstractFunction findFunction(Env env)
   {
     if (_funId <= 0) {
       _funId = env.findFunctionId(_name);
@@ -186,23 +234,17 @@ public class CallExpr extends Expr {
         }
 
         if (_funId <= 0) {
-          env.error(L.l("'{0}' is an unknown function.", _name), getLocation());
-
-          return NullValue.NULL;
+          return null;
         }
       }
     }
 
-    AbstractFunction fun = env.getFunction(_funId);
-
-    if (fun == null) {
-      env.error(L.l("'{0}' is an unknown function.", _name), getLocation());
-
-      return NullValue.NULL;
-    }
-
-    Value []args = evalArgs(env, _args);
+    return env.getFunction(_funId);
+  }
 
+  private Value evalCall(Env env, AbstractFunction fun, Value []args,
+                         boolean isRef, boolean isCopy)
+  {
     env.pushCall(this, NullValue.NULL, args);
 
     // php/0249
@@ -251,9 +293,66 @@ public class CallExpr extends Expr {
     return fun.evalArguments(env, this, _args);
   }
 
+  /**
+   * Generates code to evaluate the expression.
+   *
+   * @param out the writer to the Java source code.
+   */
+  @Override
+  public void generate(PhpWriter out)
+    throws IOException
+  {
+    generateImpl(out, false);
+  }
+
+  /**
+   * Generates code to evaluate the expression as a copyable result.
+   *
+   * @param out the writer to the Java source code.
+   */
+  @Override
+  public void generateCopy(PhpWriter out)
+    throws IOException
+  {
+    generateImpl(out, true);
+  }
+
+  private void generateImpl(PhpWriter out, boolean isCopy)
+    throws IOException
+  {
+    String name = _name.toString().toLowerCase(Locale.ENGLISH);
+
+    // functions reading or writing the caller's symbol table
+    if (SYMBOL_TABLE_FUNCTIONS.contains(name)
+        || _nsName != null
+        && SYMBOL_TABLE_FUNCTIONS.contains(_nsName.toString().toLowerCase(Locale.ENGLISH))) {
+      throw out.unsupported(this);
+    }
+
+    out.print(out.addConstant(this, CallExpr.class));
+    out.print(".evalCall(env, new Value[] {");
+
+    for (int i = 0; i < _args.length; i++) {
+      if (i != 0)
+        out.print(", ");
+
+      _args[i].generateArg(out);
+    }
+
+    out.print("}, " + isCopy + ")");
+  }
+
   public String toString()
   {
     return _name + "()";
   }
-}
 
+  static {
+    SYMBOL_TABLE_FUNCTIONS.add("compact");
+    SYMBOL_TABLE_FUNCTIONS.add("extract");
+    SYMBOL_TABLE_FUNCTIONS.add("get_defined_vars");
+    SYMBOL_TABLE_FUNCTIONS.add("parse_str");
+    SYMBOL_TABLE_FUNCTIONS.add("mb_parse_str");
+    SYMBOL_TABLE_FUNCTIONS.add("assert");
+  }
+}
@@ -32,6 +32,9 @@ package com.caucho.quercus.expr;
 import com.caucho.quercus.Location;
 import com.caucho.quercus.env.Env;
 import com.caucho.quercus.env.Value;
+import com.caucho.quercus.gen.PhpWriter;
+
+import java.io.IOException;
 
 /**
  * Represents a conditional expression.
@@ -106,6 +109,60 @@ public class ConditionalExpr extends Expr {
       return _falseExpr.evalCopy(env);
   }
 
+  /**
+   * Generates code to evaluate the expression.
+   *
+   * @param out the writer to the Java source code.
+   */
+  @Override
+  public void generate(PhpWriter out)
+    throws IOException
+  {
+    out.print("(");
+    _test.generateBoolean(out);
+    out.print(" ? ");
+    _trueExpr.generate(out);
+    out.print(" : ");
+    _falseExpr.generate(out);
+    out.print(")");
+  }
+
+  /**
+   * Generates code to evaluate the expression as a boolean.
+   *
+   * @param out the writer to the Java source code.
+   */
+  @Override
+  public void generateBoolean(PhpWriter out)
+    throws IOException
+  {
+    out.print("(");
+    _test.generateBoolean(out);
+    out.print(" ? ");
+    _trueExpr.generateBoolean(out);
+    out.print(" : ");
+    _falseExpr.generateBoolean(out);
+    out.print(")");
+  }
+
+  /**
+   * Generates code to evaluate the expression as a copyable result.
+   *
+   * @param out the writer to the Java source code.
+   */
+  @Override
+  public void generateCopy(PhpWriter out)
+    throws IOException
+  {
+    out.print("(");
+    _test.generateBoolean(out);
+    out.print(" ? ");
+    _trueExpr.generateCopy(out);
+    out.print(" : ");
+    _falseExpr.generateCopy(out);
+    out.print(")");
+  }
+
   public String toString()
   {
     return "(" + _test + " ? " + _trueExpr + " : " + _falseExpr + ")";
@@ -35,17 +35,19 @@ import com.caucho.quercus.env.QuercusClass;
 import com.caucho.quercus.env.StringValue;
 import com.caucho.quercus.env.Value;
 import com.caucho.quercus.env.Var;
+import com.caucho.quercus.gen.PhpWriter;
 import com.caucho.quercus.parser.QuercusParser;
 import com.caucho.quercus.statement.Statement;
 import com.caucho.util.L10N;
 
 import java.io.IOException;
+import java.io.Serializable;
 import java.util.ArrayList;
 
 /**
  * Represents a PHP expression.
  */
-abstract public class Expr {
+abstract public class Expr implements Serializable {
   private static final L10N L = new L10N(Expr.class);
 
   public static final int COMPILE_ARG_MAX = 5;
@@ -864,6 +866,66 @@ abstract public class Expr {
     eval(env).print(env);
   }
 
+  //
+  // Java code generation
+  //
+
+  /**
+   * Generates code to evaluate the expression as a Value.
+   *
+   * @param out the writer to the Java source code.
+   */
+  public void generate(PhpWriter out)
+    throws IOException
+  {
+    throw out.unsupported(this);
+  }
+
+  /**
+   * Generates code to evaluate the expression as a boolean.
+   *
+   * @param out the writer to the Java source code.
+   */
+  public void generateBoolean(PhpWriter out)
+    throws IOException
+  {
+    generate(out);
+    out.print(".toBoolean()");
+  }
+
+  /**
+   * Generates code to evaluate the expression as a copyable result.
+   *
+   * @param out the writer to the Java source code.
+   */
+  public void generateCopy(PhpWriter out)
+    throws IOException
+  {
+    generate(out);
+  }
+
+  /**
+   * Generates code to evaluate the expression as a Var.
+   *
+   * @param out the writer to the Java source code.
+   */
+  public void generateVar(PhpWriter out)
+    throws IOException
+  {
+    throw out.unsupported(this);
+  }
+
+  /**
+   * Generates code to evaluate the expression as a function argument.
+   *
+   * @param out the writer to the Java source code.
+   */
+  public void generateArg(PhpWriter out)
+    throws IOException
+  {
+    generate(out);
+  }
+
   @Override
   public boolean equals(Object obj)
   {
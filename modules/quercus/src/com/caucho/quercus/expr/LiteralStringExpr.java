@@ -32,8 +32,11 @@ package com.caucho.quercus.expr;
 import com.caucho.quercus.env.Env;
 import com.caucho.quercus.env.StringValue;
 import com.caucho.quercus.env.Value;
+import com.caucho.quercus.gen.PhpWriter;
 import com.caucho.quercus.parser.QuercusParser;
 
+import java.io.IOException;
+
 /**
  * Represents a PHP string literal expression.
  */
@@ -156,6 +159,18 @@ public class LiteralStringExpr extends Expr {
     return _value;
   }
 
+  /**
+   * Generates code to evaluate the expression.
+   *
+   * @param out the writer to the Java source code.
+   */
+  @Override
+  public void generate(PhpWriter out)
+    throws IOException
+  {
+    out.print(out.addConstant(_value, Value.class));
+  }
+
   @Override
   public String toString()
   {
@@ -32,6 +32,9 @@ package com.caucho.quercus.expr;
 import com.caucho.quercus.env.Env;
 import com.caucho.quercus.env.UnicodeValue;
 import com.caucho.quercus.env.Value;
+import com.caucho.quercus.gen.PhpWriter;
+
+import java.io.IOException;
 
 /**
  * Represents a PHP string literal expression.
@@ -74,6 +77,18 @@ public class LiteralUnicodeExpr extends Expr {
     return _value;
   }
 
+  /**
+   * Generates code to evaluate the expression.
+   *
+   * @param out the writer to the Java source code.
+   */
+  @Override
+  public void generate(PhpWriter out)
+    throws IOException
+  {
+    out.print(out.addConstant(_value, Value.class));
+  }
+
   public String toString()
   {
     return "\"" + _value + "\"";
@@ -70,5 +70,16 @@ public class ParamRequiredExpr extends Expr {
   {
     return "required";
   }
+
+  /**
+   * Restores the REQUIRED singleton, which is compared by identity.
+   */
+  private Object readResolve()
+  {
+    if (getLocation() == Location.UNKNOWN)
+      return REQUIRED;
+    else
+      return this;
+  }
 }
 
@@ -32,6 +32,9 @@ package com.caucho.quercus.expr;
 import com.caucho.quercus.Location;
 import com.caucho.quercus.env.Env;
 import com.caucho.quercus.env.Value;
+import com.caucho.quercus.gen.PhpWriter;
+
+import java.io.IOException;
 
 /**
  * A "+ $a" unary plus.
@@ -59,6 +62,19 @@ public class UnaryPlusExpr extends AbstractUnaryExpr {
     return _expr.eval(env).pos();
   }
 
+  /**
+   * Generates code to evaluate the expression.
+   *
+   * @param out the writer to the Java source code.
+   */
+  @Override
+  public void generate(PhpWriter out)
+    throws IOException
+  {
+    _expr.generate(out);
+    out.print(".pos()");
+  }
+
   public String toString()
   {
     return "+" + _expr;
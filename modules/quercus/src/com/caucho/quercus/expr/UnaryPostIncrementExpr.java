@@ -32,6 +32,9 @@ package com.caucho.quercus.expr;
 import com.caucho.quercus.Location;
 import com.caucho.quercus.env.Env;
 import com.caucho.quercus.env.Value;
+import com.caucho.quercus.gen.PhpWriter;
+
+import java.io.IOException;
 
 /**
  * Represents a PHP post increment expression.
@@ -83,6 +86,19 @@ public class UnaryPostIncrementExpr extends AbstractUnaryExpr {
     return true;
   }
 
+  /**
+   * Generates code to evaluate the expression.
+   *
+   * @param out the writer to the Java source code.
+   */
+  @Override
+  public void generate(PhpWriter out)
+    throws IOException
+  {
+    _expr.generateVar(out);
+    out.print(".postincr(" + _incr + ")");
+  }
+
   public String toString()
   {
     if (_incr > 0)
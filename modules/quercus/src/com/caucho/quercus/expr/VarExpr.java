@@ -36,8 +36,11 @@ import com.caucho.quercus.env.NullValue;
 import com.caucho.quercus.env.Value;
 import com.caucho.quercus.env.StringValue;
 import com.caucho.quercus.env.Var;
+import com.caucho.quercus.gen.PhpWriter;
 import com.caucho.quercus.parser.QuercusParser;
 
+import java.io.IOException;
+
 /**
  * Represents a PHP variable expression.
  */
@@ -317,6 +320,51 @@ public class VarExpr
     return _var == var._var;
   }
 
+  /**
+   * Generates code to evaluate the expression.
+   *
+   * @param out the writer to the Java source code.
+   */
+  @Override
+  public void generate(PhpWriter out)
+    throws IOException
+  {
+    String var = out.addVar(_name);
+
+    out.print("(" + var + " != null ? " + var + ".toValue() : undefined(env, \"");
+    out.printJavaString(_name.toString());
+    out.print("\"))");
+  }
+
+  /**
+   * Generates code to evaluate the expression as a Var.
+   *
+   * @param out the writer to the Java source code.
+   */
+  @Override
+  public void generateVar(PhpWriter out)
+    throws IOException
+  {
+    out.printVar(_name);
+  }
+
+  /**
+   * Generates code to assign a value to the variable.
+   *
+   * @param out the writer to the Java source code.
+   * @param value the expression to assign
+   */
+  @Override
+  public void generateAssign(PhpWriter out, Expr value)
+    throws IOException
+  {
+    String var = out.addVar(_name);
+
+    out.print("(" + var + " = assign(");
+    value.generateCopy(out);
+    out.print(", " + var + ")).toValue()");
+  }
+
   public String toString()
   {
     return "$" + _name;
@@ -32,10 +32,12 @@ package com.caucho.quercus.expr;
 import com.caucho.quercus.env.StringValue;
 import com.caucho.quercus.program.FunctionInfo;
 
+import java.io.Serializable;
+
 /**
  * Information about a variable's use in a function.
  */
-public class VarInfo {
+public class VarInfo implements Serializable {
   private final FunctionInfo _function;
 
   private final StringValue _name;
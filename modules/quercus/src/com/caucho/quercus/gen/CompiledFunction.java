@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+
+package com.caucho.quercus.gen;
+
+import com.caucho.quercus.env.Env;
+import com.caucho.quercus.env.NullThisValue;
+import com.caucho.quercus.env.NullValue;
+import com.caucho.quercus.env.Value;
+import com.caucho.quercus.env.Var;
+import com.caucho.quercus.expr.Expr;
+import com.caucho.quercus.program.Arg;
+import com.caucho.quercus.program.Function;
+import com.caucho.util.L10N;
+
+/**
+ * Base class for a PHP function compiled to Java.
+ *
+ * The compiled function keeps its locals in Java variables instead of
+ * the Env symbol table, so only functions which never look at the
+ * symbol table are compiled.
+ */
+@SuppressWarnings("serial")
+abstract public class CompiledFunction extends Function {
+  private static final L10N L = new L10N(CompiledFunction.class);
+
+  protected CompiledFunction(Function fun)
+  {
+    super(fun);
+  }
+
+  @Override
+  public Value call(Env env, Expr []args)
+  {
+    return callImpl(env, evalArguments(env, null, args), false, null, null);
+  }
+
+  @Override
+  public Value callCopy(Env env, Expr []args)
+  {
+    return callImpl(env, evalArguments(env, null, args), false, null, null);
+  }
+
+  @Override
+  public Value callRef(Env env, Expr []args)
+  {
+    return callImpl(env, evalArguments(env, null, args), true, null, null);
+  }
+
+  @Override
+  public Value callImpl(Env env, Value []args, boolean isRef,
+                        Arg []useParams, Value []useArgs)
+  {
+    Value []oldArgs = env.setFunctionArgs(args);
+    // php/0967, php/091i
+    Value oldThis = env.setThis(NullThisValue.NULL);
+
+    try {
+      return callCompiled(env, args);
+    } finally {
+      env.restoreFunctionArgs(oldArgs);
+      env.setThis(oldThis);
+    }
+  }
+
+  /**
+   * The generated function body.
+   */
+  abstract protected Value callCompiled(Env env, Value []args);
+
+  //
+  // runtime helpers for the generated code
+  //
+
+  /**
+   * Returns the value of an unassigned local.
+   */
+  protected static Value undefined(Env env, String name)
+  {
+    env.notice(L.l("${0} is an undefined variable", name));
+
+    return NullValue.NULL;
+  }
+
+  /**
+   * Assigns a value to a local, creating the local's Var if needed.
+   */
+  protected static Var assign(Value value, Var var)
+  {
+    if (var == null)
+      var = new Var();
+
+    var.set(value);
+
+    return var;
+  }
+
+  /**
+   * Discards the result of an expression statement.
+   */
+  protected static void discard(Value value)
+  {
+  }
+}
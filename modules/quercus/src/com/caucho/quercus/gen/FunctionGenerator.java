@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+
+package com.caucho.quercus.gen;
+
+import com.caucho.java.JavaCompilerUtil;
+import com.caucho.java.JavaWriter;
+import com.caucho.java.gen.ClassComponent;
+import com.caucho.java.gen.GenClass;
+import com.caucho.quercus.env.StringValue;
+import com.caucho.quercus.expr.Expr;
+import com.caucho.quercus.program.Arg;
+import com.caucho.quercus.program.Function;
+import com.caucho.quercus.program.FunctionInfo;
+import com.caucho.util.Crc64;
+import com.caucho.vfs.StringWriter;
+import com.caucho.vfs.WriteStream;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Map;
+
+/**
+ * Generates the Java class for a single PHP function.
+ */
+public class FunctionGenerator {
+  private final Function _fun;
+  private final String _baseClassName;
+
+  private String _body;
+  private Object []_consts;
+  private ArrayList<Class<?>> _constTypes;
+  private String _className;
+
+  public FunctionGenerator(Function fun, String baseClassName)
+  {
+    _fun = fun;
+    _baseClassName = baseClassName;
+  }
+
+  /**
+   * Returns true if the function's kind allows compilation. Methods,
+   * closures, reference returns and functions using the symbol table
+   * keep the interpreter's semantics.
+   */
+  public static boolean isCompilable(Function fun)
+  {
+    FunctionInfo info = fun.getInfo();
+
+    if (! fun.isGlobal()
+        || fun.getDeclaringClassName() != null
+        || fun.isClosure()
+        || info.isReturnsReference()
+        || info.isVariableVar()
+        || info.isUsesSymbolTable()
+        || info.isUsesGlobal()) {
+      return false;
+    }
+
+    for (Arg arg : fun.getArgs(null)) {
+      if (arg.getExpectedClass() != null)
+        return false;
+    }
+
+    return true;
+  }
+
+  public Function getFunction()
+  {
+    return _fun;
+  }
+
+  /**
+   * Returns the generated class name, available after generateBody().
+   */
+  public String getClassName()
+  {
+    return _className;
+  }
+
+  /**
+   * Generates the function body, throwing an UnimplementedException
+   * if the function uses anything the compiler does not support.
+   */
+  public void generateBody()
+    throws IOException
+  {
+    StringWriter sw = new StringWriter();
+    WriteStream ws = sw.openWrite();
+    PhpWriter out = new PhpWriter(ws);
+
+    out.pushDepth();
+    out.pushDepth();
+
+    Arg []args = _fun.getArgs(null);
+
+    for (Arg arg : args) {
+      out.addVar(arg.getName());
+    }
+
+    for (int i = 0; i < args.length; i++) {
+      generateArg(out, i, args[i]);
+    }
+
+    _fun.getStatement().generate(out);
+
+    out.println("return NullValue.NULL;");
+
+    String body = sw.getString();
+
+    // all locals are declared before the body
+    StringBuilder sb = new StringBuilder();
+
+    for (Map.Entry<StringValue,String> entry : out.getVarMap().entrySet()) {
+      sb.append("    Var ").append(entry.getValue()).append(" = null;\n");
+    }
+
+    _body = sb.toString() + body;
+    _consts = out.getConstants();
+    _constTypes = out.getConstantTypes();
+
+    String name = JavaCompilerUtil.mangleName(_fun.getName());
+
+    long crc = Crc64.generate(Crc64.generate(_baseClassName + "." + name), _body);
+
+    _className = (_baseClassName + "__" + name
+                  + "_" + Long.toHexString(crc & 0xffffffffffffL));
+  }
+
+  private void generateArg(PhpWriter out, int i, Arg arg)
+    throws IOException
+  {
+    String var = out.addVar(arg.getName());
+
+    Expr defaultExpr = arg.getDefault();
+
+    if (defaultExpr == null) {
+      out.println("if (args.length <= " + i + ")");
+      out.println("  return env.error(\"expected default expression\");");
+    }
+
+    out.print(var + " = args.length > " + i + " ? ");
+
+    if (arg.isReference())
+      out.print("args[" + i + "].toLocalVarDeclAsRef()");
+    else
+      out.print("args[" + i + "].toLocalVar()");
+
+    out.print(" : ");
+
+    if (defaultExpr == null)
+      out.println("null;");
+    else if (arg.isReference()) {
+      out.println(out.addConstant(defaultExpr, Expr.class)
+                  + ".evalVar(env).toVar();");
+    }
+    else {
+      out.println(out.addConstant(defaultExpr, Expr.class)
+                  + ".eval(env).toLocalVar();");
+    }
+  }
+
+  /**
+   * Creates the Java class for the generated body.
+   */
+  public GenClass createClass()
+  {
+    GenClass genClass = new GenClass(_className);
+
+    genClass.addImport("com.caucho.quercus.env.*");
+    genClass.setSuperClassName(CompiledFunction.class.getName());
+
+    genClass.addComponent(new FunctionComponent());
+
+    return genClass;
+  }
+
+  /**
+   * Instantiates the compiled function from the loaded class.
+   */
+  public CompiledFunction newInstance(Class<?> cl)
+    throws Exception
+  {
+    Constructor<?> ctor = cl.getConstructor(Function.class, Object[].class);
+
+    return (CompiledFunction) ctor.newInstance(_fun, _consts);
+  }
+
+  class FunctionComponent extends ClassComponent {
+    @Override
+    protected void generate(JavaWriter out)
+      throws IOException
+    {
+      String simpleName = _className.substring(_className.lastIndexOf('.') + 1);
+
+      for (int i = 0; i < _constTypes.size(); i++) {
+        out.println("private final " + _constTypes.get(i).getName()
+                    + " _c" + i + ";");
+      }
+
+      out.println();
+      out.println("public " + simpleName + "("
+                  + Function.class.getName() + " fun, Object []consts)");
+      out.println("{");
+      out.pushDepth();
+      out.println("super(fun);");
+
+      if (_constTypes.size() > 0)
+        out.println();
+
+      for (int i = 0; i < _constTypes.size(); i++) {
+        out.println("_c" + i + " = (" + _constTypes.get(i).getName()
+                    + ") consts[" + i + "];");
+      }
+
+      out.popDepth();
+      out.println("}");
+
+      out.println();
+      out.println("@Override");
+      out.println("protected Value callCompiled(Env env, Value []args)");
+      out.println("{");
+
+      // the body is already indented for the method
+      out.getWriteStream().print(_body);
+
+      out.println("}");
+    }
+  }
+}
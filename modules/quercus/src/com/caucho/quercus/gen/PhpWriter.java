@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+
+package com.caucho.quercus.gen;
+
+import com.caucho.java.JavaWriter;
+import com.caucho.quercus.QuercusContext;
+import com.caucho.quercus.UnimplementedException;
+import com.caucho.quercus.env.StringValue;
+import com.caucho.util.L10N;
+import com.caucho.vfs.WriteStream;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+/**
+ * Writer for the Java source of a compiled PHP function.
+ *
+ * Besides the text, the writer collects the runtime constants
+ * the generated code refers to and the PHP locals it declares.
+ */
+public class PhpWriter extends JavaWriter {
+  private static final L10N L = new L10N(PhpWriter.class);
+
+  private final ArrayList<Object> _constList = new ArrayList<Object>();
+  private final ArrayList<Class<?>> _constTypeList = new ArrayList<Class<?>>();
+
+  private final LinkedHashMap<StringValue,String> _varMap
+    = new LinkedHashMap<StringValue,String>();
+
+  private int _loopDepth;
+
+  public PhpWriter(WriteStream os)
+  {
+    super(os);
+  }
+
+  /**
+   * Adds a runtime constant, returning the name of the generated field.
+   */
+  public String addConstant(Object value, Class<?> type)
+  {
+    for (int i = 0; i < _constList.size(); i++) {
+      if (_constList.get(i) == value && _constTypeList.get(i) == type)
+        return "_c" + i;
+    }
+
+    _constList.add(value);
+    _constTypeList.add(type);
+
+    return "_c" + (_constList.size() - 1);
+  }
+
+  /**
+   * Returns the runtime constants.
+   */
+  public Object []getConstants()
+  {
+    Object []consts = new Object[_constList.size()];
+
+    _constList.toArray(consts);
+
+    return consts;
+  }
+
+  /**
+   * Returns the declared types of the runtime constants.
+   */
+  public ArrayList<Class<?>> getConstantTypes()
+  {
+    return _constTypeList;
+  }
+
+  /**
+   * Returns the Java variable for a PHP local.
+   */
+  public String addVar(StringValue name)
+  {
+    if (QuercusContext.isSuperGlobal(name) || name.toString().equals("this"))
+      throw unsupported("$" + name);
+
+    String javaName = _varMap.get(name);
+
+    if (javaName == null) {
+      StringBuilder sb = new StringBuilder();
+      sb.append("v").append(_varMap.size()).append('_');
+
+      for (int i = 0; i < name.length(); i++) {
+        char ch = name.charAt(i);
+
+        if ('a' <= ch && ch <= 'z'
+            || 'A' <= ch && ch <= 'Z'
+            || '0' <= ch && ch <= '9') {
+          sb.append(ch);
+        }
+        else
+          sb.append('_');
+      }
+
+      javaName = sb.toString();
+
+      _varMap.put(name, javaName);
+    }
+
+    return javaName;
+  }
+
+  /**
+   * Returns the PHP locals and their Java variables.
+   */
+  public LinkedHashMap<StringValue,String> getVarMap()
+  {
+    return _varMap;
+  }
+
+  /**
+   * Prints an expression for the Var of a local, creating it if needed.
+   */
+  public void printVar(StringValue name)
+    throws IOException
+  {
+    String var = addVar(name);
+
+    print("(" + var + " != null ? " + var + " : (" + var + " = new Var()))");
+  }
+
+  public void pushLoop()
+  {
+    _loopDepth++;
+  }
+
+  public void popLoop()
+  {
+    _loopDepth--;
+  }
+
+  /**
+   * True inside a loop, where a PHP break or continue maps to Java's.
+   */
+  public boolean isInLoop()
+  {
+    return _loopDepth > 0;
+  }
+
+  /**
+   * Returns the exception for a node the compiler does not support. The
+   * function remains interpreted.
+   */
+  public UnimplementedException unsupported(Object node)
+  {
+    return new UnimplementedException(L.l("compiling {0}", node));
+  }
+}
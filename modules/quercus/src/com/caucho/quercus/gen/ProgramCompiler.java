@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+
+package com.caucho.quercus.gen;
+
+import com.caucho.env.thread.ThreadPool;
+import com.caucho.java.gen.JavaClassGenerator;
+import com.caucho.quercus.QuercusContext;
+import com.caucho.quercus.UnimplementedException;
+import com.caucho.quercus.function.AbstractFunction;
+import com.caucho.quercus.page.CompiledPage;
+import com.caucho.quercus.program.Function;
+import com.caucho.quercus.program.QuercusProgram;
+import com.caucho.util.L10N;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Compiles the functions of a parsed program to Java in the background.
+ *
+ * Each function is compiled separately. A function using anything the
+ * generator does not support stays interpreted, and any failure of the
+ * Java compilation leaves the whole program interpreted.
+ */
+public class ProgramCompiler
+{
+  private static final L10N L = new L10N(ProgramCompiler.class);
+  private static final Logger log
+    = Logger.getLogger(ProgramCompiler.class.getName());
+
+  private final QuercusContext _quercus;
+
+  public ProgramCompiler(QuercusContext quercus)
+  {
+    _quercus = quercus;
+  }
+
+  /**
+   * Schedules a background compilation of the program. The program
+   * stays interpreted until the compiled page is set.
+   */
+  public void compileAsync(QuercusProgram program)
+  {
+    if (! program.startCompiling())
+      return;
+
+    if (! ThreadPool.getCurrent().schedule(new CompileTask(program))) {
+      program.finishCompiling();
+    }
+  }
+
+  /**
+   * Compiles the program's functions, returning null if none could
+   * be compiled.
+   */
+  public CompiledPage compile(QuercusProgram program)
+    throws Exception
+  {
+    String baseClassName = _quercus.getClassName(program.getSourcePath());
+
+    JavaClassGenerator gen = new JavaClassGenerator();
+    gen.setWorkDir(_quercus.getWorkDir());
+
+    ClassLoader loader = _quercus.getCompileClassLoader();
+
+    if (loader != null)
+      gen.setParentLoader(loader);
+
+    ArrayList<FunctionGenerator> funList = new ArrayList<FunctionGenerator>();
+
+    for (Function fun : program.getFunctionList()) {
+      if (! FunctionGenerator.isCompilable(fun))
+        continue;
+
+      FunctionGenerator funGen = new FunctionGenerator(fun, baseClassName);
+
+      try {
+        funGen.generateBody();
+      } catch (UnimplementedException e) {
+        if (log.isLoggable(Level.FINER))
+          log.finer(L.l("{0}() is interpreted: {1}", fun.getName(), e.getMessage()));
+
+        continue;
+      }
+
+      // the class name contains the source's crc, so an existing class
+      // from a previous run is still valid
+      if (! gen.preloadExists(funGen.getClassName()))
+        gen.generate(funGen.createClass());
+
+      funList.add(funGen);
+    }
+
+    if (funList.size() == 0)
+      return null;
+
+    if (gen.getPendingFiles().length > 0)
+      gen.compilePendingJava();
+
+    IdentityHashMap<Function,AbstractFunction> compiledMap
+      = new IdentityHashMap<Function,AbstractFunction>();
+
+    for (FunctionGenerator funGen : funList) {
+      Class<?> cl = gen.loadClass(funGen.getClassName());
+
+      compiledMap.put(funGen.getFunction(), funGen.newInstance(cl));
+    }
+
+    return new CompiledPage(program, compiledMap);
+  }
+
+  class CompileTask implements Runnable {
+    private final QuercusProgram _program;
+
+    CompileTask(QuercusProgram program)
+    {
+      _program = program;
+    }
+
+    public void run()
+    {
+      try {
+        CompiledPage page = compile(_program);
+
+        if (page != null) {
+          if (log.isLoggable(Level.FINE)) {
+            log.fine(L.l("Quercus[{0}] compiled {1} functions",
+                         _program.getSourcePath(),
+                         page.getCompiledFunctionCount()));
+          }
+
+          _program.setCompiledPage(page);
+        }
+        else
+          _program.setCompilable(false);
+      } catch (Throwable e) {
+        log.log(Level.FINE, e.toString(), e);
+
+        _program.setCompilable(false);
+        _program.setCompileException(e);
+      } finally {
+        _program.finishCompiling();
+      }
+    }
+  }
+}
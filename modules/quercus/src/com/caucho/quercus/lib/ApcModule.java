@@ -57,8 +57,14 @@ public class ApcModule extends AbstractQuercusModule
 
   private static final int _defaultSize = 4096;
 
+  private static final long NO_EXPIRE = Long.MAX_VALUE / 2;
+
+  // values which can't be serialized, e.g. java objects and resources
   private LruCache<String,Entry> _cache;
 
+  private volatile ApcStore _store;
+  private volatile boolean _isStoreInit;
+
   private HashMap<String,Value> _constMap = new HashMap<String,Value>();
 
   /**
@@ -86,24 +92,66 @@ public class ApcModule extends AbstractQuercusModule
   {
     ArrayValue value = new ArrayValueImpl();
 
+    ApcStore store = _store;
+
+    long numSlots = 0;
+    long numHits = 0;
+    long numMisses = 0;
+    long numEntries = 0;
+    long startTime = 0;
+
     if (_cache != null) {
-      value.put("num_slots", _cache.getCapacity());
-      value.put("ttl", 0);
-      value.put("num_hits", _cache.getHitCount());
-      value.put("num_misses", _cache.getMissCount());
-      value.put("start_time", 0);
+      numSlots += _cache.getCapacity();
+      numHits += _cache.getHitCount();
+      numMisses += _cache.getMissCount();
+      numEntries += _cache.size();
     }
-    else {
-      value.put("num_slots", 0);
-      value.put("ttl", 0);
-      value.put("num_hits", 0);
-      value.put("num_misses", 0);
-      value.put("start_time", 0);
+
+    if (store != null) {
+      numHits += store.getHitCount();
+      numMisses += store.getMissCount();
+      numEntries += store.getEntryCount();
+      startTime = store.getStartTime() / 1000L;
     }
 
+    value.put("num_slots", numSlots);
+    value.put("ttl", 0);
+    value.put("num_hits", numHits);
+    value.put("num_misses", numMisses);
+    value.put("start_time", startTime);
+    value.put("num_entries", numEntries);
+    value.put("expunges", store != null ? store.getEvictCount() : 0);
+    value.put("mem_size", store != null ? store.getUsedBytes() : 0);
+
     ArrayValueImpl cacheList = new ArrayValueImpl();
     value.put(env.createString("cache_list"), cacheList);
 
+    if ("user".equals(type) && store != null && ! limited) {
+      long now = env.getCurrentTime();
+
+      for (ApcStore.Slot slot : store.getSlots(now)) {
+        ArrayValueImpl array = new ArrayValueImpl();
+        cacheList.put(array);
+
+        long ttl = 0;
+
+        if (slot.getExpire() < NO_EXPIRE)
+          ttl = (slot.getExpire() - now) / 1000L;
+
+        array.put(env.createString("info"), env.createString(slot.getKey()));
+        array.put(env.createString("ttl"), LongValue.create(ttl));
+        array.put(env.createString("type"), env.createString("user"));
+        array.put(env.createString("num_hits"),
+                  LongValue.create(slot.getHitCount()));
+        array.put(env.createString("mem_size"),
+                  LongValue.create(slot.getLength()));
+        array.put(env.createString("creation_time"),
+                  LongValue.create(slot.getCreateTime() / 1000L));
+        array.put(env.createString("access_time"),
+                  LongValue.create(slot.getAccessTime() / 1000L));
+      }
+    }
+
     if ("user".equals(type) && _cache != null && ! limited) {
       ArrayList<String> keys = new ArrayList<String>();
       ArrayList<Entry> values = new ArrayList<Entry>();
@@ -148,6 +196,11 @@ public class ApcModule extends AbstractQuercusModule
     if (_cache != null)
       _cache.clear();
 
+    ApcStore store = _store;
+
+    if (store != null)
+      store.clear();
+
     return true;
   }
 
@@ -189,10 +242,17 @@ public class ApcModule extends AbstractQuercusModule
    */
   public boolean apc_delete(Env env, String key)
   {
-    if (_cache == null)
-      return false;
+    boolean isRemoved = false;
+
+    ApcStore store = _store;
+
+    if (store != null && store.remove(key))
+      isRemoved = true;
+
+    if (_cache != null && _cache.remove(key) != null)
+      isRemoved = true;
 
-    return _cache.remove(key) != null;
+    return isRemoved;
   }
 
   /**
@@ -204,13 +264,21 @@ public class ApcModule extends AbstractQuercusModule
   {
     isSuccessful.set(BooleanValue.FALSE);
 
-    if (_cache == null)
-      return BooleanValue.FALSE;
+    Entry entry = null;
+
+    if (_cache != null)
+      entry = _cache.get(key);
 
-    Entry entry = _cache.get(key);
+    if (entry == null) {
+      Value value = fetchStore(env, key);
 
-    if (entry == null)
-      return BooleanValue.FALSE;
+      if (value == null)
+        return BooleanValue.FALSE;
+
+      isSuccessful.set(BooleanValue.TRUE);
+
+      return value;
+    }
 
     Value value = entry.getValue(env);
 
@@ -225,6 +293,32 @@ public class ApcModule extends AbstractQuercusModule
       return BooleanValue.FALSE;
   }
 
+  /**
+   * Decodes a value from the off-heap store.
+   */
+  private Value fetchStore(Env env, String key)
+  {
+    ApcStore store = _store;
+
+    if (store == null)
+      return null;
+
+    byte []data = store.get(key, env.getCurrentTime());
+
+    if (data == null)
+      return null;
+
+    try {
+      return new UnserializeReader(decode(data)).unserialize(env);
+    } catch (IOException e) {
+      log.log(Level.FINE, e.toString(), e);
+
+      store.remove(key);
+
+      return null;
+    }
+  }
+
   /**
    * Updates the value's class with a currently available one.
    */
@@ -295,9 +389,14 @@ public class ApcModule extends AbstractQuercusModule
   {
     ArrayValue value = new ArrayValueImpl();
 
+    ApcStore store = getStore(env);
+
+    long segSize = store != null ? store.getCapacity() : 0;
+    long availMem = store != null ? segSize - store.getUsedBytes() : 0;
+
     value.put("num_seg", 1);
-    value.put("seg_size", 1024 * 1024);
-    value.put("avail_mem", 1024 * 1024);
+    value.put("seg_size", segSize);
+    value.put("avail_mem", availMem);
     value.put(env.createString("block_lists"), new ArrayValueImpl());
 
     return value;
@@ -307,16 +406,19 @@ public class ApcModule extends AbstractQuercusModule
                        String key,
                        Value value,
                        @Optional("0") int ttl) {
-    LruCache<String,Entry> cache = getCache(env);
-
-    if (cache.get(key) == null) {
-      cache.put(key, new Entry(env, value, ttl));
+    if (_cache != null) {
+      Entry entry = _cache.get(key);
 
-      return BooleanValue.TRUE;
+      if (entry != null && entry.isValid(env))
+        return BooleanValue.FALSE;
     }
-    else {
+
+    ApcStore store = getStore(env);
+
+    if (store != null && store.containsKey(key, env.getCurrentTime()))
       return BooleanValue.FALSE;
-    }
+
+    return put(env, key, value, ttl, true);
   }
 
   /**
@@ -325,6 +427,38 @@ public class ApcModule extends AbstractQuercusModule
   public Value apc_store(Env env, String key, Value value,
                          @Optional("0") int ttl)
   {
+    return put(env, key, value, ttl, false);
+  }
+
+  private Value put(Env env, String key, Value value, int ttl, boolean isAdd)
+  {
+    ApcStore store = getStore(env);
+
+    byte []data = null;
+
+    if (store != null
+        && isSerializable(value, new IdentityHashMap<Value,Value>())) {
+      data = encode(env, value);
+    }
+
+    if (data != null) {
+      long now = env.getCurrentTime();
+
+      long expire = ttl <= 0 ? NO_EXPIRE : now + ttl * 1000L;
+
+      if (store.put(key, data, expire, now, isAdd)) {
+        if (_cache != null)
+          _cache.remove(key);
+
+        return BooleanValue.TRUE;
+      }
+      else if (isAdd && store.containsKey(key, now))
+        return BooleanValue.FALSE;
+    }
+
+    if (store != null)
+      store.remove(key);
+
     LruCache<String,Entry> cache = getCache(env);
 
     cache.put(key, new Entry(env, value, ttl));
@@ -332,6 +466,152 @@ public class ApcModule extends AbstractQuercusModule
     return BooleanValue.TRUE;
   }
 
+  /**
+   * True for values whose serialized form is a faithful copy: scalars,
+   * strings, arrays and php objects, but not java objects or resources.
+   */
+  private static boolean isSerializable(Value value,
+                                        IdentityHashMap<Value,Value> valueMap)
+  {
+    value = value.toValue();
+
+    if (value instanceof StringValue
+        || value instanceof LongValue
+        || value instanceof DoubleValue
+        || value instanceof BooleanValue
+        || value instanceof NullValue) {
+      return true;
+    }
+
+    Set<? extends Map.Entry<Value,Value>> entrySet;
+
+    if (value instanceof ArrayValue)
+      entrySet = ((ArrayValue) value).entrySet();
+    else if (value instanceof ObjectExtValue
+             && ! (value instanceof ObjectExtJavaValue))
+      entrySet = ((ObjectExtValue) value).entrySet();
+    else
+      return false;
+
+    if (valueMap.put(value, value) != null)
+      return true;
+
+    for (Map.Entry<Value,Value> entry : entrySet) {
+      if (! isSerializable(entry.getValue(), valueMap))
+        return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * Encodes the php serialization as latin-1 bytes, or as utf-16 chars
+   * when a char doesn't fit.
+   */
+  private static byte []encode(Env env, Value value)
+  {
+    StringBuilder sb = new StringBuilder();
+
+    value.serialize(env, sb, new SerializeMap());
+
+    int length = sb.length();
+
+    boolean isWide = false;
+
+    for (int i = 0; i < length; i++) {
+      if (sb.charAt(i) > 0xff) {
+        isWide = true;
+        break;
+      }
+    }
+
+    byte []data;
+
+    if (! isWide) {
+      data = new byte[length + 1];
+
+      for (int i = 0; i < length; i++) {
+        data[i + 1] = (byte) sb.charAt(i);
+      }
+    }
+    else {
+      data = new byte[2 * length + 1];
+      data[0] = 1;
+
+      for (int i = 0; i < length; i++) {
+        char ch = sb.charAt(i);
+
+        data[2 * i + 1] = (byte) (ch >> 8);
+        data[2 * i + 2] = (byte) ch;
+      }
+    }
+
+    return data;
+  }
+
+  private static String decode(byte []data)
+  {
+    char []buffer;
+
+    if (data[0] == 0) {
+      buffer = new char[data.length - 1];
+
+      for (int i = 0; i < buffer.length; i++) {
+        buffer[i] = (char) (data[i + 1] & 0xff);
+      }
+    }
+    else {
+      buffer = new char[(data.length - 1) / 2];
+
+      for (int i = 0; i < buffer.length; i++) {
+        buffer[i] = (char) (((data[2 * i + 1] & 0xff) << 8)
+                            + (data[2 * i + 2] & 0xff));
+      }
+    }
+
+    return new String(buffer);
+  }
+
+  /**
+   * Returns the off-heap store, sized by apc.shm_size, or null if it
+   * can't be allocated.  The store is private to the context unless
+   * quercus.apc_shared_file names a file to share it through.
+   */
+  private ApcStore getStore(Env env)
+  {
+    if (_isStoreInit)
+      return _store;
+
+    synchronized (this) {
+      if (_isStoreInit)
+        return _store;
+
+      long size = env.getIniBytes("apc.shm_size", 30);
+
+      // apc takes a bare number as megabytes
+      if (size < 1024)
+        size *= 1024 * 1024;
+
+      // apc.mmap_file_mask is a mktemp template for a private segment,
+      // so sharing between contexts needs its own explicit setting
+      String sharedFile = env.getIniString("quercus.apc_shared_file");
+
+      try {
+        if (sharedFile != null && sharedFile.length() > 0)
+          _store = ApcStore.createShared(sharedFile, size);
+        else
+          _store = ApcStore.create(size);
+      } catch (Throwable e) {
+        log.warning(L.l("APC off-heap store is disabled: {0}", e));
+        log.log(Level.FINE, e.toString(), e);
+      }
+
+      _isStoreInit = true;
+
+      return _store;
+    }
+  }
+
   private LruCache<String,Entry> getCache(Env env) {
     if (_cache == null) {
       long size = env.getIniLong("apc.user_entries_hint");
@@ -431,6 +711,8 @@ public class ApcModule extends AbstractQuercusModule
     = _iniDefinitions.add("apc.filters", "", PHP_INI_SYSTEM);
   static final IniDefinition INI_APC_MMAP_FILE_MASK
     = _iniDefinitions.add("apc.mmap_file_mask", "", PHP_INI_SYSTEM);
+  static final IniDefinition INI_QUERCUS_APC_SHARED_FILE
+    = _iniDefinitions.add("quercus.apc_shared_file", "", PHP_INI_SYSTEM);
   static final IniDefinition INI_APC_SLAM_DEFENSE
     = _iniDefinitions.add("apc.slam_defense", false, PHP_INI_SYSTEM);
   static final IniDefinition INI_APC_FILE_UPDATE_PROTECTION
@@ -0,0 +1,421 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+
+package com.caucho.quercus.lib;
+
+import com.caucho.util.CurrentTime;
+import com.caucho.util.L10N;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Off-heap store for APC user values.
+ *
+ * Values are kept serialized in a single direct or memory-mapped buffer,
+ * allocated as a circular log.  When the write position reaches space
+ * still held by older entries, those entries are evicted, so the memory
+ * used never exceeds the buffer size.  Only the key index is on the heap.
+ */
+class ApcStore
+{
+  private static final Logger log
+    = Logger.getLogger(ApcStore.class.getName());
+  private static final L10N L = new L10N(ApcStore.class);
+
+  private static final HashMap<String,ApcStore> _sharedMap
+    = new HashMap<String,ApcStore>();
+
+  private final ByteBuffer _buffer;
+  private final int _capacity;
+  private final long _startTime;
+
+  private final HashMap<String,Slot> _slotMap = new HashMap<String,Slot>();
+
+  // slots in allocation order, including removed ones
+  private final ArrayDeque<Slot> _slotLog = new ArrayDeque<Slot>();
+
+  private int _head;
+  private long _usedBytes;
+
+  private long _hitCount;
+  private long _missCount;
+  private long _evictCount;
+
+  ApcStore(ByteBuffer buffer)
+  {
+    _buffer = buffer;
+    _capacity = buffer.capacity();
+    _startTime = CurrentTime.getCurrentTime();
+  }
+
+  /**
+   * Creates a store in a direct buffer.
+   */
+  static ApcStore create(long size)
+  {
+    return new ApcStore(ByteBuffer.allocateDirect(toCapacity(size)));
+  }
+
+  /**
+   * Returns the store mapped from the file, shared by every context in
+   * the JVM using the same file.
+   */
+  static ApcStore createShared(String fileName, long size)
+    throws IOException
+  {
+    File file = new File(fileName).getCanonicalFile();
+
+    synchronized (_sharedMap) {
+      ApcStore store = _sharedMap.get(file.getPath());
+
+      if (store == null) {
+        int capacity = toCapacity(size);
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+        try {
+          raf.setLength(capacity);
+
+          ByteBuffer buffer
+            = raf.getChannel().map(FileChannel.MapMode.READ_WRITE,
+                                   0, capacity);
+
+          store = new ApcStore(buffer);
+        } finally {
+          raf.close();
+        }
+
+        _sharedMap.put(file.getPath(), store);
+
+        if (log.isLoggable(Level.FINE))
+          log.fine(L.l("APC store mapped from {0} ({1} bytes)",
+                       file, capacity));
+      }
+
+      return store;
+    }
+  }
+
+  private static int toCapacity(long size)
+  {
+    if (size <= 0 || Integer.MAX_VALUE < size)
+      throw new IllegalArgumentException(L.l("'{0}' is an invalid APC size",
+                                             size));
+
+    return (int) size;
+  }
+
+  long getCapacity()
+  {
+    return _capacity;
+  }
+
+  long getStartTime()
+  {
+    return _startTime;
+  }
+
+  synchronized long getUsedBytes()
+  {
+    return _usedBytes;
+  }
+
+  synchronized int getEntryCount()
+  {
+    return _slotMap.size();
+  }
+
+  synchronized long getHitCount()
+  {
+    return _hitCount;
+  }
+
+  synchronized long getMissCount()
+  {
+    return _missCount;
+  }
+
+  synchronized long getEvictCount()
+  {
+    return _evictCount;
+  }
+
+  synchronized boolean containsKey(String key, long now)
+  {
+    Slot slot = _slotMap.get(key);
+
+    if (slot == null)
+      return false;
+    else if (now <= slot._expire)
+      return true;
+    else {
+      removeSlot(slot);
+
+      return false;
+    }
+  }
+
+  /**
+   * Stores the serialized value.
+   *
+   * @param key the user key
+   * @param data the serialized value
+   * @param expire the expire time, or Long.MAX_VALUE
+   * @param now the current time
+   * @param isAdd true if an existing live entry wins
+   *
+   * @return false if the entry exists for an add, or is too large
+   */
+  synchronized boolean put(String key, byte []data, long expire, long now,
+                           boolean isAdd)
+  {
+    Slot oldSlot = _slotMap.get(key);
+
+    if (oldSlot != null) {
+      if (isAdd && now <= oldSlot._expire)
+        return false;
+
+      removeSlot(oldSlot);
+    }
+
+    int length = data.length;
+
+    if (_capacity < length)
+      return false;
+
+    int offset = allocate(length);
+
+    ByteBuffer buffer = _buffer.duplicate();
+    buffer.position(offset);
+    buffer.put(data, 0, length);
+
+    Slot slot = new Slot(key, offset, length, expire, now);
+
+    _slotMap.put(key, slot);
+    _slotLog.addLast(slot);
+    _usedBytes += length;
+
+    return true;
+  }
+
+  /**
+   * Returns a copy of the serialized value, or null for a miss.
+   */
+  synchronized byte []get(String key, long now)
+  {
+    Slot slot = _slotMap.get(key);
+
+    if (slot == null) {
+      _missCount++;
+
+      return null;
+    }
+    else if (slot._expire < now) {
+      removeSlot(slot);
+
+      _missCount++;
+
+      return null;
+    }
+
+    slot._accessTime = now;
+    slot._hitCount++;
+    _hitCount++;
+
+    byte []data = new byte[slot._length];
+
+    ByteBuffer buffer = _buffer.duplicate();
+    buffer.position(slot._offset);
+    buffer.get(data, 0, data.length);
+
+    return data;
+  }
+
+  synchronized boolean remove(String key)
+  {
+    Slot slot = _slotMap.get(key);
+
+    if (slot == null)
+      return false;
+
+    removeSlot(slot);
+
+    return true;
+  }
+
+  synchronized void clear()
+  {
+    _slotMap.clear();
+    _slotLog.clear();
+
+    _head = 0;
+    _usedBytes = 0;
+  }
+
+  /**
+   * Returns a snapshot of the live entries.
+   */
+  synchronized ArrayList<Slot> getSlots(long now)
+  {
+    ArrayList<Slot> slots = new ArrayList<Slot>();
+
+    for (Slot slot : _slotMap.values()) {
+      if (now <= slot._expire)
+        slots.add(slot.copy());
+    }
+
+    return slots;
+  }
+
+  /**
+   * Reserves length bytes at the log head, evicting the oldest entries
+   * which overlap.
+   */
+  private int allocate(int length)
+  {
+    if (_capacity < _head + length) {
+      // the oldest entries sit between the head and the end of the buffer
+      while (! _slotLog.isEmpty() && _head <= _slotLog.peekFirst()._offset) {
+        evict(_slotLog.removeFirst());
+      }
+
+      _head = 0;
+    }
+
+    int end = _head + length;
+
+    while (! _slotLog.isEmpty()) {
+      Slot oldest = _slotLog.peekFirst();
+
+      if (oldest._offset < _head || end <= oldest._offset)
+        break;
+
+      evict(_slotLog.removeFirst());
+    }
+
+    int offset = _head;
+
+    _head = end;
+
+    return offset;
+  }
+
+  private void evict(Slot slot)
+  {
+    if (slot._isRemoved)
+      return;
+
+    slot._isRemoved = true;
+
+    _slotMap.remove(slot._key);
+    _usedBytes -= slot._length;
+    _evictCount++;
+  }
+
+  private void removeSlot(Slot slot)
+  {
+    // the space is reclaimed when the log head wraps over it
+    slot._isRemoved = true;
+
+    _slotMap.remove(slot._key);
+    _usedBytes -= slot._length;
+  }
+
+  static class Slot {
+    private final String _key;
+    private final int _offset;
+    private final int _length;
+    private final long _expire;
+    private final long _createTime;
+
+    private long _accessTime;
+    private long _hitCount;
+    private boolean _isRemoved;
+
+    Slot(String key, int offset, int length, long expire, long now)
+    {
+      _key = key;
+      _offset = offset;
+      _length = length;
+      _expire = expire;
+      _createTime = now;
+      _accessTime = now;
+    }
+
+    String getKey()
+    {
+      return _key;
+    }
+
+    int getLength()
+    {
+      return _length;
+    }
+
+    long getExpire()
+    {
+      return _expire;
+    }
+
+    long getCreateTime()
+    {
+      return _createTime;
+    }
+
+    long getAccessTime()
+    {
+      return _accessTime;
+    }
+
+    long getHitCount()
+    {
+      return _hitCount;
+    }
+
+    Slot copy()
+    {
+      Slot slot = new Slot(_key, _offset, _length, _expire, _createTime);
+
+      slot._accessTime = _accessTime;
+      slot._hitCount = _hitCount;
+
+      return slot;
+    }
+  }
+}
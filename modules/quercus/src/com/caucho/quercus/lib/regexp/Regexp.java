@@ -62,12 +62,15 @@ public class Regexp {
 
   // optim stuff
 
-  CharBuffer _prefix; // initial string
+  char []_prefix; // literal string starting every match
+  int []_prefixShift; // Horspool shift table for the prefix
   int _minLength; // minimum length possible for this regexp
   int _firstChar;
   boolean []_firstSet;
   boolean _isAnchorBegin;
 
+  RegexpDfa _dfa;
+
   StringValue []_groupNames;
 
   boolean _isUnicode;
@@ -245,7 +248,13 @@ public class Regexp {
     _minLength = prog.minLength();
     _firstChar = prog.firstChar();
     _firstSet = prog.firstSet(new boolean[256]);
-    _prefix = new CharBuffer(prog.prefix());
+
+    String prefix = prog.prefix();
+
+    if (prefix.length() > 1) {
+      _prefix = prefix.toCharArray();
+      _prefixShift = createPrefixShift(_prefix);
+    }
 
     //this._prog = RegOptim.linkLoops(prog);
 
@@ -265,6 +274,53 @@ public class Regexp {
 
       _groupNames[entry.getKey().intValue()] = groupName;
     }
+
+    _dfa = RegexpDfa.create(_pattern, _flags);
+  }
+
+  private static int []createPrefixShift(char []prefix)
+  {
+    int []shift = new int[256];
+    int last = prefix.length - 1;
+
+    Arrays.fill(shift, prefix.length);
+
+    // chars are hashed into 256 buckets, so later (smaller) shifts win
+    for (int i = 0; i < last; i++) {
+      shift[prefix[i] & 0xff] = last - i;
+    }
+
+    return shift;
+  }
+
+  /**
+   * Returns the next offset where the literal prefix starts, using a
+   * Boyer-Moore-Horspool scan, or -1 if the prefix doesn't occur.
+   */
+  int findPrefix(StringValue subject, int length, int offset)
+  {
+    char []prefix = _prefix;
+    int []shift = _prefixShift;
+    int last = prefix.length - 1;
+
+    for (int i = offset + last; i < length; ) {
+      char ch = subject.charAt(i);
+
+      if (ch == prefix[last]) {
+        int begin = i - last;
+        int j = last - 1;
+
+        for (; j >= 0 && subject.charAt(begin + j) == prefix[j]; j--) {
+        }
+
+        if (j < 0)
+          return begin;
+      }
+
+      i += shift[ch & 0xff];
+    }
+
+    return -1;
   }
 
   public StringValue getGroupName(int i)
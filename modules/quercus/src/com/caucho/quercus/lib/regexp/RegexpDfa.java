@@ -0,0 +1,900 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+
+package com.caucho.quercus.lib.regexp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.caucho.quercus.env.StringBuilderValue;
+import com.caucho.quercus.env.StringValue;
+
+/**
+ * DFA matcher for the backtracking-free subset of the regexp syntax.
+ *
+ * The DFA only answers whether the subject matches anywhere, which lets
+ * callers reject a subject without running the node interpreter and lets
+ * preg_match answer when it doesn't need the match groups.  Patterns with
+ * backreferences, lookaround, recursion, conditionals, word boundaries or
+ * inline options return null from create() and keep using the interpreter.
+ *
+ * Each character class or escape is compiled by Regcomp itself, so the
+ * DFA uses exactly the interpreter's character semantics.  Subjects
+ * containing characters above 0xff return UNKNOWN.
+ */
+class RegexpDfa {
+  private static final Logger log
+    = Logger.getLogger(RegexpDfa.class.getName());
+
+  static final int UNKNOWN = -1;
+  static final int NO_MATCH = 0;
+  static final int MATCH = 1;
+
+  private static final int MAX_NFA_STATES = 1024;
+  private static final int MAX_DFA_STATES = 256;
+
+  private static final int INFINITY = Integer.MAX_VALUE;
+
+  private final int []_charClass;
+  private final int _classCount;
+
+  // transitions, indexed by state * _classCount + class, -1 for no match
+  private final int []_next;
+  private final boolean []_isAccept;
+
+  private final boolean _isAnchorBegin;
+  private final boolean _isAnchorEnd;
+  private final boolean _isEndOnly;
+
+  private RegexpDfa(int []charClass,
+                    int classCount,
+                    int []next,
+                    boolean []isAccept,
+                    boolean isAnchorBegin,
+                    boolean isAnchorEnd,
+                    boolean isEndOnly)
+  {
+    _charClass = charClass;
+    _classCount = classCount;
+    _next = next;
+    _isAccept = isAccept;
+    _isAnchorBegin = isAnchorBegin;
+    _isAnchorEnd = isAnchorEnd;
+    _isEndOnly = isEndOnly;
+  }
+
+  /**
+   * Returns the DFA for the pattern, or null if the pattern needs the
+   * backtracking interpreter.
+   */
+  static RegexpDfa create(StringValue pattern, int flags)
+  {
+    try {
+      return new Builder(pattern, flags).build();
+    } catch (UnsupportedException e) {
+      if (log.isLoggable(Level.FINEST))
+        log.finest("regexp '" + pattern + "' has no dfa: " + e.getMessage());
+
+      return null;
+    }
+  }
+
+  /**
+   * Returns MATCH if the pattern matches somewhere in the subject,
+   * NO_MATCH if it doesn't, and UNKNOWN if the subject has characters
+   * the DFA doesn't handle.
+   */
+  int match(StringValue subject)
+  {
+    if (subject == null)
+      return UNKNOWN;
+
+    int []charClass = _charClass;
+    int []next = _next;
+    boolean []isAccept = _isAccept;
+    int classCount = _classCount;
+    boolean isAnchorEnd = _isAnchorEnd;
+
+    int length = subject.length();
+    int state = 0;
+
+    if (! isAnchorEnd && isAccept[state])
+      return MATCH;
+
+    for (int i = 0; i < length; i++) {
+      char ch = subject.charAt(i);
+
+      if (ch > 0xff)
+        return UNKNOWN;
+
+      if (isAnchorEnd && ! _isEndOnly
+          && ch == '\n' && i + 1 == length && isAccept[state]) {
+        return MATCH;
+      }
+
+      state = next[state * classCount + charClass[ch]];
+
+      if (state < 0)
+        return NO_MATCH;
+      else if (! isAnchorEnd && isAccept[state])
+        return MATCH;
+    }
+
+    return isAccept[state] ? MATCH : NO_MATCH;
+  }
+
+  @Override
+  public String toString()
+  {
+    return (getClass().getSimpleName()
+            + "[states=" + _isAccept.length
+            + ",classes=" + _classCount + "]");
+  }
+
+  /**
+   * Parses the pattern into a Thompson NFA and converts it to a DFA
+   * with the subset construction.
+   */
+  private static class Builder {
+    private static final int CHAR = 0;
+    private static final int SPLIT = 1;
+    private static final int ACCEPT = 2;
+
+    private final StringValue _pattern;
+    private final int _length;
+    private final int _flags;
+
+    private int _index;
+
+    private boolean _isCaret;
+    private boolean _isDollar;
+    private boolean _isTopOr;
+
+    // atom sets, each a membership table for 0x00-0xff
+    private final ArrayList<boolean[]> _atomList = new ArrayList<boolean[]>();
+    private final HashMap<String,Integer> _atomMap
+      = new HashMap<String,Integer>();
+
+    private int _stateCount;
+    private final int []_type = new int[MAX_NFA_STATES];
+    private final int []_atom = new int[MAX_NFA_STATES];
+    private final int []_out1 = new int[MAX_NFA_STATES];
+    private final int []_out2 = new int[MAX_NFA_STATES];
+
+    Builder(StringValue pattern, int flags)
+    {
+      _pattern = pattern;
+      _length = pattern.length();
+      _flags = flags;
+    }
+
+    RegexpDfa build()
+      throws UnsupportedException
+    {
+      if ((_flags & Regcomp.IGNORE_WS) != 0)
+        throw new UnsupportedException("x flag");
+
+      Node node = parseOr(0);
+
+      if (_index < _length)
+        throw new UnsupportedException("unbalanced ')'");
+
+      if ((_isCaret || _isDollar) && _isTopOr)
+        throw new UnsupportedException("anchored alternation");
+
+      if ((_isCaret || _isDollar) && (_flags & Regcomp.MULTILINE) != 0)
+        throw new UnsupportedException("multiline anchor");
+
+      boolean isAnchorBegin
+        = _isCaret || (_flags & Regcomp.ANCHORED) != 0;
+
+      int accept = addState(ACCEPT, -1, -1, -1);
+      int start = compile(node, accept);
+
+      return buildDfa(start, isAnchorBegin);
+    }
+
+    //
+    // parsing
+    //
+
+    private Node parseOr(int depth)
+      throws UnsupportedException
+    {
+      Node node = parseSequence(depth);
+
+      if (peek() != '|')
+        return node;
+
+      ArrayList<Node> list = new ArrayList<Node>();
+      list.add(node);
+
+      while (peek() == '|') {
+        _index++;
+
+        list.add(parseSequence(depth));
+      }
+
+      if (depth == 0)
+        _isTopOr = true;
+
+      return new Node(Node.OR, list);
+    }
+
+    private Node parseSequence(int depth)
+      throws UnsupportedException
+    {
+      ArrayList<Node> list = new ArrayList<Node>();
+
+      while (_index < _length) {
+        char ch = _pattern.charAt(_index);
+
+        if (ch == '|' || ch == ')')
+          break;
+
+        Node node;
+
+        switch (ch) {
+        case '(':
+          _index++;
+
+          if (peek() == '?') {
+            if (peek(1) != ':')
+              throw new UnsupportedException("extended group");
+
+            _index += 2;
+          }
+
+          node = parseOr(depth + 1);
+
+          if (peek() != ')')
+            throw new UnsupportedException("unbalanced '('");
+
+          _index++;
+          break;
+
+        case '[':
+          node = parseSet();
+          break;
+
+        case '\\':
+          node = parseEscape();
+          break;
+
+        case '^':
+          if (_index != 0)
+            throw new UnsupportedException("embedded '^'");
+
+          _isCaret = true;
+          _index++;
+          continue;
+
+        case '$':
+          if (_index + 1 != _length || depth != 0)
+            throw new UnsupportedException("embedded '$'");
+
+          _isDollar = true;
+          _index++;
+          continue;
+
+        case '*': case '+': case '?': case '{':
+          throw new UnsupportedException("quantifier without atom");
+
+        default:
+          node = createAtom(_index, _index + 1);
+          _index++;
+          break;
+        }
+
+        list.add(parseQuantifier(node));
+      }
+
+      if (list.size() == 1)
+        return list.get(0);
+      else
+        return new Node(Node.CONCAT, list);
+    }
+
+    private Node parseQuantifier(Node node)
+      throws UnsupportedException
+    {
+      int min;
+      int max;
+
+      switch (peek()) {
+      case '*':
+        min = 0;
+        max = INFINITY;
+        _index++;
+        break;
+
+      case '+':
+        min = 1;
+        max = INFINITY;
+        _index++;
+        break;
+
+      case '?':
+        min = 0;
+        max = 1;
+        _index++;
+        break;
+
+      case '{':
+        _index++;
+        min = parseInteger();
+        max = min;
+
+        if (peek() == ',') {
+          _index++;
+
+          if (peek() == '}')
+            max = INFINITY;
+          else
+            max = parseInteger();
+        }
+
+        if (peek() != '}' || max < min)
+          throw new UnsupportedException("bad '{'");
+
+        _index++;
+        break;
+
+      default:
+        return node;
+      }
+
+      // an ungreedy loop matches the same subjects as a greedy one
+      if (peek() == '?')
+        _index++;
+      else if (peek() == '+')
+        throw new UnsupportedException("possessive quantifier");
+
+      // the interpreter doesn't backtrack into earlier iterations of
+      // counted group loops, so the DFA would disagree with it
+      if (node._type != Node.ATOM
+          && (min > 1 || max != 1 && max != INFINITY)) {
+        throw new UnsupportedException("counted group loop");
+      }
+
+      Node loop = new Node(Node.LOOP, null);
+      loop._node = node;
+      loop._min = min;
+      loop._max = max;
+
+      return loop;
+    }
+
+    private int parseInteger()
+      throws UnsupportedException
+    {
+      int begin = _index;
+      int value = 0;
+
+      for (; '0' <= peek() && peek() <= '9'; _index++) {
+        value = 10 * value + peek() - '0';
+
+        if (MAX_NFA_STATES < value)
+          throw new UnsupportedException("large repeat");
+      }
+
+      if (begin == _index)
+        throw new UnsupportedException("bad '{'");
+
+      return value;
+    }
+
+    private Node parseSet()
+      throws UnsupportedException
+    {
+      int begin = _index++;
+
+      if (peek() == '^')
+        _index++;
+
+      if (peek() == ']')
+        _index++;
+
+      while (_index < _length) {
+        char ch = _pattern.charAt(_index++);
+
+        if (ch == '\\')
+          _index++;
+        else if (ch == '[' && peek() == ':') {
+          for (_index++; _index < _length && peek() != ']'; _index++) {
+          }
+
+          _index++;
+        }
+        else if (ch == ']')
+          return createAtom(begin, _index);
+      }
+
+      throw new UnsupportedException("unterminated '['");
+    }
+
+    private Node parseEscape()
+      throws UnsupportedException
+    {
+      int begin = _index;
+
+      _index++;
+
+      if (_length <= _index)
+        throw new UnsupportedException("trailing '\\'");
+
+      char ch = _pattern.charAt(_index++);
+
+      switch (ch) {
+      case 'x':
+        if (peek() == '{')
+          skipBrace();
+        else {
+          for (int i = 0; i < 2 && isHex(peek()); i++)
+            _index++;
+        }
+        break;
+
+      case 'p': case 'P':
+        if (peek() == '{')
+          skipBrace();
+        else
+          _index++;
+        break;
+
+      case '0':
+        for (int i = 0; i < 2 && '0' <= peek() && peek() <= '7'; i++)
+          _index++;
+        break;
+
+      case 'c':
+        _index++;
+        break;
+
+      case 'd': case 'D': case 'w': case 'W': case 's': case 'S':
+      case 'h': case 'H': case 'v': case 'V':
+      case 't': case 'n': case 'r': case 'f': case 'e': case 'a':
+        break;
+
+      default:
+        // backreferences, \b, \A, \Q, \R etc. aren't single characters
+        if (Character.isLetterOrDigit(ch))
+          throw new UnsupportedException("escape '\\" + ch + "'");
+        break;
+      }
+
+      if (_length < _index)
+        throw new UnsupportedException("truncated escape");
+
+      return createAtom(begin, _index);
+    }
+
+    private void skipBrace()
+      throws UnsupportedException
+    {
+      for (; _index < _length && peek() != '}'; _index++) {
+      }
+
+      if (_length <= _index)
+        throw new UnsupportedException("unterminated '{'");
+
+      _index++;
+    }
+
+    private static boolean isHex(int ch)
+    {
+      return ('0' <= ch && ch <= '9'
+              || 'a' <= ch && ch <= 'f'
+              || 'A' <= ch && ch <= 'F');
+    }
+
+    private int peek()
+    {
+      return peek(0);
+    }
+
+    private int peek(int offset)
+    {
+      int index = _index + offset;
+
+      if (index < _length)
+        return _pattern.charAt(index);
+      else
+        return -1;
+    }
+
+    /**
+     * Compiles a single-character atom with Regcomp and records which
+     * of the chars 0x00-0xff it matches.
+     */
+    private Node createAtom(int begin, int end)
+      throws UnsupportedException
+    {
+      String text = _pattern.substring(begin, end).toString();
+
+      Integer index = _atomMap.get(text);
+
+      if (index == null) {
+        index = _atomList.size();
+
+        _atomList.add(createSet(text));
+        _atomMap.put(text, index);
+      }
+
+      Node node = new Node(Node.ATOM, null);
+      node._atom = index;
+
+      return node;
+    }
+
+    private boolean []createSet(String text)
+      throws UnsupportedException
+    {
+      RegexpNode node;
+
+      try {
+        Regcomp comp = new Regcomp(_flags & ~Regcomp.ANCHORED);
+
+        node = comp.parse(new PeekString(text));
+      } catch (IllegalRegexpException e) {
+        throw new UnsupportedException(e.getMessage());
+      }
+
+      if (node.minLength() != 1)
+        throw new UnsupportedException("multi-character atom " + text);
+
+      boolean []set = new boolean[256];
+
+      try {
+        if (node.match(new StringBuilderValue(), 0, 0, null) >= 0)
+          throw new UnsupportedException("empty atom " + text);
+
+        for (int ch = 0; ch < set.length; ch++) {
+          StringValue string = new StringBuilderValue((char) ch);
+
+          int tail = node.match(string, 1, 0, null);
+
+          if (tail == 1)
+            set[ch] = true;
+          else if (tail >= 0)
+            throw new UnsupportedException("empty atom " + text);
+        }
+      } catch (RuntimeException e) {
+        // nodes that need the match state aren't simple characters
+        throw new UnsupportedException(String.valueOf(e));
+      }
+
+      return set;
+    }
+
+    //
+    // nfa
+    //
+
+    private int addState(int type, int atom, int out1, int out2)
+      throws UnsupportedException
+    {
+      if (MAX_NFA_STATES <= _stateCount)
+        throw new UnsupportedException("too many nfa states");
+
+      int state = _stateCount++;
+
+      _type[state] = type;
+      _atom[state] = atom;
+      _out1[state] = out1;
+      _out2[state] = out2;
+
+      return state;
+    }
+
+    /**
+     * Compiles the node in continuation style, returning the start state
+     * of the node followed by next.
+     */
+    private int compile(Node node, int next)
+      throws UnsupportedException
+    {
+      switch (node._type) {
+      case Node.ATOM:
+        return addState(CHAR, node._atom, next, -1);
+
+      case Node.CONCAT:
+        for (int i = node._list.size() - 1; i >= 0; i--) {
+          next = compile(node._list.get(i), next);
+        }
+
+        return next;
+
+      case Node.OR:
+        {
+          ArrayList<Node> list = node._list;
+
+          int state = compile(list.get(list.size() - 1), next);
+
+          for (int i = list.size() - 2; i >= 0; i--) {
+            state = addState(SPLIT, -1, compile(list.get(i), next), state);
+          }
+
+          return state;
+        }
+
+      case Node.LOOP:
+        {
+          int state = next;
+
+          if (node._max == INFINITY) {
+            state = addState(SPLIT, -1, -1, next);
+            _out1[state] = compile(node._node, state);
+          }
+          else {
+            for (int i = node._min; i < node._max; i++) {
+              state = addState(SPLIT, -1, compile(node._node, state), next);
+            }
+          }
+
+          for (int i = 0; i < node._min; i++) {
+            state = compile(node._node, state);
+          }
+
+          return state;
+        }
+
+      default:
+        return next;
+      }
+    }
+
+    //
+    // dfa
+    //
+
+    private RegexpDfa buildDfa(int start, boolean isAnchorBegin)
+      throws UnsupportedException
+    {
+      int []charClass = new int[256];
+      int classCount = 0;
+      HashMap<BitSet,Integer> classMap = new HashMap<BitSet,Integer>();
+
+      ArrayList<boolean[]> atomList = _atomList;
+
+      for (int ch = 0; ch < charClass.length; ch++) {
+        BitSet key = new BitSet();
+
+        for (int i = 0; i < atomList.size(); i++) {
+          if (atomList.get(i)[ch])
+            key.set(i);
+        }
+
+        Integer value = classMap.get(key);
+
+        if (value == null) {
+          value = classCount++;
+          classMap.put(key, value);
+        }
+
+        charClass[ch] = value;
+      }
+
+      // a representative char for each class
+      int []classChar = new int[classCount];
+
+      for (int ch = charClass.length - 1; ch >= 0; ch--) {
+        classChar[charClass[ch]] = ch;
+      }
+
+      HashMap<StateSet,Integer> stateMap = new HashMap<StateSet,Integer>();
+      ArrayList<StateSet> stateList = new ArrayList<StateSet>();
+
+      StateSet startSet = closure(new int[] { start }, 1);
+      stateMap.put(startSet, 0);
+      stateList.add(startSet);
+
+      int []next = new int[MAX_DFA_STATES * classCount];
+      int []targets = new int[_stateCount + 1];
+
+      for (int i = 0; i < stateList.size(); i++) {
+        int []states = stateList.get(i)._states;
+
+        for (int cl = 0; cl < classCount; cl++) {
+          int ch = classChar[cl];
+          int count = 0;
+
+          for (int state : states) {
+            if (_type[state] == CHAR && atomList.get(_atom[state])[ch])
+              targets[count++] = _out1[state];
+          }
+
+          if (! isAnchorBegin)
+            targets[count++] = start;
+
+          StateSet set = closure(targets, count);
+
+          int target;
+
+          if (set._states.length == 0)
+            target = -1;
+          else {
+            Integer value = stateMap.get(set);
+
+            if (value == null) {
+              if (MAX_DFA_STATES <= stateList.size())
+                throw new UnsupportedException("too many dfa states");
+
+              value = stateList.size();
+              stateMap.put(set, value);
+              stateList.add(set);
+            }
+
+            target = value;
+          }
+
+          next[i * classCount + cl] = target;
+        }
+      }
+
+      int stateCount = stateList.size();
+      boolean []isAccept = new boolean[stateCount];
+
+      for (int i = 0; i < stateCount; i++) {
+        for (int state : stateList.get(i)._states) {
+          if (_type[state] == ACCEPT)
+            isAccept[i] = true;
+        }
+      }
+
+      return new RegexpDfa(charClass, classCount,
+                           Arrays.copyOf(next, stateCount * classCount),
+                           isAccept,
+                           isAnchorBegin,
+                           _isDollar,
+                           (_flags & Regcomp.END_ONLY) != 0);
+    }
+
+    /**
+     * Returns the CHAR and ACCEPT states reachable from the given states
+     * through SPLIT states.
+     */
+    private StateSet closure(int []states, int count)
+    {
+      boolean []isVisited = new boolean[_stateCount];
+      int []stack = new int[_stateCount];
+      int top = 0;
+
+      for (int i = 0; i < count; i++) {
+        int state = states[i];
+
+        if (! isVisited[state]) {
+          isVisited[state] = true;
+          stack[top++] = state;
+        }
+      }
+
+      int size = 0;
+
+      while (top > 0) {
+        int state = stack[--top];
+
+        if (_type[state] != SPLIT) {
+          size++;
+          continue;
+        }
+
+        int out1 = _out1[state];
+        int out2 = _out2[state];
+
+        if (out1 >= 0 && ! isVisited[out1]) {
+          isVisited[out1] = true;
+          stack[top++] = out1;
+        }
+
+        if (out2 >= 0 && ! isVisited[out2]) {
+          isVisited[out2] = true;
+          stack[top++] = out2;
+        }
+      }
+
+      int []result = new int[size];
+      int j = 0;
+
+      for (int state = 0; state < isVisited.length; state++) {
+        if (isVisited[state] && _type[state] != SPLIT)
+          result[j++] = state;
+      }
+
+      return new StateSet(result);
+    }
+  }
+
+  /**
+   * Parsed pattern tree.
+   */
+  private static final class Node {
+    static final int ATOM = 0;
+    static final int CONCAT = 1;
+    static final int OR = 2;
+    static final int LOOP = 3;
+
+    final int _type;
+    final ArrayList<Node> _list;
+
+    int _atom;
+
+    Node _node;
+    int _min;
+    int _max;
+
+    Node(int type, ArrayList<Node> list)
+    {
+      _type = type;
+      _list = list;
+    }
+  }
+
+  /**
+   * Sorted set of nfa states, the key for a dfa state.
+   */
+  private static final class StateSet {
+    final int []_states;
+    private final int _hash;
+
+    StateSet(int []states)
+    {
+      _states = states;
+      _hash = Arrays.hashCode(states);
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return _hash;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+      if (! (o instanceof StateSet))
+        return false;
+
+      return Arrays.equals(_states, ((StateSet) o)._states);
+    }
+  }
+
+  @SuppressWarnings("serial")
+  private static class UnsupportedException extends Exception {
+    UnsupportedException(String msg)
+    {
+      super(msg);
+    }
+  }
+}
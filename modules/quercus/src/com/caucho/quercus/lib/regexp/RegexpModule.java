@@ -40,7 +40,7 @@ import com.caucho.quercus.env.*;
 import com.caucho.quercus.lib.i18n.MbstringModule;
 import com.caucho.quercus.module.AbstractQuercusModule;
 import com.caucho.util.L10N;
-import com.caucho.util.LruCache;
+import com.caucho.util.SegmentedLruCache;
 
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -82,23 +82,23 @@ public class RegexpModule
 
   public static final boolean [] PREG_QUOTE = new boolean[256];
 
-  private static LruCache<StringValue, RegexpCacheItem> _regexpCache
-    = new LruCache<StringValue, RegexpCacheItem>(1024);
+  private static SegmentedLruCache<StringValue, RegexpCacheItem> _regexpCache
+    = new SegmentedLruCache<StringValue, RegexpCacheItem>(1024);
 
-  private static LruCache<StringValue, Ereg> _eregCache
-    = new LruCache<StringValue, Ereg>(1024);
+  private static SegmentedLruCache<StringValue, Ereg> _eregCache
+    = new SegmentedLruCache<StringValue, Ereg>(1024);
 
-  private static LruCache<StringValue, Eregi> _eregiCache
-    = new LruCache<StringValue, Eregi>(1024);
+  private static SegmentedLruCache<StringValue, Eregi> _eregiCache
+    = new SegmentedLruCache<StringValue, Eregi>(1024);
 
-  private static LruCache<UnicodeEregKey, UnicodeEreg> _unicodeEregCache
-    = new LruCache<UnicodeEregKey, UnicodeEreg>(1024);
+  private static SegmentedLruCache<UnicodeEregKey, UnicodeEreg> _unicodeEregCache
+    = new SegmentedLruCache<UnicodeEregKey, UnicodeEreg>(1024);
 
-  private static LruCache<UnicodeEregKey, UnicodeEregi> _unicodeEregiCache
-    = new LruCache<UnicodeEregKey, UnicodeEregi>(1024);
+  private static SegmentedLruCache<UnicodeEregKey, UnicodeEregi> _unicodeEregiCache
+    = new SegmentedLruCache<UnicodeEregKey, UnicodeEregi>(1024);
 
-  private static LruCache<StringValue, ArrayList<Replacement>> _replacementCache
-    = new LruCache<StringValue, ArrayList<Replacement>>(1024);
+  private static SegmentedLruCache<StringValue, ArrayList<Replacement>> _replacementCache
+    = new SegmentedLruCache<StringValue, ArrayList<Replacement>>(1024);
 
   @Override
   public String []getLoadedExtensions()
@@ -118,18 +118,18 @@ public class RegexpModule
     if (size < 0 || size == _regexpCache.getCapacity())
       return;
 
-    _regexpCache = new LruCache<StringValue, RegexpCacheItem>(size);
+    _regexpCache = new SegmentedLruCache<StringValue, RegexpCacheItem>(size);
 
-    _eregCache = new LruCache<StringValue, Ereg>(size);
+    _eregCache = new SegmentedLruCache<StringValue, Ereg>(size);
 
-    _eregiCache = new LruCache<StringValue, Eregi>(size);
+    _eregiCache = new SegmentedLruCache<StringValue, Eregi>(size);
 
-    _unicodeEregCache = new LruCache<UnicodeEregKey, UnicodeEreg>(size);
+    _unicodeEregCache = new SegmentedLruCache<UnicodeEregKey, UnicodeEreg>(size);
 
-    _unicodeEregiCache = new LruCache<UnicodeEregKey, UnicodeEregi>(size);
+    _unicodeEregiCache = new SegmentedLruCache<UnicodeEregKey, UnicodeEregi>(size);
 
     _replacementCache
-      = new LruCache<StringValue, ArrayList<Replacement>>(size);
+      = new SegmentedLruCache<StringValue, ArrayList<Replacement>>(size);
   }
 
   /**
@@ -508,7 +508,8 @@ public class RegexpModule
       regs = new ArrayValueImpl();
     }
 
-    if (regexpState == null || regexpState.exec(env, subject, offset) < 0) {
+    if (regexpState == null
+        || regexpState.exec(env, subject, offset, regs != null) < 0) {
       if (regs != null) {
         matchRef.set(regs);
       }
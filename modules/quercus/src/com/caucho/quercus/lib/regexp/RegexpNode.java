@@ -3206,7 +3206,8 @@ class RegexpNode {
     @Override
     String prefix()
     {
-      return new String(_buffer, 0, _length);
+      // the prefix is used for an exact-case scan
+      return "";
     }
 
     //
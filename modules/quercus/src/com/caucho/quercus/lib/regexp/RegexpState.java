@@ -196,6 +196,17 @@ public class RegexpState {
       StringValue subject = _subject;
       int length = _subjectLength;
 
+      RegexpDfa dfa = _regexp._dfa;
+
+      if (dfa != null && _first == 0 && _start == 0
+          && dfa.match(subject) == RegexpDfa.NO_MATCH) {
+        _first = length + 1;
+
+        return false;
+      }
+
+      char []prefix = _regexp._prefix;
+
       /* php/4e85 XXX: optim doesn't work for greedy loops
       if (_regexp._isAnchorBegin) {
         if (_first + minLength <= length)
@@ -204,6 +215,15 @@ public class RegexpState {
       */
 
       for (; _first + minLength <= length; _first++) {
+        if (prefix != null) {
+          int next = _regexp.findPrefix(subject, length, _first);
+
+          if (next < 0)
+            break;
+
+          _first = next;
+        }
+
         if (firstSet != null && _first < length) {
           char firstChar = subject.charAt(_first);
 
@@ -293,6 +313,17 @@ public class RegexpState {
    * XXX: not proper behaviour with /g
    */
   public int exec(Env env, StringValue subject, int start)
+  {
+    return exec(env, subject, start, true);
+  }
+
+  /**
+   * Executes the regexp starting at start.
+   *
+   * @param isGroup false if the caller only tests for a match, which lets
+   *   the DFA answer without computing the match groups
+   */
+  public int exec(Env env, StringValue subject, int start, boolean isGroup)
   {
     try {
       if (log.isLoggable(Level.FINEST))
@@ -316,8 +347,20 @@ public class RegexpState {
       int subjectLength = subject != null ? subject.length() : 0;
       _subjectLength = subjectLength;
 
+      RegexpDfa dfa = _regexp._dfa;
+
+      if (dfa != null && start == 0) {
+        int result = dfa.match(subject);
+
+        if (result == RegexpDfa.NO_MATCH)
+          return -1;
+        else if (result == RegexpDfa.MATCH && ! isGroup)
+          return 0;
+      }
+
       int minLength = _regexp._minLength;
       boolean []firstSet = _regexp._firstSet;
+      char []prefix = _regexp._prefix;
       int end = subjectLength - minLength;
       RegexpNode prog = _regexp._prog;
 
@@ -325,6 +368,15 @@ public class RegexpState {
         end = start;
 
       for (; start <= end; start++) {
+        if (prefix != null) {
+          int next = _regexp.findPrefix(subject, subjectLength, start);
+
+          if (next < 0 || end < next)
+            return -1;
+
+          start = next;
+        }
+
         if (firstSet != null && (start < end || minLength > 0)) {
           char firstChar = subject.charAt(start);
 
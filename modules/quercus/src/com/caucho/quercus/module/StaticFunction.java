@@ -33,6 +33,7 @@ import com.caucho.quercus.QuercusExitException;
 import com.caucho.quercus.QuercusModuleException;
 import com.caucho.quercus.annotation.Name;
 import com.caucho.quercus.env.JavaInvoker;
+import com.caucho.quercus.env.JavaMethodInvoker;
 import com.caucho.quercus.program.JavaClassDef;
 import com.caucho.util.L10N;
 
@@ -109,6 +110,17 @@ public class StaticFunction extends JavaInvoker {
   @Override
   public Object invoke(Object obj, Object []javaArgs)
   {
+    JavaMethodInvoker invoker = getDirectInvoker();
+
+    if (invoker != null) {
+      try {
+        return invoker.invoke(_quercusModule, javaArgs);
+      } catch (Throwable e) {
+        // same wrapping as the InvocationTargetException cause below
+        throw QuercusModuleException.create(e);
+      }
+    }
+
     try {
       return _method.invoke(_quercusModule, javaArgs);
     } catch (IllegalArgumentException e) {
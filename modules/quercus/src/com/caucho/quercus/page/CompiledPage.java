@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+
+package com.caucho.quercus.page;
+
+import com.caucho.quercus.env.Env;
+import com.caucho.quercus.env.StringValue;
+import com.caucho.quercus.function.AbstractFunction;
+import com.caucho.quercus.program.Function;
+import com.caucho.quercus.program.QuercusProgram;
+
+import java.util.IdentityHashMap;
+
+/**
+ * Represents a Quercus program whose functions are compiled to Java. The
+ * page's top-level code and any uncompiled functions are interpreted.
+ */
+public class CompiledPage extends InterpretedPage
+{
+  private final QuercusProgram _program;
+  private final IdentityHashMap<Function,AbstractFunction> _compiledMap;
+
+  public CompiledPage(QuercusProgram program,
+                      IdentityHashMap<Function,AbstractFunction> compiledMap)
+  {
+    super(program);
+
+    _program = program;
+    _compiledMap = compiledMap;
+  }
+
+  /**
+   * The compiled page is its own compiled page.
+   */
+  @Override
+  public QuercusPage getCompiledPage()
+  {
+    return null;
+  }
+
+  /**
+   * Returns the number of compiled functions.
+   */
+  public int getCompiledFunctionCount()
+  {
+    return _compiledMap.size();
+  }
+
+  /**
+   * Imports the page definitions.
+   */
+  @Override
+  public void importDefinitions(Env env)
+  {
+    _program.importDefinitions(env, _compiledMap);
+  }
+
+  /**
+   * Finds the function
+   */
+  @Override
+  public AbstractFunction findFunction(StringValue name)
+  {
+    AbstractFunction fun = _program.findFunction(name);
+
+    AbstractFunction compiledFun = _compiledMap.get(fun);
+
+    if (compiledFun != null)
+      return compiledFun;
+    else
+      return fun;
+  }
+}
@@ -30,6 +30,7 @@
 package com.caucho.quercus.page;
 
 import com.caucho.quercus.QuercusContext;
+import com.caucho.quercus.gen.ProgramCompiler;
 import com.caucho.quercus.parser.QuercusParser;
 import com.caucho.quercus.program.QuercusProgram;
 import com.caucho.util.CurrentTime;
@@ -62,6 +63,11 @@ public class PageManager
 
   private boolean _isRequireSource = true;
 
+  private boolean _isProgramCache;
+  private ProgramCache _diskProgramCache;
+
+  private ProgramCompiler _compiler;
+
   private ConcurrentHashMap<String,Object> _programLockMap
     = new ConcurrentHashMap<String,Object>();
 
@@ -155,6 +161,22 @@ public class PageManager
     return _isRequireSource;
   }
 
+  /**
+   * true if parsed programs are saved in the work directory.
+   */
+  public boolean isProgramCache()
+  {
+    return _isProgramCache;
+  }
+
+  /**
+   * true if parsed programs are saved in the work directory.
+   */
+  public void setProgramCache(boolean isProgramCache)
+  {
+    _isProgramCache = isProgramCache;
+  }
+
   /**
    * Gets the max size of the page cache.
    */
@@ -280,16 +302,8 @@ public class PageManager
 
         program = preloadProgram(path, fileName);
 
-        if (program == null) {
-          if (log.isLoggable(Level.FINE))
-            log.fine(L.l("Quercus[{0}] parsing page", path));
-
-          program = QuercusParser.parse(_quercus,
-                                        path,
-                                        _quercus.getScriptEncoding(),
-                                        fileName,
-                                        line);
-        }
+        if (program == null)
+          program = parseProgram(path, fileName, line);
 
         _programCache.put(path, new SoftReference<QuercusProgram>(program));
       }
@@ -307,6 +321,78 @@ public class PageManager
     }
   }
 
+  /**
+   * Parses the program, using the persistent program cache if enabled.
+   */
+  private QuercusProgram parseProgram(Path path, String fileName, int line)
+    throws IOException
+  {
+    ProgramCache programCache = null;
+    ProgramCache.Stamp stamp = null;
+
+    // eval and relocated code keep their own locations
+    if (fileName == null && line < 0 && "file".equals(path.getScheme()))
+      programCache = getDiskProgramCache();
+
+    if (programCache != null) {
+      QuercusProgram program = programCache.load(path);
+
+      if (program != null) {
+        if (log.isLoggable(Level.FINE))
+          log.fine(L.l("Quercus[{0}] loading cached program", path));
+
+        return program;
+      }
+
+      stamp = programCache.createStamp(path);
+    }
+
+    if (log.isLoggable(Level.FINE))
+      log.fine(L.l("Quercus[{0}] parsing page", path));
+
+    QuercusProgram program = QuercusParser.parse(_quercus,
+                                                 path,
+                                                 _quercus.getScriptEncoding(),
+                                                 fileName,
+                                                 line);
+
+    if (programCache != null)
+      programCache.save(path, stamp, program);
+
+    return program;
+  }
+
+  private ProgramCache getDiskProgramCache()
+  {
+    if (! _isProgramCache)
+      return null;
+
+    synchronized (this) {
+      if (_diskProgramCache == null) {
+        Path workDir;
+
+        try {
+          workDir = _quercus.getWorkDir();
+        } catch (Exception e) {
+          log.log(Level.FINE, e.toString(), e);
+
+          workDir = null;
+        }
+
+        if (workDir == null) {
+          _isProgramCache = false;
+
+          return null;
+        }
+
+        _diskProgramCache
+          = new ProgramCache(_quercus, workDir.lookup("quercus-program"));
+      }
+
+      return _diskProgramCache;
+    }
+  }
+
   public boolean precompileExists(Path path)
   {
     return false;
@@ -328,12 +414,27 @@ public class PageManager
 
   protected QuercusPage compilePage(QuercusProgram program, Path path)
   {
+    // the page is interpreted until the background compile completes
+    if (isCompile() && program.isCompilable()) {
+      getCompiler().compileAsync(program);
+    }
+
     if (log.isLoggable(Level.FINE))
       log.fine(L.l("Quercus[{0}] loading interpreted page", path));
 
     return new InterpretedPage(program);
   }
 
+  private ProgramCompiler getCompiler()
+  {
+    synchronized (this) {
+      if (_compiler == null)
+        _compiler = new ProgramCompiler(_quercus);
+
+      return _compiler;
+    }
+  }
+
   public void close()
   {
     _isClosed = true;
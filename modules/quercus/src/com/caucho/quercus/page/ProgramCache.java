@@ -0,0 +1,370 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+
+package com.caucho.quercus.page;
+
+import com.caucho.quercus.QuercusContext;
+import com.caucho.quercus.program.QuercusProgram;
+import com.caucho.util.Crc64;
+import com.caucho.util.L10N;
+import com.caucho.vfs.Path;
+import com.caucho.vfs.ReadStream;
+import com.caucho.vfs.Vfs;
+import com.caucho.vfs.WriteStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.HashSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Persistent cache of parsed programs in the work directory, so a restart
+ * or a cleared page cache entry doesn't reparse the php source.
+ *
+ * Each entry is validated against the source's length, last-modified
+ * time and crc64, and against the parser configuration.
+ */
+class ProgramCache
+{
+  private static final Logger log
+    = Logger.getLogger(ProgramCache.class.getName());
+
+  private static final L10N L = new L10N(ProgramCache.class);
+
+  private static final int MAGIC = 0x51504331; // QPC1
+
+  private final QuercusContext _quercus;
+  private final Path _dir;
+
+  ProgramCache(QuercusContext quercus, Path dir)
+  {
+    _quercus = quercus;
+    _dir = dir;
+  }
+
+  /**
+   * Returns the cached program for the source path, or null if it's
+   * missing or stale.
+   */
+  QuercusProgram load(Path path)
+  {
+    Path cachePath = getCachePath(path);
+
+    if (! cachePath.canRead())
+      return null;
+
+    ReadStream is = null;
+
+    try {
+      is = cachePath.openRead();
+
+      ObjectInputStream in = new ProgramInputStream(is, _quercus);
+
+      if (in.readInt() != MAGIC
+          || ! path.getFullPath().equals(in.readUTF())
+          || ! getConfigKey().equals(in.readUTF())
+          || in.readLong() != path.getLength()
+          || in.readLong() != path.getLastModified()
+          || in.readLong() != path.getCrc64()) {
+        return null;
+      }
+
+      return QuercusProgram.readParsed(_quercus, path, in);
+    } catch (Exception e) {
+      // a changed class layout or a truncated file just means a reparse
+      if (log.isLoggable(Level.FINE))
+        log.fine(L.l("Quercus[{0}] ignoring cached program: {1}", path, e));
+    } catch (StackOverflowError e) {
+      log.log(Level.FINER, e.toString(), e);
+    } finally {
+      if (is != null)
+        is.close();
+    }
+
+    return null;
+  }
+
+  /**
+   * Saves the freshly parsed program.
+   *
+   * @param path the source path
+   * @param stamp the source stamp taken before parsing
+   * @param program the unexecuted program
+   */
+  void save(Path path, Stamp stamp, QuercusProgram program)
+  {
+    Path cachePath = getCachePath(path);
+    Path tempPath = cachePath.getParent().lookup(cachePath.getTail() + ".tmp");
+
+    try {
+      _dir.mkdirs();
+
+      WriteStream os = tempPath.openWrite();
+
+      try {
+        ObjectOutputStream out = new ProgramOutputStream(os, _quercus);
+
+        out.writeInt(MAGIC);
+        out.writeUTF(path.getFullPath());
+        out.writeUTF(getConfigKey());
+        out.writeLong(stamp._length);
+        out.writeLong(stamp._lastModified);
+        out.writeLong(stamp._crc64);
+
+        program.writeParsed(out);
+
+        out.close();
+      } finally {
+        os.close();
+      }
+
+      if (! tempPath.renameTo(cachePath)) {
+        cachePath.remove();
+        tempPath.renameTo(cachePath);
+      }
+    } catch (Exception e) {
+      log.log(Level.FINE, e.toString(), e);
+
+      remove(tempPath);
+    } catch (StackOverflowError e) {
+      log.log(Level.FINER, e.toString(), e);
+
+      remove(tempPath);
+    }
+  }
+
+  /**
+   * Returns the source stamp, taken before parsing so a concurrent
+   * change to the source invalidates the saved program.
+   */
+  Stamp createStamp(Path path)
+  {
+    return new Stamp(path.getLength(),
+                     path.getLastModified(),
+                     path.getCrc64());
+  }
+
+  private Path getCachePath(Path path)
+  {
+    long hash = Crc64.generate(path.getFullPath());
+
+    return _dir.lookup(Long.toHexString(hash) + ".program");
+  }
+
+  /**
+   * Options which change the parsed program.
+   */
+  private String getConfigKey()
+  {
+    return ("unicode=" + _quercus.isUnicodeSemantics()
+            + ",encoding=" + _quercus.getScriptEncoding()
+            + ",loose=" + _quercus.isLooseParse());
+  }
+
+  private static void remove(Path path)
+  {
+    try {
+      path.remove();
+    } catch (IOException e) {
+      log.log(Level.FINEST, e.toString(), e);
+    }
+  }
+
+  static class Stamp {
+    private final long _length;
+    private final long _lastModified;
+    private final long _crc64;
+
+    Stamp(long length, long lastModified, long crc64)
+    {
+      _length = length;
+      _lastModified = lastModified;
+      _crc64 = crc64;
+    }
+  }
+
+  /**
+   * Replaces references to the engine and to vfs paths, which are
+   * restored when the program is read.
+   */
+  static class ProgramOutputStream extends ObjectOutputStream {
+    private final QuercusContext _quercus;
+
+    ProgramOutputStream(OutputStream os, QuercusContext quercus)
+      throws IOException
+    {
+      super(os);
+
+      _quercus = quercus;
+
+      enableReplaceObject(true);
+    }
+
+    @Override
+    protected Object replaceObject(Object obj)
+      throws IOException
+    {
+      if (obj == _quercus)
+        return QuercusRef.QUERCUS;
+      else if (obj instanceof Path)
+        return new PathRef(((Path) obj).getURL());
+      else
+        return obj;
+    }
+  }
+
+  /**
+   * Reads a cached program, only resolving the Quercus AST and value
+   * classes and the JDK types they use.  Any other class fails the load,
+   * so the page is reparsed.
+   */
+  static class ProgramInputStream extends ObjectInputStream {
+    private static final String []ALLOWED_PACKAGES = new String[] {
+      "com.caucho.quercus.env.",
+      "com.caucho.quercus.expr.",
+      "com.caucho.quercus.function.",
+      "com.caucho.quercus.program.",
+      "com.caucho.quercus.statement.",
+    };
+
+    private static final HashSet<String> ALLOWED_CLASSES
+      = new HashSet<String>();
+
+    private final QuercusContext _quercus;
+
+    ProgramInputStream(InputStream is, QuercusContext quercus)
+      throws IOException
+    {
+      super(is);
+
+      _quercus = quercus;
+
+      enableResolveObject(true);
+    }
+
+    @Override
+    protected Class<?> resolveClass(ObjectStreamClass desc)
+      throws IOException, ClassNotFoundException
+    {
+      String name = desc.getName();
+
+      if (! isAllowed(name)) {
+        throw new InvalidClassException(name,
+                                        L.l("not allowed in a cached program"));
+      }
+
+      return super.resolveClass(desc);
+    }
+
+    private static boolean isAllowed(String name)
+    {
+      // arrays are checked by their component type
+      int p = name.lastIndexOf('[');
+
+      if (p >= 0) {
+        if (! name.endsWith(";"))
+          return true;
+
+        name = name.substring(p + 2, name.length() - 1);
+      }
+
+      if (ALLOWED_CLASSES.contains(name))
+        return true;
+
+      for (String pkg : ALLOWED_PACKAGES) {
+        if (name.startsWith(pkg))
+          return true;
+      }
+
+      return false;
+    }
+
+    @Override
+    protected Object resolveObject(Object obj)
+      throws IOException
+    {
+      if (obj instanceof String) {
+        // the parser interns class and function names
+        return ((String) obj).intern();
+      }
+      else if (obj == QuercusRef.QUERCUS)
+        return _quercus;
+      else if (obj instanceof PathRef)
+        return Vfs.lookup(((PathRef) obj)._url);
+      else
+        return obj;
+    }
+
+    static {
+      ALLOWED_CLASSES.add("com.caucho.quercus.Location");
+      ALLOWED_CLASSES.add(PathRef.class.getName());
+      ALLOWED_CLASSES.add(QuercusRef.class.getName());
+
+      ALLOWED_CLASSES.add("java.lang.Boolean");
+      ALLOWED_CLASSES.add("java.lang.Byte");
+      ALLOWED_CLASSES.add("java.lang.Character");
+      ALLOWED_CLASSES.add("java.lang.Double");
+      ALLOWED_CLASSES.add("java.lang.Enum");
+      ALLOWED_CLASSES.add("java.lang.Float");
+      ALLOWED_CLASSES.add("java.lang.Integer");
+      ALLOWED_CLASSES.add("java.lang.Long");
+      ALLOWED_CLASSES.add("java.lang.Number");
+      ALLOWED_CLASSES.add("java.lang.Short");
+      ALLOWED_CLASSES.add("java.lang.String");
+
+      ALLOWED_CLASSES.add("java.util.ArrayList");
+      ALLOWED_CLASSES.add("java.util.HashMap");
+      ALLOWED_CLASSES.add("java.util.HashSet");
+      ALLOWED_CLASSES.add("java.util.LinkedHashMap");
+      ALLOWED_CLASSES.add("java.util.LinkedHashSet");
+    }
+  }
+
+  enum QuercusRef {
+    QUERCUS;
+  }
+
+  @SuppressWarnings("serial")
+  static class PathRef implements Serializable {
+    private final String _url;
+
+    PathRef(String url)
+    {
+      _url = url;
+    }
+  }
+}
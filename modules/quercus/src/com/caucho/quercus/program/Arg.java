@@ -35,10 +35,12 @@ import com.caucho.quercus.env.Value;
 import com.caucho.quercus.expr.Expr;
 import com.caucho.quercus.expr.ParamRequiredExpr;
 
+import java.io.Serializable;
+
 /**
  * Represents a formal argument.
  */
-public class Arg {
+public class Arg implements Serializable {
   private final StringValue _name;
   private final Expr _default;
 
@@ -41,6 +41,7 @@ import com.caucho.quercus.function.AbstractFunction;
 import com.caucho.quercus.Location;
 import com.caucho.util.L10N;
 
+import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
@@ -50,7 +51,7 @@ import java.util.Set;
 /**
  * Represents a Quercus class definition
  */
-abstract public class ClassDef implements InstanceInitializer {
+abstract public class ClassDef implements InstanceInitializer, Serializable {
   private final static L10N L = new L10N(ClassDef.class);
 
   private final Location _location;
@@ -463,7 +464,7 @@ abstract public class ClassDef implements InstanceInitializer {
   }
 
 
-  public static class FieldEntry {
+  public static class FieldEntry implements Serializable {
     private final Expr _value;
     private final FieldVisibility _visibility;
     private final String _comment;
@@ -498,7 +499,7 @@ abstract public class ClassDef implements InstanceInitializer {
     }
   }
 
-  public static class StaticFieldEntry {
+  public static class StaticFieldEntry implements Serializable {
     private final Expr _value;
     private final String _comment;
 
@@ -35,7 +35,9 @@ import com.caucho.quercus.env.StringValue;
 import com.caucho.quercus.env.Value;
 import com.caucho.quercus.expr.Expr;
 
-public class ClassField
+import java.io.Serializable;
+
+public class ClassField implements Serializable
 {
   private final StringValue _name;
   private final StringValue _canonicalName;
@@ -93,6 +93,28 @@ public class Function extends AbstractFunction {
     _isStatic = true;
   }
 
+  /**
+   * Copy constructor for compiled versions of an interpreted function.
+   */
+  protected Function(Function fun)
+  {
+    super(fun.getLocation());
+
+    _name = fun._name;
+    _info = fun._info;
+    _isReturnsReference = fun._isReturnsReference;
+    _args = fun._args;
+    _statement = fun._statement;
+    _hasReturn = fun._hasReturn;
+    _comment = fun._comment;
+    _closureUseArgs = fun._closureUseArgs;
+
+    setGlobal(fun.isGlobal());
+    setClosure(fun.isClosure());
+
+    _isStatic = true;
+  }
+
   /**
    * Returns the name.
    */
@@ -115,6 +137,14 @@ public class Function extends AbstractFunction {
     return _info;
   }
 
+  /**
+   * Returns the function body.
+   */
+  public Statement getStatement()
+  {
+    return _statement;
+  }
+
   protected boolean isMethod()
   {
     return getDeclaringClassName() != null;
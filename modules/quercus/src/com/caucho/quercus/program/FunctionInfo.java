@@ -33,6 +33,7 @@ import com.caucho.quercus.QuercusContext;
 import com.caucho.quercus.expr.VarInfo;
 import com.caucho.quercus.env.StringValue;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -40,7 +41,7 @@ import java.util.HashMap;
 /**
  * Information about a function.
  */
-public class FunctionInfo
+public class FunctionInfo implements Serializable
 {
   private final QuercusContext _quercus;
 
@@ -41,6 +41,9 @@ import com.caucho.vfs.Path;
 import com.caucho.vfs.Dependency;
 import com.caucho.vfs.PersistentDependency;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -159,6 +162,51 @@ public class QuercusProgram {
     _topDepend.add(new PageDependency());
   }
 
+  /**
+   * Reads a program saved by writeParsed.
+   *
+   * @param quercus the owning quercus engine
+   * @param sourceFile the path to the source file
+   * @param in the stream positioned at the saved program
+   */
+  @SuppressWarnings("unchecked")
+  public static QuercusProgram readParsed(QuercusContext quercus,
+                                          Path sourceFile,
+                                          ObjectInputStream in)
+    throws IOException, ClassNotFoundException
+  {
+    HashMap<StringValue,Function> functionMap
+      = (HashMap<StringValue,Function>) in.readObject();
+    ArrayList<Function> functionList
+      = (ArrayList<Function>) in.readObject();
+    HashMap<String,InterpretedClassDef> classMap
+      = (HashMap<String,InterpretedClassDef>) in.readObject();
+    ArrayList<InterpretedClassDef> classList
+      = (ArrayList<InterpretedClassDef>) in.readObject();
+    FunctionInfo functionInfo = (FunctionInfo) in.readObject();
+    Statement statement = (Statement) in.readObject();
+
+    return new QuercusProgram(quercus, sourceFile,
+                              functionMap, functionList,
+                              classMap, classList,
+                              functionInfo, statement);
+  }
+
+  /**
+   * Writes the parsed definitions and top-level statement, before the
+   * program has been executed.
+   */
+  public void writeParsed(ObjectOutputStream out)
+    throws IOException
+  {
+    out.writeObject(_functionMap);
+    out.writeObject(_functionList);
+    out.writeObject(_classMap);
+    out.writeObject(_classList);
+    out.writeObject(_functionInfo);
+    out.writeObject(_statement);
+  }
+
   /**
    * Returns the engine.
    */
@@ -470,11 +518,31 @@ public class QuercusProgram {
    * Imports the page definitions.
    */
   public void importDefinitions(Env env)
+  {
+    importDefinitions(env, null);
+  }
+
+  /**
+   * Imports the page definitions, replacing functions with their
+   * compiled versions.
+   */
+  public void importDefinitions(Env env,
+                                Map<Function,? extends AbstractFunction> compiledMap)
   {
     for (Map.Entry<StringValue,Function> entry : _functionMap.entrySet()) {
       Function fun = entry.getValue();
 
-      if (fun.isGlobal())
+      if (! fun.isGlobal())
+        continue;
+
+      AbstractFunction compiledFun = null;
+
+      if (compiledMap != null)
+        compiledFun = compiledMap.get(fun);
+
+      if (compiledFun != null)
+        env.addFunction(entry.getKey(), compiledFun);
+      else
         env.addFunction(entry.getKey(), fun);
     }
 
@@ -29,6 +29,7 @@
 
 package com.caucho.quercus.program;
 
+import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
@@ -36,7 +37,7 @@ import java.util.Set;
 
 import com.caucho.quercus.env.StringValue;
 
-public class TraitAliasMap
+public class TraitAliasMap implements Serializable
 {
   private final HashMap<StringValue,TraitAlias> _aliasMap
     = new HashMap<StringValue,TraitAlias>();
@@ -70,7 +71,7 @@ public class TraitAliasMap
     return _aliasMap.entrySet();
   }
 
-  static class TraitAlias {
+  static class TraitAlias implements Serializable {
     private final String _traitName;
     private final StringValue _funNameAlias;
 
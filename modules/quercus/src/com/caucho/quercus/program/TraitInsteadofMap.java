@@ -29,6 +29,7 @@
 
 package com.caucho.quercus.program;
 
+import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
@@ -36,7 +37,7 @@ import java.util.Set;
 
 import com.caucho.quercus.env.StringValue;
 
-public class TraitInsteadofMap
+public class TraitInsteadofMap implements Serializable
 {
   public static final int USE_NEW_TRAIT = 1;
   public static final int USE_EXISTING_TRAIT = 0;
@@ -75,7 +76,7 @@ public class TraitInsteadofMap
     return _insteadofMap.entrySet();
   }
 
-  static class TraitInsteadof {
+  static class TraitInsteadof implements Serializable {
     private final String _traitName;
     private final String _insteadofTraitName;
 
@@ -83,6 +83,7 @@ public class QuercusServlet
   private boolean _isStrict;
   private boolean _isLooseParse = true;
   private int _pageCacheSize = -1;
+  private boolean _isProgramCache;
   private int _regexpCacheSize = -1;
   private boolean _isConnectionPool = true;
   private String _iniPath;
@@ -263,6 +264,14 @@ public class QuercusServlet
     _pageCacheSize = size;
   }
 
+  /**
+   * Set true if parsed programs are saved in the work directory.
+   */
+  public void setProgramCache(boolean isProgramCache)
+  {
+    _isProgramCache = isProgramCache;
+  }
+
   /**
    * Sets the max size of the regexp cache.
    */
@@ -448,6 +457,9 @@ public class QuercusServlet
              || "page-cache-size".equals(paramName)) {
       setPageCacheSize(Integer.parseInt(paramValue));
     }
+    else if ("program-cache".equals(paramName)) {
+      setProgramCache("true".equals(paramValue));
+    }
     else if ("regexp-cache-size".equals(paramName)) {
       setRegexpCacheSize(Integer.parseInt(paramValue));
     }
@@ -520,6 +532,7 @@ public class QuercusServlet
     quercus.setStrict(_isStrict);
     quercus.setLooseParse(_isLooseParse);
     quercus.setPageCacheSize(_pageCacheSize);
+    quercus.setProgramCache(_isProgramCache);
     quercus.setRegexpCacheSize(_regexpCacheSize);
     quercus.setConnectionPool(_isConnectionPool);
 
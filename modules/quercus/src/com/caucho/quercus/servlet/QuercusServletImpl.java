@@ -80,6 +80,8 @@ public class QuercusServletImpl extends HttpServlet
   protected ServletConfig _config;
   protected ServletContext _servletContext;
 
+  private QuercusServletContextImpl _quercusServletContext;
+
   /**
    * initialize the script manager.
    */
@@ -89,6 +91,7 @@ public class QuercusServletImpl extends HttpServlet
   {
     _config = config;
     _servletContext = config.getServletContext();
+    _quercusServletContext = new QuercusServletContextImpl(_servletContext);
 
     checkServletAPIVersion();
 
@@ -183,7 +186,7 @@ public class QuercusServletImpl extends HttpServlet
       // php/815d
       env.setPwd(path.getParent());
 
-      quercus.setServletContext(new QuercusServletContextImpl(_servletContext));
+      quercus.setServletContext(_quercusServletContext);
 
       try {
         env.start();
@@ -32,7 +32,9 @@ package com.caucho.quercus.statement;
 import com.caucho.quercus.Location;
 import com.caucho.quercus.env.Env;
 import com.caucho.quercus.env.Value;
+import com.caucho.quercus.gen.PhpWriter;
 
+import java.io.IOException;
 import java.util.ArrayList;
 
 /**
@@ -111,5 +113,18 @@ public class BlockStatement extends Statement {
 
     return null;
   }
-}
 
+  /**
+   * Generates the Java code for the statement.
+   *
+   * @param out the writer to the Java source code.
+   */
+  @Override
+  public void generate(PhpWriter out)
+    throws IOException
+  {
+    for (Statement statement : _statements) {
+      statement.generate(out);
+    }
+  }
+}
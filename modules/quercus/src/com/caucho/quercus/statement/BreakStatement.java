@@ -29,6 +29,7 @@
 
 package com.caucho.quercus.statement;
 
+import java.io.IOException;
 import java.util.ArrayList;
 
 import com.caucho.quercus.Location;
@@ -37,6 +38,7 @@ import com.caucho.quercus.env.ContinueValue;
 import com.caucho.quercus.env.Env;
 import com.caucho.quercus.env.Value;
 import com.caucho.quercus.expr.Expr;
+import com.caucho.quercus.gen.PhpWriter;
 
 /**
  * Represents a break expression statement in a PHP program.
@@ -67,5 +69,20 @@ public class BreakStatement extends Statement {
     else
       return new BreakValue(_target.eval(env).toInt());
   }
-}
 
+  /**
+   * Generates the Java code for the statement.
+   *
+   * @param out the writer to the Java source code.
+   */
+  @Override
+  public void generate(PhpWriter out)
+    throws IOException
+  {
+    // only the innermost loop maps directly to Java
+    if (_target != null || ! out.isInLoop())
+      throw out.unsupported(this);
+
+    out.println("if (true) break;");
+  }
+}
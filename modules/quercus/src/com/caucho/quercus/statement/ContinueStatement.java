@@ -29,6 +29,7 @@
 
 package com.caucho.quercus.statement;
 
+import java.io.IOException;
 import java.util.ArrayList;
 
 import com.caucho.quercus.Location;
@@ -36,6 +37,7 @@ import com.caucho.quercus.env.ContinueValue;
 import com.caucho.quercus.env.Env;
 import com.caucho.quercus.env.Value;
 import com.caucho.quercus.expr.Expr;
+import com.caucho.quercus.gen.PhpWriter;
 
 /**
  * Represents a continue expression statement in a PHP program.
@@ -65,5 +67,20 @@ public class ContinueStatement extends Statement {
     else
       return new ContinueValue(_target.eval(env).toInt());
   }
-}
 
+  /**
+   * Generates the Java code for the statement.
+   *
+   * @param out the writer to the Java source code.
+   */
+  @Override
+  public void generate(PhpWriter out)
+    throws IOException
+  {
+    // only the innermost loop maps directly to Java
+    if (_target != null || ! out.isInLoop())
+      throw out.unsupported(this);
+
+    out.println("if (true) continue;");
+  }
+}
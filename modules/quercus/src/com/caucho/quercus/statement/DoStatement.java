@@ -35,6 +35,9 @@ import com.caucho.quercus.env.ContinueValue;
 import com.caucho.quercus.env.Env;
 import com.caucho.quercus.env.Value;
 import com.caucho.quercus.expr.Expr;
+import com.caucho.quercus.gen.PhpWriter;
+
+import java.io.IOException;
 
 /**
  * Represents a do ... while statement.
@@ -103,5 +106,27 @@ public class DoStatement extends Statement {
 
     return null;
   }
-}
 
+  /**
+   * Generates the Java code for the statement.
+   *
+   * @param out the writer to the Java source code.
+   */
+  @Override
+  public void generate(PhpWriter out)
+    throws IOException
+  {
+    out.println("do {");
+    out.pushDepth();
+    out.println("env.checkTimeout();");
+
+    out.pushLoop();
+    _block.generate(out);
+    out.popLoop();
+
+    out.popDepth();
+    out.print("} while (");
+    _test.generateBoolean(out);
+    out.println(");");
+  }
+}
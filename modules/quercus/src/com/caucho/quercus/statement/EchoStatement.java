@@ -33,6 +33,9 @@ import com.caucho.quercus.Location;
 import com.caucho.quercus.env.Env;
 import com.caucho.quercus.env.Value;
 import com.caucho.quercus.expr.Expr;
+import com.caucho.quercus.gen.PhpWriter;
+
+import java.io.IOException;
 
 /**
  * Represents an echo statement in a PHP program.
@@ -58,5 +61,17 @@ public class EchoStatement extends Statement {
 
     return null;
   }
-}
 
+  /**
+   * Generates the Java code for the statement.
+   *
+   * @param out the writer to the Java source code.
+   */
+  @Override
+  public void generate(PhpWriter out)
+    throws IOException
+  {
+    _expr.generate(out);
+    out.println(".print(env);");
+  }
+}
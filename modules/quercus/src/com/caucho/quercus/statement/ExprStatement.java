@@ -33,6 +33,9 @@ import com.caucho.quercus.Location;
 import com.caucho.quercus.env.Env;
 import com.caucho.quercus.env.Value;
 import com.caucho.quercus.expr.Expr;
+import com.caucho.quercus.gen.PhpWriter;
+
+import java.io.IOException;
 
 /**
  * Represents an expression statement in a PHP program.
@@ -70,5 +73,21 @@ public class ExprStatement extends Statement {
 
     return null;
   }
-}
 
+  /**
+   * Generates the Java code for the statement.
+   *
+   * @param out the writer to the Java source code.
+   */
+  @Override
+  public void generate(PhpWriter out)
+    throws IOException
+  {
+    out.println("env.setLocation("
+                + out.addConstant(getLocation(), Location.class) + ");");
+
+    out.print("discard(");
+    _expr.generate(out);
+    out.println(");");
+  }
+}
@@ -35,6 +35,9 @@ import com.caucho.quercus.env.ContinueValue;
 import com.caucho.quercus.env.Env;
 import com.caucho.quercus.env.Value;
 import com.caucho.quercus.expr.Expr;
+import com.caucho.quercus.gen.PhpWriter;
+
+import java.io.IOException;
 
 /**
  * Represents a for statement.
@@ -112,5 +115,49 @@ public class ForStatement extends Statement {
 
     return null;
   }
-}
 
+  /**
+   * Generates the Java code for the statement.
+   *
+   * @param out the writer to the Java source code.
+   */
+  @Override
+  public void generate(PhpWriter out)
+    throws IOException
+  {
+    out.print("for (");
+
+    if (_init != null) {
+      out.print("discard(");
+      _init.generate(out);
+      out.print(")");
+    }
+
+    out.print("; ");
+
+    // a non-constant test keeps javac's reachability analysis quiet
+    if (_test != null)
+      _test.generateBoolean(out);
+    else
+      out.print("BooleanValue.TRUE.toBoolean()");
+
+    out.print("; ");
+
+    if (_incr != null) {
+      out.print("discard(");
+      _incr.generate(out);
+      out.print(")");
+    }
+
+    out.println(") {");
+    out.pushDepth();
+    out.println("env.checkTimeout();");
+
+    out.pushLoop();
+    _block.generate(out);
+    out.popLoop();
+
+    out.popDepth();
+    out.println("}");
+  }
+}
@@ -33,6 +33,9 @@ import com.caucho.quercus.Location;
 import com.caucho.quercus.env.Env;
 import com.caucho.quercus.env.Value;
 import com.caucho.quercus.expr.Expr;
+import com.caucho.quercus.gen.PhpWriter;
+
+import java.io.IOException;
 
 /**
  * Represents an if statement.
@@ -89,5 +92,30 @@ public class IfStatement extends Statement {
     else
       return null;
   }
-}
 
+  /**
+   * Generates the Java code for the statement.
+   *
+   * @param out the writer to the Java source code.
+   */
+  @Override
+  public void generate(PhpWriter out)
+    throws IOException
+  {
+    out.print("if (");
+    _test.generateBoolean(out);
+    out.println(") {");
+    out.pushDepth();
+    _trueBlock.generate(out);
+    out.popDepth();
+    out.println("}");
+
+    if (_falseBlock != null) {
+      out.println("else {");
+      out.pushDepth();
+      _falseBlock.generate(out);
+      out.popDepth();
+      out.println("}");
+    }
+  }
+}
@@ -51,5 +51,10 @@ public class NullStatement extends Statement {
   {
     return null;
   }
+
+  private Object readResolve()
+  {
+    return NULL;
+  }
 }
 
@@ -34,6 +34,9 @@ import com.caucho.quercus.env.Env;
 import com.caucho.quercus.env.NullValue;
 import com.caucho.quercus.env.Value;
 import com.caucho.quercus.expr.Expr;
+import com.caucho.quercus.gen.PhpWriter;
+
+import java.io.IOException;
 
 /**
  * Represents a return expression statement in a PHP program.
@@ -79,5 +82,23 @@ public class ReturnStatement extends Statement {
   {
     return RETURN;
   }
-}
 
+  /**
+   * Generates the Java code for the statement.
+   *
+   * @param out the writer to the Java source code.
+   */
+  @Override
+  public void generate(PhpWriter out)
+    throws IOException
+  {
+    // "if (true)" keeps javac from rejecting any following statements
+    if (_expr != null) {
+      out.print("if (true) return ");
+      _expr.generate(out);
+      out.println(".copy();");
+    }
+    else
+      out.println("if (true) return NullValue.NULL;");
+  }
+}
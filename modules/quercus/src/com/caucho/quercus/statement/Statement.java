@@ -33,7 +33,10 @@ import com.caucho.quercus.Location;
 import com.caucho.quercus.QuercusExecutionException;
 import com.caucho.quercus.env.Env;
 import com.caucho.quercus.env.Value;
+import com.caucho.quercus.gen.PhpWriter;
 
+import java.io.IOException;
+import java.io.Serializable;
 import java.util.IdentityHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -41,7 +44,7 @@ import java.util.logging.Logger;
 /**
  * Represents a PHP statement
  */
-abstract public class Statement {
+abstract public class Statement implements Serializable {
   private static final Logger log = Logger.getLogger(Statement.class.getName());
 
   public static final int FALL_THROUGH = 0;
@@ -235,6 +238,21 @@ abstract public class Statement {
     throw typedT;
   }
 
+  //
+  // Java code generation
+  //
+
+  /**
+   * Generates the Java code for the statement.
+   *
+   * @param out the writer to the Java source code.
+   */
+  public void generate(PhpWriter out)
+    throws IOException
+  {
+    throw out.unsupported(this);
+  }
+
   public String toString()
   {
     return getClass().getSimpleName() + "[]";
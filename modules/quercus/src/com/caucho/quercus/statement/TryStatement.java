@@ -41,6 +41,7 @@ import com.caucho.quercus.env.StringValue;
 import com.caucho.quercus.env.Value;
 import com.caucho.quercus.expr.AbstractVarExpr;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 
 /**
@@ -148,7 +149,7 @@ public class TryStatement extends Statement {
     }
   }
 
-  public static class Catch {
+  public static class Catch implements Serializable {
     private final StringValue _id;
     private final AbstractVarExpr _lhs;
     private final Statement _block;
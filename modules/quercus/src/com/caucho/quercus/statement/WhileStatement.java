@@ -35,6 +35,9 @@ import com.caucho.quercus.env.ContinueValue;
 import com.caucho.quercus.env.Env;
 import com.caucho.quercus.env.Value;
 import com.caucho.quercus.expr.Expr;
+import com.caucho.quercus.gen.PhpWriter;
+
+import java.io.IOException;
 
 /**
  * Represents a while statement.
@@ -107,5 +110,27 @@ public class WhileStatement extends Statement {
 
     return null;
   }
-}
 
+  /**
+   * Generates the Java code for the statement.
+   *
+   * @param out the writer to the Java source code.
+   */
+  @Override
+  public void generate(PhpWriter out)
+    throws IOException
+  {
+    out.print("while (");
+    _test.generateBoolean(out);
+    out.println(") {");
+    out.pushDepth();
+    out.println("env.checkTimeout();");
+
+    out.pushLoop();
+    _block.generate(out);
+    out.popLoop();
+
+    out.popDepth();
+    out.println("}");
+  }
+}
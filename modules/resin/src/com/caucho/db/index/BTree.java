@@ -33,7 +33,7 @@ import com.caucho.db.Database;
 import com.caucho.db.block.Block;
 import com.caucho.db.block.BlockManager;
 import com.caucho.db.block.BlockStore;
-// import com.caucho.db.lock.Lock;
+import com.caucho.db.lock.LockTimeoutException;
 import com.caucho.db.xa.DbTransaction;
 import com.caucho.util.Hex;
 import com.caucho.util.L10N;
@@ -67,6 +67,13 @@ import java.util.logging.Logger;
  * </pre>
  *
  * For a non-leaf node, the key is the last matching entry in the subtree.
+ *
+ * Concurrency uses the per-block read/write locks instead of a lock
+ * on the whole tree. Locks are always acquired top-down. Lookups use
+ * latch coupling: the child's read lock is acquired before the parent's
+ * is released, so a lookup holds at most two blocks. Inserts and removes
+ * read-lock the path and only write-lock the blocks they modify, with
+ * the parent write-locked when a child is split or joined.
  */
 public final class BTree {
   private final static L10N L = new L10N(BTree.class);
@@ -161,7 +168,6 @@ public final class BTree {
   {
   }
 
-  synchronized
   public long lookup(byte []keyBuffer,
                      int keyOffset,
                      int keyLength)
@@ -176,28 +182,23 @@ public final class BTree {
     }
   }
 
-  synchronized
+  /**
+   * Looks up the key, coupling the read locks down the tree.
+   */
   private long lookup(byte []keyBuffer,
-                     int keyOffset,
-                     int keyLength,
-                     long blockId)
+                      int keyOffset,
+                      int keyLength,
+                      long blockId)
     throws IOException, SQLException, InterruptedException
   {
-    Block block;
-
-    if (blockId == _rootBlockId) {
-      block = _rootBlock;
-      block.allocate();
-    }
-    else
-      block = _store.loadBlock(blockId);
+    Block block = loadBlock(blockId);
+    Lock blockLock = null;
 
     try {
-      Lock blockLock = block.getReadLock();
-
-      blockLock.tryLock(_timeout, TimeUnit.MILLISECONDS);
+      lock(block.getReadLock());
+      blockLock = block.getReadLock();
 
-      try {
+      while (true) {
         validateIndex(block);
 
         block.read();
@@ -212,12 +213,30 @@ public final class BTree {
 
         if (isLeaf || value == FAIL)
           return value;
-        else
-          return lookup(keyBuffer, keyOffset, keyLength, value);
-      } finally {
+
+        Block childBlock = loadBlock(value);
+        Lock childLock = childBlock.getReadLock();
+        boolean isChildLocked = false;
+
+        try {
+          lock(childLock);
+          isChildLocked = true;
+        } finally {
+          if (! isChildLocked)
+            childBlock.free();
+        }
+
         blockLock.unlock();
+        block.free();
+
+        block = childBlock;
+        blockLock = childLock;
+        blockId = value;
       }
     } finally {
+      if (blockLock != null)
+        blockLock.unlock();
+
       block.free();
     }
   }
@@ -227,7 +246,6 @@ public final class BTree {
    *
    * @return false if the block needs to be split
    */
-  synchronized
   public void insert(byte []keyBuffer,
                      int keyOffset,
                      int keyLength,
@@ -267,14 +285,7 @@ public final class BTree {
                          long blockId)
     throws IOException, SQLException, InterruptedException
   {
-    Block block;
-
-    if (blockId == _rootBlockId) {
-      block = _rootBlock;
-      block.allocate();
-    }
-    else
-      block = _store.loadBlock(blockId);
+    Block block = loadBlock(blockId);
 
     try {
       validateIndex(block);
@@ -301,7 +312,7 @@ public final class BTree {
     throws IOException, SQLException, InterruptedException
   {
     Lock blockLock = block.getReadLock();
-    blockLock.tryLock(_timeout, TimeUnit.MILLISECONDS);
+    lock(blockLock);
 
     try {
       validateIndex(block);
@@ -343,7 +354,7 @@ public final class BTree {
     throws IOException, SQLException, InterruptedException
   {
     Lock blockLock = block.getWriteLock();
-    blockLock.tryLock(_timeout, TimeUnit.MILLISECONDS);
+    lock(blockLock);
 
     try {
       block.read();
@@ -529,7 +540,7 @@ public final class BTree {
       validate(block);
 
       Lock blockLock = block.getWriteLock();
-      blockLock.tryLock(_timeout, TimeUnit.MILLISECONDS);
+      lock(blockLock);
 
       try {
         split(parent, block);
@@ -649,7 +660,7 @@ public final class BTree {
 
     try {
       Lock rootLock = rootBlock.getWriteLock();
-      rootLock.tryLock(_timeout, TimeUnit.MILLISECONDS);
+      lock(rootLock);
 
       try {
         splitRoot(rootBlock);
@@ -681,7 +692,8 @@ public final class BTree {
       byte []parentBuffer = parentBlock.getBuffer();
       int length = getLength(parentBuffer);
 
-      if (length == 1) {
+      // another insert may have split the root before the write lock
+      if (length < _n) {
         return;
       }
 
@@ -764,7 +776,6 @@ public final class BTree {
     }
   }
 
-  synchronized
   public void remove(byte []keyBuffer,
                       int keyOffset,
                       int keyLength)
@@ -803,7 +814,7 @@ public final class BTree {
     throws IOException, SQLException, InterruptedException
   {
     Lock blockLock = block.getReadLock();
-    blockLock.tryLock(_timeout, TimeUnit.MILLISECONDS);
+    lock(blockLock);
 
     try {
       validateIndex(block);
@@ -856,7 +867,7 @@ public final class BTree {
     long blockId = block.getBlockId();
 
     Lock blockLock = block.getWriteLock();
-    blockLock.tryLock(_timeout, TimeUnit.MILLISECONDS);
+    lock(blockLock);
 
     try {
       boolean isLeaf = isLeaf(buffer, block);
@@ -949,13 +960,13 @@ public final class BTree {
         byte []leftBuffer = leftBlock.getBuffer();
 
         Lock leftLock = leftBlock.getWriteLock();
-        leftLock.tryLock(_timeout, TimeUnit.MILLISECONDS);
+        lock(leftLock);
 
         try {
           int leftLength = getLength(leftBuffer);
 
           Lock blockLock = block.getWriteLock();
-          blockLock.tryLock(_timeout, TimeUnit.MILLISECONDS);
+          lock(blockLock);
 
           try {
             if (_minN < leftLength) {
@@ -1000,11 +1011,11 @@ public final class BTree {
         byte []rightBuffer = rightBlock.getBuffer();
 
         Lock blockLock = block.getWriteLock();
-        blockLock.tryLock(_timeout, TimeUnit.MILLISECONDS);
+        lock(blockLock);
 
         try {
           Lock rightLock = rightBlock.getWriteLock();
-          rightLock.tryLock(_timeout, TimeUnit.MILLISECONDS);
+          lock(rightLock);
 
           try {
             int rightLength = getLength(rightBuffer);
@@ -1050,13 +1061,13 @@ public final class BTree {
         byte []leftBuffer = leftBlock.getBuffer();
 
         Lock leftLock = leftBlock.getWriteLock();
-        leftLock.tryLock(_timeout, TimeUnit.MILLISECONDS);
+        lock(leftLock);
 
         try {
           int leftLength = getLength(leftBuffer);
 
           Lock blockLock = block.getWriteLock();
-          blockLock.tryLock(_timeout, TimeUnit.MILLISECONDS);
+          lock(blockLock);
 
           try {
             int length = getLength(buffer);
@@ -1103,11 +1114,11 @@ public final class BTree {
         byte []rightBuffer = rightBlock.getBuffer();
 
         Lock blockLock = block.getWriteLock();
-        blockLock.tryLock(_timeout, TimeUnit.MILLISECONDS);
+        lock(blockLock);
 
         try {
           Lock rightLock = rightBlock.getWriteLock();
-          rightLock.tryLock(_timeout, TimeUnit.MILLISECONDS);
+          lock(rightLock);
 
           try {
             int length = getLength(buffer);
@@ -1154,6 +1165,34 @@ public final class BTree {
     return false;
   }
 
+  /**
+   * Loads the block, reusing the pinned root block.
+   */
+  private Block loadBlock(long blockId)
+    throws IOException
+  {
+    if (blockId == _rootBlockId) {
+      Block block = _rootBlock;
+      block.allocate();
+
+      return block;
+    }
+    else
+      return _store.loadBlock(blockId);
+  }
+
+  /**
+   * Acquires a block lock, throwing if the lock times out.
+   */
+  private void lock(Lock lock)
+    throws InterruptedException
+  {
+    if (! lock.tryLock(_timeout, TimeUnit.MILLISECONDS)) {
+      throw new LockTimeoutException(L.l("{0} timed out after {1}ms waiting for a block lock",
+                                         this, _timeout));
+    }
+  }
+
   private void validateEqualLeaf(byte []leftBuffer, byte []rightBuffer,
                                  Block left, Block right)
   {
@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+
+package com.caucho.env.dbpool;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.resource.ResourceException;
+import javax.resource.spi.ConnectionRequestInfo;
+import javax.resource.spi.ManagedConnection;
+import javax.resource.spi.ManagedConnectionFactory;
+import javax.security.auth.Subject;
+
+/**
+ * Lock-free set of the pool's connections.
+ *
+ * Each item carries its own idle/active state, which allocation claims
+ * with a compare-and-set.  A thread first tries the connection it
+ * released last, then scans the shared list starting from a rotating
+ * offset so idle connections are still used round-robin.
+ */
+final class ConnectionBag {
+  static final int STATE_ACTIVE = 0;
+  static final int STATE_IDLE = 1;
+  static final int STATE_RESERVED = 2;
+  static final int STATE_REMOVED = 3;
+
+  private final CopyOnWriteArrayList<ManagedPoolItem> _itemList
+    = new CopyOnWriteArrayList<ManagedPoolItem>();
+
+  private final ThreadLocal<WeakReference<ManagedPoolItem>> _threadItem
+    = new ThreadLocal<WeakReference<ManagedPoolItem>>();
+
+  private final AtomicInteger _idleCount = new AtomicInteger();
+  private final AtomicInteger _scanOffset = new AtomicInteger();
+
+  /**
+   * Returns the total number of connections.
+   */
+  int size()
+  {
+    return _itemList.size();
+  }
+
+  /**
+   * Returns the number of idle connections.
+   */
+  int getIdleCount()
+  {
+    return _idleCount.get();
+  }
+
+  /**
+   * Returns the pool items.  The returned list is a snapshot.
+   */
+  Iterable<ManagedPoolItem> getItems()
+  {
+    return _itemList;
+  }
+
+  /**
+   * Adds a newly created, active item.
+   */
+  void add(ManagedPoolItem item)
+  {
+    _itemList.add(item);
+  }
+
+  /**
+   * Removes an item from the pool.
+   */
+  boolean remove(ManagedPoolItem item)
+  {
+    int oldState = item.getAndSetPoolState(STATE_REMOVED);
+
+    if (oldState == STATE_IDLE)
+      _idleCount.decrementAndGet();
+
+    return oldState != STATE_REMOVED && _itemList.remove(item);
+  }
+
+  /**
+   * Removes all items, returning the old contents.
+   */
+  ArrayList<ManagedPoolItem> clear()
+  {
+    ArrayList<ManagedPoolItem> items = new ArrayList<ManagedPoolItem>();
+
+    for (ManagedPoolItem item : _itemList) {
+      if (remove(item))
+        items.add(item);
+    }
+
+    return items;
+  }
+
+  /**
+   * Claims an idle item matching the request, or returns null if none
+   * is available.
+   */
+  ManagedPoolItem allocate(ManagedConnectionFactory mcf,
+                           Subject subject,
+                           ConnectionRequestInfo info)
+    throws ResourceException
+  {
+    WeakReference<ManagedPoolItem> ref = _threadItem.get();
+
+    if (ref != null) {
+      ManagedPoolItem item = ref.get();
+
+      if (item != null && allocate(item, mcf, subject, info))
+        return item;
+    }
+
+    if (_idleCount.get() <= 0)
+      return null;
+
+    Object []items = _itemList.toArray();
+    int length = items.length;
+
+    if (length == 0)
+      return null;
+
+    int offset = (_scanOffset.getAndIncrement() & 0x7fffffff) % length;
+
+    for (int i = 0; i < length; i++) {
+      ManagedPoolItem item = (ManagedPoolItem) items[(offset + i) % length];
+
+      if (allocate(item, mcf, subject, info))
+        return item;
+    }
+
+    return null;
+  }
+
+  private boolean allocate(ManagedPoolItem item,
+                           ManagedConnectionFactory mcf,
+                           Subject subject,
+                           ConnectionRequestInfo info)
+    throws ResourceException
+  {
+    if (! item.compareAndSetPoolState(STATE_IDLE, STATE_ACTIVE))
+      return false;
+
+    _idleCount.decrementAndGet();
+
+    boolean isMatch = false;
+
+    try {
+      ManagedConnection mConn = item.getManagedConnection();
+
+      isMatch = (mConn != null
+                 && mcf.matchManagedConnections(Collections.singleton(mConn),
+                                                subject, info) == mConn);
+
+      return isMatch;
+    } finally {
+      // not a match for this request or the match failed, so make it
+      // available again
+      if (! isMatch)
+        release(item, STATE_ACTIVE);
+    }
+  }
+
+  /**
+   * Returns an active item to the idle set, making it the thread's
+   * preferred connection.
+   *
+   * @return false if the idle set is full or the item was removed
+   */
+  boolean toIdle(ManagedPoolItem item, int maxIdleCount)
+  {
+    if (maxIdleCount < _idleCount.incrementAndGet()) {
+      _idleCount.decrementAndGet();
+      return false;
+    }
+
+    if (! item.compareAndSetPoolState(STATE_ACTIVE, STATE_IDLE)) {
+      _idleCount.decrementAndGet();
+      return false;
+    }
+
+    _threadItem.set(item.getWeakReference());
+
+    return true;
+  }
+
+  /**
+   * Reserves an idle item for an out-of-band check, e.g. the idle
+   * timeout alarm, so it can't be allocated during the check.
+   */
+  boolean reserve(ManagedPoolItem item)
+  {
+    if (item.compareAndSetPoolState(STATE_IDLE, STATE_RESERVED)) {
+      _idleCount.decrementAndGet();
+      return true;
+    }
+    else
+      return false;
+  }
+
+  /**
+   * Returns a reserved item to the idle set.
+   */
+  void unreserve(ManagedPoolItem item)
+  {
+    release(item, STATE_RESERVED);
+  }
+
+  private void release(ManagedPoolItem item, int state)
+  {
+    _idleCount.incrementAndGet();
+
+    if (! item.compareAndSetPoolState(state, STATE_IDLE))
+      _idleCount.decrementAndGet();
+  }
+
+  @Override
+  public String toString()
+  {
+    return (getClass().getSimpleName()
+            + "[" + _idleCount.get() + "/" + _itemList.size() + "]");
+  }
+}
@@ -32,6 +32,7 @@ package com.caucho.env.dbpool;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -49,6 +50,7 @@ import com.caucho.config.ConfigException;
 import com.caucho.config.types.Period;
 import com.caucho.env.health.*;
 import com.caucho.env.meter.ActiveTimeMeter;
+import com.caucho.env.meter.HistogramMeter;
 import com.caucho.env.meter.MeterService;
 import com.caucho.inject.Module;
 import com.caucho.lifecycle.Lifecycle;
@@ -125,14 +127,8 @@ public class ConnectionPool extends AbstractManagedObject
 
   private ManagedConnectionFactory _mcf;
   
-  private final ArrayList<ManagedPoolItem> _connectionPool
-    = new ArrayList<ManagedPoolItem>();
-
-  private IdlePoolSet _idlePool;
-
-  // temporary connection list for the alarm callback
-  private final ArrayList<ManagedPoolItem> _alarmConnections
-    = new ArrayList<ManagedPoolItem>();
+  // all connections, with lock-free idle allocation
+  private final ConnectionBag _connectionPool = new ConnectionBag();
 
   private Alarm _alarm;
 
@@ -157,12 +153,24 @@ public class ConnectionPool extends AbstractManagedObject
   private ActiveTimeMeter _connectionTime;
   private ActiveTimeMeter _idleTime;
   private ActiveTimeMeter _queryTime;
+  private HistogramMeter _connectionWaitTime;
 
   private final AtomicLong _connectionCountTotal = new AtomicLong();
   private final AtomicLong _connectionCreateCountTotal = new AtomicLong();
   private final AtomicLong _connectionFailCountTotal = new AtomicLong();
   private long _lastFailTime;
 
+  // upper bounds in milliseconds of the connection wait histogram
+  private static final long []WAIT_HISTOGRAM_BOUNDS = new long[] {
+    1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000
+  };
+
+  private final AtomicLong _connectionWaitCountTotal = new AtomicLong();
+  private final AtomicLong _connectionWaitTimeTotal = new AtomicLong();
+  private final AtomicLong _connectionWaitTimeMax = new AtomicLong();
+  private final AtomicLongArray _connectionWaitHistogram
+    = new AtomicLongArray(WAIT_HISTOGRAM_BOUNDS.length + 1);
+
   private final Lifecycle _lifecycle = new Lifecycle();
 
   public ConnectionPool()
@@ -554,7 +562,7 @@ public class ConnectionPool extends AbstractManagedObject
   @Override
   public int getConnectionIdleCount()
   {
-    return _idlePool.size();
+    return _connectionPool.getIdleCount();
   }
   
   /**
@@ -572,7 +580,7 @@ public class ConnectionPool extends AbstractManagedObject
   @Override
   public int getConnectionActiveCount()
   {
-    return _connectionPool.size() - _idlePool.size();
+    return _connectionPool.size() - _connectionPool.getIdleCount();
   }
 
   /**
@@ -611,6 +619,58 @@ public class ConnectionPool extends AbstractManagedObject
     return new Date(_lastFailTime);
   }
 
+  /**
+   * Returns the number of allocations which waited for a connection.
+   */
+  @Override
+  public long getConnectionWaitCountTotal()
+  {
+    return _connectionWaitCountTotal.get();
+  }
+
+  /**
+   * Returns the total time spent waiting for connections.
+   */
+  @Override
+  public long getConnectionWaitTimeTotal()
+  {
+    return _connectionWaitTimeTotal.get();
+  }
+
+  /**
+   * Returns the longest time spent waiting for a connection.
+   */
+  @Override
+  public long getConnectionWaitTimeMax()
+  {
+    return _connectionWaitTimeMax.get();
+  }
+
+  /**
+   * Returns the upper bounds of the wait histogram buckets.
+   */
+  @Override
+  public long []getConnectionWaitHistogramBounds()
+  {
+    return WAIT_HISTOGRAM_BOUNDS.clone();
+  }
+
+  /**
+   * Returns the wait histogram counts.  The last bucket counts waits
+   * longer than the last bound.
+   */
+  @Override
+  public long []getConnectionWaitHistogram()
+  {
+    long []histogram = new long[_connectionWaitHistogram.length()];
+
+    for (int i = 0; i < histogram.length; i++) {
+      histogram[i] = _connectionWaitHistogram.get(i);
+    }
+
+    return histogram;
+  }
+
   /**
    * Initialize the connection manager.
    */
@@ -631,11 +691,12 @@ public class ConnectionPool extends AbstractManagedObject
     if (_tm == null)
       throw new ConfigException(L.l("the connection manager needs a transaction manager."));
 
-    _idlePool = new IdlePoolSet(_maxIdleCount);
-
     _connectionTime = MeterService.createActiveTimeMeter("Resin|Database|Connection");
     _idleTime = MeterService.createActiveTimeMeter("Resin|Database|Idle");
     _queryTime = MeterService.createActiveTimeMeter("Resin|Database|Query");
+    _connectionWaitTime
+      = MeterService.createHistogramMeter("Resin|Database|Connection Wait",
+                                          "Time");
 
     registerSelf();
 
@@ -835,23 +896,36 @@ public class ConnectionPool extends AbstractManagedObject
                                           this));
     }
 
-    do {
-      UserPoolItem userPoolItem
-        = allocateIdleConnection(mcf, subject, info, oldPoolItem);
+    long waitStartTime = 0;
 
-      if (userPoolItem != null)
-        return userPoolItem;
-
-      // if no item in pool, try to create one
-      if (startCreateConnection()) {
-        try {
-          return createConnection(mcf, subject, info, oldPoolItem);
-        } finally {
-          finishCreateConnection();
+    try {
+      do {
+        UserPoolItem userPoolItem
+          = allocateIdleConnection(mcf, subject, info, oldPoolItem);
+
+        if (userPoolItem != null)
+          return userPoolItem;
+
+        // if no item in pool, try to create one
+        if (startCreateConnection()) {
+          try {
+            return createConnection(mcf, subject, info, oldPoolItem);
+          } finally {
+            finishCreateConnection();
+          }
         }
+
+        if (waitStartTime == 0)
+          waitStartTime = System.nanoTime();
+      } while (_lifecycle.isActive()
+               && waitForAvailableConnection(expireTime));
+    } finally {
+      if (waitStartTime != 0) {
+        long waitTime = _connectionWaitTime.end(waitStartTime);
+
+        addConnectionWaitTime(waitTime / 1000L);
       }
-    } while (_lifecycle.isActive()
-             && waitForAvailableConnection(expireTime));
+    }
     
     if (! _lifecycle.isActive())
       throw new IllegalStateException(L.l("{0}: Can't allocate connection because the connection pool is closed.",
@@ -901,8 +975,6 @@ public class ConnectionPool extends AbstractManagedObject
     throws ResourceException
   {
     while (_lifecycle.isActive()) {
-      ManagedConnection mConn;
-
       long now = CurrentTime.getCurrentTime();
 
       if (_lastValidCheckTime + 15000L < now) {
@@ -916,34 +988,13 @@ public class ConnectionPool extends AbstractManagedObject
         }
       }
 
-      ManagedPoolItem poolItem = null;
-
-      while (true) {
-        // asks the Driver's ManagedConnectionFactory to match an
-        // idle connection
-        synchronized (_connectionPool) {
-          mConn = mcf.matchManagedConnections(_idlePool, subject, info);
+      // asks the Driver's ManagedConnectionFactory to match an
+      // idle connection, preferring the thread's last connection
+      ManagedPoolItem poolItem = _connectionPool.allocate(mcf, subject, info);
 
-          // If there are no more idle connections, return null
-          if (mConn == null)
-            return null;
-
-          // remove can fail for threading reasons, so only succeed if it works.
-          if (! _idlePool.remove(mConn)) {
-            mConn = null;
-          }
-        }
-        
-        if (mConn != null) {
-          poolItem = findPoolItem(mConn);
-            
-          if (poolItem == null)
-            throw new IllegalStateException(L.l("Unexpected non-matching PoolItem found for {0}",
-                                                mConn));
-
-          break;
-        }
-      }
+      // If there are no more idle connections, return null
+      if (poolItem == null)
+        return null;
 
       try {
         // Ensure the connection is still valid
@@ -963,21 +1014,6 @@ public class ConnectionPool extends AbstractManagedObject
     return null;
   }
 
-  private ManagedPoolItem findPoolItem(ManagedConnection mConn)
-  {
-    synchronized (_connectionPool) {
-      for (int i = _connectionPool.size() - 1; i >= 0; i--) {
-        ManagedPoolItem testPoolItem = _connectionPool.get(i);
-
-        if (testPoolItem.getManagedConnection() == mConn) {
-          return testPoolItem;
-        }
-      }
-
-      return null;
-    }
-  }
-
   /**
    * Validates the pool.
    */
@@ -1023,9 +1059,7 @@ public class ConnectionPool extends AbstractManagedObject
         
       _connectionCreateCountTotal.incrementAndGet();
 
-      synchronized (_connectionPool) {
-        _connectionPool.add(poolItem);
-      }
+      _connectionPool.add(poolItem);
 
       poolItem = null;
       isValid = true;
@@ -1135,6 +1169,30 @@ public class ConnectionPool extends AbstractManagedObject
     }
   }
   
+  /**
+   * Adds a connection wait to the wait statistics.
+   */
+  private void addConnectionWaitTime(long time)
+  {
+    _connectionWaitCountTotal.incrementAndGet();
+    _connectionWaitTimeTotal.addAndGet(time);
+
+    long max;
+
+    while ((max = _connectionWaitTimeMax.get()) < time
+           && ! _connectionWaitTimeMax.compareAndSet(max, time)) {
+    }
+
+    int i = 0;
+
+    for (; i < WAIT_HISTOGRAM_BOUNDS.length; i++) {
+      if (time < WAIT_HISTOGRAM_BOUNDS[i])
+        break;
+    }
+
+    _connectionWaitHistogram.incrementAndGet(i);
+  }
+
   /**
    * Notify that an idle or create connection is available.
    */
@@ -1152,7 +1210,7 @@ public class ConnectionPool extends AbstractManagedObject
    */
   private boolean isIdleAvailable()
   {
-    return _idlePool.size() > 0;
+    return _connectionPool.getIdleCount() > 0;
   }
 
   /**
@@ -1170,14 +1228,10 @@ public class ConnectionPool extends AbstractManagedObject
    */
   public void markForPoolRemoval(ManagedConnection mConn)
   {
-    synchronized (_connectionPool) {
-      for (int i = _connectionPool.size() - 1; i >= 0; i--) {
-        ManagedPoolItem poolItem = _connectionPool.get(i);
-
-        if (poolItem.getManagedConnection() == mConn) {
-          poolItem.setConnectionError();
-          return;
-        }
+    for (ManagedPoolItem poolItem : _connectionPool.getItems()) {
+      if (poolItem.getManagedConnection() == mConn) {
+        poolItem.setConnectionError();
+        return;
       }
     }
   }
@@ -1203,14 +1257,14 @@ public class ConnectionPool extends AbstractManagedObject
 
       long now = CurrentTime.getCurrentTime();
 
-      if (_idlePool.size() == 0)
+      if (_connectionPool.getIdleCount() == 0)
         _idlePoolExpire = now + _idleTimeout;
 
       if (_idlePoolExpire < now) {
         // shrink the idle pool when non-empty for idleTimeout
         _idlePoolExpire = now + _idleTimeout;
       }
-      else if (_idlePool.add(mConn)) {
+      else if (_connectionPool.toIdle(item, _maxIdleCount)) {
         item = null;
         return;
       }
@@ -1229,18 +1283,15 @@ public class ConnectionPool extends AbstractManagedObject
    */
   void removeItem(ManagedPoolItem item, ManagedConnection mConn)
   {
-    synchronized (_connectionPool) {
-      _idlePool.remove(mConn);
-
-      _connectionPool.remove(item);
-      _connectionPool.notifyAll();
-    }
+    _connectionPool.remove(item);
 
     try {
       item.destroy();
     } catch (Exception e) {
       log.log(Level.WARNING, e.toString(), e);
     }
+
+    notifyConnectionAvailable();
   }
 
   /**
@@ -1249,20 +1300,7 @@ public class ConnectionPool extends AbstractManagedObject
   @Override
   public void clear()
   {
-    ArrayList<ManagedPoolItem> pool = _connectionPool;
-
-    if (pool == null)
-      return;
-
-    ArrayList<ManagedPoolItem> clearItems = new ArrayList<ManagedPoolItem>();
-
-    synchronized (_connectionPool) {
-      _idlePool.clear();
-
-      clearItems.addAll(pool);
-
-      pool.clear();
-    }
+    ArrayList<ManagedPoolItem> clearItems = _connectionPool.clear();
 
     for (int i = 0; i < clearItems.size(); i++) {
       ManagedPoolItem poolItem = clearItems.get(i);
@@ -1285,21 +1323,19 @@ public class ConnectionPool extends AbstractManagedObject
       return;
 
     try {
-     _alarmConnections.clear();
-
-      synchronized (_connectionPool) {
-        _alarmConnections.addAll(_connectionPool);
-      }
-
-      for (int i = _alarmConnections.size() - 1; i >= 0; i--) {
-        ManagedPoolItem item = _alarmConnections.get(i);
+      for (ManagedPoolItem item : _connectionPool.getItems()) {
+        // idle items are reserved so they can't be allocated while
+        // checking the timeout
+        boolean isIdle = _connectionPool.reserve(item);
 
         if (! item.isValid())
           item.destroy();
+        else if (isIdle) {
+          _connectionPool.unreserve(item);
+          notifyConnectionAvailable();
+        }
       }
 
-      _alarmConnections.clear();
-
       fillIdlePool();
     } finally {
       if (! _lifecycle.isActive()) {
@@ -1362,15 +1398,7 @@ public class ConnectionPool extends AbstractManagedObject
     if (! _lifecycle.toDestroy())
       return;
 
-    ArrayList<ManagedPoolItem> pool;
-
-    synchronized (_connectionPool) {
-      pool = new ArrayList<ManagedPoolItem>(_connectionPool);
-      _connectionPool.clear();
-
-      if (_idlePool != null)
-        _idlePool.clear();
-    }
+    ArrayList<ManagedPoolItem> pool = _connectionPool.clear();
 
     for (int i = 0; i < pool.size(); i++) {
       ManagedPoolItem poolItem = pool.get(i);
@@ -50,6 +50,8 @@ import javax.security.auth.Subject;
 import javax.transaction.xa.XAException;
 import javax.transaction.xa.XAResource;
 import javax.transaction.xa.Xid;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -94,6 +96,12 @@ class ManagedPoolItem implements ConnectionEventListener, ManagedXAResource {
   private boolean _hasConnectionError;
   private boolean _isPastActiveTime;
 
+  // idle/active state in the pool's ConnectionBag
+  private final AtomicInteger _poolState
+    = new AtomicInteger(ConnectionBag.STATE_ACTIVE);
+  private final WeakReference<ManagedPoolItem> _weakRef
+    = new WeakReference<ManagedPoolItem>(this);
+
   private long _poolStartTime;
   private long _poolEventTime;
 
@@ -442,6 +450,30 @@ class ManagedPoolItem implements ConnectionEventListener, ManagedXAResource {
     return false;
   }
 
+  /**
+   * Sets the pool state, returning the old state.
+   */
+  int getAndSetPoolState(int state)
+  {
+    return _poolState.getAndSet(state);
+  }
+
+  /**
+   * Changes the pool state if it matches the expected state.
+   */
+  boolean compareAndSetPoolState(int expect, int state)
+  {
+    return _poolState.compareAndSet(expect, state);
+  }
+
+  /**
+   * Returns a weak reference to the item for thread affinity.
+   */
+  WeakReference<ManagedPoolItem> getWeakReference()
+  {
+    return _weakRef;
+  }
+
   /**
    * Returns the managed connection.
    */
@@ -62,4 +62,48 @@ public interface DatabaseMXBean extends ConnectionPoolMXBean {
    */
   @Description("The JDBC drivers")
   public JdbcDriverMXBean []getDrivers();
+
+  //
+  // Query cache statistics
+  //
+
+  /**
+   * Returns the number of query cache hits.
+   */
+  @Description("The total number of query cache hits")
+  public long getQueryCacheHitCountTotal();
+
+  /**
+   * Returns the number of query cache misses.
+   */
+  @Description("The total number of cacheable queries missing the query cache")
+  public long getQueryCacheMissCountTotal();
+
+  /**
+   * Returns the number of query cache invalidations.
+   */
+  @Description("The total number of query cache invalidations by updates")
+  public long getQueryCacheInvalidateCountTotal();
+
+  /**
+   * Returns the number of cached query results.
+   */
+  @Description("The current number of cached query results")
+  public int getQueryCacheEntryCount();
+
+  /**
+   * Returns the estimated memory used by cached query results.
+   */
+  @Description("The estimated memory in bytes used by cached query results")
+  public long getQueryCacheMemorySize();
+
+  //
+  // Operations
+  //
+
+  /**
+   * Clears the query cache.
+   */
+  @Description("Clear the query result cache")
+  public void clearQueryCache();
 }
@@ -265,6 +265,23 @@ public interface PortMXBean extends ManagedObjectMXBean {
                + " up in the keepalive select state")
   public long getKeepaliveSelectCountTotal();
 
+  /**
+   * Returns the number of keepalive connections closed by the
+   * select manager's idle timeout for this server in its lifetime.
+   */
+  @Description("The total number of keepalive select connections"
+               + " closed by timeout")
+  public long getKeepaliveSelectTimeoutCountTotal();
+
+  /**
+   * Returns the number of keepalives which fell back to a thread
+   * because the select manager was full, for this server in its
+   * lifetime.
+   */
+  @Description("The total number of keepalives which used a thread"
+               + " because select was unavailable")
+  public long getKeepaliveSelectFallbackCountTotal();
+
   /**
    * The total number of connections that have terminated with
    * {@link com.caucho.vfs.ClientDisconnectException}.
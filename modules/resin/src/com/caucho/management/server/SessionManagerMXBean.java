@@ -208,6 +208,30 @@ public interface SessionManagerMXBean extends ManagedObjectMXBean
   @Description("The total number of times a session has timed out")
   public long getSessionTimeoutCountTotal();
 
+  /**
+   * Returns the count of sessions queued for write-behind
+   */
+  @Description("The current number of saved sessions waiting for write-behind")
+  public int getSaveWriteBehindPendingCount();
+
+  /**
+   * Returns the count of write-behind writes
+   */
+  @Description("The total number of sessions written by write-behind")
+  public long getSaveWriteBehindWriteCountTotal();
+
+  /**
+   * Returns the count of coalesced write-behind saves
+   */
+  @Description("The total number of session saves replaced by a later save before the write")
+  public long getSaveWriteBehindCoalesceCountTotal();
+
+  /**
+   * Returns the count of full write-behind queues
+   */
+  @Description("The total number of times a full write-behind queue was written by the saving request")
+  public long getSaveWriteBehindOverflowCountTotal();
+
   //
   // operations
   //
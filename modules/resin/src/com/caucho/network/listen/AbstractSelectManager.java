@@ -29,6 +29,7 @@
 package com.caucho.network.listen;
 
 import com.caucho.inject.Module;
+import com.caucho.vfs.QServerSocket;
 
 
 /**
@@ -58,6 +59,15 @@ abstract public class AbstractSelectManager {
     return -1;
   }
   
+  /**
+   * Returns true if the manager can select sockets accepted by the
+   * server socket.
+   */
+  public boolean isSelectable(QServerSocket ss)
+  {
+    return ss.isJni();
+  }
+  
   /**
    * Starts the manager.
    */
@@ -0,0 +1,495 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.network.listen;
+
+import java.io.IOException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.caucho.inject.Module;
+import com.caucho.lifecycle.Lifecycle;
+import com.caucho.util.CurrentTime;
+import com.caucho.util.L10N;
+import com.caucho.vfs.QServerSocket;
+import com.caucho.vfs.QSocket;
+
+/**
+ * A pure-java select manager for keepalive connections.
+ *
+ * Idle keepalive connections are registered with a java.nio Selector
+ * owned by a single select thread. When a connection becomes readable
+ * it's returned to blocking mode and resumed on the thread pool with
+ * its keepalive task. Connections which exceed their idle timeout are
+ * resumed with the keepalive timeout task, which closes them.
+ */
+@Module
+public class NioSelectManager extends AbstractSelectManager
+{
+  private static final L10N L = new L10N(NioSelectManager.class);
+  private static final Logger log
+    = Logger.getLogger(NioSelectManager.class.getName());
+
+  private static final int DEFAULT_SELECT_MAX = 64 * 1024;
+  private static final long DEFAULT_SELECT_TIMEOUT = 1000L;
+
+  private final Lifecycle _lifecycle = new Lifecycle();
+
+  // connections waiting to be registered by the select thread
+  private final ConcurrentLinkedQueue<TcpSocketLink> _registerQueue
+    = new ConcurrentLinkedQueue<TcpSocketLink>();
+
+  // connections closed while in the select
+  private final ConcurrentLinkedQueue<TcpSocketLink> _closeQueue
+    = new ConcurrentLinkedQueue<TcpSocketLink>();
+
+  // registered keys, only accessed by the select thread
+  private final HashSet<SelectionKey> _keySet = new HashSet<SelectionKey>();
+
+  private final AtomicInteger _selectCount = new AtomicInteger();
+
+  private int _selectMax = DEFAULT_SELECT_MAX;
+  private long _selectTimeout = DEFAULT_SELECT_TIMEOUT;
+
+  private Selector _selector;
+  private SelectThread _thread;
+
+  private long _nextTimeoutTime;
+
+  /**
+   * Sets the select timeout, i.e. the interval for the idle timeout check.
+   */
+  @Override
+  public void setSelectTimeout(long period)
+  {
+    if (period > 0)
+      _selectTimeout = period;
+  }
+
+  public long getSelectTimeout()
+  {
+    return _selectTimeout;
+  }
+
+  /**
+   * Sets the maximum number of connections in the select.
+   */
+  @Override
+  public void setSelectMax(int max)
+  {
+    if (max > 0)
+      _selectMax = max;
+  }
+
+  /**
+   * Gets the max.
+   */
+  @Override
+  public int getSelectMax()
+  {
+    return _selectMax;
+  }
+
+  /**
+   * Only sockets accepted from a nio server socket can be selected.
+   */
+  @Override
+  public boolean isSelectable(QServerSocket ss)
+  {
+    return ! ss.isJni() && ss.getSelectableChannel() != null;
+  }
+
+  /**
+   * Returns the select count.
+   */
+  @Override
+  public int getSelectCount()
+  {
+    return _selectCount.get();
+  }
+
+  /**
+   * Returns the number of available keepalives.
+   */
+  @Override
+  public int getFreeKeepalive()
+  {
+    return _selectMax - _selectCount.get();
+  }
+
+  /**
+   * Starts the manager.
+   */
+  @Override
+  public boolean start()
+  {
+    if (! _lifecycle.toStarting())
+      return _lifecycle.isActive();
+
+    try {
+      _selector = Selector.open();
+    } catch (IOException e) {
+      log.log(Level.WARNING, L.l("{0} cannot open selector: {1}",
+                                 this, e.toString()), e);
+
+      _lifecycle.toStop();
+
+      return false;
+    }
+
+    _lifecycle.toActive();
+
+    _thread = new SelectThread();
+    _thread.start();
+
+    return true;
+  }
+
+  /**
+   * Adds a keepalive connection.
+   *
+   * @param conn the connection to register as keepalive
+   *
+   * @return true if the keepalive was successful
+   */
+  @Override
+  public boolean keepalive(TcpSocketLink conn)
+  {
+    if (! _lifecycle.isActive())
+      return false;
+
+    QSocket socket = conn.getSocket();
+
+    if (socket == null || socket.getSelectableChannel() == null)
+      return false;
+
+    if (_selectMax < _selectCount.incrementAndGet()) {
+      _selectCount.decrementAndGet();
+
+      return false;
+    }
+
+    TcpPort port = conn.getPort();
+
+    if (! port.allocateKeepaliveSelect()) {
+      _selectCount.decrementAndGet();
+
+      return false;
+    }
+
+    _registerQueue.offer(conn);
+
+    Selector selector = _selector;
+
+    if (selector != null)
+      selector.wakeup();
+
+    return true;
+  }
+
+  /**
+   * Called when a connection in the select is closed.
+   */
+  @Override
+  public void closeKeepalive(TcpSocketLink conn)
+  {
+    _closeQueue.offer(conn);
+
+    Selector selector = _selector;
+
+    if (selector != null)
+      selector.wakeup();
+  }
+
+  /**
+   * Stops the manager.
+   */
+  @Override
+  public boolean stop()
+  {
+    if (! _lifecycle.toStop())
+      return false;
+
+    Selector selector = _selector;
+
+    if (selector != null)
+      selector.wakeup();
+
+    return true;
+  }
+
+  /**
+   * The main select loop, called by the select thread.
+   */
+  private void runSelect()
+  {
+    Selector selector = _selector;
+
+    ArrayList<TcpSocketLink> wakeList = new ArrayList<TcpSocketLink>();
+    ArrayList<TcpSocketLink> timeoutList = new ArrayList<TcpSocketLink>();
+
+    _nextTimeoutTime = CurrentTime.getCurrentTimeActual() + _selectTimeout;
+
+    try {
+      while (_lifecycle.isActive()) {
+        try {
+          // closes before registration because the link may be reused
+          closeConnections(selector);
+
+          registerConnections(selector);
+
+          selector.select(_selectTimeout);
+
+          Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+
+          while (iter.hasNext()) {
+            SelectionKey key = iter.next();
+            iter.remove();
+
+            if (_keySet.remove(key)) {
+              key.cancel();
+
+              wakeList.add((TcpSocketLink) key.attachment());
+            }
+          }
+
+          long now = CurrentTime.getCurrentTimeActual();
+
+          if (_nextTimeoutTime <= now) {
+            _nextTimeoutTime = now + _selectTimeout;
+
+            selectTimeout(now, timeoutList);
+          }
+
+          if (wakeList.size() > 0 || timeoutList.size() > 0) {
+            // flush the cancelled keys so the channels can block again
+            selector.selectNow();
+
+            for (int i = 0; i < wakeList.size(); i++) {
+              TcpSocketLink conn = wakeList.get(i);
+
+              if (toBlocking(conn))
+                conn.requestWakeKeepalive();
+              else
+                conn.requestTimeoutKeepalive();
+            }
+
+            for (int i = 0; i < timeoutList.size(); i++) {
+              TcpSocketLink conn = timeoutList.get(i);
+
+              conn.getPort().addLifetimeKeepaliveSelectTimeoutCount();
+
+              toBlocking(conn);
+              conn.requestTimeoutKeepalive();
+            }
+
+            wakeList.clear();
+            timeoutList.clear();
+          }
+        } catch (Throwable e) {
+          log.log(Level.WARNING, e.toString(), e);
+        }
+      }
+    } finally {
+      closeSelector(selector);
+    }
+  }
+
+  /**
+   * Registers queued keepalive connections with the selector.
+   */
+  private void registerConnections(Selector selector)
+  {
+    TcpSocketLink conn;
+
+    while ((conn = _registerQueue.poll()) != null) {
+      SelectableChannel channel = conn.getSocket().getSelectableChannel();
+
+      try {
+        channel.configureBlocking(false);
+
+        SelectionKey key = channel.register(selector,
+                                            SelectionKey.OP_READ,
+                                            conn);
+
+        _keySet.add(key);
+      } catch (Exception e) {
+        log.log(Level.FINER, e.toString(), e);
+
+        toBlocking(conn);
+        conn.requestTimeoutKeepalive();
+      }
+    }
+  }
+
+  /**
+   * Removes closed connections from the selector.
+   */
+  private void closeConnections(Selector selector)
+  {
+    TcpSocketLink conn;
+
+    while ((conn = _closeQueue.poll()) != null) {
+      SelectableChannel channel = conn.getSocket().getSelectableChannel();
+
+      if (channel == null)
+        continue;
+
+      SelectionKey key = channel.keyFor(selector);
+
+      if (key != null && _keySet.remove(key)) {
+        key.cancel();
+
+        free(conn);
+      }
+    }
+  }
+
+  /**
+   * Collects connections which have exceeded their idle timeout, and
+   * releases keys for connections closed outside the select.
+   */
+  private void selectTimeout(long now, ArrayList<TcpSocketLink> timeoutList)
+  {
+    Iterator<SelectionKey> iter = _keySet.iterator();
+
+    while (iter.hasNext()) {
+      SelectionKey key = iter.next();
+      TcpSocketLink conn = (TcpSocketLink) key.attachment();
+
+      if (! key.isValid()) {
+        iter.remove();
+
+        free(conn);
+      }
+      else if (conn.getIdleExpireTime() <= now) {
+        iter.remove();
+        key.cancel();
+
+        timeoutList.add(conn);
+      }
+    }
+  }
+
+  /**
+   * Returns the connection's channel to blocking mode before its thread
+   * resumes reading.
+   */
+  private boolean toBlocking(TcpSocketLink conn)
+  {
+    SelectableChannel channel = conn.getSocket().getSelectableChannel();
+
+    try {
+      channel.configureBlocking(true);
+
+      return true;
+    } catch (Exception e) {
+      log.log(Level.FINEST, e.toString(), e);
+
+      return false;
+    } finally {
+      free(conn);
+    }
+  }
+
+  private void free(TcpSocketLink conn)
+  {
+    _selectCount.decrementAndGet();
+
+    conn.getPort().freeKeepaliveSelect();
+  }
+
+  /**
+   * On shutdown, timeout all remaining keepalive connections.
+   */
+  private void closeSelector(Selector selector)
+  {
+    try {
+      for (SelectionKey key : _keySet) {
+        key.cancel();
+      }
+
+      selector.selectNow();
+    } catch (Throwable e) {
+      log.log(Level.FINEST, e.toString(), e);
+    }
+
+    for (SelectionKey key : _keySet) {
+      TcpSocketLink conn = (TcpSocketLink) key.attachment();
+
+      toBlocking(conn);
+      conn.requestTimeoutKeepalive();
+    }
+
+    _keySet.clear();
+
+    TcpSocketLink conn;
+
+    while ((conn = _registerQueue.poll()) != null) {
+      free(conn);
+
+      conn.requestTimeoutKeepalive();
+    }
+
+    try {
+      selector.close();
+    } catch (Throwable e) {
+      log.log(Level.FINEST, e.toString(), e);
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _selectCount.get() + "]";
+  }
+
+  private class SelectThread extends Thread {
+    SelectThread()
+    {
+      super("resin-nio-select");
+
+      setDaemon(true);
+    }
+
+    @Override
+    public void run()
+    {
+      runSelect();
+    }
+  }
+}
@@ -39,6 +39,8 @@ public class SocketPollService extends AbstractResinSubSystem
 {
   public static final int START_PRIORITY = TopologyService.START_PRIORITY + 1;
 
+  private AbstractSelectManager _selectManager;
+
   public SocketPollService()
   {
     
@@ -71,7 +73,7 @@ public class SocketPollService extends AbstractResinSubSystem
   
   public AbstractSelectManager getSelectManager()
   {
-    return null;
+    return _selectManager;
   }
  
   @Override
@@ -79,4 +81,28 @@ public class SocketPollService extends AbstractResinSubSystem
   {
     return START_PRIORITY;
   }
+
+  @Override
+  public void start()
+    throws Exception
+  {
+    super.start();
+
+    AbstractSelectManager selectManager = new NioSelectManager();
+
+    if (selectManager.start())
+      _selectManager = selectManager;
+  }
+
+  @Override
+  public void stop()
+    throws Exception
+  {
+    AbstractSelectManager selectManager = _selectManager;
+
+    if (selectManager != null)
+      selectManager.stop();
+
+    super.stop();
+  }
 }
@@ -55,6 +55,7 @@ import com.caucho.config.program.ConfigProgram;
 import com.caucho.config.types.Period;
 import com.caucho.env.meter.ActiveMeter;
 import com.caucho.env.meter.CountMeter;
+import com.caucho.env.meter.HistogramMeter;
 import com.caucho.env.meter.MeterService;
 import com.caucho.env.thread.ThreadPool;
 import com.caucho.lifecycle.Lifecycle;
@@ -107,6 +108,9 @@ public class TcpPort
   private static final ActiveMeter _suspendMeter
     = MeterService.createActiveMeter("Resin|Port|Request Suspend");
 
+  private static final HistogramMeter _requestTimeMeter
+    = MeterService.createHistogramMeter("Resin|Port|Request", "Time");
+
   private final AtomicInteger _connectionCount = new AtomicInteger();
 
   // started at 128, but that seems wasteful since the active threads
@@ -157,6 +161,7 @@ public class TcpPort
 
   private boolean _isKeepaliveAsyncEnable = true;
   private long _keepaliveSelectThreadTimeout = 1000;
+  private int _keepaliveSelectMax = -1;
 
   // default timeout
   private long _socketTimeout = 120 * 1000L;
@@ -169,6 +174,9 @@ public class TcpPort
   private long _requestTimeout = -1;
 
   private boolean _isTcpNoDelay = true;
+
+  // HTTP/2 through h2c, the prior-knowledge preface and ALPN
+  private boolean _isHttp2;
   private boolean _isTcpKeepalive;
   private boolean _isTcpCork;
 
@@ -210,6 +218,10 @@ public class TcpPort
   private final AtomicLong _lifetimeRequestCount = new AtomicLong();
   private final AtomicLong _lifetimeKeepaliveCount = new AtomicLong();
   private final AtomicLong _lifetimeKeepaliveSelectCount = new AtomicLong();
+  private final AtomicLong _lifetimeKeepaliveSelectTimeoutCount
+    = new AtomicLong();
+  private final AtomicLong _lifetimeKeepaliveSelectFallbackCount
+    = new AtomicLong();
   private final AtomicLong _lifetimeClientDisconnectCount = new AtomicLong();
   private final AtomicLong _lifetimeRequestTime = new AtomicLong();
   private final AtomicLong _lifetimeReadBytes = new AtomicLong();
@@ -220,6 +232,8 @@ public class TcpPort
   private AtomicInteger _keepaliveAllocateCount = new AtomicInteger();
   // thread-based
   private AtomicInteger _keepaliveThreadCount = new AtomicInteger();
+  // select-based
+  private AtomicInteger _keepaliveSelectCount = new AtomicInteger();
   // True if the port has been bound
   private final AtomicBoolean _isBind = new AtomicBoolean();
   private final AtomicBoolean _isPostBind = new AtomicBoolean();
@@ -686,6 +700,24 @@ public class TcpPort
     _isTcpNoDelay = tcpNoDelay;
   }
 
+  /**
+   * Enables HTTP/2 for an HTTP port: the h2c upgrade, the
+   * prior-knowledge preface and, for jsse, h2 in ALPN.
+   */
+  @Configurable
+  public void setHttp2(boolean isHttp2)
+  {
+    _isHttp2 = isHttp2;
+  }
+
+  /**
+   * True if the port accepts HTTP/2, which is only used by HTTP ports.
+   */
+  public boolean isHttp2()
+  {
+    return _isHttp2 && "http".equals(getProtocolName());
+  }
+
   /**
    * Sets the tcp-keepalive property
    */
@@ -860,6 +892,7 @@ public class TcpPort
 
   public void setKeepaliveSelectMax(int max)
   {
+    _keepaliveSelectMax = max;
   }
 
   public long getKeepaliveSelectThreadTimeout()
@@ -901,10 +934,45 @@ public class TcpPort
 
   public int getKeepaliveSelectMax()
   {
-    if (getSelectManager() != null)
-      return getSelectManager().getSelectMax();
-    else
+    if (getSelectManager() == null)
       return -1;
+    else if (_keepaliveSelectMax > 0)
+      return _keepaliveSelectMax;
+    else
+      return getSelectManager().getSelectMax();
+  }
+
+  /**
+   * Allocates a select keepalive for the port, returning false if the
+   * port's select max has been reached.
+   */
+  @Friend(AbstractSelectManager.class)
+  boolean allocateKeepaliveSelect()
+  {
+    int max = _keepaliveSelectMax;
+
+    if (max <= 0) {
+      _keepaliveSelectCount.incrementAndGet();
+
+      return true;
+    }
+    else if (_keepaliveSelectCount.incrementAndGet() <= max) {
+      return true;
+    }
+    else {
+      _keepaliveSelectCount.decrementAndGet();
+
+      return false;
+    }
+  }
+
+  /**
+   * Frees a select keepalive for the port.
+   */
+  @Friend(AbstractSelectManager.class)
+  void freeKeepaliveSelect()
+  {
+    _keepaliveSelectCount.decrementAndGet();
   }
 
   /**
@@ -1111,11 +1179,15 @@ public class TcpPort
         log.info("listening to " + _serverSocket.getLocalPort());
     }
     else if (_sslFactory != null && _socketAddress != null) {
+      initApplicationProtocols();
+
       _serverSocket = _sslFactory.create(_socketAddress, _port);
 
       log.info(_protocol.getProtocolName() + "s listening to " + _socketAddress.getHostName() + ":" + _port);
     }
     else if (_sslFactory != null) {
+      initApplicationProtocols();
+
       if (_address == null) {
         _serverSocket = _sslFactory.create(null, _port);
         log.info(_protocol.getProtocolName() + "s listening to *:" + _port);
@@ -1174,8 +1246,20 @@ public class TcpPort
     else
       log.info(scheme + " listening to *:" + _port);
 
-    if (_sslFactory != null)
+    if (_sslFactory != null) {
+      initApplicationProtocols();
+
       _serverSocket = _sslFactory.bind(_serverSocket);
+    }
+  }
+
+  /**
+   * Advertises h2 with ALPN when the port enables HTTP/2.
+   */
+  private void initApplicationProtocols()
+  {
+    if (isHttp2() && _sslFactory instanceof JsseSSLFactory)
+      ((JsseSSLFactory) _sslFactory).enableHttp2();
   }
 
   public void postBind()
@@ -1192,11 +1276,13 @@ public class TcpPort
 
     _serverSocket.setConnectionSocketTimeout((int) getSocketTimeout());
 
-    if (_serverSocket.isJni()) {
-      SocketPollService pollService = SocketPollService.getCurrent();
+    SocketPollService pollService = SocketPollService.getCurrent();
+
+    if (pollService != null && isKeepaliveAsyncEnabled()) {
+      AbstractSelectManager selectManager = pollService.getSelectManager();
 
-      if (pollService != null && isKeepaliveAsyncEnabled()) {
-        _selectManager = pollService.getSelectManager();
+      if (selectManager != null && selectManager.isSelectable(_serverSocket)) {
+        _selectManager = selectManager;
       }
     }
 
@@ -1663,6 +1749,26 @@ public class TcpPort
     return _lifetimeKeepaliveSelectCount.get();
   }
 
+  void addLifetimeKeepaliveSelectTimeoutCount()
+  {
+    _lifetimeKeepaliveSelectTimeoutCount.incrementAndGet();
+  }
+
+  public long getLifetimeKeepaliveSelectTimeoutCount()
+  {
+    return _lifetimeKeepaliveSelectTimeoutCount.get();
+  }
+
+  void addLifetimeKeepaliveSelectFallbackCount()
+  {
+    _lifetimeKeepaliveSelectFallbackCount.incrementAndGet();
+  }
+
+  public long getLifetimeKeepaliveSelectFallbackCount()
+  {
+    return _lifetimeKeepaliveSelectFallbackCount.get();
+  }
+
   void addLifetimeClientDisconnectCount()
   {
     _lifetimeClientDisconnectCount.incrementAndGet();
@@ -1683,6 +1789,19 @@ public class TcpPort
     return _lifetimeRequestTime.get();
   }
 
+  /**
+   * Starts the request time for the latency histogram.
+   */
+  long beginRequestTime()
+  {
+    return _requestTimeMeter.start();
+  }
+
+  void endRequestTime(long startTime)
+  {
+    _requestTimeMeter.end(startTime);
+  }
+
   void addLifetimeReadBytes(long bytes)
   {
     _lifetimeReadBytes.addAndGet(bytes);
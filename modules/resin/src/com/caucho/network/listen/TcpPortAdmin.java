@@ -245,6 +245,18 @@ public class TcpPortAdmin extends AbstractManagedObject
     return _port.getLifetimeKeepaliveSelectCount();
   }
 
+  @Override
+  public long getKeepaliveSelectTimeoutCountTotal()
+  {
+    return _port.getLifetimeKeepaliveSelectTimeoutCount();
+  }
+
+  @Override
+  public long getKeepaliveSelectFallbackCountTotal()
+  {
+    return _port.getLifetimeKeepaliveSelectFallbackCount();
+  }
+
   @Override
   public long getClientDisconnectCountTotal()
   {
@@ -1346,15 +1346,21 @@ public class TcpSocketLink extends AbstractSocketLink
 
       _state = _state.toActive(this, _connectionStartTime);
 
-      if (! getRequest().handleRequest()) {
-        killKeepalive("dispatch handleRequest failed");
+      long requestTime = _port.beginRequestTime();
+
+      try {
+        if (! getRequest().handleRequest()) {
+          killKeepalive("dispatch handleRequest failed");
         
-        if (log.isLoggable(Level.FINE)) {
-          log.fine(this + " disabled keepalive because request failed "
-                   + getRequest());
+          if (log.isLoggable(Level.FINE)) {
+            log.fine(this + " disabled keepalive because request failed "
+                     + getRequest());
+          }
         }
+      } finally {
+        _port.endRequestTime(requestTime);
       }
-      
+
       _requestStartTime = 0;
       
       long readBytesEnd = _socket.getTotalReadBytes();
@@ -1433,8 +1439,13 @@ public class TcpSocketLink extends AbstractSocketLink
         return RequestState.KEEPALIVE_SELECT;
       }
       else {
-        log.warning(dbgId() + " failed keepalive (select)");
-        System.out.println("FAILED_KA:");
+        // the select manager is full or the socket isn't selectable,
+        // so the connection falls back to a thread keepalive
+        if (log.isLoggable(Level.FINE))
+          log.fine(dbgId() + " failed keepalive (select)");
+
+        getPort().addLifetimeKeepaliveSelectFallbackCount();
+
         _requestStateRef.get().toWakeKeepalive(_requestStateRef);
       }
     }
@@ -43,46 +43,46 @@ import javax.sql.*;
  * Special Quercus Mysql column
  */
 public class MysqlColumn {
-  private static final int TYPE_DECIMAL = 0x0;
-  private static final int TYPE_TINY = 0x1;
-  private static final int TYPE_SHORT = 0x2;
-  private static final int TYPE_INTEGER = 0x3;
-  private static final int TYPE_FLOAT = 0x4;
-  private static final int TYPE_DOUBLE = 0x5;
-  private static final int TYPE_NULL = 0x6;
-  private static final int TYPE_TIMESTAMP = 0x7;
-  private static final int TYPE_BIGINT = 0x8;
-  private static final int TYPE_INT24 = 0x9;
-  private static final int TYPE_DATE = 0xa;
-  private static final int TYPE_TIME = 0xb;
-  private static final int TYPE_DATETIME = 0xc;
-  private static final int TYPE_YEAR = 0xd;
-  private static final int TYPE_NEWDATE = 0xe;
-  private static final int TYPE_VARCHAR = 0xf;
-  private static final int TYPE_BIT = 0x10;
-  private static final int TYPE_NEWDECIMAL = 0xf6;
-  private static final int TYPE_ENUM = 0xf7;
-  private static final int TYPE_SET = 0xf8;
-  private static final int TYPE_TINY_BLOB = 0xf9;
-  private static final int TYPE_MEDIUM_BLOB = 0xfa;
-  private static final int TYPE_LONG_BLOB = 0xfb;
-  private static final int TYPE_BLOB = 0xfc;
-  private static final int TYPE_VAR_STRING = 0xfd;
-  private static final int TYPE_STRING = 0xfe;
-  private static final int TYPE_GEOMETRY = 0xff;
-
-  private static final int FLAG_NOT_NULL = 0x0001;
-  private static final int FLAG_PRIMARY_KEY = 0x0002;
-  private static final int FLAG_UNIQUE_KEY = 0x0004;
-  private static final int FLAG_MULTIPLE_KEY = 0x0008;
-  private static final int FLAG_BLOB = 0x0010;
-  private static final int FLAG_UNSIGNED = 0x0020;
-  private static final int FLAG_ZEROFILL = 0x0040;
-  private static final int FLAG_BINARY = 0x0080;
-  private static final int FLAG_ENUM = 0x0100;
-  private static final int FLAG_AUTO_INCREMENT = 0x0200;
-  private static final int FLAG_TIMESTAMP = 0x0400;
-  private static final int FLAG_SET = 0x0800;
+  static final int TYPE_DECIMAL = 0x0;
+  static final int TYPE_TINY = 0x1;
+  static final int TYPE_SHORT = 0x2;
+  static final int TYPE_INTEGER = 0x3;
+  static final int TYPE_FLOAT = 0x4;
+  static final int TYPE_DOUBLE = 0x5;
+  static final int TYPE_NULL = 0x6;
+  static final int TYPE_TIMESTAMP = 0x7;
+  static final int TYPE_BIGINT = 0x8;
+  static final int TYPE_INT24 = 0x9;
+  static final int TYPE_DATE = 0xa;
+  static final int TYPE_TIME = 0xb;
+  static final int TYPE_DATETIME = 0xc;
+  static final int TYPE_YEAR = 0xd;
+  static final int TYPE_NEWDATE = 0xe;
+  static final int TYPE_VARCHAR = 0xf;
+  static final int TYPE_BIT = 0x10;
+  static final int TYPE_NEWDECIMAL = 0xf6;
+  static final int TYPE_ENUM = 0xf7;
+  static final int TYPE_SET = 0xf8;
+  static final int TYPE_TINY_BLOB = 0xf9;
+  static final int TYPE_MEDIUM_BLOB = 0xfa;
+  static final int TYPE_LONG_BLOB = 0xfb;
+  static final int TYPE_BLOB = 0xfc;
+  static final int TYPE_VAR_STRING = 0xfd;
+  static final int TYPE_STRING = 0xfe;
+  static final int TYPE_GEOMETRY = 0xff;
+
+  static final int FLAG_NOT_NULL = 0x0001;
+  static final int FLAG_PRIMARY_KEY = 0x0002;
+  static final int FLAG_UNIQUE_KEY = 0x0004;
+  static final int FLAG_MULTIPLE_KEY = 0x0008;
+  static final int FLAG_BLOB = 0x0010;
+  static final int FLAG_UNSIGNED = 0x0020;
+  static final int FLAG_ZEROFILL = 0x0040;
+  static final int FLAG_BINARY = 0x0080;
+  static final int FLAG_ENUM = 0x0100;
+  static final int FLAG_AUTO_INCREMENT = 0x0200;
+  static final int FLAG_TIMESTAMP = 0x0400;
+  static final int FLAG_SET = 0x0800;
 
   private char []_catalogBuffer = new char[32];
   private int _catalogLength;
@@ -63,6 +63,9 @@ public class MysqlConnectionImpl implements QuercusConnection {
   private static final int UTF8_MB3 = 33;
 
   private static final int COM_QUERY = 0x03;
+  private static final int COM_STMT_PREPARE = 0x16;
+  private static final int COM_STMT_EXECUTE = 0x17;
+  private static final int COM_STMT_CLOSE = 0x19;
 
   private QuercusMysqlDriver _driver;
 
@@ -82,6 +85,17 @@ public class MysqlConnectionImpl implements QuercusConnection {
   private String _catalog;
 
   private State _state = State.IDLE;
+  // result whose rows are still on the wire
+  private MysqlResultImpl _activeResult;
+  private boolean _isPrefetch;
+
+  private StatementCache _statementCache;
+  // server statements to close with the next command
+  private IntArray _closeStatementList = new IntArray();
+
+  private ByteBuffer _packet = new ByteBuffer();
+  private byte []_nullBitmap = new byte[32];
+  private byte []_digits = new byte[24];
 
   enum State {
     IDLE,
@@ -104,6 +118,9 @@ public class MysqlConnectionImpl implements QuercusConnection {
     _database = driver.getDatabase();
     _catalog = _database;
 
+    _isPrefetch = driver.isPrefetch();
+    _statementCache = new StatementCache(driver.getPrepStmtCacheSize());
+
     connect();
   }
 
@@ -317,6 +334,15 @@ public class MysqlConnectionImpl implements QuercusConnection {
   String readResult(MysqlResultImpl result)
     throws SQLException
   {
+    return readResult(result, false);
+  }
+
+  private String readResult(MysqlResultImpl result, boolean isBinary)
+    throws SQLException
+  {
+    result.setBinary(isBinary);
+    result.setRowAvailable(false);
+
     try {
       MysqlReader in = _in;
 
@@ -423,6 +449,49 @@ public class MysqlConnectionImpl implements QuercusConnection {
 
     result.setRowAvailable(true);
     _state = State.FIELD_DATA;
+    _activeResult = result;
+  }
+
+  /**
+   * Finishes any result still on the wire before a new command, either
+   * buffering its rows for the result set or discarding them.
+   */
+  private void startCommand()
+    throws IOException, SQLException
+  {
+    if (_state != State.IDLE) {
+      MysqlResultImpl result = _activeResult;
+
+      if (_isPrefetch && result != null)
+        prefetchRows(result);
+      else
+        skipRowData();
+    }
+
+    _activeResult = null;
+
+    writeCloseStatements();
+  }
+
+  private void prefetchRows(MysqlResultImpl result)
+    throws SQLException
+  {
+    TempOutputStream data = new TempOutputStream();
+    IntArray lengths = new IntArray();
+    int []row = new int[result.getColumnCount()];
+    int count = 0;
+
+    while (readRowData(result, data, row)) {
+      for (int i = 0; i < row.length; i++)
+        lengths.add(row[i]);
+
+      count++;
+    }
+
+    result.setPrefetch(data, lengths);
+
+    if (log.isLoggable(Level.FINEST))
+      log.finest(this + " prefetched " + count + " rows");
   }
 
   private void skipRowData()
@@ -441,6 +510,7 @@ public class MysqlConnectionImpl implements QuercusConnection {
 
         if (count == 0xfe || count < 0) { // EOF
           _state = State.IDLE;
+          _activeResult = null;
           return;
         }
       }
@@ -453,7 +523,32 @@ public class MysqlConnectionImpl implements QuercusConnection {
     throws SQLException
   {
     assert(_state == State.FIELD_DATA);
-    
+
+    TempOutputStream resultStream = result.getResultStream();
+
+    if (resultStream == null)
+      throw new NullPointerException();
+
+    int []lengths = result.getRowLengths();
+
+    if (! readRowData(result, resultStream, lengths))
+      return false;
+
+    result.setRow(lengths, 0, 0);
+
+    return true;
+  }
+
+  /**
+   * Reads the next row's column data into the stream as text, filling
+   * the column lengths, -1 for null.  The column bytes are copied
+   * directly from the socket buffer.
+   */
+  private boolean readRowData(MysqlResultImpl result,
+                              TempOutputStream os,
+                              int []lengths)
+    throws SQLException
+  {
     try {
       MysqlReader in = _in;
 
@@ -461,38 +556,54 @@ public class MysqlConnectionImpl implements QuercusConnection {
 
       int count = in.readByte();
 
-      if (count == 0xfe || count < 0) { // EOF
+      if (count == 0xfe && in.getPacketLength() < 9 || count < 0) { // EOF
         _state = State.IDLE;
+        _activeResult = null;
         return false;
       }
+      else if (count == 0xff) {
+        _state = State.IDLE;
+        _activeResult = null;
+        readError(in);
+      }
 
       int fieldCount = result.getColumnCount();
 
-      TempOutputStream resultStream = result.getResultStream();
+      if (result.isBinary()) {
+        // binary row: 0x00 header, then a null bitmap offset by 2 bits
+        int nullLength = (fieldCount + 7 + 2) / 8;
 
-      if (resultStream == null)
-        throw new NullPointerException();
+        if (_nullBitmap.length < nullLength)
+          _nullBitmap = new byte[nullLength];
 
-      int offset = 0;
-      int length = 0;
-      int index = 0;
-      MysqlColumn column = result.getColumn(index++);
+        in.readAll(_nullBitmap, 0, nullLength);
+
+        for (int i = 0; i < fieldCount; i++) {
+          int bit = i + 2;
 
-      length = (int) in.readLengthCodedBinary(count);
+          if ((_nullBitmap[bit >> 3] & (1 << (bit & 7))) != 0)
+            lengths[i] = -1;
+          else
+            lengths[i] = readBinaryColumn(in, result.getColumn(i), os);
+        }
+      }
+      else {
+        int ch = count;
 
-      column.setRowOffset(offset);
-      column.setRowLength(length);
-      in.readData(resultStream, length);
-      offset += length;
+        for (int i = 0; i < fieldCount; i++) {
+          if (i > 0)
+            ch = in.readByte();
 
-      for (fieldCount--; fieldCount > 0; fieldCount--) {
-        length = (int) in.readLengthCodedBinary();
+          if (ch == 251) { // NULL
+            lengths[i] = -1;
+            continue;
+          }
 
-        column = result.getColumn(index++);
-        column.setRowOffset(offset);
-        column.setRowLength(length);
-        in.readData(resultStream, length);
-        offset += length;
+          int length = (int) in.readLengthCodedBinary(ch);
+
+          in.readData(os, length);
+          lengths[i] = length;
+        }
       }
 
       return true;
@@ -501,6 +612,262 @@ public class MysqlConnectionImpl implements QuercusConnection {
     }
   }
 
+  /**
+   * Decodes a binary-protocol column into the text form the
+   * COM_QUERY protocol would have returned.
+   */
+  private int readBinaryColumn(MysqlReader in,
+                               MysqlColumn column,
+                               TempOutputStream os)
+    throws IOException
+  {
+    boolean isUnsigned = column.isUnsigned();
+
+    switch (column.getType()) {
+    case MysqlColumn.TYPE_TINY:
+      {
+        int value = in.readByte();
+
+        return writeLong(os, isUnsigned ? value : (byte) value);
+      }
+
+    case MysqlColumn.TYPE_SHORT:
+    case MysqlColumn.TYPE_YEAR:
+      {
+        int value = in.readShort();
+
+        return writeLong(os, isUnsigned ? value : (short) value);
+      }
+
+    case MysqlColumn.TYPE_INT24:
+    case MysqlColumn.TYPE_INTEGER:
+      {
+        int value = in.readInt();
+
+        return writeLong(os, isUnsigned ? value & 0xffffffffL : value);
+      }
+
+    case MysqlColumn.TYPE_BIGINT:
+      {
+        long value = in.readLong();
+
+        if (isUnsigned && value < 0) {
+          // unsigned: the quotient by 10 fits in a signed long
+          long quotient = (value >>> 1) / 5;
+          int digit = (int) (value - quotient * 10);
+
+          int length = writeLong(os, quotient);
+          os.write('0' + digit);
+
+          return length + 1;
+        }
+        else
+          return writeLong(os, value);
+      }
+
+    case MysqlColumn.TYPE_FLOAT:
+      {
+        float value = Float.intBitsToFloat(in.readInt());
+
+        if (value == (long) value && Math.abs(value) < 1e15)
+          return writeLong(os, (long) value);
+        else
+          return writeAscii(os, String.valueOf(value));
+      }
+
+    case MysqlColumn.TYPE_DOUBLE:
+      {
+        double value = Double.longBitsToDouble(in.readLong());
+
+        if (value == (long) value && Math.abs(value) < 1e15)
+          return writeLong(os, (long) value);
+        else
+          return writeAscii(os, String.valueOf(value));
+      }
+
+    case MysqlColumn.TYPE_DATE:
+    case MysqlColumn.TYPE_NEWDATE:
+    case MysqlColumn.TYPE_DATETIME:
+    case MysqlColumn.TYPE_TIMESTAMP:
+      return readBinaryDate(in, column, os);
+
+    case MysqlColumn.TYPE_TIME:
+      return readBinaryTime(in, column, os);
+
+    default:
+      {
+        int length = (int) in.readLengthCodedBinary();
+
+        in.readData(os, length);
+
+        return length;
+      }
+    }
+  }
+
+  private int readBinaryDate(MysqlReader in,
+                             MysqlColumn column,
+                             TempOutputStream os)
+    throws IOException
+  {
+    int len = in.readByte();
+
+    int year = 0;
+    int month = 0;
+    int day = 0;
+    int hour = 0;
+    int minute = 0;
+    int second = 0;
+    int micros = 0;
+
+    if (len >= 4) {
+      year = in.readShort();
+      month = in.readByte();
+      day = in.readByte();
+    }
+
+    if (len >= 7) {
+      hour = in.readByte();
+      minute = in.readByte();
+      second = in.readByte();
+    }
+
+    if (len >= 11)
+      micros = in.readInt();
+
+    int length = writeDigits(os, year, 4);
+    os.write('-');
+    length += writeDigits(os, month, 2);
+    os.write('-');
+    length += writeDigits(os, day, 2);
+    length += 2;
+
+    int type = column.getType();
+
+    if (type == MysqlColumn.TYPE_DATE || type == MysqlColumn.TYPE_NEWDATE)
+      return length;
+
+    os.write(' ');
+    length += writeDigits(os, hour, 2);
+    os.write(':');
+    length += writeDigits(os, minute, 2);
+    os.write(':');
+    length += writeDigits(os, second, 2);
+    length += 3;
+
+    return length + writeFraction(os, micros, column.getDecimals());
+  }
+
+  private int readBinaryTime(MysqlReader in,
+                             MysqlColumn column,
+                             TempOutputStream os)
+    throws IOException
+  {
+    int len = in.readByte();
+
+    boolean isNegative = false;
+    long hours = 0;
+    int minute = 0;
+    int second = 0;
+    int micros = 0;
+
+    if (len >= 8) {
+      isNegative = in.readByte() != 0;
+      hours = 24L * in.readInt();
+      hours += in.readByte();
+      minute = in.readByte();
+      second = in.readByte();
+    }
+
+    if (len >= 12)
+      micros = in.readInt();
+
+    int length = 0;
+
+    if (isNegative) {
+      os.write('-');
+      length++;
+    }
+
+    if (hours < 100)
+      length += writeDigits(os, (int) hours, 2);
+    else
+      length += writeLong(os, hours);
+
+    os.write(':');
+    length += writeDigits(os, minute, 2);
+    os.write(':');
+    length += writeDigits(os, second, 2);
+    length += 2;
+
+    return length + writeFraction(os, micros, column.getDecimals());
+  }
+
+  private int writeLong(TempOutputStream os, long value)
+    throws IOException
+  {
+    byte []digits = _digits;
+    int i = digits.length;
+
+    boolean isNegative = value < 0;
+
+    // accumulate as a negative number so Long.MIN_VALUE is exact
+    if (! isNegative)
+      value = -value;
+
+    do {
+      digits[--i] = (byte) ('0' - (value % 10));
+      value /= 10;
+    } while (value != 0);
+
+    if (isNegative)
+      digits[--i] = '-';
+
+    os.write(digits, i, digits.length - i);
+
+    return digits.length - i;
+  }
+
+  private int writeDigits(TempOutputStream os, int value, int width)
+    throws IOException
+  {
+    byte []digits = _digits;
+
+    for (int i = width - 1; i >= 0; i--) {
+      digits[i] = (byte) ('0' + value % 10);
+      value /= 10;
+    }
+
+    os.write(digits, 0, width);
+
+    return width;
+  }
+
+  private int writeFraction(TempOutputStream os, int micros, int decimals)
+    throws IOException
+  {
+    if (decimals <= 0 || 6 < decimals)
+      return 0;
+
+    for (int i = decimals; i < 6; i++)
+      micros /= 10;
+
+    os.write('.');
+
+    return 1 + writeDigits(os, micros, decimals);
+  }
+
+  private int writeAscii(TempOutputStream os, String value)
+    throws IOException
+  {
+    int len = value.length();
+
+    for (int i = 0; i < len; i++)
+      os.write(value.charAt(i));
+
+    return len;
+  }
+
   private String readError(MysqlReader in)
     throws IOException, SQLException
   {
@@ -580,13 +947,12 @@ public class MysqlConnectionImpl implements QuercusConnection {
   void writeQuery(String query)
     throws SQLException
   {
-    if (_state != State.IDLE)
-      skipRowData();
-    
     if (log.isLoggable(Level.FINER))
       log.finer(this + " query '" + query + "'");
 
     try {
+      startCommand();
+
       MysqlWriter out = _out;
 
       int len = query.length() + 1;
@@ -604,6 +970,311 @@ public class MysqlConnectionImpl implements QuercusConnection {
     }
   }
 
+  //
+  // server-side prepared statements
+  //
+
+  /**
+   * Returns a server statement for the sql, reusing the cached handle
+   * when it is idle.
+   */
+  MysqlServerStatement prepare(String sql)
+    throws SQLException
+  {
+    MysqlServerStatement stmt = _statementCache.get(sql);
+
+    if (stmt != null && ! stmt.isInUse()) {
+      stmt.setInUse(true);
+
+      return stmt;
+    }
+
+    boolean isCacheable = stmt == null && _statementCache.getCapacity() > 0;
+
+    stmt = prepareServerStatement(sql);
+    stmt.setInUse(true);
+
+    if (isCacheable) {
+      stmt.setCached(true);
+      _statementCache.put(sql, stmt);
+    }
+
+    return stmt;
+  }
+
+  /**
+   * Releases a statement's handle, closing it on the server unless the
+   * cache owns it.
+   */
+  void release(MysqlServerStatement stmt)
+  {
+    stmt.setInUse(false);
+
+    if (! stmt.isCached())
+      _closeStatementList.add(stmt.getId());
+  }
+
+  private MysqlServerStatement prepareServerStatement(String sql)
+    throws SQLException
+  {
+    if (log.isLoggable(Level.FINER))
+      log.finer(this + " prepare '" + sql + "'");
+
+    try {
+      startCommand();
+
+      ByteBuffer packet = _packet;
+      packet.clear();
+
+      packet.add(COM_STMT_PREPARE);
+      packet.addString(sql);
+
+      _out.writePacket(packet.getBuffer(), packet.getLength());
+      _out.flush();
+
+      MysqlReader in = _in;
+
+      in.readPacket();
+
+      int status = in.readByte();
+
+      if (status == 0xff)
+        readError(in);
+
+      int id = in.readInt();
+      int columnCount = in.readShort();
+      int paramCount = in.readShort();
+
+      in.endPacket();
+
+      // the execute response repeats the column definitions
+      if (paramCount > 0)
+        skipDefinitions(in);
+
+      if (columnCount > 0)
+        skipDefinitions(in);
+
+      return new MysqlServerStatement(sql, id, paramCount, columnCount);
+    } catch (IOException e) {
+      throw new SQLException(e);
+    }
+  }
+
+  private void skipDefinitions(MysqlReader in)
+    throws IOException, SQLException
+  {
+    while (true) {
+      in.readPacket();
+
+      int code = in.readByte();
+
+      if (code == 0xfe && in.getPacketLength() < 9 || code < 0) {
+        in.endPacket();
+        return;
+      }
+    }
+  }
+
+  /**
+   * Executes a server statement with the binary protocol.  Integers are
+   * sent as LONGLONG, floating point as DOUBLE, byte[] as BLOB and
+   * everything else as a latin-1 VAR_STRING.
+   */
+  String execute(MysqlServerStatement stmt,
+                 Object []params,
+                 MysqlResultImpl result)
+    throws SQLException
+  {
+    if (log.isLoggable(Level.FINER))
+      log.finer(this + " execute '" + stmt.getSql() + "'");
+
+    try {
+      startCommand();
+
+      ByteBuffer packet = _packet;
+      packet.clear();
+
+      packet.add(COM_STMT_EXECUTE);
+      addInt(packet, stmt.getId());
+      packet.add(0); // flags: no cursor
+      addInt(packet, 1); // iteration count
+
+      int paramCount = stmt.getParamCount();
+
+      if (paramCount > 0) {
+        int nullOffset = packet.getLength();
+
+        for (int i = 0; i < (paramCount + 7) / 8; i++)
+          packet.add(0);
+
+        packet.add(1); // new params bound
+
+        for (int i = 0; i < paramCount; i++) {
+          packet.add(getParamType(params[i]));
+          packet.add(0);
+        }
+
+        byte []nullBitmap = packet.getBuffer();
+
+        for (int i = 0; i < paramCount; i++) {
+          Object value = params[i];
+
+          if (value == null)
+            nullBitmap[nullOffset + (i >> 3)] |= 1 << (i & 7);
+          else
+            addParam(packet, value);
+        }
+      }
+
+      _out.writePacket(packet.getBuffer(), packet.getLength());
+      _out.flush();
+    } catch (IOException e) {
+      throw new SQLException(e);
+    }
+
+    return readResult(result, true);
+  }
+
+  private static int getParamType(Object value)
+  {
+    if (value == null)
+      return MysqlColumn.TYPE_NULL;
+    else if (value instanceof Long)
+      return MysqlColumn.TYPE_BIGINT;
+    else if (value instanceof Double)
+      return MysqlColumn.TYPE_DOUBLE;
+    else if (value instanceof byte[])
+      return MysqlColumn.TYPE_BLOB;
+    else
+      return MysqlColumn.TYPE_VAR_STRING;
+  }
+
+  private static void addParam(ByteBuffer packet, Object value)
+  {
+    if (value instanceof Long) {
+      long v = (Long) value;
+
+      addInt(packet, (int) v);
+      addInt(packet, (int) (v >> 32));
+    }
+    else if (value instanceof Double) {
+      long v = Double.doubleToRawLongBits((Double) value);
+
+      addInt(packet, (int) v);
+      addInt(packet, (int) (v >> 32));
+    }
+    else if (value instanceof byte[]) {
+      byte []bytes = (byte []) value;
+
+      addLengthCodedBinary(packet, bytes.length);
+      packet.add(bytes, 0, bytes.length);
+    }
+    else {
+      String string = value.toString();
+
+      addLengthCodedBinary(packet, string.length());
+      packet.addString(string);
+    }
+  }
+
+  private static void addInt(ByteBuffer packet, int value)
+  {
+    packet.add(value);
+    packet.add(value >> 8);
+    packet.add(value >> 16);
+    packet.add(value >> 24);
+  }
+
+  private static void addLengthCodedBinary(ByteBuffer packet, int value)
+  {
+    if (value <= 250)
+      packet.add(value);
+    else if (value <= 0xffff) {
+      packet.add(252);
+      packet.add(value);
+      packet.add(value >> 8);
+    }
+    else if (value <= 0xffffff) {
+      packet.add(253);
+      packet.add(value);
+      packet.add(value >> 8);
+      packet.add(value >> 16);
+    }
+    else {
+      packet.add(254);
+      addInt(packet, value);
+      addInt(packet, 0);
+    }
+  }
+
+  /**
+   * Writes COM_STMT_CLOSE for released statements.  The server sends no
+   * reply, so the packets are pipelined ahead of the next command.
+   */
+  private void writeCloseStatements()
+    throws IOException
+  {
+    IntArray closeList = _closeStatementList;
+
+    if (closeList.size() == 0)
+      return;
+
+    MysqlWriter out = _out;
+
+    for (int i = 0; i < closeList.size(); i++) {
+      int id = closeList.get(i);
+
+      out.writeByte(5);
+      out.writeByte(0);
+      out.writeByte(0);
+      out.writeByte(0); // id
+
+      out.writeByte(COM_STMT_CLOSE);
+      out.writeInt(id);
+    }
+
+    closeList.clear();
+  }
+
+  /**
+   * LRU of idle server statements, keyed by sql.  Evicted statements
+   * are closed on the server unless a PreparedStatement still uses them.
+   */
+  @SuppressWarnings("serial")
+  private class StatementCache
+    extends LinkedHashMap<String,MysqlServerStatement>
+  {
+    private final int _capacity;
+
+    StatementCache(int capacity)
+    {
+      super(16, 0.75f, true);
+
+      _capacity = capacity;
+    }
+
+    int getCapacity()
+    {
+      return _capacity;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String,MysqlServerStatement>
+                                        eldest)
+    {
+      if (size() <= _capacity)
+        return false;
+
+      MysqlServerStatement stmt = eldest.getValue();
+      stmt.setCached(false);
+
+      if (! stmt.isInUse())
+        _closeStatementList.add(stmt.getId());
+
+      return true;
+    }
+  }
+
   //
   // stub methods - methods not used by Quercus mysql
   //
@@ -619,7 +1290,7 @@ public class MysqlConnectionImpl implements QuercusConnection {
   public PreparedStatement prepareStatement(String sql)
     throws SQLException
   {
-    throw new UnsupportedOperationException(getClass().getName());
+    return new MysqlPreparedStatementImpl(this, prepare(sql));
   }
 
   public PreparedStatement prepareStatement(String sql,
@@ -627,7 +1298,7 @@ public class MysqlConnectionImpl implements QuercusConnection {
                                             int resultSetConcurrency)
     throws SQLException
   {
-    throw new UnsupportedOperationException(getClass().getName());
+    return prepareStatement(sql);
   }
 
   public PreparedStatement prepareStatement(String sql,
@@ -640,10 +1311,11 @@ public class MysqlConnectionImpl implements QuercusConnection {
   }
 
   public PreparedStatement prepareStatement(String sql,
-                                            int resultSetType)
+                                            int autoGeneratedKeys)
     throws SQLException
   {
-    throw new UnsupportedOperationException(getClass().getName());
+    // the insert id is always returned in the OK packet
+    return prepareStatement(sql);
   }
 
   public PreparedStatement prepareStatement(String sql,
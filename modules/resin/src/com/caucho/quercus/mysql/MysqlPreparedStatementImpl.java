@@ -0,0 +1,534 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.quercus.mysql;
+
+import com.caucho.util.*;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.sql.*;
+import java.util.Calendar;
+
+/**
+ * Prepared statement using the mysql binary protocol.  The server-side
+ * handle comes from the connection's statement cache and is returned to
+ * it on close.
+ */
+public class MysqlPreparedStatementImpl extends MysqlStatementImpl
+  implements PreparedStatement
+{
+  private static final L10N L = new L10N(MysqlPreparedStatementImpl.class);
+
+  private MysqlServerStatement _serverStmt;
+  private Object []_params;
+
+  MysqlPreparedStatementImpl(MysqlConnectionImpl conn,
+                             MysqlServerStatement serverStmt)
+    throws SQLException
+  {
+    super(conn);
+
+    _serverStmt = serverStmt;
+    _params = new Object[serverStmt.getParamCount()];
+  }
+
+  /**
+   * Executes the prepared statement.
+   */
+  public boolean execute()
+    throws SQLException
+  {
+    executeImpl();
+
+    return getResultImpl().isResultSet();
+  }
+
+  public ResultSet executeQuery()
+    throws SQLException
+  {
+    executeImpl();
+
+    return getResultImpl();
+  }
+
+  public int executeUpdate()
+    throws SQLException
+  {
+    executeImpl();
+
+    return getResultImpl().getUpdateCount();
+  }
+
+  private void executeImpl()
+    throws SQLException
+  {
+    MysqlConnectionImpl conn = getConnection();
+
+    if (conn == null)
+      throw new SQLException(L.l("{0} is closed", this));
+
+    conn.execute(_serverStmt, _params, getResultImpl());
+  }
+
+  public ResultSetMetaData getMetaData()
+    throws SQLException
+  {
+    return getResultImpl().getMetaData();
+  }
+
+  public void clearParameters()
+    throws SQLException
+  {
+    for (int i = 0; i < _params.length; i++)
+      _params[i] = null;
+  }
+
+  public void setNull(int index, int sqlType)
+    throws SQLException
+  {
+    setParam(index, null);
+  }
+
+  public void setNull(int index, int sqlType, String typeName)
+    throws SQLException
+  {
+    setParam(index, null);
+  }
+
+  public void setBoolean(int index, boolean value)
+    throws SQLException
+  {
+    setParam(index, value ? 1L : 0L);
+  }
+
+  public void setByte(int index, byte value)
+    throws SQLException
+  {
+    setParam(index, (long) value);
+  }
+
+  public void setShort(int index, short value)
+    throws SQLException
+  {
+    setParam(index, (long) value);
+  }
+
+  public void setInt(int index, int value)
+    throws SQLException
+  {
+    setParam(index, (long) value);
+  }
+
+  public void setLong(int index, long value)
+    throws SQLException
+  {
+    setParam(index, value);
+  }
+
+  public void setFloat(int index, float value)
+    throws SQLException
+  {
+    setParam(index, (double) value);
+  }
+
+  public void setDouble(int index, double value)
+    throws SQLException
+  {
+    setParam(index, value);
+  }
+
+  public void setBigDecimal(int index, BigDecimal value)
+    throws SQLException
+  {
+    setParam(index, value != null ? value.toPlainString() : null);
+  }
+
+  /**
+   * Sets a string parameter.  Characters are sent as latin-1 bytes,
+   * matching the byte strings Quercus passes in.
+   */
+  public void setString(int index, String value)
+    throws SQLException
+  {
+    setParam(index, value);
+  }
+
+  public void setNString(int index, String value)
+    throws SQLException
+  {
+    setParam(index, value);
+  }
+
+  public void setBytes(int index, byte []value)
+    throws SQLException
+  {
+    setParam(index, value);
+  }
+
+  public void setDate(int index, java.sql.Date value)
+    throws SQLException
+  {
+    setParam(index, value);
+  }
+
+  public void setDate(int index, java.sql.Date value, Calendar cal)
+    throws SQLException
+  {
+    setParam(index, value);
+  }
+
+  public void setTime(int index, Time value)
+    throws SQLException
+  {
+    setParam(index, value);
+  }
+
+  public void setTime(int index, Time value, Calendar cal)
+    throws SQLException
+  {
+    setParam(index, value);
+  }
+
+  public void setTimestamp(int index, Timestamp value)
+    throws SQLException
+  {
+    setParam(index, value);
+  }
+
+  public void setTimestamp(int index, Timestamp value, Calendar cal)
+    throws SQLException
+  {
+    setParam(index, value);
+  }
+
+  public void setObject(int index, Object value)
+    throws SQLException
+  {
+    if (value == null || value instanceof String || value instanceof byte[])
+      setParam(index, value);
+    else if (value instanceof Boolean)
+      setBoolean(index, (Boolean) value);
+    else if (value instanceof Long
+             || value instanceof Integer
+             || value instanceof Short
+             || value instanceof Byte)
+      setLong(index, ((Number) value).longValue());
+    else if (value instanceof BigDecimal)
+      setBigDecimal(index, (BigDecimal) value);
+    else if (value instanceof Number)
+      setDouble(index, ((Number) value).doubleValue());
+    else
+      setParam(index, value.toString());
+  }
+
+  public void setObject(int index, Object value, int targetSqlType)
+    throws SQLException
+  {
+    setObject(index, value);
+  }
+
+  public void setObject(int index, Object value,
+                        int targetSqlType, int scale)
+    throws SQLException
+  {
+    setObject(index, value);
+  }
+
+  public void setBinaryStream(int index, InputStream is, int length)
+    throws SQLException
+  {
+    setParam(index, readStream(is, length));
+  }
+
+  public void setBinaryStream(int index, InputStream is, long length)
+    throws SQLException
+  {
+    setParam(index, readStream(is, length));
+  }
+
+  public void setBinaryStream(int index, InputStream is)
+    throws SQLException
+  {
+    setParam(index, readStream(is, -1));
+  }
+
+  public void setAsciiStream(int index, InputStream is, int length)
+    throws SQLException
+  {
+    setParam(index, readStream(is, length));
+  }
+
+  public void setAsciiStream(int index, InputStream is, long length)
+    throws SQLException
+  {
+    setParam(index, readStream(is, length));
+  }
+
+  public void setAsciiStream(int index, InputStream is)
+    throws SQLException
+  {
+    setParam(index, readStream(is, -1));
+  }
+
+  public void setCharacterStream(int index, Reader reader, int length)
+    throws SQLException
+  {
+    setParam(index, readReader(reader, length));
+  }
+
+  public void setCharacterStream(int index, Reader reader, long length)
+    throws SQLException
+  {
+    setParam(index, readReader(reader, length));
+  }
+
+  public void setCharacterStream(int index, Reader reader)
+    throws SQLException
+  {
+    setParam(index, readReader(reader, -1));
+  }
+
+  private void setParam(int index, Object value)
+    throws SQLException
+  {
+    if (index < 1 || _params.length < index)
+      throw new SQLException(L.l("{0} is an invalid parameter [1-{1}]",
+                                 index, _params.length));
+
+    _params[index - 1] = value;
+  }
+
+  private static byte []readStream(InputStream is, long length)
+    throws SQLException
+  {
+    if (is == null)
+      return null;
+
+    try {
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      byte []buffer = new byte[8192];
+
+      while (length != 0) {
+        int sublen = buffer.length;
+
+        if (length > 0 && length < sublen)
+          sublen = (int) length;
+
+        sublen = is.read(buffer, 0, sublen);
+
+        if (sublen < 0)
+          break;
+
+        bos.write(buffer, 0, sublen);
+
+        if (length > 0)
+          length -= sublen;
+      }
+
+      return bos.toByteArray();
+    } catch (IOException e) {
+      throw new SQLException(e);
+    }
+  }
+
+  private static String readReader(Reader reader, long length)
+    throws SQLException
+  {
+    if (reader == null)
+      return null;
+
+    try {
+      StringBuilder sb = new StringBuilder();
+      char []buffer = new char[8192];
+
+      while (length != 0) {
+        int sublen = buffer.length;
+
+        if (length > 0 && length < sublen)
+          sublen = (int) length;
+
+        sublen = reader.read(buffer, 0, sublen);
+
+        if (sublen < 0)
+          break;
+
+        sb.append(buffer, 0, sublen);
+
+        if (length > 0)
+          length -= sublen;
+      }
+
+      return sb.toString();
+    } catch (IOException e) {
+      throw new SQLException(e);
+    }
+  }
+
+  /**
+   * Returns the server handle to the connection's cache.
+   */
+  @Override
+  public void close()
+    throws SQLException
+  {
+    MysqlConnectionImpl conn = getConnection();
+    MysqlServerStatement serverStmt = _serverStmt;
+    _serverStmt = null;
+
+    if (conn != null && serverStmt != null)
+      conn.release(serverStmt);
+
+    super.close();
+  }
+
+  //
+  // stubbed because not used by mysql
+  //
+
+  public void addBatch()
+    throws SQLException
+  {
+    throw new UnsupportedOperationException(getClass().getName());
+  }
+
+  public void setUnicodeStream(int index, InputStream is, int length)
+    throws SQLException
+  {
+    throw new UnsupportedOperationException(getClass().getName());
+  }
+
+  public void setRef(int index, Ref value)
+    throws SQLException
+  {
+    throw new UnsupportedOperationException(getClass().getName());
+  }
+
+  public void setBlob(int index, Blob value)
+    throws SQLException
+  {
+    throw new UnsupportedOperationException(getClass().getName());
+  }
+
+  public void setBlob(int index, InputStream is, long length)
+    throws SQLException
+  {
+    throw new UnsupportedOperationException(getClass().getName());
+  }
+
+  public void setBlob(int index, InputStream is)
+    throws SQLException
+  {
+    throw new UnsupportedOperationException(getClass().getName());
+  }
+
+  public void setClob(int index, Clob value)
+    throws SQLException
+  {
+    throw new UnsupportedOperationException(getClass().getName());
+  }
+
+  public void setClob(int index, Reader reader, long length)
+    throws SQLException
+  {
+    throw new UnsupportedOperationException(getClass().getName());
+  }
+
+  public void setClob(int index, Reader reader)
+    throws SQLException
+  {
+    throw new UnsupportedOperationException(getClass().getName());
+  }
+
+  public void setNClob(int index, NClob value)
+    throws SQLException
+  {
+    throw new UnsupportedOperationException(getClass().getName());
+  }
+
+  public void setNClob(int index, Reader reader, long length)
+    throws SQLException
+  {
+    throw new UnsupportedOperationException(getClass().getName());
+  }
+
+  public void setNClob(int index, Reader reader)
+    throws SQLException
+  {
+    throw new UnsupportedOperationException(getClass().getName());
+  }
+
+  public void setNCharacterStream(int index, Reader reader, long length)
+    throws SQLException
+  {
+    throw new UnsupportedOperationException(getClass().getName());
+  }
+
+  public void setNCharacterStream(int index, Reader reader)
+    throws SQLException
+  {
+    throw new UnsupportedOperationException(getClass().getName());
+  }
+
+  public void setArray(int index, Array value)
+    throws SQLException
+  {
+    throw new UnsupportedOperationException(getClass().getName());
+  }
+
+  public void setURL(int index, URL value)
+    throws SQLException
+  {
+    throw new UnsupportedOperationException(getClass().getName());
+  }
+
+  public void setRowId(int index, RowId value)
+    throws SQLException
+  {
+    throw new UnsupportedOperationException(getClass().getName());
+  }
+
+  public void setSQLXML(int index, SQLXML value)
+    throws SQLException
+  {
+    throw new UnsupportedOperationException(getClass().getName());
+  }
+
+  public ParameterMetaData getParameterMetaData()
+    throws SQLException
+  {
+    throw new UnsupportedOperationException(getClass().getName());
+  }
+
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _serverStmt + "]";
+  }
+}
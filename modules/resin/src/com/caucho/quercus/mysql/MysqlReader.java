@@ -184,6 +184,15 @@ class MysqlReader {
             + (ch2 << 8));
   }
 
+  long readLong()
+    throws IOException
+  {
+    long low = readInt() & 0xffffffffL;
+    long high = readInt();
+
+    return (high << 32) + low;
+  }
+
   long readLengthCodedBinary()
     throws IOException
   {
@@ -61,10 +61,19 @@ public class MysqlResultImpl extends AbstractResultSet
   private int _columnCount;
   private ArrayList<MysqlColumn> _columns;
 
+  private boolean _isBinary;
+  private int []_rowLengths = new int[0];
+
   private boolean _isRowAvailable;
   private TempOutputStream _resultData;
   private char []_charBuffer;
 
+  // rows buffered when the connection was needed by another command
+  private TempOutputStream _prefetchData;
+  private IntArray _prefetchLengths;
+  private int _prefetchIndex;
+  private int _prefetchOffset;
+
   MysqlResultImpl(MysqlStatementImpl stmt)
   {
     _stmt = stmt;
@@ -102,10 +111,26 @@ public class MysqlResultImpl extends AbstractResultSet
     _insertId = id;
   }
 
+  /**
+   * True if the rows use the binary prepared-statement encoding.
+   */
+  boolean isBinary()
+  {
+    return _isBinary;
+  }
+
+  void setBinary(boolean isBinary)
+  {
+    _isBinary = isBinary;
+  }
+
   public void setColumnCount(int count)
   {
     _columnCount = count;
 
+    if (_rowLengths.length < count)
+      _rowLengths = new int[count];
+
     _resultMetaData.setColumnCount(count);
     _columns = _resultMetaData.getColumns();
   }
@@ -135,12 +160,122 @@ public class MysqlResultImpl extends AbstractResultSet
   public void setRowAvailable(boolean isRowAvailable)
   {
     _isRowAvailable = isRowAvailable;
+
+    clearPrefetch();
+  }
+
+  /**
+   * Returns the scratch array the connection fills with the column
+   * lengths of a row, -1 for null.
+   */
+  int []getRowLengths()
+  {
+    return _rowLengths;
+  }
+
+  /**
+   * Sets the column offsets of the current row from the row lengths.
+   */
+  void setRow(int []lengths, int lengthOffset, int dataOffset)
+  {
+    for (int i = 0; i < _columnCount; i++) {
+      MysqlColumn column = _columns.get(i);
+      int length = lengths[lengthOffset + i];
+
+      column.setRowOffset(dataOffset);
+      column.setRowLength(length);
+
+      if (length > 0)
+        dataOffset += length;
+    }
+  }
+
+  /**
+   * Saves the unread rows, read ahead by the connection before it
+   * starts a new command.  The current row remains valid until next().
+   */
+  void setPrefetch(TempOutputStream data, IntArray lengths)
+  {
+    _prefetchData = data;
+    _prefetchLengths = lengths;
+    _prefetchIndex = 0;
+    _prefetchOffset = 0;
+  }
+
+  /**
+   * Fills the result with a single row holding the insert id.
+   */
+  void setGeneratedKey(long id)
+  {
+    setColumnCount(1);
+
+    String value = String.valueOf(id);
+
+    TempOutputStream data = new TempOutputStream();
+    IntArray lengths = new IntArray();
+
+    for (int i = 0; i < value.length(); i++)
+      data.write(value.charAt(i));
+
+    lengths.add(value.length());
+
+    _isRowAvailable = true;
+    setPrefetch(data, lengths);
+  }
+
+  boolean isPrefetch()
+  {
+    return _prefetchData != null;
+  }
+
+  private boolean nextPrefetch()
+  {
+    if (_resultData != null && _resultData != _prefetchData)
+      _resultData.destroy();
+
+    _resultData = _prefetchData;
+
+    int []lengths = _prefetchLengths.getArray();
+
+    if (_prefetchLengths.size() <= _prefetchIndex) {
+      clearPrefetch();
+
+      return false;
+    }
+
+    setRow(lengths, _prefetchIndex, _prefetchOffset);
+
+    for (int i = 0; i < _columnCount; i++) {
+      int length = lengths[_prefetchIndex++];
+
+      if (length > 0)
+        _prefetchOffset += length;
+    }
+
+    return true;
+  }
+
+  private void clearPrefetch()
+  {
+    TempOutputStream data = _prefetchData;
+    _prefetchData = null;
+    _prefetchLengths = null;
+
+    if (data != null) {
+      if (_resultData == data)
+        _resultData = null;
+
+      data.destroy();
+    }
   }
 
   public boolean next()
     throws SQLException
   {
-    if (_isRowAvailable) {
+    if (_prefetchData != null) {
+      _isRowAvailable = nextPrefetch();
+    }
+    else if (_isRowAvailable) {
       _isRowAvailable = _stmt.getConnection().readRow(this);
 
       if (! _isRowAvailable) {
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.quercus.mysql;
+
+/**
+ * Server-side prepared statement handle, cached per connection by its sql.
+ */
+class MysqlServerStatement {
+  private final String _sql;
+  private final int _id;
+  private final int _paramCount;
+  private final int _columnCount;
+
+  private boolean _isInUse;
+  private boolean _isCached;
+
+  MysqlServerStatement(String sql, int id, int paramCount, int columnCount)
+  {
+    _sql = sql;
+    _id = id;
+    _paramCount = paramCount;
+    _columnCount = columnCount;
+  }
+
+  String getSql()
+  {
+    return _sql;
+  }
+
+  /**
+   * Returns the server's statement id.
+   */
+  int getId()
+  {
+    return _id;
+  }
+
+  int getParamCount()
+  {
+    return _paramCount;
+  }
+
+  int getColumnCount()
+  {
+    return _columnCount;
+  }
+
+  /**
+   * True while a PreparedStatement owns the handle.
+   */
+  boolean isInUse()
+  {
+    return _isInUse;
+  }
+
+  void setInUse(boolean isInUse)
+  {
+    _isInUse = isInUse;
+  }
+
+  /**
+   * True if the handle is owned by the connection's statement cache.
+   */
+  boolean isCached()
+  {
+    return _isCached;
+  }
+
+  void setCached(boolean isCached)
+  {
+    _isCached = isCached;
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _id + "," + _sql + "]";
+  }
+}
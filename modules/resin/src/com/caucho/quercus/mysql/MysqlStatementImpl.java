@@ -118,6 +118,11 @@ public class MysqlStatementImpl implements java.sql.Statement {
     return _conn;
   }
 
+  MysqlResultImpl getResultImpl()
+  {
+    return _result;
+  }
+
   public void clearWarnings()
     throws SQLException
   {
@@ -374,12 +379,17 @@ public class MysqlStatementImpl implements java.sql.Statement {
   }
 
   /**
-   * Returns the generated keys for the update.
+   * Returns the generated keys for the update, i.e. the insert id from
+   * the last OK packet.
    */
   public java.sql.ResultSet getGeneratedKeys()
     throws SQLException
   {
-    throw new UnsupportedOperationException(getClass().getName());
+    MysqlResultImpl keys = new MysqlResultImpl(this);
+
+    keys.setGeneratedKey(_result.getInsertId());
+
+    return keys;
   }
 
   /**
@@ -47,6 +47,8 @@ class MysqlWriter {
     = Logger.getLogger(MysqlWriter.class.getName());
   protected static final L10N L = new L10N(MysqlWriter.class);
 
+  private static final int MAX_PACKET = 0xffffff;
+
   private MysqlConnectionImpl _conn;
   private WriteStream _out;
 
@@ -85,6 +87,34 @@ class MysqlWriter {
     buffer[3] = 1; // packet id
   }
 
+  /**
+   * Writes a complete command packet from a buffered payload, splitting
+   * payloads larger than the 16M packet limit.
+   */
+  void writePacket(byte []buffer, int length)
+    throws IOException
+  {
+    WriteStream out = _out;
+
+    int offset = 0;
+    int id = 0;
+
+    while (true) {
+      int sublen = Math.min(length - offset, MAX_PACKET);
+
+      out.write(sublen);
+      out.write(sublen >> 8);
+      out.write(sublen >> 16);
+      out.write(id++);
+
+      out.write(buffer, offset, sublen);
+      offset += sublen;
+
+      if (sublen < MAX_PACKET)
+        return;
+    }
+  }
+
   void writeByte(int value)
     throws IOException
   {
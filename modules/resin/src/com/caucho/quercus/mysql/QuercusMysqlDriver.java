@@ -47,6 +47,9 @@ public class QuercusMysqlDriver implements Driver
   private int _port = 3306;
   private String _database;
 
+  private boolean _isPrefetch;
+  private int _prepStmtCacheSize = 64;
+
   public void setUrl(String url)
   {
     _url = url;
@@ -69,6 +72,35 @@ public class QuercusMysqlDriver implements Driver
     return _database;
   }
 
+  /**
+   * If true, unread rows are buffered when a new command is sent on the
+   * connection, keeping earlier result sets valid.  Otherwise they are
+   * discarded.
+   */
+  public void setPrefetch(boolean isPrefetch)
+  {
+    _isPrefetch = isPrefetch;
+  }
+
+  public boolean isPrefetch()
+  {
+    return _isPrefetch;
+  }
+
+  /**
+   * Sets the number of server-side prepared statements cached per
+   * connection, 0 to disable the cache.
+   */
+  public void setPrepStmtCacheSize(int size)
+  {
+    _prepStmtCacheSize = size;
+  }
+
+  public int getPrepStmtCacheSize()
+  {
+    return _prepStmtCacheSize;
+  }
+
   public boolean acceptsURL(String url)
   {
     return false;
@@ -161,6 +193,10 @@ public class QuercusMysqlDriver implements Driver
       _database = url.substring(r + 1);
 
       p = _database.indexOf('?');
+
+      if (p >= 0)
+        parseQuery(_database.substring(p + 1));
+
       if (p == 0) {
         _database = null;
       }
@@ -170,6 +206,24 @@ public class QuercusMysqlDriver implements Driver
     }
   }
 
+  private void parseQuery(String query)
+  {
+    for (String param : query.split("&")) {
+      int p = param.indexOf('=');
+
+      if (p < 0)
+        continue;
+
+      String key = param.substring(0, p);
+      String value = param.substring(p + 1);
+
+      if ("prefetch".equals(key))
+        _isPrefetch = "true".equals(value);
+      else if ("prepStmtCacheSize".equals(key))
+        _prepStmtCacheSize = Integer.parseInt(value);
+    }
+  }
+
   @Override
   public String toString()
   {
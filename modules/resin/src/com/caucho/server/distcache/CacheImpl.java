@@ -69,6 +69,8 @@ import com.caucho.distcache.ExtCacheEntry;
 import com.caucho.distcache.ObjectCache;
 import com.caucho.env.actor.AbstractWorkerQueue;
 import com.caucho.env.distcache.CacheDataBacking;
+import com.caucho.env.meter.HistogramMeter;
+import com.caucho.env.meter.MeterService;
 import com.caucho.env.thread.ThreadPool;
 import com.caucho.loader.Environment;
 import com.caucho.management.server.AbstractManagedObject;
@@ -90,6 +92,9 @@ public class CacheImpl<K,V>
   private static final L10N L = new L10N(CacheImpl.class);
   private static final Logger log = Logger.getLogger(CacheImpl.class.getName());
 
+  private static final HistogramMeter _getTimeMeter
+    = MeterService.createHistogramMeter("Resin|Cache|Get", "Time");
+
   private CacheManagerImpl _localManager;
   private final CacheStoreManager _manager;
 
@@ -315,7 +320,11 @@ public class CacheImpl<K,V>
       _missCount.incrementAndGet();
     }
 
+    long startTime = _getTimeMeter.start();
+
     V value = (V) entry.get();
+
+    _getTimeMeter.end(startTime);
     
     if (_readListeners != null) {
       entryRead(key, value);
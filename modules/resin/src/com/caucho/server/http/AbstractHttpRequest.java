@@ -732,7 +732,8 @@ public abstract class AbstractHttpRequest extends AbstractProtocolConnection
       if (keyLen == CONNECTION.length
           && match(keyBuf, keyOff, keyLen, CONNECTION)) {
         if (! match(value.getBuffer(), value.getOffset(), value.getLength(),
-                    KEEPALIVE)) {
+                    KEEPALIVE)
+            && ! isConnectionUpgrade(value)) {
           handleConnectionClose();
         }
       }
@@ -795,6 +796,18 @@ public abstract class AbstractHttpRequest extends AbstractProtocolConnection
       _contentLength = contentLength;
   }
 
+  /**
+   * Connection: Upgrade keeps the connection for the upgraded protocol,
+   * e.g. h2c, unless the client also asks to close it.
+   */
+  private boolean isConnectionUpgrade(CharSegment value)
+  {
+    String connection = value.toString().toLowerCase(Locale.ENGLISH);
+
+    return (connection.indexOf("upgrade") >= 0
+            && connection.indexOf("close") < 0);
+  }
+
   /**
    * Called for a connection: close
    */
@@ -1777,6 +1790,14 @@ public abstract class AbstractHttpRequest extends AbstractProtocolConnection
     return conn != null && conn.isKeepaliveAllocated();
   }
 
+  /**
+   * Returns true if the connection can suspend the request for async.
+   */
+  public boolean isAsyncCapable()
+  {
+    return true;
+  }
+
   public boolean isCometActive()
   {
     TcpSocketLink conn = _tcpConn;
@@ -34,6 +34,7 @@ import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.Locale;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -48,6 +49,7 @@ import com.caucho.network.listen.TcpSocketLink;
 import com.caucho.server.cluster.ServletService;
 import com.caucho.server.dispatch.BadRequestException;
 import com.caucho.server.dispatch.Invocation;
+import com.caucho.server.http2.Http2Connection;
 import com.caucho.util.CharBuffer;
 import com.caucho.util.CharSegment;
 import com.caucho.util.L10N;
@@ -55,6 +57,7 @@ import com.caucho.vfs.ClientDisconnectException;
 import com.caucho.vfs.QSocket;
 import com.caucho.vfs.ReadStream;
 import com.caucho.vfs.SocketTimeoutException;
+import com.caucho.vfs.WriteStream;
 
 /**
  * Handles a new request from an HTTP connection.
@@ -74,6 +77,9 @@ public class HttpRequest extends AbstractHttpRequest
   private static final CharBuffer _getCb = new CharBuffer("GET");
   private static final CharBuffer _headCb = new CharBuffer("HEAD");
   private static final CharBuffer _postCb = new CharBuffer("POST");
+  private static final CharBuffer _priCb = new CharBuffer("PRI");
+
+  private static final int HTTP_2_0 = 0x0200;
   
   private static final char []_toLowerAscii;
   private static final char []_toUpperAscii;
@@ -112,6 +118,9 @@ public class HttpRequest extends AbstractHttpRequest
   private ContentLengthStream _contentLengthStream = new ContentLengthStream();
   private RawInputStream _rawInputStream = new RawInputStream();
 
+  // HTTP/2 connection after a preface or h2c upgrade
+  private Http2Connection _http2;
+
   private ActiveTimeMeter _requestTimeProbe;
   private AverageMeter _requestReadBytesProbe;
   private AverageMeter _requestWriteBytesProbe;
@@ -791,6 +800,10 @@ public class HttpRequest extends AbstractHttpRequest
   public boolean handleRequest()
     throws IOException
   {
+    if (_http2 != null) {
+      return _http2.handleRequest();
+    }
+
     boolean isInvocation = false;
 
     ServletService server = getServer();
@@ -815,6 +828,10 @@ public class HttpRequest extends AbstractHttpRequest
         return false;
       }
 
+      if (startHttp2()) {
+        return true;
+      }
+
       CharSequence host = getInvocationHost();
 
       Invocation invocation = getInvocation(host, _uri, _uriLength);
@@ -886,6 +903,68 @@ public class HttpRequest extends AbstractHttpRequest
     return true;
   }
 
+  /**
+   * Switches the connection to HTTP/2 for the prior-knowledge preface,
+   * which also follows ALPN, or for an h2c upgrade request.
+   */
+  private boolean startHttp2()
+    throws IOException
+  {
+    // http2 is opt-in per <http> port
+    SocketLink link = getConnection();
+
+    if (! (link instanceof TcpSocketLink)
+        || ! ((TcpSocketLink) link).getPort().isHttp2())
+      return false;
+
+    if (getVersion() == HTTP_2_0 && _method.equals(_priCb)) {
+      if (log.isLoggable(Level.FINE))
+        log.fine(dbgId() + "HTTP/2 preface");
+
+      _http2 = new Http2Connection(getServer(), getConnection());
+      _http2.onPriRequest();
+
+      return true;
+    }
+
+    if (! isHttp2Upgrade())
+      return false;
+
+    if (log.isLoggable(Level.FINE))
+      log.fine(dbgId() + "upgrade HTTP to h2c");
+
+    WriteStream os = getRawWrite();
+    os.print("HTTP/1.1 101 Switching Protocols\r\n"
+             + "Connection: Upgrade\r\n"
+             + "Upgrade: h2c\r\n\r\n");
+
+    _http2 = new Http2Connection(getServer(), getConnection());
+    _http2.upgrade(this, getHeader("HTTP2-Settings"));
+
+    return true;
+  }
+
+  /**
+   * An h2c upgrade needs a cleartext HTTP/1.1 request without a body.
+   */
+  private boolean isHttp2Upgrade()
+  {
+    if (getVersion() != HTTP_1_1 || isSecure())
+      return false;
+
+    String upgrade = getHeader("Upgrade");
+
+    if (upgrade == null
+        || upgrade.toLowerCase(Locale.ENGLISH).indexOf("h2c") < 0)
+      return false;
+
+    if (getHeader("HTTP2-Settings") == null)
+      return false;
+
+    return (getLongContentLength() <= 0
+            && getHeader("Transfer-Encoding") == null);
+  }
+
   private boolean parseRequest()
     throws IOException
   {
@@ -1457,6 +1536,12 @@ public class HttpRequest extends AbstractHttpRequest
   public void onCloseConnection()
   {
     super.onCloseConnection();
+
+    Http2Connection http2 = _http2;
+    _http2 = null;
+
+    if (http2 != null)
+      http2.onCloseConnection();
     
     _uri = null;
     _headerBuffer = null;
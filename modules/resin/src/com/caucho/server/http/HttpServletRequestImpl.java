@@ -1506,6 +1506,11 @@ public final class HttpServletRequestImpl extends AbstractCauchoRequest
       throw new IllegalStateException(L.l("The servlet '{0}' at '{1}' does not support async because the servlet or one of the filters does not support asynchronous mode.  The servlet should be annotated with a @WebServlet(asyncSupported=true) annotation or have a <async-supported> tag in the web.xml.",
                                           getServletName(), getServletPath()));
 
+    if (! _request.isAsyncCapable()) {
+      throw new IllegalStateException(L.l("startAsync is not supported for {0} requests.",
+                                          _request.getProtocol()));
+    }
+
     if (_request.isCometActive()) {
       throw new IllegalStateException(L.l("startAsync may not be called twice on the same dispatch."));
     }
@@ -0,0 +1,312 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+
+package com.caucho.server.http2;
+
+import java.io.IOException;
+
+import com.caucho.util.CharBuffer;
+import com.caucho.util.L10N;
+
+/**
+ * HPACK header block decoder.  Each connection has its own decoder
+ * because the dynamic table is shared by all streams of the connection.
+ */
+class HpackDecoder {
+  private static final L10N L = new L10N(HpackDecoder.class);
+
+  private static final String [][]STATIC_TABLE = HpackTable.STATIC_TABLE;
+
+  private final CharBuffer _cb = new CharBuffer();
+
+  // dynamic table as a ring, newest entry at _head
+  private String []_names = new String[16];
+  private String []_values = new String[16];
+  private int _head;
+  private int _count;
+
+  private int _tableSize;
+  private int _maxTableSize = 4096;
+  private final int _maxTableSizeLimit;
+
+  private final int _maxHeaderListSize;
+
+  private byte []_buffer;
+  private int _offset;
+  private int _end;
+
+  HpackDecoder(int maxTableSize, int maxHeaderListSize)
+  {
+    _maxTableSize = maxTableSize;
+    _maxTableSizeLimit = maxTableSize;
+    _maxHeaderListSize = maxHeaderListSize;
+  }
+
+  /**
+   * Decodes a complete header block, adding the headers to the request.
+   * A null request discards the headers after updating the table,
+   * e.g. for trailers.
+   */
+  void decode(byte []buffer, int offset, int length, Http2Request request)
+    throws IOException
+  {
+    _buffer = buffer;
+    _offset = offset;
+    _end = offset + length;
+
+    int listSize = 0;
+    boolean isHeaderSeen = false;
+
+    try {
+      while (_offset < _end) {
+        int code = _buffer[_offset] & 0xff;
+
+        String name;
+        String value;
+
+        if ((code & 0x80) != 0) {
+          // indexed header field
+          int index = readInt(7);
+
+          name = getName(index);
+          value = getValue(index);
+        }
+        else if ((code & 0x40) != 0) {
+          // literal with incremental indexing
+          int index = readInt(6);
+
+          name = index > 0 ? getName(index) : readString();
+          value = readString();
+
+          addEntry(name, value);
+        }
+        else if ((code & 0x20) != 0) {
+          // dynamic table size update, only before the first field
+          if (isHeaderSeen) {
+            throw new IOException(L.l("HPACK table size update after header field"));
+          }
+
+          int size = readInt(5);
+
+          if (_maxTableSizeLimit < size) {
+            throw new IOException(L.l("HPACK table size {0} exceeds {1}",
+                                      size, _maxTableSizeLimit));
+          }
+
+          _maxTableSize = size;
+          evict(0);
+          continue;
+        }
+        else {
+          // literal without indexing (0000) or never indexed (0001)
+          int index = readInt(4);
+
+          name = index > 0 ? getName(index) : readString();
+          value = readString();
+        }
+
+        isHeaderSeen = true;
+
+        listSize += name.length() + value.length() + HpackTable.ENTRY_OVERHEAD;
+
+        if (_maxHeaderListSize < listSize) {
+          throw new IOException(L.l("HTTP/2 header list exceeds {0} bytes",
+                                    _maxHeaderListSize));
+        }
+
+        if (request != null) {
+          request.addHeader(name, value);
+        }
+      }
+    } finally {
+      _buffer = null;
+    }
+  }
+
+  private int readInt(int prefixBits)
+    throws IOException
+  {
+    int mask = (1 << prefixBits) - 1;
+
+    int value = _buffer[_offset++] & mask;
+
+    if (value < mask) {
+      return value;
+    }
+
+    int shift = 0;
+    int ch;
+
+    do {
+      if (_end <= _offset) {
+        throw new IOException(L.l("truncated HPACK integer"));
+      }
+
+      ch = _buffer[_offset++] & 0xff;
+
+      value += (ch & 0x7f) << shift;
+      shift += 7;
+
+      if (shift > 28 || value < 0) {
+        throw new IOException(L.l("HPACK integer overflow"));
+      }
+    } while ((ch & 0x80) != 0);
+
+    return value;
+  }
+
+  private String readString()
+    throws IOException
+  {
+    if (_end <= _offset) {
+      throw new IOException(L.l("truncated HPACK string"));
+    }
+
+    boolean isHuffman = (_buffer[_offset] & 0x80) != 0;
+    int length = readInt(7);
+
+    if (_end < _offset + length) {
+      throw new IOException(L.l("truncated HPACK string"));
+    }
+
+    CharBuffer cb = _cb;
+    cb.clear();
+
+    if (isHuffman) {
+      Huffman.decode(_buffer, _offset, length, cb);
+    }
+    else {
+      byte []buffer = _buffer;
+      int offset = _offset;
+
+      for (int i = 0; i < length; i++) {
+        cb.append((char) (buffer[offset + i] & 0xff));
+      }
+    }
+
+    _offset += length;
+
+    return cb.toString();
+  }
+
+  private String getName(int index)
+    throws IOException
+  {
+    if (index <= 0) {
+      throw new IOException(L.l("invalid HPACK index {0}", index));
+    }
+    else if (index <= STATIC_TABLE.length) {
+      return STATIC_TABLE[index - 1][0];
+    }
+    else {
+      return _names[getDynamicIndex(index)];
+    }
+  }
+
+  private String getValue(int index)
+    throws IOException
+  {
+    if (index <= 0) {
+      throw new IOException(L.l("invalid HPACK index {0}", index));
+    }
+    else if (index <= STATIC_TABLE.length) {
+      return STATIC_TABLE[index - 1][1];
+    }
+    else {
+      return _values[getDynamicIndex(index)];
+    }
+  }
+
+  private int getDynamicIndex(int index)
+    throws IOException
+  {
+    int i = index - STATIC_TABLE.length - 1;
+
+    if (_count <= i) {
+      throw new IOException(L.l("invalid HPACK index {0}", index));
+    }
+
+    return (_head + i) & (_names.length - 1);
+  }
+
+  private void addEntry(String name, String value)
+  {
+    int size = name.length() + value.length() + HpackTable.ENTRY_OVERHEAD;
+
+    evict(size);
+
+    if (_maxTableSize < size) {
+      // an entry larger than the table empties it
+      return;
+    }
+
+    if (_count == _names.length) {
+      resize();
+    }
+
+    _head = (_head - 1) & (_names.length - 1);
+    _names[_head] = name;
+    _values[_head] = value;
+    _count++;
+
+    _tableSize += size;
+  }
+
+  private void evict(int size)
+  {
+    while (_count > 0 && _maxTableSize < _tableSize + size) {
+      int tail = (_head + _count - 1) & (_names.length - 1);
+
+      _tableSize -= (_names[tail].length() + _values[tail].length()
+                     + HpackTable.ENTRY_OVERHEAD);
+
+      _names[tail] = null;
+      _values[tail] = null;
+      _count--;
+    }
+  }
+
+  private void resize()
+  {
+    int length = _names.length;
+
+    String []names = new String[2 * length];
+    String []values = new String[2 * length];
+
+    for (int i = 0; i < _count; i++) {
+      names[i] = _names[(_head + i) & (length - 1)];
+      values[i] = _values[(_head + i) & (length - 1)];
+    }
+
+    _names = names;
+    _values = values;
+    _head = 0;
+  }
+}
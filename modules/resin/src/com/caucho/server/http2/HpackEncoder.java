@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+
+package com.caucho.server.http2;
+
+import java.util.HashMap;
+
+/**
+ * HPACK header block encoder.
+ *
+ * The encoder never adds to the dynamic table, so header blocks from
+ * different streams can be encoded concurrently and written in any order.
+ * Static table matches are indexed and all other fields are sent as
+ * literals without indexing, Huffman-coded when shorter.
+ */
+class HpackEncoder {
+  private static final HashMap<String,Integer> _nameIndexMap
+    = new HashMap<String,Integer>();
+
+  private static final HashMap<String,Integer> _fieldIndexMap
+    = new HashMap<String,Integer>();
+
+  private byte []_buffer = new byte[256];
+  private int _length;
+
+  void clear()
+  {
+    _length = 0;
+  }
+
+  byte []getBuffer()
+  {
+    return _buffer;
+  }
+
+  int getLength()
+  {
+    return _length;
+  }
+
+  /**
+   * Encodes the :status pseudo-header.
+   */
+  void encodeStatus(int status)
+  {
+    encode(":status", String.valueOf(status));
+  }
+
+  /**
+   * Encodes a header field.  The name must already be lower case.
+   */
+  void encode(String name, String value)
+  {
+    Integer fieldIndex = _fieldIndexMap.get(name + ':' + value);
+
+    if (fieldIndex != null) {
+      ensureCapacity(8);
+      writeInt(0x80, 7, fieldIndex);
+      return;
+    }
+
+    Integer nameIndex = _nameIndexMap.get(name);
+
+    ensureCapacity(16 + name.length() + value.length());
+
+    if (nameIndex != null) {
+      writeInt(0x00, 4, nameIndex);
+    }
+    else {
+      writeInt(0x00, 4, 0);
+      writeString(name);
+    }
+
+    writeString(value);
+  }
+
+  private void writeString(String value)
+  {
+    int length = value.length();
+    int huffmanLength = Huffman.getEncodedLength(value);
+
+    if (huffmanLength < length) {
+      writeInt(0x80, 7, huffmanLength);
+      _length = Huffman.encode(_buffer, _length, value);
+    }
+    else {
+      writeInt(0x00, 7, length);
+
+      byte []buffer = _buffer;
+      int offset = _length;
+
+      for (int i = 0; i < length; i++) {
+        buffer[offset + i] = (byte) value.charAt(i);
+      }
+
+      _length = offset + length;
+    }
+  }
+
+  private void writeInt(int flags, int prefixBits, int value)
+  {
+    int mask = (1 << prefixBits) - 1;
+
+    byte []buffer = _buffer;
+
+    if (value < mask) {
+      buffer[_length++] = (byte) (flags | value);
+      return;
+    }
+
+    buffer[_length++] = (byte) (flags | mask);
+    value -= mask;
+
+    while (value >= 0x80) {
+      buffer[_length++] = (byte) (0x80 | (value & 0x7f));
+      value >>= 7;
+    }
+
+    buffer[_length++] = (byte) value;
+  }
+
+  private void ensureCapacity(int size)
+  {
+    if (_buffer.length < _length + size) {
+      byte []buffer = new byte[Math.max(2 * _buffer.length, _length + size)];
+
+      System.arraycopy(_buffer, 0, buffer, 0, _length);
+
+      _buffer = buffer;
+    }
+  }
+
+  static {
+    String [][]table = HpackTable.STATIC_TABLE;
+
+    for (int i = table.length - 1; i >= 0; i--) {
+      String name = table[i][0];
+      String value = table[i][1];
+
+      _nameIndexMap.put(name, i + 1);
+
+      if (! "".equals(value)) {
+        _fieldIndexMap.put(name + ':' + value, i + 1);
+      }
+    }
+  }
+}
@@ -0,0 +1,1166 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+
+package com.caucho.server.http2;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.caucho.env.thread.ThreadPool;
+import com.caucho.network.listen.AbstractProtocolConnection;
+import com.caucho.network.listen.SocketLink;
+import com.caucho.server.cluster.ServletService;
+import com.caucho.server.http.HttpRequest;
+import com.caucho.util.Base64;
+import com.caucho.util.CharSegment;
+import com.caucho.util.L10N;
+import com.caucho.vfs.ClientDisconnectException;
+import com.caucho.vfs.ReadStream;
+import com.caucho.vfs.SocketTimeoutException;
+import com.caucho.vfs.WriteStream;
+
+/**
+ * HTTP/2 connection (RFC 7540).  The connection thread reads frames and
+ * dispatches each request stream to its own thread, so streams are
+ * multiplexed over the single socket.  Writes from the stream threads
+ * are serialized by the write lock and limited by the client's
+ * connection and stream flow-control windows.
+ */
+public class Http2Connection extends AbstractProtocolConnection {
+  private static final Logger log
+    = Logger.getLogger(Http2Connection.class.getName());
+
+  private static final L10N L = new L10N(Http2Connection.class);
+
+  private static final byte []PREFACE
+    = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes();
+
+  // length of the preface consumed by HttpRequest as an HTTP/1 request
+  private static final int PRI_REQUEST_LENGTH = 18;
+
+  static final int DATA = 0x0;
+  static final int HEADERS = 0x1;
+  static final int PRIORITY = 0x2;
+  static final int RST_STREAM = 0x3;
+  static final int SETTINGS = 0x4;
+  static final int PUSH_PROMISE = 0x5;
+  static final int PING = 0x6;
+  static final int GOAWAY = 0x7;
+  static final int WINDOW_UPDATE = 0x8;
+  static final int CONTINUATION = 0x9;
+
+  static final int FLAG_END_STREAM = 0x1;
+  static final int FLAG_ACK = 0x1;
+  static final int FLAG_END_HEADERS = 0x4;
+  static final int FLAG_PADDED = 0x8;
+  static final int FLAG_PRIORITY = 0x20;
+
+  static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+  static final int SETTINGS_ENABLE_PUSH = 0x2;
+  static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+  static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+  static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+  static final int SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+
+  static final int NO_ERROR = 0x0;
+  static final int PROTOCOL_ERROR = 0x1;
+  static final int INTERNAL_ERROR = 0x2;
+  static final int FLOW_CONTROL_ERROR = 0x3;
+  static final int STREAM_CLOSED = 0x5;
+  static final int FRAME_SIZE_ERROR = 0x6;
+  static final int REFUSED_STREAM = 0x7;
+  static final int CANCEL = 0x8;
+  static final int COMPRESSION_ERROR = 0x9;
+
+  static final int DEFAULT_WINDOW_SIZE = 65535;
+  static final int MAX_FRAME_SIZE = 16384;
+
+  private static final int MAX_CONCURRENT_STREAMS = 128;
+  private static final int MAX_HEADER_LIST_SIZE = 64 * 1024;
+  private static final int MAX_WINDOW_SIZE = 0x7fffffff;
+
+  // refill the connection window after this many bytes are received
+  private static final int WINDOW_UPDATE_THRESHOLD = 16 * 1024;
+
+  // poll interval while streams are active
+  private static final long STREAM_POLL_TIMEOUT = 1000L;
+
+  private final ServletService _server;
+  private final SocketLink _link;
+
+  private final ReadStream _is;
+  private final WriteStream _os;
+
+  private final Object _writeLock = new Object();
+  private final byte []_frameHeader = new byte[9];
+
+  private HpackDecoder _decoder;
+
+  private final byte []_frameBuffer = new byte[MAX_FRAME_SIZE];
+
+  private byte []_headerBlock = new byte[MAX_FRAME_SIZE];
+  private int _headerBlockLength;
+  private int _continuationStreamId;
+  private int _continuationFlags;
+
+  // active streams, guarded by this
+  private final HashMap<Integer,Http2Request> _streamMap
+    = new HashMap<Integer,Http2Request>();
+
+  private final ArrayList<Http2Request> _freeList
+    = new ArrayList<Http2Request>();
+
+  private Http2Request _upgradeStream;
+
+  private int _prefaceOffset;
+  private boolean _isStarted;
+  private boolean _isGoAway;
+  private boolean _isClosed;
+
+  private int _lastStreamId;
+
+  // client settings, guarded by this
+  private int _initialWindowSize = DEFAULT_WINDOW_SIZE;
+  private int _maxFrameSize = MAX_FRAME_SIZE;
+  private long _sendWindow = DEFAULT_WINDOW_SIZE;
+
+  private int _receiveUnacknowledged;
+
+  public Http2Connection(ServletService server, SocketLink link)
+  {
+    _server = server;
+    _link = link;
+
+    _is = link.getReadStream();
+    _os = link.getWriteStream();
+
+    onStartConnection();
+  }
+
+  ServletService getServer()
+  {
+    return _server;
+  }
+
+  SocketLink getLink()
+  {
+    return _link;
+  }
+
+  @Override
+  public boolean isWaitForRead()
+  {
+    return true;
+  }
+
+  /**
+   * Initializes the connection state for a new socket.
+   */
+  @Override
+  public void onStartConnection()
+  {
+    _decoder = new HpackDecoder(4096, MAX_HEADER_LIST_SIZE);
+
+    _headerBlockLength = 0;
+    _continuationStreamId = 0;
+
+    _upgradeStream = null;
+    _prefaceOffset = 0;
+    _isStarted = false;
+    _isGoAway = false;
+    _lastStreamId = 0;
+    _receiveUnacknowledged = 0;
+
+    synchronized (this) {
+      _streamMap.clear();
+
+      _isClosed = false;
+      _initialWindowSize = DEFAULT_WINDOW_SIZE;
+      _maxFrameSize = MAX_FRAME_SIZE;
+      _sendWindow = DEFAULT_WINDOW_SIZE;
+    }
+  }
+
+  /**
+   * Called when the "PRI * HTTP/2.0" prior-knowledge preface was parsed
+   * as an HTTP/1 request line, leaving only the preface tail.
+   */
+  public void onPriRequest()
+  {
+    _prefaceOffset = PRI_REQUEST_LENGTH;
+  }
+
+  /**
+   * Starts the connection for an h2c upgrade.  The upgraded request
+   * becomes stream 1, half-closed, since it was sent without a body.
+   *
+   * @param request the HTTP/1.1 request containing the upgrade
+   * @param settings the base64url HTTP2-Settings header
+   */
+  public void upgrade(HttpRequest request, String settings)
+    throws IOException
+  {
+    byte []payload = decodeSettings(settings);
+
+    if (! readSettings(payload, 0, payload.length)) {
+      throw new IOException(L.l("invalid HTTP2-Settings header"));
+    }
+
+    start();
+
+    Http2Request stream = createStream(1);
+
+    stream.addHeader(":method", request.getMethod());
+    stream.addHeader(":scheme", request.isSecure() ? "https" : "http");
+    stream.addHeader(":path", new String(request.getUriBuffer(), 0,
+                                         request.getUriLength(),
+                                         "iso-8859-1"));
+
+    int size = request.getHeaderSize();
+
+    for (int i = 0; i < size; i++) {
+      CharSegment key = request.getHeaderKey(i);
+
+      if (! isConnectionHeader(key)) {
+        stream.addHeader(key.toString().toLowerCase(),
+                         request.getHeaderValue(i).toString());
+      }
+    }
+
+    stream.onEndStream();
+
+    _lastStreamId = 1;
+
+    // dispatched after the client preface, because the socket's write
+    // stream belongs to the HTTP/1 request until it completes
+    _upgradeStream = stream;
+  }
+
+  private boolean isConnectionHeader(CharSegment key)
+  {
+    return (key.equalsIgnoreCase("connection")
+            || key.equalsIgnoreCase("upgrade")
+            || key.equalsIgnoreCase("http2-settings")
+            || key.equalsIgnoreCase("keep-alive")
+            || key.equalsIgnoreCase("proxy-connection")
+            || key.equalsIgnoreCase("transfer-encoding")
+            || key.equalsIgnoreCase("te"));
+  }
+
+  private byte []decodeSettings(String settings)
+  {
+    if (settings == null) {
+      return new byte[0];
+    }
+
+    StringBuilder sb = new StringBuilder();
+
+    for (int i = 0; i < settings.length(); i++) {
+      char ch = settings.charAt(i);
+
+      if (ch == '-')
+        sb.append('+');
+      else if (ch == '_')
+        sb.append('/');
+      else if (ch != '=')
+        sb.append(ch);
+    }
+
+    while (sb.length() % 4 != 0) {
+      sb.append('=');
+    }
+
+    return Base64.decodeToByteArray(sb.toString());
+  }
+
+  /**
+   * Reads frames until the socket has no more buffered data and no
+   * streams are active, then returns to keepalive.
+   */
+  @Override
+  public boolean handleRequest()
+    throws IOException
+  {
+    ReadStream is = _is;
+
+    try {
+      if (! _isStarted) {
+        start();
+      }
+
+      if (_prefaceOffset < PREFACE.length && ! readPreface(is)) {
+        closeStreams();
+        return false;
+      }
+
+      Http2Request upgradeStream = _upgradeStream;
+
+      if (upgradeStream != null) {
+        _upgradeStream = null;
+
+        dispatch(upgradeStream);
+      }
+
+      do {
+        if (! readFrame(is)) {
+          closeStreams();
+          return false;
+        }
+      } while (isReadAvailable(is));
+
+      return ! _isGoAway;
+    } catch (IOException e) {
+      closeStreams();
+
+      throw e;
+    }
+  }
+
+  private void start()
+    throws IOException
+  {
+    _isStarted = true;
+
+    byte []payload = new byte[12];
+
+    setSetting(payload, 0, SETTINGS_MAX_CONCURRENT_STREAMS,
+               MAX_CONCURRENT_STREAMS);
+    setSetting(payload, 6, SETTINGS_MAX_HEADER_LIST_SIZE,
+               MAX_HEADER_LIST_SIZE);
+
+    writeFrame(SETTINGS, 0, 0, payload, 0, payload.length, true);
+  }
+
+  private void setSetting(byte []payload, int offset, int id, int value)
+  {
+    payload[offset + 0] = (byte) (id >> 8);
+    payload[offset + 1] = (byte) id;
+    payload[offset + 2] = (byte) (value >> 24);
+    payload[offset + 3] = (byte) (value >> 16);
+    payload[offset + 4] = (byte) (value >> 8);
+    payload[offset + 5] = (byte) value;
+  }
+
+  private boolean readPreface(ReadStream is)
+    throws IOException
+  {
+    for (; _prefaceOffset < PREFACE.length; _prefaceOffset++) {
+      int ch = is.read();
+
+      if (ch != PREFACE[_prefaceOffset]) {
+        if (ch >= 0) {
+          log.fine(this + " invalid HTTP/2 preface");
+        }
+
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Returns true when the next frame is available.  While streams are
+   * active, the connection thread waits for frames such as
+   * WINDOW_UPDATE that the streams need to complete.
+   */
+  private boolean isReadAvailable(ReadStream is)
+    throws IOException
+  {
+    if (is.getBufferAvailable() > 0) {
+      return true;
+    }
+
+    while (getActiveStreamCount() > 0) {
+      try {
+        if (is.fillWithTimeout(STREAM_POLL_TIMEOUT) != 0) {
+          return true;
+        }
+      } catch (SocketTimeoutException e) {
+        log.log(Level.FINEST, e.toString(), e);
+      }
+    }
+
+    return false;
+  }
+
+  private synchronized int getActiveStreamCount()
+  {
+    return _streamMap.size();
+  }
+
+  private boolean readFrame(ReadStream is)
+    throws IOException
+  {
+    int ch1 = is.read();
+    int ch2 = is.read();
+    int ch3 = is.read();
+
+    if (ch3 < 0) {
+      return false;
+    }
+
+    int length = (ch1 << 16) + (ch2 << 8) + ch3;
+    int type = is.read();
+    int flags = is.read();
+    int streamId = readInt(is) & 0x7fffffff;
+
+    if (MAX_FRAME_SIZE < length) {
+      return goAway(FRAME_SIZE_ERROR, L.l("frame length {0}", length));
+    }
+
+    if (length > 0 && is.readAll(_frameBuffer, 0, length) != length) {
+      return false;
+    }
+
+    if (log.isLoggable(Level.FINEST)) {
+      log.finest(this + " read type=0x" + Integer.toHexString(type)
+                 + " flags=0x" + Integer.toHexString(flags)
+                 + " stream=" + streamId + " len=" + length);
+    }
+
+    if (_continuationStreamId != 0
+        && (type != CONTINUATION || streamId != _continuationStreamId)) {
+      return goAway(PROTOCOL_ERROR, L.l("expected CONTINUATION"));
+    }
+
+    switch (type) {
+    case DATA:
+      return readData(streamId, flags, length);
+
+    case HEADERS:
+      return readHeaders(streamId, flags, length);
+
+    case CONTINUATION:
+      return readContinuation(streamId, flags, length);
+
+    case PRIORITY:
+      return true;
+
+    case RST_STREAM:
+      if (streamId == 0 || length != 4) {
+        return goAway(PROTOCOL_ERROR, L.l("invalid RST_STREAM"));
+      }
+
+      resetStream(streamId);
+      return true;
+
+    case SETTINGS:
+      if (streamId != 0) {
+        return goAway(PROTOCOL_ERROR, L.l("SETTINGS on stream {0}", streamId));
+      }
+      else if ((flags & FLAG_ACK) != 0) {
+        return true;
+      }
+      else if (! readSettings(_frameBuffer, 0, length)) {
+        return false;
+      }
+
+      writeFrame(SETTINGS, FLAG_ACK, 0, null, 0, 0, true);
+      return true;
+
+    case PING:
+      if (length != 8) {
+        return goAway(FRAME_SIZE_ERROR, L.l("PING length {0}", length));
+      }
+
+      if ((flags & FLAG_ACK) == 0) {
+        writeFrame(PING, FLAG_ACK, 0, _frameBuffer, 0, 8, true);
+      }
+      return true;
+
+    case GOAWAY:
+      _isGoAway = true;
+
+      if (log.isLoggable(Level.FINE)) {
+        log.fine(this + " client GOAWAY");
+      }
+      return true;
+
+    case WINDOW_UPDATE:
+      return readWindowUpdate(streamId, length);
+
+    case PUSH_PROMISE:
+      return goAway(PROTOCOL_ERROR, L.l("client PUSH_PROMISE"));
+
+    default:
+      // unknown frame types are ignored
+      return true;
+    }
+  }
+
+  private boolean readData(int streamId, int flags, int length)
+    throws IOException
+  {
+    if (streamId == 0) {
+      return goAway(PROTOCOL_ERROR, L.l("DATA on stream 0"));
+    }
+
+    int offset = 0;
+    int dataLength = length;
+
+    if ((flags & FLAG_PADDED) != 0) {
+      int padLength = length > 0 ? _frameBuffer[0] & 0xff : 0;
+
+      offset = 1;
+      dataLength = length - 1 - padLength;
+
+      if (dataLength < 0) {
+        return goAway(PROTOCOL_ERROR, L.l("invalid DATA padding"));
+      }
+    }
+
+    // the connection window is refilled on receipt, leaving flow
+    // control of the request bodies to the stream windows
+    _receiveUnacknowledged += length;
+
+    if (WINDOW_UPDATE_THRESHOLD <= _receiveUnacknowledged) {
+      writeWindowUpdate(0, _receiveUnacknowledged);
+      _receiveUnacknowledged = 0;
+    }
+
+    Http2Request stream = getStream(streamId);
+
+    if (stream == null) {
+      if (_lastStreamId < streamId) {
+        return goAway(PROTOCOL_ERROR, L.l("DATA on idle stream {0}", streamId));
+      }
+
+      writeRstStream(streamId, STREAM_CLOSED);
+      return true;
+    }
+
+    if (! stream.onData(_frameBuffer, offset, dataLength)) {
+      writeRstStream(streamId, FLOW_CONTROL_ERROR);
+      resetStream(streamId);
+      return true;
+    }
+
+    if ((flags & FLAG_END_STREAM) != 0) {
+      stream.onEndStream();
+    }
+
+    return true;
+  }
+
+  private boolean readHeaders(int streamId, int flags, int length)
+    throws IOException
+  {
+    if (streamId == 0) {
+      return goAway(PROTOCOL_ERROR, L.l("HEADERS on stream 0"));
+    }
+
+    int offset = 0;
+    int padLength = 0;
+
+    if ((flags & FLAG_PADDED) != 0) {
+      padLength = length > 0 ? _frameBuffer[0] & 0xff : 0;
+      offset = 1;
+    }
+
+    if ((flags & FLAG_PRIORITY) != 0) {
+      offset += 5;
+    }
+
+    int blockLength = length - offset - padLength;
+
+    if (blockLength < 0) {
+      return goAway(PROTOCOL_ERROR, L.l("invalid HEADERS padding"));
+    }
+
+    _headerBlockLength = 0;
+    appendHeaderBlock(_frameBuffer, offset, blockLength);
+
+    if ((flags & FLAG_END_HEADERS) == 0) {
+      _continuationStreamId = streamId;
+      _continuationFlags = flags;
+      return true;
+    }
+
+    return completeHeaders(streamId, flags);
+  }
+
+  private boolean readContinuation(int streamId, int flags, int length)
+    throws IOException
+  {
+    if (streamId == 0 || streamId != _continuationStreamId) {
+      return goAway(PROTOCOL_ERROR, L.l("unexpected CONTINUATION"));
+    }
+
+    if (MAX_HEADER_LIST_SIZE < _headerBlockLength + length) {
+      return goAway(PROTOCOL_ERROR, L.l("header block too large"));
+    }
+
+    appendHeaderBlock(_frameBuffer, 0, length);
+
+    if ((flags & FLAG_END_HEADERS) == 0) {
+      return true;
+    }
+
+    _continuationStreamId = 0;
+
+    return completeHeaders(streamId, _continuationFlags);
+  }
+
+  private void appendHeaderBlock(byte []buffer, int offset, int length)
+  {
+    if (_headerBlock.length < _headerBlockLength + length) {
+      byte []block = new byte[2 * (_headerBlockLength + length)];
+      System.arraycopy(_headerBlock, 0, block, 0, _headerBlockLength);
+      _headerBlock = block;
+    }
+
+    System.arraycopy(buffer, offset, _headerBlock, _headerBlockLength, length);
+    _headerBlockLength += length;
+  }
+
+  private boolean completeHeaders(int streamId, int flags)
+    throws IOException
+  {
+    Http2Request stream = getStream(streamId);
+
+    if (stream != null) {
+      // trailers are decoded for the HPACK state, then discarded
+      try {
+        _decoder.decode(_headerBlock, 0, _headerBlockLength, null);
+      } catch (IOException e) {
+        return goAway(COMPRESSION_ERROR, e.toString());
+      }
+
+      if ((flags & FLAG_END_STREAM) != 0) {
+        stream.onEndStream();
+      }
+
+      return true;
+    }
+
+    if ((streamId & 1) == 0 || streamId <= _lastStreamId) {
+      return goAway(PROTOCOL_ERROR,
+                    L.l("invalid HEADERS stream {0}", streamId));
+    }
+
+    _lastStreamId = streamId;
+
+    if (_isGoAway || MAX_CONCURRENT_STREAMS <= getActiveStreamCount()) {
+      try {
+        _decoder.decode(_headerBlock, 0, _headerBlockLength, null);
+      } catch (IOException e) {
+        return goAway(COMPRESSION_ERROR, e.toString());
+      }
+
+      writeRstStream(streamId, REFUSED_STREAM);
+      return true;
+    }
+
+    stream = createStream(streamId);
+
+    try {
+      _decoder.decode(_headerBlock, 0, _headerBlockLength, stream);
+    } catch (IOException e) {
+      removeStream(stream);
+
+      return goAway(COMPRESSION_ERROR, e.toString());
+    }
+
+    if ((flags & FLAG_END_STREAM) != 0) {
+      stream.onEndStream();
+    }
+
+    if (! stream.isValid()) {
+      removeStream(stream);
+      writeRstStream(streamId, PROTOCOL_ERROR);
+      return true;
+    }
+
+    dispatch(stream);
+
+    return true;
+  }
+
+  private boolean readSettings(byte []buffer, int offset, int length)
+    throws IOException
+  {
+    if (length % 6 != 0) {
+      return goAway(FRAME_SIZE_ERROR, L.l("SETTINGS length {0}", length));
+    }
+
+    for (int end = offset + length; offset < end; offset += 6) {
+      int id = ((buffer[offset] & 0xff) << 8) + (buffer[offset + 1] & 0xff);
+      int value = (((buffer[offset + 2] & 0xff) << 24)
+                   + ((buffer[offset + 3] & 0xff) << 16)
+                   + ((buffer[offset + 4] & 0xff) << 8)
+                   + (buffer[offset + 5] & 0xff));
+
+      switch (id) {
+      case SETTINGS_INITIAL_WINDOW_SIZE:
+        if (value < 0) {
+          return goAway(FLOW_CONTROL_ERROR, L.l("initial window {0}", value));
+        }
+
+        setInitialWindowSize(value);
+        break;
+
+      case SETTINGS_MAX_FRAME_SIZE:
+        if (value < MAX_FRAME_SIZE || 0xffffff < value) {
+          return goAway(PROTOCOL_ERROR, L.l("max frame size {0}", value));
+        }
+
+        synchronized (this) {
+          _maxFrameSize = value;
+        }
+        break;
+
+      case SETTINGS_ENABLE_PUSH:
+        if (value != 0 && value != 1) {
+          return goAway(PROTOCOL_ERROR, L.l("enable push {0}", value));
+        }
+        break;
+
+      default:
+        // the encoder doesn't use the dynamic table, so the client's
+        // table size, and any unknown setting, can be ignored
+        break;
+      }
+    }
+
+    return true;
+  }
+
+  private synchronized void setInitialWindowSize(int value)
+  {
+    int delta = value - _initialWindowSize;
+
+    _initialWindowSize = value;
+
+    for (Http2Request stream : _streamMap.values()) {
+      stream.addSendWindow(delta);
+    }
+
+    notifyAll();
+  }
+
+  private boolean readWindowUpdate(int streamId, int length)
+    throws IOException
+  {
+    if (length != 4) {
+      return goAway(FRAME_SIZE_ERROR, L.l("WINDOW_UPDATE length {0}", length));
+    }
+
+    byte []buffer = _frameBuffer;
+
+    int increment = ((((buffer[0] & 0x7f) << 24)
+                      + ((buffer[1] & 0xff) << 16)
+                      + ((buffer[2] & 0xff) << 8)
+                      + (buffer[3] & 0xff)));
+
+    if (increment == 0) {
+      return goAway(PROTOCOL_ERROR, L.l("zero WINDOW_UPDATE"));
+    }
+
+    synchronized (this) {
+      if (streamId == 0) {
+        _sendWindow += increment;
+
+        if (MAX_WINDOW_SIZE < _sendWindow) {
+          return goAway(FLOW_CONTROL_ERROR, L.l("window overflow"));
+        }
+      }
+      else {
+        Http2Request stream = _streamMap.get(streamId);
+
+        if (stream != null) {
+          stream.addSendWindow(increment);
+        }
+      }
+
+      notifyAll();
+    }
+
+    return true;
+  }
+
+  //
+  // stream management
+  //
+
+  private Http2Request createStream(int streamId)
+  {
+    Http2Request stream;
+
+    synchronized (this) {
+      int size = _freeList.size();
+
+      if (size > 0) {
+        stream = _freeList.remove(size - 1);
+      }
+      else {
+        stream = new Http2Request(_server, this);
+      }
+
+      stream.init(streamId, _initialWindowSize);
+
+      _streamMap.put(streamId, stream);
+    }
+
+    return stream;
+  }
+
+  private synchronized Http2Request getStream(int streamId)
+  {
+    return _streamMap.get(streamId);
+  }
+
+  private void dispatch(Http2Request stream)
+  {
+    if (! ThreadPool.getCurrent().schedule(stream,
+                                           _server.getClassLoader())) {
+      log.warning(L.l("{0} unable to schedule HTTP/2 stream", stream));
+
+      removeStream(stream);
+      writeRstStreamQuietly(stream.getStreamId(), REFUSED_STREAM);
+    }
+  }
+
+  /**
+   * Called by the stream thread when its response is complete.
+   */
+  void onStreamComplete(Http2Request stream)
+  {
+    if (! stream.isInputEnd() && ! stream.isReset()) {
+      // the client may stop sending the unread request body
+      writeRstStreamQuietly(stream.getStreamId(), NO_ERROR);
+    }
+
+    removeStream(stream);
+  }
+
+  private void removeStream(Http2Request stream)
+  {
+    synchronized (this) {
+      if (_streamMap.get(stream.getStreamId()) == stream) {
+        _streamMap.remove(stream.getStreamId());
+
+        if (! _isClosed) {
+          _freeList.add(stream);
+        }
+      }
+
+      notifyAll();
+    }
+  }
+
+  private void resetStream(int streamId)
+  {
+    Http2Request stream = getStream(streamId);
+
+    if (stream != null) {
+      stream.onReset();
+    }
+
+    synchronized (this) {
+      notifyAll();
+    }
+  }
+
+  private void closeStreams()
+  {
+    ArrayList<Http2Request> streams;
+
+    synchronized (this) {
+      _isClosed = true;
+
+      streams = new ArrayList<Http2Request>(_streamMap.values());
+
+      notifyAll();
+    }
+
+    for (Http2Request stream : streams) {
+      stream.onReset();
+    }
+  }
+
+  //
+  // flow control
+  //
+
+  /**
+   * Waits until the connection and stream windows allow sending data,
+   * returning the number of bytes which can be sent.
+   */
+  private int acquireSendWindow(Http2Request stream, int length)
+    throws IOException
+  {
+    synchronized (this) {
+      while (true) {
+        checkOpen(stream);
+
+        long window = Math.min(_sendWindow, stream.getSendWindow());
+
+        if (window > 0) {
+          int sublen = (int) Math.min(Math.min(length, window), _maxFrameSize);
+
+          _sendWindow -= sublen;
+          stream.addSendWindow(-sublen);
+
+          return sublen;
+        }
+
+        try {
+          wait(STREAM_POLL_TIMEOUT);
+        } catch (InterruptedException e) {
+          throw new ClientDisconnectException(e);
+        }
+      }
+    }
+  }
+
+  private void checkOpen(Http2Request stream)
+    throws IOException
+  {
+    if (_isClosed || stream.isReset()) {
+      throw new ClientDisconnectException(L.l("{0} stream closed", stream));
+    }
+  }
+
+  //
+  // frame writing
+  //
+
+  /**
+   * Writes a response header block as HEADERS and CONTINUATION frames.
+   */
+  void writeHeaders(Http2Request stream, byte []block, int length,
+                    boolean isEndStream)
+    throws IOException
+  {
+    int maxFrameSize;
+
+    synchronized (this) {
+      checkOpen(stream);
+
+      maxFrameSize = _maxFrameSize;
+    }
+
+    int streamId = stream.getStreamId();
+    int flags = isEndStream ? FLAG_END_STREAM : 0;
+
+    synchronized (_writeLock) {
+      int type = HEADERS;
+      int offset = 0;
+
+      do {
+        int sublen = Math.min(length - offset, maxFrameSize);
+
+        if (offset + sublen == length) {
+          flags |= FLAG_END_HEADERS;
+        }
+
+        writeFrameHeader(type, flags, streamId, sublen);
+        _os.write(block, offset, sublen);
+
+        offset += sublen;
+        type = CONTINUATION;
+        flags = 0;
+      } while (offset < length);
+    }
+  }
+
+  /**
+   * Writes response data as DATA frames, respecting flow control.
+   */
+  void writeData(Http2Request stream, byte []buffer, int offset, int length,
+                 boolean isEndStream)
+    throws IOException
+  {
+    int streamId = stream.getStreamId();
+
+    if (length == 0) {
+      synchronized (this) {
+        checkOpen(stream);
+      }
+    }
+
+    do {
+      int sublen = length > 0 ? acquireSendWindow(stream, length) : 0;
+
+      int flags = (isEndStream && sublen == length) ? FLAG_END_STREAM : 0;
+
+      synchronized (_writeLock) {
+        writeFrameHeader(DATA, flags, streamId, sublen);
+        _os.write(buffer, offset, sublen);
+
+        if (flags != 0) {
+          _os.flush();
+        }
+      }
+
+      offset += sublen;
+      length -= sublen;
+    } while (length > 0);
+  }
+
+  void flush()
+    throws IOException
+  {
+    synchronized (_writeLock) {
+      _os.flush();
+    }
+  }
+
+  void writeWindowUpdate(int streamId, int increment)
+    throws IOException
+  {
+    byte []payload = new byte[4];
+
+    payload[0] = (byte) (increment >> 24);
+    payload[1] = (byte) (increment >> 16);
+    payload[2] = (byte) (increment >> 8);
+    payload[3] = (byte) increment;
+
+    writeFrame(WINDOW_UPDATE, 0, streamId, payload, 0, 4, true);
+  }
+
+  private void writeRstStream(int streamId, int errorCode)
+    throws IOException
+  {
+    byte []payload = new byte[4];
+
+    payload[0] = (byte) (errorCode >> 24);
+    payload[1] = (byte) (errorCode >> 16);
+    payload[2] = (byte) (errorCode >> 8);
+    payload[3] = (byte) errorCode;
+
+    writeFrame(RST_STREAM, 0, streamId, payload, 0, 4, true);
+  }
+
+  private void writeRstStreamQuietly(int streamId, int errorCode)
+  {
+    try {
+      writeRstStream(streamId, errorCode);
+    } catch (IOException e) {
+      log.log(Level.FINER, e.toString(), e);
+    }
+  }
+
+  /**
+   * Sends a GOAWAY for a connection error, returning false to close
+   * the connection.
+   */
+  private boolean goAway(int errorCode, String message)
+    throws IOException
+  {
+    if (log.isLoggable(Level.FINE)) {
+      log.fine(this + " GOAWAY error=" + errorCode + " " + message);
+    }
+
+    byte []payload = new byte[8];
+    int lastStreamId = _lastStreamId;
+
+    payload[0] = (byte) (lastStreamId >> 24);
+    payload[1] = (byte) (lastStreamId >> 16);
+    payload[2] = (byte) (lastStreamId >> 8);
+    payload[3] = (byte) lastStreamId;
+    payload[4] = (byte) (errorCode >> 24);
+    payload[5] = (byte) (errorCode >> 16);
+    payload[6] = (byte) (errorCode >> 8);
+    payload[7] = (byte) errorCode;
+
+    writeFrame(GOAWAY, 0, 0, payload, 0, payload.length, true);
+
+    _isGoAway = true;
+
+    return false;
+  }
+
+  private void writeFrame(int type, int flags, int streamId,
+                          byte []payload, int offset, int length,
+                          boolean isFlush)
+    throws IOException
+  {
+    synchronized (_writeLock) {
+      writeFrameHeader(type, flags, streamId, length);
+
+      if (length > 0) {
+        _os.write(payload, offset, length);
+      }
+
+      if (isFlush) {
+        _os.flush();
+      }
+    }
+  }
+
+  private void writeFrameHeader(int type, int flags, int streamId, int length)
+    throws IOException
+  {
+    byte []header = _frameHeader;
+
+    header[0] = (byte) (length >> 16);
+    header[1] = (byte) (length >> 8);
+    header[2] = (byte) length;
+    header[3] = (byte) type;
+    header[4] = (byte) flags;
+    header[5] = (byte) (streamId >> 24);
+    header[6] = (byte) (streamId >> 16);
+    header[7] = (byte) (streamId >> 8);
+    header[8] = (byte) streamId;
+
+    _os.write(header, 0, header.length);
+  }
+
+  private int readInt(ReadStream is)
+    throws IOException
+  {
+    int ch1 = is.read();
+    int ch2 = is.read();
+    int ch3 = is.read();
+    int ch4 = is.read();
+
+    if (ch4 < 0)
+      return -1;
+
+    return (ch1 << 24) + (ch2 << 16) + (ch3 << 8) + ch4;
+  }
+
+  @Override
+  public void onCloseConnection()
+  {
+    closeStreams();
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _link.getId() + "]";
+  }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+
+package com.caucho.server.http2;
+
+import java.io.IOException;
+
+import com.caucho.vfs.ClientDisconnectException;
+import com.caucho.vfs.StreamImpl;
+
+/**
+ * Request body of an HTTP/2 stream.  The connection thread appends
+ * DATA frames and the servlet thread reads them, returning the consumed
+ * bytes to the client's stream window.
+ */
+class Http2InputStream extends StreamImpl {
+  // refill the client's stream window after this many bytes are read
+  private static final int WINDOW_UPDATE_THRESHOLD = 16 * 1024;
+
+  private final Http2Request _request;
+
+  private final byte []_buffer = new byte[Http2Connection.DEFAULT_WINDOW_SIZE];
+  private int _head;
+  private int _length;
+
+  private int _unacknowledged;
+
+  private boolean _isEnd;
+  private boolean _isReset;
+
+  Http2InputStream(Http2Request request)
+  {
+    _request = request;
+  }
+
+  synchronized void init()
+  {
+    _head = 0;
+    _length = 0;
+    _unacknowledged = 0;
+    _isEnd = false;
+    _isReset = false;
+  }
+
+  /**
+   * Appends a DATA frame, returning false if the client overran the window.
+   */
+  synchronized boolean onData(byte []buffer, int offset, int length)
+  {
+    if (_isEnd) {
+      return true;
+    }
+
+    byte []data = _buffer;
+
+    if (data.length < _length + length) {
+      return false;
+    }
+
+    int tail = (_head + _length) % data.length;
+
+    int sublen = Math.min(length, data.length - tail);
+
+    System.arraycopy(buffer, offset, data, tail, sublen);
+    System.arraycopy(buffer, offset + sublen, data, 0, length - sublen);
+
+    _length += length;
+
+    notifyAll();
+
+    return true;
+  }
+
+  /**
+   * The client has sent END_STREAM.
+   */
+  synchronized void onEnd()
+  {
+    _isEnd = true;
+
+    notifyAll();
+  }
+
+  /**
+   * The stream was reset or the connection closed.
+   */
+  synchronized void onReset()
+  {
+    _isEnd = true;
+    _isReset = true;
+
+    notifyAll();
+  }
+
+  synchronized boolean isEnd()
+  {
+    return _isEnd && _length == 0;
+  }
+
+  @Override
+  public boolean canRead()
+  {
+    return true;
+  }
+
+  @Override
+  public int read(byte []buffer, int offset, int length)
+    throws IOException
+  {
+    int sublen;
+    int update = 0;
+
+    synchronized (this) {
+      while (_length == 0 && ! _isEnd) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          throw new ClientDisconnectException(e);
+        }
+      }
+
+      if (_isReset) {
+        throw new ClientDisconnectException(_request + " stream reset");
+      }
+
+      if (_length == 0) {
+        return -1;
+      }
+
+      byte []data = _buffer;
+
+      sublen = Math.min(length, _length);
+
+      int headLength = Math.min(sublen, data.length - _head);
+
+      System.arraycopy(data, _head, buffer, offset, headLength);
+      System.arraycopy(data, 0, buffer, offset + headLength,
+                       sublen - headLength);
+
+      _head = (_head + sublen) % data.length;
+      _length -= sublen;
+
+      _unacknowledged += sublen;
+
+      if (WINDOW_UPDATE_THRESHOLD <= _unacknowledged && ! _isEnd) {
+        update = _unacknowledged;
+        _unacknowledged = 0;
+      }
+    }
+
+    if (update > 0) {
+      _request.getHttp2Connection().writeWindowUpdate(_request.getStreamId(),
+                                                      update);
+    }
+
+    return sublen;
+  }
+
+  @Override
+  public synchronized int getAvailable()
+  {
+    return _length;
+  }
+}
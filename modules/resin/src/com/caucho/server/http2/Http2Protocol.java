@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+
+package com.caucho.server.http2;
+
+import com.caucho.network.listen.ProtocolConnection;
+import com.caucho.network.listen.SocketLink;
+import com.caucho.server.http.AbstractHttpProtocol;
+
+/**
+ * HTTP/2 protocol for a port where clients connect with prior knowledge,
+ * i.e. without an h2c upgrade or ALPN.  HTTP/1.1 ports also accept
+ * HTTP/2 through the upgrade, the prior-knowledge preface and ALPN.
+ */
+public class Http2Protocol extends AbstractHttpProtocol {
+  public Http2Protocol()
+  {
+    setProtocolName("http2");
+  }
+
+  /**
+   * Create a Http2Connection object for the new thread.
+   */
+  @Override
+  public ProtocolConnection createConnection(SocketLink conn)
+  {
+    return new Http2Connection(getServletSystem(), conn);
+  }
+}
@@ -0,0 +1,625 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+
+package com.caucho.server.http2;
+
+import java.io.IOException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.caucho.inject.RequestContext;
+import com.caucho.network.listen.SocketLink;
+import com.caucho.network.listen.TcpSocketLink;
+import com.caucho.server.cluster.ServletService;
+import com.caucho.server.dispatch.Invocation;
+import com.caucho.server.http.AbstractHttpRequest;
+import com.caucho.server.http.AbstractHttpResponse;
+import com.caucho.server.http.CauchoResponse;
+import com.caucho.server.http.HttpServletRequestImpl;
+import com.caucho.util.CharBuffer;
+import com.caucho.util.CharSegment;
+import com.caucho.util.L10N;
+import com.caucho.vfs.ClientDisconnectException;
+import com.caucho.vfs.QSocket;
+import com.caucho.vfs.ReadStream;
+
+/**
+ * A request stream of an HTTP/2 connection, serviced by its own thread
+ * through the standard servlet pipeline.
+ */
+public class Http2Request extends AbstractHttpRequest
+  implements Runnable
+{
+  private static final L10N L = new L10N(Http2Request.class);
+
+  private static final Logger log
+    = Logger.getLogger(Http2Request.class.getName());
+
+  private final Http2Connection _conn;
+
+  private final Http2InputStream _inputStream;
+
+  private final ArrayList<CharBuffer> _headerKeys
+    = new ArrayList<CharBuffer>();
+  private final ArrayList<CharBuffer> _headerValues
+    = new ArrayList<CharBuffer>();
+  private int _headerSize;
+
+  private int _streamId;
+
+  private String _method;
+  private String _scheme;
+  private String _authority;
+
+  private byte []_uri = new byte[256];
+  private int _uriLength;
+
+  private boolean _isInvalid;
+
+  // guarded by the connection
+  private long _sendWindow;
+
+  private volatile boolean _isReset;
+
+  Http2Request(ServletService server, Http2Connection conn)
+  {
+    super(server, conn.getLink());
+
+    _conn = conn;
+    _inputStream = new Http2InputStream(this);
+  }
+
+  @Override
+  protected AbstractHttpResponse createResponse()
+  {
+    return new Http2Response(this);
+  }
+
+  Http2Connection getHttp2Connection()
+  {
+    return _conn;
+  }
+
+  int getStreamId()
+  {
+    return _streamId;
+  }
+
+  /**
+   * Initializes the stream, called by the connection thread before the
+   * headers are decoded.
+   */
+  void init(int streamId, int initialWindowSize)
+  {
+    _streamId = streamId;
+    _sendWindow = initialWindowSize;
+    _isReset = false;
+    _isInvalid = false;
+
+    _method = null;
+    _scheme = null;
+    _authority = null;
+    _uriLength = 0;
+    _headerSize = 0;
+
+    _inputStream.init();
+
+    try {
+      startRequest();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Adds a decoded header field.
+   */
+  void addHeader(String name, String value)
+  {
+    if (name.length() > 0 && name.charAt(0) == ':') {
+      addPseudoHeader(name, value);
+      return;
+    }
+
+    if (name.equals("connection")) {
+      // connection-specific headers are malformed in HTTP/2
+      _isInvalid = true;
+      return;
+    }
+
+    if (_headerKeys.size() <= _headerSize) {
+      _headerKeys.add(new CharBuffer());
+      _headerValues.add(new CharBuffer());
+    }
+
+    CharBuffer key = _headerKeys.get(_headerSize);
+    CharBuffer cbValue = _headerValues.get(_headerSize);
+
+    key.clear();
+    key.append(name);
+
+    cbValue.clear();
+    cbValue.append(value);
+
+    if (addHeaderInt(key.getBuffer(), 0, key.length(), cbValue)) {
+      _headerSize++;
+    }
+  }
+
+  private void addPseudoHeader(String name, String value)
+  {
+    if (_headerSize > 0) {
+      // pseudo-headers must precede regular headers
+      _isInvalid = true;
+    }
+    else if (name.equals(":method")) {
+      _method = value;
+    }
+    else if (name.equals(":scheme")) {
+      _scheme = value;
+    }
+    else if (name.equals(":path")) {
+      setUri(value);
+    }
+    else if (name.equals(":authority")) {
+      _authority = value;
+
+      // the authority replaces the HTTP/1.1 Host header
+      addHeader("host", value);
+    }
+    else {
+      _isInvalid = true;
+    }
+  }
+
+  private void setUri(String path)
+  {
+    int length = path.length();
+
+    if (_uri.length < length) {
+      _uri = new byte[length];
+    }
+
+    for (int i = 0; i < length; i++) {
+      _uri[i] = (byte) path.charAt(i);
+    }
+
+    _uriLength = length;
+  }
+
+  /**
+   * Returns true if the request has the required pseudo-headers.
+   */
+  boolean isValid()
+  {
+    if (_isInvalid || _method == null) {
+      return false;
+    }
+    else if (_method.equals("CONNECT")) {
+      return _authority != null;
+    }
+    else {
+      return _scheme != null && _uriLength > 0;
+    }
+  }
+
+  boolean onData(byte []buffer, int offset, int length)
+  {
+    return _inputStream.onData(buffer, offset, length);
+  }
+
+  void onEndStream()
+  {
+    _inputStream.onEnd();
+  }
+
+  /**
+   * The client reset the stream or the connection closed.
+   */
+  void onReset()
+  {
+    _isReset = true;
+
+    _inputStream.onReset();
+  }
+
+  boolean isReset()
+  {
+    return _isReset;
+  }
+
+  boolean isInputEnd()
+  {
+    return _inputStream.isEnd();
+  }
+
+  long getSendWindow()
+  {
+    return _sendWindow;
+  }
+
+  void addSendWindow(long delta)
+  {
+    _sendWindow += delta;
+  }
+
+  //
+  // HTTP request properties
+  //
+
+  @Override
+  public boolean isWaitForRead()
+  {
+    return false;
+  }
+
+  @Override
+  public String getProtocol()
+  {
+    return "HTTP/2.0";
+  }
+
+  @Override
+  public String getMethod()
+  {
+    return _method;
+  }
+
+  @Override
+  public String getScheme()
+  {
+    if (_scheme != null)
+      return _scheme;
+    else
+      return super.getScheme();
+  }
+
+  @Override
+  protected CharSequence getHost()
+  {
+    String virtualHost = getConnection().getVirtualHost();
+
+    if (virtualHost != null)
+      return virtualHost;
+    else if (getForwardedHostHeader() != null)
+      return getForwardedHostHeader();
+    else
+      return getHostHeader();
+  }
+
+  @Override
+  public byte []getUriBuffer()
+  {
+    return _uri;
+  }
+
+  @Override
+  public int getUriLength()
+  {
+    return _uriLength;
+  }
+
+  //
+  // HTTP request headers
+  //
+
+  @Override
+  public String getHeader(String key)
+  {
+    CharSegment value = getHeaderBuffer(key);
+
+    if (value != null)
+      return value.toString();
+    else
+      return null;
+  }
+
+  @Override
+  public int getHeaderSize()
+  {
+    return _headerSize;
+  }
+
+  @Override
+  public CharSegment getHeaderKey(int index)
+  {
+    return _headerKeys.get(index);
+  }
+
+  @Override
+  public CharSegment getHeaderValue(int index)
+  {
+    return _headerValues.get(index);
+  }
+
+  @Override
+  public CharSegment getHeaderBuffer(String key)
+  {
+    for (int i = 0; i < _headerSize; i++) {
+      if (_headerKeys.get(i).equalsIgnoreCase(key)) {
+        return _headerValues.get(i);
+      }
+    }
+
+    return null;
+  }
+
+  @Override
+  public void getHeaderBuffers(String key, ArrayList<CharSegment> values)
+  {
+    for (int i = 0; i < _headerSize; i++) {
+      if (_headerKeys.get(i).equalsIgnoreCase(key)) {
+        values.add(_headerValues.get(i));
+      }
+    }
+  }
+
+  @Override
+  public Enumeration<String> getHeaders(String key)
+  {
+    ArrayList<String> values = new ArrayList<String>();
+
+    for (int i = 0; i < _headerSize; i++) {
+      if (_headerKeys.get(i).equalsIgnoreCase(key)) {
+        values.add(_headerValues.get(i).toString());
+      }
+    }
+
+    return Collections.enumeration(values);
+  }
+
+  @Override
+  public Enumeration<String> getHeaderNames()
+  {
+    ArrayList<String> names = new ArrayList<String>();
+
+    for (int i = 0; i < _headerSize; i++) {
+      String name = _headerKeys.get(i).toString();
+
+      if (! names.contains(name)) {
+        names.add(name);
+      }
+    }
+
+    return Collections.enumeration(names);
+  }
+
+  /**
+   * Adds a new header.  Used only by the caching to simulate
+   * If-Modified-Since.
+   */
+  @Override
+  public void setHeader(String key, String value)
+  {
+    addHeader(key.toLowerCase(), value);
+  }
+
+  @Override
+  protected void initAttributes(HttpServletRequestImpl request)
+  {
+    SocketLink conn = getConnection();
+
+    if (! (conn instanceof TcpSocketLink) || ! conn.isSecure())
+      return;
+
+    QSocket socket = ((TcpSocketLink) conn).getSocket();
+
+    request.setAttribute("javax.servlet.request.cipher_suite",
+                         socket.getCipherSuite());
+
+    int keySize = socket.getCipherBits();
+    if (keySize != 0)
+      request.setAttribute("javax.servlet.request.key_size",
+                           new Integer(keySize));
+
+    try {
+      X509Certificate []certs = socket.getClientCertificates();
+      if (certs != null && certs.length > 0) {
+        request.setAttribute("javax.servlet.request.X509Certificate", certs);
+      }
+    } catch (Exception e) {
+      log.log(Level.FINER, e.toString(), e);
+    }
+  }
+
+  //
+  // stream management
+  //
+
+  /**
+   * The request body is the stream's DATA frames.
+   */
+  @Override
+  protected boolean initStream(ReadStream readStream, ReadStream rawRead)
+    throws IOException
+  {
+    readStream.init(_inputStream, null);
+
+    return ! _inputStream.isEnd();
+  }
+
+  //
+  // connection state is shared with the other streams, so only the
+  // stream itself is closed
+  //
+
+  @Override
+  protected void handleConnectionClose()
+  {
+  }
+
+  @Override
+  public void killKeepalive(String reason)
+  {
+  }
+
+  @Override
+  protected boolean isKeepalive()
+  {
+    return true;
+  }
+
+  @Override
+  public void clientDisconnect()
+  {
+    onReset();
+
+    CauchoResponse response = getResponseFacade();
+
+    if (response != null)
+      response.killCache();
+  }
+
+  @Override
+  public boolean isAsyncCapable()
+  {
+    return false;
+  }
+
+  @Override
+  public boolean isCometActive()
+  {
+    return false;
+  }
+
+  @Override
+  public boolean isSuspend()
+  {
+    return false;
+  }
+
+  @Override
+  public boolean isDuplex()
+  {
+    return false;
+  }
+
+  //
+  // request processing
+  //
+
+  /**
+   * Services the stream on a pool thread.
+   */
+  @Override
+  public void run()
+  {
+    Thread thread = Thread.currentThread();
+    ClassLoader oldLoader = thread.getContextClassLoader();
+
+    try {
+      thread.setContextClassLoader(getServer().getClassLoader());
+
+      TcpSocketLink.setCurrentRequest(this);
+      RequestContext.begin();
+
+      handleRequest();
+    } catch (ClientDisconnectException e) {
+      log.log(Level.FINER, e.toString(), e);
+    } catch (Throwable e) {
+      log.log(Level.FINE, e.toString(), e);
+    } finally {
+      RequestContext.end();
+      TcpSocketLink.setCurrentRequest(null);
+
+      thread.setContextClassLoader(oldLoader);
+
+      _conn.onStreamComplete(this);
+    }
+  }
+
+  /**
+   * Handles the request, called from run().
+   */
+  @Override
+  public boolean handleRequest()
+    throws IOException
+  {
+    try {
+      if (log.isLoggable(Level.FINE)) {
+        log.fine(dbgId() + _method + " "
+                 + new String(_uri, 0, _uriLength) + " HTTP/2.0");
+      }
+
+      Invocation invocation = getInvocation(getHost(), _uri, _uriLength);
+
+      if (invocation == null) {
+        return false;
+      }
+
+      HttpServletRequestImpl requestFacade = getRequestFacade();
+
+      requestFacade.setInvocation(invocation);
+
+      startInvocation();
+
+      invocation.service(requestFacade, getResponseFacade());
+    } catch (ClientDisconnectException e) {
+      clientDisconnect();
+
+      throw e;
+    } catch (Throwable e) {
+      log.log(Level.FINE, e.toString(), e);
+
+      CauchoResponse response = getResponseFacade();
+
+      if (response != null)
+        response.killCache();
+
+      sendRequestError(e);
+
+      return false;
+    } finally {
+      // the stream always ends, even for an error before the invocation
+      finishInvocation();
+
+      finishRequest();
+    }
+
+    return true;
+  }
+
+  @Override
+  protected String dbgId()
+  {
+    return "Http2[" + getConnectionId() + "," + _streamId + "] ";
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + getConnectionId()
+           + "," + _streamId + "]";
+  }
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+
+package com.caucho.server.http2;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletResponse;
+
+import com.caucho.server.http.AbstractHttpResponse;
+import com.caucho.server.http.AbstractResponseStream;
+import com.caucho.server.http.HttpServletResponseImpl;
+import com.caucho.server.webapp.WebApp;
+import com.caucho.util.CharBuffer;
+import com.caucho.util.CurrentTime;
+
+/**
+ * Response for an HTTP/2 stream.  The headers are sent as an HPACK
+ * HEADERS frame and the body as DATA frames.
+ */
+public class Http2Response extends AbstractHttpResponse {
+  private static final Logger log
+    = Logger.getLogger(Http2Response.class.getName());
+
+  private final Http2Request _request;
+
+  private final HpackEncoder _encoder = new HpackEncoder();
+  private final CharBuffer _cb = new CharBuffer();
+
+  private boolean _isHeadersSent;
+
+  Http2Response(Http2Request request)
+  {
+    super(request);
+
+    _request = request;
+  }
+
+  @Override
+  protected AbstractResponseStream createResponseStream()
+  {
+    return new Http2ResponseStream(this);
+  }
+
+  Http2Request getHttp2Request()
+  {
+    return _request;
+  }
+
+  @Override
+  public void startRequest()
+    throws IOException
+  {
+    super.startRequest();
+
+    _isHeadersSent = false;
+  }
+
+  boolean isHeadersSent()
+  {
+    return _isHeadersSent;
+  }
+
+  /**
+   * Writes a bare status when the stream ends before any headers,
+   * e.g. when the request failed before the invocation.
+   */
+  void writeStatusHeaders(int status, boolean isEndStream)
+    throws IOException
+  {
+    HpackEncoder encoder = _encoder;
+
+    encoder.clear();
+    encoder.encodeStatus(status);
+
+    _isHeadersSent = true;
+
+    _request.getHttp2Connection().writeHeaders(_request,
+                                               encoder.getBuffer(),
+                                               encoder.getLength(),
+                                               isEndStream);
+  }
+
+  /**
+   * The 100-continue is an informational HEADERS frame.
+   */
+  @Override
+  protected void writeContinueInt()
+    throws IOException
+  {
+    HpackEncoder encoder = _encoder;
+
+    encoder.clear();
+    encoder.encodeStatus(100);
+
+    Http2Connection conn = _request.getHttp2Connection();
+
+    conn.writeHeaders(_request, encoder.getBuffer(), encoder.getLength(),
+                      false);
+    conn.flush();
+  }
+
+  @Override
+  protected boolean writeHeadersInt(int length, boolean isHead)
+    throws IOException
+  {
+    HttpServletResponseImpl response = _request.getResponseFacade();
+
+    if (response == null)
+      return false;
+
+    boolean debug = log.isLoggable(Level.FINE);
+
+    WebApp webApp = _request.getRequestFacade().getWebApp();
+
+    String contentType = response.getContentTypeImpl();
+    String charEncoding = response.getCharacterEncodingImpl();
+
+    long contentLength = getContentLengthHeader();
+
+    int statusCode = response.getStatus();
+
+    HpackEncoder encoder = _encoder;
+    encoder.clear();
+
+    encoder.encodeStatus(statusCode);
+
+    if (debug) {
+      log.fine(_request.dbgId() + ":status: " + statusCode);
+    }
+
+    if (statusCode >= 400) {
+      removeHeader("ETag");
+      removeHeader("Last-Modified");
+    }
+    else if (statusCode == HttpServletResponse.SC_NOT_MODIFIED
+             || statusCode == HttpServletResponse.SC_NO_CONTENT) {
+      contentType = null;
+    }
+    else if (response.isCacheControl()) {
+      // application manages cache control
+    }
+    else if (response.isNoCache()) {
+      removeHeader("ETag");
+      removeHeader("Last-Modified");
+
+      setHeaderImpl("Expires", "Thu, 01 Dec 1994 16:00:00 GMT");
+
+      encoder.encode("cache-control", "no-cache");
+    }
+    else if (response.isNoCacheUnlessVary()
+             && ! containsHeader("Vary")) {
+      encoder.encode("cache-control", "private");
+    }
+    else if (response.isPrivateCache()) {
+      encoder.encode("cache-control", "private");
+    }
+
+    ArrayList<String> headerKeys = getHeaderKeys();
+    ArrayList<String> headerValues = getHeaderValues();
+
+    int size = headerKeys.size();
+    for (int i = 0; i < size; i++) {
+      String key = headerKeys.get(i).toLowerCase(Locale.ENGLISH);
+
+      if (isConnectionHeader(key))
+        continue;
+
+      encoder.encode(key, headerValues.get(i));
+
+      if (debug) {
+        log.fine(_request.dbgId() + key + ": " + headerValues.get(i));
+      }
+    }
+
+    long now = CurrentTime.getCurrentTime();
+    ArrayList<Cookie> cookiesOut = response.getCookies();
+
+    if (cookiesOut != null) {
+      for (int i = 0; i < cookiesOut.size(); i++) {
+        Cookie cookie = cookiesOut.get(i);
+        int cookieVersion = cookie.getVersion();
+
+        CharBuffer cb = _cb;
+        cb.clear();
+        fillCookie(cb, cookie, now, cookieVersion, false);
+        encoder.encode("set-cookie", cb.toString());
+
+        if (cookieVersion > 0) {
+          cb.clear();
+          fillCookie(cb, cookie, now, cookieVersion, true);
+          encoder.encode("set-cookie2", cb.toString());
+        }
+
+        if (debug)
+          log.fine(_request.dbgId() + "set-cookie: " + cb);
+      }
+    }
+
+    if (contentType != null) {
+      if (charEncoding == null
+          && (contentType.startsWith("text/")
+              || contentType.startsWith("multipart/"))) {
+        if (webApp != null)
+          charEncoding = webApp.getCharacterEncoding();
+
+        if (charEncoding == null)
+          charEncoding = "utf-8";
+      }
+
+      if (charEncoding != null)
+        encoder.encode("content-type",
+                       contentType + "; charset=" + charEncoding);
+      else
+        encoder.encode("content-type", contentType);
+    }
+
+    if (hasFooter()) {
+      contentLength = -1;
+      length = -1;
+    }
+
+    if (contentLength >= 0) {
+      encoder.encode("content-length", String.valueOf(contentLength));
+    }
+    else if (statusCode == HttpServletResponse.SC_NOT_MODIFIED) {
+      setHead();
+    }
+    else if (statusCode == HttpServletResponse.SC_NO_CONTENT) {
+      encoder.encode("content-length", "0");
+      setHead();
+    }
+    else if (length >= 0) {
+      encoder.encode("content-length", String.valueOf(length));
+    }
+
+    String serverHeader = getServerHeader();
+
+    if (serverHeader == null)
+      serverHeader = _request.getServer().getServerHeader();
+
+    encoder.encode("server", serverHeader);
+
+    byte []dateBuffer = fillDateBuffer(now);
+    int dateOffset = getRawDateBufferOffset();
+
+    encoder.encode("date", new String(dateBuffer, 0, dateOffset,
+                                      getDateBufferLength() - dateOffset - 4));
+
+    _isHeadersSent = true;
+
+    _request.getHttp2Connection().writeHeaders(_request,
+                                               encoder.getBuffer(),
+                                               encoder.getLength(),
+                                               false);
+
+    return false;
+  }
+
+  private boolean isConnectionHeader(String key)
+  {
+    return (key.equals("connection")
+            || key.equals("keep-alive")
+            || key.equals("proxy-connection")
+            || key.equals("transfer-encoding")
+            || key.equals("upgrade"));
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + _request.dbgId();
+  }
+}
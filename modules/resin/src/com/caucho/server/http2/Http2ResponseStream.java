@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+
+package com.caucho.server.http2;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.caucho.server.http.ResponseStream;
+
+/**
+ * Response body of an HTTP/2 stream.  The buffered data is sent as
+ * DATA frames, with END_STREAM on the final frame.
+ */
+class Http2ResponseStream extends ResponseStream {
+  private static final Logger log
+    = Logger.getLogger(Http2ResponseStream.class.getName());
+
+  private final Http2Response _response;
+
+  private final byte []_buffer = new byte[Http2Connection.MAX_FRAME_SIZE];
+  private int _offset;
+
+  private boolean _isEndStream;
+
+  Http2ResponseStream(Http2Response response)
+  {
+    super(response);
+
+    _response = response;
+  }
+
+  @Override
+  public void start()
+  {
+    super.start();
+
+    _offset = 0;
+    _isEndStream = false;
+  }
+
+  //
+  // implementations
+  //
+
+  @Override
+  protected byte []getNextBuffer()
+  {
+    return _buffer;
+  }
+
+  @Override
+  protected int getNextBufferOffset()
+  {
+    return _offset;
+  }
+
+  @Override
+  protected void setNextBufferOffsetImpl(int offset)
+  {
+    _offset = offset;
+  }
+
+  @Override
+  protected byte []writeNextBufferImpl(int offset)
+    throws IOException
+  {
+    writeData(offset, false);
+
+    return _buffer;
+  }
+
+  @Override
+  protected void flushNextImpl()
+    throws IOException
+  {
+    if (_offset > 0) {
+      writeData(_offset, false);
+    }
+
+    getConnection().flush();
+  }
+
+  @Override
+  protected void closeNextImpl()
+    throws IOException
+  {
+    getConnection().flush();
+  }
+
+  /**
+   * Sends any buffered data with END_STREAM.
+   */
+  @Override
+  protected void writeTailImpl(boolean isClose)
+    throws IOException
+  {
+    if (_isEndStream) {
+      return;
+    }
+
+    _isEndStream = true;
+
+    if (! _response.isHeadersSent()) {
+      _response.writeStatusHeaders(500, true);
+
+      _offset = 0;
+      return;
+    }
+
+    writeData(_offset, true);
+  }
+
+  private void writeData(int length, boolean isEndStream)
+    throws IOException
+  {
+    _offset = 0;
+
+    if (log.isLoggable(Level.FINER)) {
+      log.finer(dbgId() + "write-data(" + length + ")");
+    }
+
+    Http2Request request = _response.getHttp2Request();
+
+    request.getHttp2Connection().writeData(request, _buffer, 0, length,
+                                           isEndStream);
+  }
+
+  private Http2Connection getConnection()
+  {
+    return _response.getHttp2Request().getHttp2Connection();
+  }
+}
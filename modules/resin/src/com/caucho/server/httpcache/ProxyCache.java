@@ -0,0 +1,418 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.server.httpcache;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.FilterChain;
+
+import com.caucho.config.types.Bytes;
+import com.caucho.env.meter.CountSensor;
+import com.caucho.env.meter.MeterService;
+import com.caucho.server.webapp.WebApp;
+import com.caucho.util.L10N;
+import com.caucho.util.LruCache;
+import com.caucho.vfs.Path;
+
+/**
+ * The open source proxy cache.
+ *
+ * Cached responses are keyed by the invocation's filter chain and the
+ * request's Vary headers. Small bodies are kept in memory, larger ones
+ * in the TempFileService's block store. Both are bounded, and the least
+ * recently used entries are evicted when a bound is exceeded.
+ */
+public class ProxyCache extends AbstractProxyCache
+{
+  private static final L10N L = new L10N(ProxyCache.class);
+  private static final Logger log
+    = Logger.getLogger(ProxyCache.class.getName());
+
+  private static final int DEFAULT_ENTRIES = 8192;
+
+  private static final CountSensor _hitSensor
+    = MeterService.createCountMeter("Resin|Http|Proxy Cache Hit");
+  private static final CountSensor _missSensor
+    = MeterService.createCountMeter("Resin|Http|Proxy Cache Miss");
+
+  private Path _path;
+
+  private boolean _isEnable = true;
+  private boolean _isRewriteVaryAsPrivate;
+
+  private long _memorySize = 64L * 1024 * 1024;
+  private long _diskSize = 1024L * 1024 * 1024;
+  private int _maxEntrySize = 1024 * 1024;
+  private int _memoryBlockSize = 64 * 1024;
+
+  private volatile LruCache<String,ProxyCacheEntry> _cache;
+  private TempFileManager _tempFileManager;
+  private ProxyCacheAdmin _admin;
+
+  private final AtomicLong _chainSequence = new AtomicLong();
+
+  private final AtomicLong _memoryUsed = new AtomicLong();
+  private final AtomicLong _diskUsed = new AtomicLong();
+
+  private final AtomicLong _hitCount = new AtomicLong();
+  private final AtomicLong _missCount = new AtomicLong();
+  private final AtomicLong _memoryBlockHitCount = new AtomicLong();
+  private final AtomicLong _memoryBlockMissCount = new AtomicLong();
+
+  /**
+   * Sets the path to the cache directory.
+   */
+  @Override
+  public void setPath(Path path)
+  {
+    _path = path;
+  }
+
+  /**
+   * Returns the path from the cache directory.
+   */
+  @Override
+  public Path getPath()
+  {
+    return _path;
+  }
+
+  /**
+   * Sets the path to the cache directory (backwards compatibility).
+   */
+  @Override
+  public void setDir(Path path)
+  {
+    setPath(path);
+  }
+
+  /**
+   * Sets the disk size of the cache
+   */
+  @Override
+  public void setDiskSize(Bytes size)
+  {
+    _diskSize = size.getBytes();
+  }
+
+  /**
+   * Sets the size of the the cache (backwards compatibility).
+   */
+  @Override
+  public void setSize(Bytes size)
+  {
+    setDiskSize(size);
+  }
+
+  /**
+   * Sets the memory size of the cache.
+   */
+  @Override
+  public void setMemorySize(Bytes size)
+  {
+    _memorySize = size.getBytes();
+  }
+
+  /**
+   * Sets the largest body kept in memory. Larger bodies are saved in
+   * the temp file store.
+   */
+  public void setMemoryBlockSize(Bytes size)
+  {
+    _memoryBlockSize = (int) size.getBytes();
+  }
+
+  int getMemoryBlockSize()
+  {
+    return _memoryBlockSize;
+  }
+
+  /**
+   * Sets the max entry size of the cache
+   */
+  public void setMaxEntrySize(Bytes size)
+  {
+    _maxEntrySize = (int) size.getBytes();
+  }
+
+  /**
+   * Returns the max entry size of the cache
+   */
+  @Override
+  public int getMaxEntrySize()
+  {
+    return _maxEntrySize;
+  }
+
+  /**
+   * Set true if enabled.
+   */
+  @Override
+  public void setEnable(boolean isEnable)
+  {
+    _isEnable = isEnable;
+  }
+
+  /**
+   * Return true if enabled.
+   */
+  @Override
+  public boolean isEnable()
+  {
+    return _isEnable;
+  }
+
+  /**
+   * If true, responses with a Vary header are treated as private.
+   */
+  @Override
+  public void setRewriteVaryAsPrivate(boolean isEnable)
+  {
+    _isRewriteVaryAsPrivate = isEnable;
+  }
+
+  boolean isRewriteVaryAsPrivate()
+  {
+    return _isRewriteVaryAsPrivate;
+  }
+
+  /**
+   * Creates the filter.
+   */
+  @Override
+  public FilterChain createFilterChain(FilterChain next, WebApp app)
+  {
+    if (! _isEnable)
+      return next;
+
+    init();
+
+    return new ProxyCacheFilterChain(this, next, app,
+                                     _chainSequence.incrementAndGet());
+  }
+
+  private void init()
+  {
+    if (_cache != null)
+      return;
+
+    synchronized (this) {
+      if (_cache != null)
+        return;
+
+      int entries = getEntries();
+
+      if (entries <= 0)
+        entries = DEFAULT_ENTRIES;
+
+      if (_path != null) {
+        _tempFileManager = new TempFileManager(_path);
+      }
+      else {
+        TempFileService tempService = TempFileService.getCurrent();
+
+        if (tempService != null)
+          _tempFileManager = tempService.getManager();
+      }
+
+      if (_tempFileManager == null) {
+        log.config(L.l("{0} has no temp file store, so only bodies smaller than {1} bytes will be cached",
+                       this, _memoryBlockSize));
+      }
+
+      try {
+        _admin = new ProxyCacheAdmin(this);
+      } catch (Exception e) {
+        log.log(Level.FINER, e.toString(), e);
+      }
+
+      _cache = new LruCache<String,ProxyCacheEntry>(entries);
+    }
+  }
+
+  //
+  // entry management
+  //
+
+  ProxyCacheEntry getEntry(String key)
+  {
+    LruCache<String,ProxyCacheEntry> cache = _cache;
+
+    if (cache != null)
+      return cache.get(key);
+    else
+      return null;
+  }
+
+  /**
+   * Adds a completed entry, evicting LRU entries to stay within the
+   * memory and disk bounds.
+   */
+  void putEntry(String key, ProxyCacheEntry entry)
+  {
+    LruCache<String,ProxyCacheEntry> cache = _cache;
+
+    if (cache == null) {
+      entry.removeEvent();
+      return;
+    }
+
+    _memoryUsed.addAndGet(entry.getMemorySize());
+    _diskUsed.addAndGet(entry.getDiskSize());
+
+    cache.put(key, entry);
+
+    while ((_memorySize < _memoryUsed.get() || _diskSize < _diskUsed.get())
+           && cache.removeTail()) {
+    }
+  }
+
+  /**
+   * Called when an entry leaves the cache.
+   */
+  void freeEntry(ProxyCacheEntry entry)
+  {
+    _memoryUsed.addAndGet(- entry.getMemorySize());
+    _diskUsed.addAndGet(- entry.getDiskSize());
+  }
+
+  TempFileInode createInode()
+  {
+    TempFileManager manager = _tempFileManager;
+
+    if (manager != null)
+      return manager.createInode();
+    else
+      return null;
+  }
+
+  //
+  // statistics
+  //
+
+  void addHit(boolean isMemory)
+  {
+    _hitCount.incrementAndGet();
+    _hitSensor.start();
+
+    if (isMemory)
+      _memoryBlockHitCount.incrementAndGet();
+    else
+      _memoryBlockMissCount.incrementAndGet();
+  }
+
+  void addMiss()
+  {
+    _missCount.incrementAndGet();
+    _missSensor.start();
+  }
+
+  /**
+   * Clears the cache.
+   */
+  @Override
+  public void clear()
+  {
+    LruCache<String,ProxyCacheEntry> cache = _cache;
+
+    if (cache != null)
+      cache.clear();
+  }
+
+  /**
+   * Returns the hit count.
+   */
+  @Override
+  public long getHitCount()
+  {
+    return _hitCount.get();
+  }
+
+  /**
+   * Returns the miss count.
+   */
+  @Override
+  public long getMissCount()
+  {
+    return _missCount.get();
+  }
+
+  /**
+   * Returns the count of hits served from memory.
+   */
+  @Override
+  public long getMemoryBlockHitCount()
+  {
+    return _memoryBlockHitCount.get();
+  }
+
+  /**
+   * Returns the count of hits served from the temp file store.
+   */
+  @Override
+  public long getMemoryBlockMissCount()
+  {
+    return _memoryBlockMissCount.get();
+  }
+
+  /**
+   * Returns the number of cached entries.
+   */
+  public int getEntryCount()
+  {
+    LruCache<String,ProxyCacheEntry> cache = _cache;
+
+    return cache != null ? cache.size() : 0;
+  }
+
+  /**
+   * Returns the memory used by cached bodies.
+   */
+  public long getMemoryUsed()
+  {
+    return _memoryUsed.get();
+  }
+
+  /**
+   * Returns the temp file space used by cached bodies.
+   */
+  public long getDiskUsed()
+  {
+    return _diskUsed.get();
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _path + "]";
+  }
+}
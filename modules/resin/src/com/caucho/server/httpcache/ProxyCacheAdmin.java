@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.server.httpcache;
+
+import com.caucho.management.server.AbstractManagedObject;
+import com.caucho.management.server.CacheItem;
+import com.caucho.management.server.ProxyCacheMXBean;
+
+/**
+ * The admin implementation for the proxy cache.
+ */
+public class ProxyCacheAdmin extends AbstractManagedObject
+  implements ProxyCacheMXBean
+{
+  private final ProxyCache _cache;
+
+  ProxyCacheAdmin(ProxyCache cache)
+  {
+    _cache = cache;
+
+    registerSelf();
+  }
+
+  @Override
+  public String getName()
+  {
+    return null;
+  }
+
+  //
+  // statistics
+  //
+
+  @Override
+  public long getHitCountTotal()
+  {
+    return _cache.getHitCount();
+  }
+
+  @Override
+  public long getMissCountTotal()
+  {
+    return _cache.getMissCount();
+  }
+
+  @Override
+  public double getMissRate()
+  {
+    long hitCount = _cache.getHitCount();
+    long missCount = _cache.getMissCount();
+
+    if (hitCount + missCount == 0)
+      return 0;
+    else
+      return missCount / (double) (hitCount + missCount);
+  }
+
+  @Override
+  public long getInvocationHitCountTotal()
+  {
+    return 0;
+  }
+
+  @Override
+  public long getInvocationMissCountTotal()
+  {
+    return 0;
+  }
+
+  @Override
+  public double getCacheableRate()
+  {
+    return 0;
+  }
+
+  @Override
+  public CacheItem []getCacheableEntries(int max)
+  {
+    return new CacheItem[0];
+  }
+
+  @Override
+  public CacheItem []getUncacheableEntries(int max)
+  {
+    return new CacheItem[0];
+  }
+
+  @Override
+  public CacheItem []getCachedEntries(int max)
+  {
+    return new CacheItem[0];
+  }
+
+  @Override
+  public CacheItem []getUncachedEntries(int max)
+  {
+    return new CacheItem[0];
+  }
+
+  //
+  // operations
+  //
+
+  @Override
+  public void clearCache()
+  {
+    _cache.clear();
+  }
+
+  @Override
+  public void clearCacheByPattern(String hostRegexp, String urlRegexp)
+  {
+    _cache.clear();
+  }
+
+  @Override
+  public void clearExpires()
+  {
+    _cache.clear();
+  }
+}
@@ -0,0 +1,465 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.server.httpcache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.caucho.util.CacheListener;
+import com.caucho.util.CurrentTime;
+import com.caucho.vfs.TempBuffer;
+
+/**
+ * A cached response: its headers and body. The body is kept in memory
+ * until it exceeds the cache's memory block size, then moves to a
+ * temp file inode.
+ */
+class ProxyCacheEntry extends AbstractCacheEntry
+  implements CacheListener
+{
+  private static final Logger log
+    = Logger.getLogger(ProxyCacheEntry.class.getName());
+
+  private final ProxyCache _cache;
+  private final String _key;
+
+  private final String []_headerKeys;
+  private final String []_headerValues;
+  private final String _contentType;
+  private final String _charEncoding;
+
+  private final String _etag;
+  private final String _lastModified;
+
+  private final String []_varyKeys;
+  private final String []_varyValues;
+
+  private final long _maxAge;
+  private volatile long _expireTime;
+
+  private byte []_buffer;
+  private int _bufferLength;
+
+  private TempFileInode _inode;
+  private OutputStream _inodeOut;
+
+  private long _length;
+  private boolean _isForwardEnclosed;
+  private boolean _isOverflow;
+
+  private final AtomicBoolean _isRemoved = new AtomicBoolean();
+
+  ProxyCacheEntry(ProxyCache cache,
+                  String key,
+                  ArrayList<String> headerKeys,
+                  ArrayList<String> headerValues,
+                  String contentType,
+                  String charEncoding,
+                  String etag,
+                  String lastModified,
+                  String []varyKeys,
+                  String []varyValues,
+                  long maxAge)
+  {
+    _cache = cache;
+    _key = key;
+
+    _headerKeys = headerKeys.toArray(new String[headerKeys.size()]);
+    _headerValues = headerValues.toArray(new String[headerValues.size()]);
+    _contentType = contentType;
+    _charEncoding = charEncoding;
+
+    _etag = etag;
+    _lastModified = lastModified;
+
+    _varyKeys = varyKeys;
+    _varyValues = varyValues;
+
+    _maxAge = maxAge;
+    _expireTime = CurrentTime.getCurrentTime() + maxAge;
+  }
+
+  String getKey()
+  {
+    return _key;
+  }
+
+  String []getHeaderKeys()
+  {
+    return _headerKeys;
+  }
+
+  String []getHeaderValues()
+  {
+    return _headerValues;
+  }
+
+  String getContentType()
+  {
+    return _contentType;
+  }
+
+  String getCharacterEncoding()
+  {
+    return _charEncoding;
+  }
+
+  String getETag()
+  {
+    return _etag;
+  }
+
+  String getLastModified()
+  {
+    return _lastModified;
+  }
+
+  long getLength()
+  {
+    return _length;
+  }
+
+  boolean isMemory()
+  {
+    return _inode == null;
+  }
+
+  long getMemorySize()
+  {
+    return _buffer != null ? _buffer.length : 0;
+  }
+
+  long getDiskSize()
+  {
+    return _inode != null ? _length : 0;
+  }
+
+  /**
+   * Returns true if the entry is still fresh.
+   */
+  boolean isValid(long now)
+  {
+    return now < _expireTime && ! _isRemoved.get();
+  }
+
+  /**
+   * Returns true if the request's Vary headers match the cached ones.
+   */
+  boolean isVaryMatch(String []varyValues)
+  {
+    if (_varyValues == null)
+      return varyValues == null;
+    else if (varyValues == null || varyValues.length != _varyValues.length)
+      return false;
+
+    for (int i = 0; i < varyValues.length; i++) {
+      String value = varyValues[i];
+      String cachedValue = _varyValues[i];
+
+      if (value == null ? cachedValue != null : ! value.equals(cachedValue))
+        return false;
+    }
+
+    return true;
+  }
+
+  String []getVaryKeys()
+  {
+    return _varyKeys;
+  }
+
+  /**
+   * Returns true if the body was too large for the available storage.
+   */
+  boolean isOverflow()
+  {
+    return _isOverflow;
+  }
+
+  /**
+   * Refreshes the expire time after a revalidation.
+   */
+  @Override
+  public void updateExpiresDate()
+  {
+    _expireTime = CurrentTime.getCurrentTime() + _maxAge;
+  }
+
+  /**
+   * Opens an output stream for the body.
+   */
+  @Override
+  public OutputStream openOutputStream()
+  {
+    return new EntryOutputStream();
+  }
+
+  /**
+   * Opens a writer for the body.
+   */
+  @Override
+  public Writer openWriter()
+  {
+    String encoding = _charEncoding != null ? _charEncoding : "ISO-8859-1";
+
+    try {
+      return new OutputStreamWriter(openOutputStream(), encoding);
+    } catch (UnsupportedEncodingException e) {
+      log.log(Level.FINER, e.toString(), e);
+
+      _isOverflow = true;
+
+      return null;
+    }
+  }
+
+  /**
+   * Pins the body for a read, returning false if the entry was freed.
+   */
+  boolean allocate()
+  {
+    TempFileInode inode = _inode;
+
+    if (inode != null)
+      return inode.allocate();
+    else
+      return ! _isRemoved.get();
+  }
+
+  void free()
+  {
+    TempFileInode inode = _inode;
+
+    if (inode != null)
+      inode.free();
+  }
+
+  /**
+   * Writes the cached body. The entry must be allocated.
+   */
+  void writeBody(OutputStream os)
+    throws IOException
+  {
+    TempFileInode inode = _inode;
+
+    if (inode == null) {
+      os.write(_buffer, 0, _bufferLength);
+      return;
+    }
+
+    TempBuffer tBuf = TempBuffer.allocate();
+    InputStream is = inode.openInputStream();
+
+    try {
+      byte []buffer = tBuf.getBuffer();
+      int len;
+
+      while ((len = is.read(buffer, 0, buffer.length)) > 0) {
+        os.write(buffer, 0, len);
+      }
+    } finally {
+      is.close();
+
+      TempBuffer.free(tBuf);
+    }
+  }
+
+  /**
+   * Called when the body is complete.
+   */
+  void close()
+  {
+    OutputStream os = _inodeOut;
+    _inodeOut = null;
+
+    try {
+      if (os != null)
+        os.close();
+    } catch (IOException e) {
+      log.log(Level.FINER, e.toString(), e);
+
+      _isOverflow = true;
+    }
+
+    // trim the buffer so memory accounting matches the body
+    if (_buffer != null && _bufferLength < _buffer.length) {
+      byte []buffer = new byte[_bufferLength];
+      System.arraycopy(_buffer, 0, buffer, 0, _bufferLength);
+      _buffer = buffer;
+    }
+  }
+
+  /**
+   * Destroys the entry when it was never added to the cache.
+   */
+  @Override
+  public void destroy()
+  {
+    close();
+
+    if (_isRemoved.compareAndSet(false, true))
+      freeStorage();
+  }
+
+  /**
+   * Called by the LRU when the entry is evicted or replaced.
+   */
+  @Override
+  public void removeEvent()
+  {
+    if (_isRemoved.compareAndSet(false, true)) {
+      _cache.freeEntry(this);
+
+      freeStorage();
+    }
+  }
+
+  private void freeStorage()
+  {
+    TempFileInode inode = _inode;
+
+    if (inode != null)
+      inode.free();
+  }
+
+  @Override
+  public void setForwardEnclosed(boolean isForwardEnclosed)
+  {
+    _isForwardEnclosed = isForwardEnclosed;
+  }
+
+  @Override
+  public boolean isForwardEnclosed()
+  {
+    return _isForwardEnclosed;
+  }
+
+  @Override
+  public String toString()
+  {
+    return (getClass().getSimpleName()
+            + "[" + _contentType + ",len=" + _length + "]");
+  }
+
+  class EntryOutputStream extends OutputStream {
+    private boolean _isClosed;
+
+    @Override
+    public void write(int ch)
+      throws IOException
+    {
+      write(new byte[] { (byte) ch }, 0, 1);
+    }
+
+    @Override
+    public void write(byte []buffer, int offset, int length)
+      throws IOException
+    {
+      if (_isOverflow || _isClosed)
+        return;
+
+      _length += length;
+
+      if (_inodeOut != null) {
+        _inodeOut.write(buffer, offset, length);
+        return;
+      }
+
+      int newLength = _bufferLength + length;
+
+      if (_cache.getMemoryBlockSize() < newLength) {
+        toInode();
+
+        if (_inodeOut != null)
+          _inodeOut.write(buffer, offset, length);
+
+        return;
+      }
+
+      if (_buffer == null || _buffer.length < newLength) {
+        int capacity = _buffer != null ? 2 * _buffer.length : 1024;
+
+        if (capacity < newLength)
+          capacity = newLength;
+
+        byte []newBuffer = new byte[capacity];
+
+        if (_buffer != null)
+          System.arraycopy(_buffer, 0, newBuffer, 0, _bufferLength);
+
+        _buffer = newBuffer;
+      }
+
+      System.arraycopy(buffer, offset, _buffer, _bufferLength, length);
+      _bufferLength = newLength;
+    }
+
+    private void toInode()
+      throws IOException
+    {
+      TempFileInode inode = _cache.createInode();
+
+      if (inode == null) {
+        _isOverflow = true;
+        _buffer = null;
+        _bufferLength = 0;
+        return;
+      }
+
+      _inode = inode;
+      _inodeOut = inode.openOutputStream();
+
+      if (_bufferLength > 0)
+        _inodeOut.write(_buffer, 0, _bufferLength);
+
+      _buffer = null;
+      _bufferLength = 0;
+    }
+
+    @Override
+    public void close()
+    {
+      if (_isClosed)
+        return;
+
+      _isClosed = true;
+
+      ProxyCacheEntry.this.close();
+    }
+  }
+}
@@ -0,0 +1,480 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.server.httpcache;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+
+import com.caucho.server.http.CauchoRequest;
+import com.caucho.server.http.CauchoResponse;
+import com.caucho.server.http.HttpServletResponseImpl;
+import com.caucho.server.webapp.WebApp;
+import com.caucho.util.CurrentTime;
+import com.caucho.util.QDate;
+
+/**
+ * The proxy cache filter chain for a single invocation. Cache hits are
+ * served before the rest of the chain runs. Cacheable misses fill the
+ * cache through the response stream's caching hooks.
+ */
+public class ProxyCacheFilterChain extends AbstractCacheFilterChain
+{
+  private static final Logger log
+    = Logger.getLogger(ProxyCacheFilterChain.class.getName());
+
+  private final ProxyCache _cache;
+  private final FilterChain _next;
+  private final WebApp _webApp;
+  private final String _keyPrefix;
+
+  // bumped by unsafe methods, which invalidates the cached entries
+  private volatile int _generation;
+
+  // the Vary headers of the most recently cached response
+  private volatile String []_varyKeys;
+
+  private final ConcurrentHashMap<CauchoResponse,ProxyCacheEntry> _fillMap
+    = new ConcurrentHashMap<CauchoResponse,ProxyCacheEntry>();
+
+  ProxyCacheFilterChain(ProxyCache cache,
+                        FilterChain next,
+                        WebApp webApp,
+                        long id)
+  {
+    _cache = cache;
+    _next = next;
+    _webApp = webApp;
+    _keyPrefix = Long.toHexString(id);
+  }
+
+  /**
+   * Serves the request from the cache if possible, otherwise calls the
+   * next chain, caching its response when it's cacheable.
+   */
+  @Override
+  public void doFilter(ServletRequest request, ServletResponse response)
+    throws ServletException, IOException
+  {
+    if (! (request instanceof CauchoRequest)
+        || ! (response instanceof CauchoResponse)) {
+      _next.doFilter(request, response);
+      return;
+    }
+
+    CauchoRequest req = (CauchoRequest) request;
+    CauchoResponse res = (CauchoResponse) response;
+
+    String method = req.getMethod();
+    boolean isGet = "GET".equals(method);
+
+    if (! isGet && ! "HEAD".equals(method)) {
+      if (! "OPTIONS".equals(method) && ! "TRACE".equals(method))
+        _generation++;
+
+      _next.doFilter(request, response);
+      return;
+    }
+
+    if (! req.isTop() || req.getHeader("Authorization") != null) {
+      _next.doFilter(request, response);
+      return;
+    }
+
+    if (! isRequestNoCache(req)) {
+      String []varyValues = getVaryValues(req, _varyKeys);
+      ProxyCacheEntry entry = _cache.getEntry(buildKey(req, varyValues));
+
+      if (entry != null
+          && entry.isValid(CurrentTime.getCurrentTime())
+          && entry.isVaryMatch(varyValues)
+          && fillFromCache(req, res, entry)) {
+        _cache.addHit(entry.isMemory());
+        return;
+      }
+    }
+
+    _cache.addMiss();
+
+    if (! isGet) {
+      _next.doFilter(request, response);
+      return;
+    }
+
+    res.setCacheInvocation(this);
+
+    try {
+      _next.doFilter(request, response);
+
+      res.completeCache();
+    } finally {
+      res.setCacheInvocation(null);
+    }
+  }
+
+  /**
+   * Writes a cached response.
+   */
+  @Override
+  public boolean fillFromCache(CauchoRequest req,
+                               CauchoResponse res,
+                               AbstractCacheEntry abstractEntry)
+    throws IOException
+  {
+    ProxyCacheEntry entry = (ProxyCacheEntry) abstractEntry;
+
+    if (! entry.allocate())
+      return false;
+
+    try {
+      String etag = entry.getETag();
+      String lastModified = entry.getLastModified();
+      String ifNoneMatch = req.getHeader("If-None-Match");
+
+      if (ifNoneMatch != null) {
+        if (etag != null && isETagMatch(ifNoneMatch, etag)) {
+          res.addHeader("ETag", etag);
+          res.sendError(HttpServletResponse.SC_NOT_MODIFIED);
+          return true;
+        }
+      }
+      else if (lastModified != null
+               && lastModified.equals(req.getHeader("If-Modified-Since"))) {
+        res.addHeader("Last-Modified", lastModified);
+        res.sendError(HttpServletResponse.SC_NOT_MODIFIED);
+        return true;
+      }
+
+      String []keys = entry.getHeaderKeys();
+      String []values = entry.getHeaderValues();
+
+      for (int i = 0; i < keys.length; i++) {
+        res.addHeader(keys[i], values[i]);
+      }
+
+      if (entry.getContentType() != null)
+        res.setContentType(entry.getContentType());
+
+      if (entry.getCharacterEncoding() != null)
+        res.setCharacterEncoding(entry.getCharacterEncoding());
+
+      res.setContentLength(entry.getLength());
+
+      if (! "HEAD".equals(req.getMethod()))
+        entry.writeBody(res.getOutputStream());
+
+      return true;
+    } finally {
+      entry.free();
+    }
+  }
+
+  /**
+   * Starts caching after the headers are known, returning null if the
+   * response isn't cacheable.
+   */
+  @Override
+  public AbstractCacheEntry startCaching(CauchoRequest req,
+                                         CauchoResponse res,
+                                         ArrayList<String> keys,
+                                         ArrayList<String> values,
+                                         String contentType,
+                                         String charEncoding,
+                                         long contentLength)
+  {
+    if (! "GET".equals(req.getMethod()))
+      return null;
+
+    if (res instanceof HttpServletResponseImpl) {
+      HttpServletResponseImpl resImpl = (HttpServletResponseImpl) res;
+
+      ArrayList<?> cookies = resImpl.getCookies();
+
+      if (resImpl.getPrivateCache()
+          || resImpl.isNoCache()
+          || cookies != null && cookies.size() > 0) {
+        return null;
+      }
+    }
+
+    long maxAge = -1;
+    long sMaxAge = -1;
+    String expires = null;
+    String etag = null;
+    String lastModified = null;
+    ArrayList<String> varyKeys = null;
+
+    ArrayList<String> cacheKeys = new ArrayList<String>();
+    ArrayList<String> cacheValues = new ArrayList<String>();
+
+    for (int i = 0; i < keys.size(); i++) {
+      String key = keys.get(i);
+      String value = values.get(i);
+
+      if (key.equalsIgnoreCase("Cache-Control")) {
+        for (String directive : value.split(",")) {
+          directive = directive.trim().toLowerCase();
+
+          if (directive.equals("private")
+              || directive.startsWith("no-cache")
+              || directive.equals("no-store")) {
+            return null;
+          }
+          else if (directive.startsWith("max-age="))
+            maxAge = parseSeconds(directive.substring("max-age=".length()));
+          else if (directive.startsWith("s-maxage="))
+            sMaxAge = parseSeconds(directive.substring("s-maxage=".length()));
+        }
+      }
+      else if (key.equalsIgnoreCase("Set-Cookie")
+               || key.equalsIgnoreCase("Set-Cookie2")) {
+        return null;
+      }
+      else if (key.equalsIgnoreCase("Expires"))
+        expires = value;
+      else if (key.equalsIgnoreCase("ETag"))
+        etag = value;
+      else if (key.equalsIgnoreCase("Last-Modified"))
+        lastModified = value;
+      else if (key.equalsIgnoreCase("Vary")) {
+        for (String name : value.split(",")) {
+          name = name.trim();
+
+          if (name.equals("*"))
+            return null;
+          else if (name.length() == 0)
+            continue;
+
+          if (varyKeys == null)
+            varyKeys = new ArrayList<String>();
+
+          varyKeys.add(name);
+        }
+      }
+
+      cacheKeys.add(key);
+      cacheValues.add(value);
+    }
+
+    if (varyKeys != null && _cache.isRewriteVaryAsPrivate())
+      return null;
+    else if (varyKeys == null && res.isNoCacheUnlessVary())
+      return null;
+
+    long ttl = getTimeToLive(req, maxAge, sMaxAge, expires);
+
+    if (ttl <= 0)
+      return null;
+
+    String []varyKeyArray = null;
+
+    if (varyKeys != null)
+      varyKeyArray = varyKeys.toArray(new String[varyKeys.size()]);
+
+    String []varyValues = getVaryValues(req, varyKeyArray);
+
+    ProxyCacheEntry entry
+      = new ProxyCacheEntry(_cache, buildKey(req, varyValues),
+                            cacheKeys, cacheValues,
+                            contentType, charEncoding,
+                            etag, lastModified,
+                            varyKeyArray, varyValues,
+                            ttl);
+
+    _varyKeys = varyKeyArray;
+
+    ProxyCacheEntry oldEntry = _fillMap.put(res, entry);
+
+    if (oldEntry != null)
+      oldEntry.destroy();
+
+    return entry;
+  }
+
+  /**
+   * Adds the completed entry to the cache.
+   */
+  @Override
+  public void finishCaching(CauchoResponse res)
+  {
+    ProxyCacheEntry entry = _fillMap.remove(res);
+
+    if (entry == null)
+      return;
+
+    entry.close();
+
+    if (entry.isOverflow()
+        || res.getStatus() != HttpServletResponse.SC_OK) {
+      entry.destroy();
+      return;
+    }
+
+    if (log.isLoggable(Level.FINER))
+      log.finer(this + " caching " + entry);
+
+    _cache.putEntry(entry.getKey(), entry);
+  }
+
+  /**
+   * Discards a partially filled entry.
+   */
+  @Override
+  public void killCaching(CauchoResponse res)
+  {
+    ProxyCacheEntry entry = _fillMap.remove(res);
+
+    if (entry != null)
+      entry.destroy();
+  }
+
+  private long getTimeToLive(CauchoRequest req,
+                             long maxAge,
+                             long sMaxAge,
+                             String expires)
+  {
+    if (sMaxAge >= 0)
+      return 1000L * sMaxAge;
+    else if (maxAge >= 0)
+      return 1000L * maxAge;
+    else if (expires != null) {
+      QDate date = QDate.allocateGmtDate();
+
+      try {
+        return date.parseDate(expires) - CurrentTime.getCurrentTime();
+      } catch (Exception e) {
+        log.log(Level.FINEST, e.toString(), e);
+
+        return -1;
+      } finally {
+        QDate.freeGmtDate(date);
+      }
+    }
+
+    String uri = req.getRequestURI();
+
+    long webAppMaxAge = _webApp.getSMaxAge(uri);
+
+    if (webAppMaxAge <= 0)
+      webAppMaxAge = _webApp.getMaxAge(uri);
+
+    return webAppMaxAge;
+  }
+
+  private String buildKey(CauchoRequest req, String []varyValues)
+  {
+    StringBuilder sb = new StringBuilder();
+
+    sb.append(_keyPrefix);
+    sb.append(':');
+    sb.append(_generation);
+
+    String query = req.getQueryString();
+
+    if (query != null)
+      sb.append('?').append(query);
+
+    if (varyValues != null) {
+      for (String value : varyValues) {
+        sb.append('\n');
+
+        if (value != null)
+          sb.append(value);
+      }
+    }
+
+    return sb.toString();
+  }
+
+  private static String []getVaryValues(CauchoRequest req, String []varyKeys)
+  {
+    if (varyKeys == null)
+      return null;
+
+    String []values = new String[varyKeys.length];
+
+    for (int i = 0; i < varyKeys.length; i++) {
+      values[i] = req.getHeader(varyKeys[i]);
+    }
+
+    return values;
+  }
+
+  private static boolean isRequestNoCache(CauchoRequest req)
+  {
+    String cacheControl = req.getHeader("Cache-Control");
+
+    if (cacheControl != null
+        && (cacheControl.indexOf("no-cache") >= 0
+            || cacheControl.indexOf("max-age=0") >= 0)) {
+      return true;
+    }
+
+    String pragma = req.getHeader("Pragma");
+
+    return pragma != null && pragma.indexOf("no-cache") >= 0;
+  }
+
+  private static boolean isETagMatch(String ifNoneMatch, String etag)
+  {
+    for (String tag : ifNoneMatch.split(",")) {
+      tag = tag.trim();
+
+      if (tag.equals(etag) || tag.equals("*"))
+        return true;
+    }
+
+    return false;
+  }
+
+  private static long parseSeconds(String value)
+  {
+    try {
+      return Long.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    return (getClass().getSimpleName()
+            + "[" + _webApp.getContextPath() + "," + _keyPrefix + "]");
+  }
+}
@@ -55,6 +55,7 @@ import com.caucho.env.shutdown.ShutdownSystem;
 import com.caucho.env.warning.WarningService;
 import com.caucho.license.LicenseCheck;
 import com.caucho.license.LicenseStore;
+import com.caucho.network.listen.SocketPollService;
 import com.caucho.server.admin.Management;
 import com.caucho.server.admin.StatSystem;
 import com.caucho.server.cluster.ClusterPod;
@@ -368,6 +369,8 @@ public class ResinDelegate
     
     TopologyService.createAndAddService(getResin().getServerId());
     
+    createSocketPollService();
+    
     SecurityService.createAndAddService();
     
     BlockManagerSubSystem.createAndAddService();
@@ -379,6 +382,14 @@ public class ResinDelegate
     }
   }
 
+  /**
+   * Creates the socket poll service for select keepalive.
+   */
+  protected void createSocketPollService()
+  {
+    SocketPollService.createAndAddService();
+  }
+
   public LicenseCheck getLicenseCheck()
   {
     return null;
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+
+package com.caucho.server.session;
+
+import java.io.Serializable;
+
+/**
+ * Reference to a session attribute saved as its own cache entry.
+ * The key includes the digest of the attribute's serialized data, so
+ * a session blob always refers to the exact attribute version it was
+ * saved with.
+ */
+@SuppressWarnings("serial")
+public final class SessionAttributeRef implements Serializable {
+  private String _key;
+  private long _digest;
+  private int _length;
+
+  @SuppressWarnings("unused")
+  private SessionAttributeRef()
+  {
+  }
+
+  SessionAttributeRef(String key, long digest, int length)
+  {
+    _key = key;
+    _digest = digest;
+    _length = length;
+  }
+
+  /**
+   * Returns the cache key of the attribute's data.
+   */
+  public String getKey()
+  {
+    return _key;
+  }
+
+  /**
+   * Returns the digest of the attribute's serialized data.
+   */
+  public long getDigest()
+  {
+    return _digest;
+  }
+
+  /**
+   * Returns the length of the attribute's serialized data.
+   */
+  public int getLength()
+  {
+    return _length;
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _key + "," + _length + "]";
+  }
+}
@@ -36,6 +36,7 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
@@ -111,9 +112,25 @@ public class SessionImpl implements HttpSession, CacheListener {
   @Json(name = "Valid")
   private State _state = State.active;
 
-  // the cache entry saved in the session
+  // the cache entry saved in the session, written by the write-behind queue
   @Transient
-  private ExtCacheEntry _cacheEntry;
+  private volatile ExtCacheEntry _cacheEntry;
+
+  // digest of the last saved serialization for write-behind
+  @Transient
+  private long _lastSaveDigest;
+
+  // true once an invalidation has removed the session from the store
+  @Transient
+  private volatile boolean _isStoreRemoved;
+
+  // attributes saved as their own cache entries, guarded by _values
+  @Transient
+  private HashMap<String,AttributeState> _attributeStates;
+
+  // attribute entries replaced by a newer version, guarded by _values
+  @Transient
+  private ArrayList<String> _staleAttributeKeys;
 
   // to protect for threading
   @Json(name = "UseCount")
@@ -692,6 +709,12 @@ public class SessionImpl implements HttpSession, CacheListener {
         return true;
       }
 
+      // an instance evicted from the LRU may still have a newer copy
+      // queued, which must reach the store before it's read
+      if (isNew) {
+        _manager.flushWriteBehind(_id);
+      }
+
       ExtCacheEntry entry = cache.getExtCacheEntry(_id);
       ExtCacheEntry cacheEntry = _cacheEntry;
 
@@ -751,6 +774,9 @@ public class SessionImpl implements HttpSession, CacheListener {
           is.close();
         }
         
+        // the loaded data no longer matches the last save
+        _lastSaveDigest = 0;
+
         if (isValid) {
           _cacheEntry = entry;
           _isModified = false;
@@ -799,6 +825,10 @@ public class SessionImpl implements HttpSession, CacheListener {
         _values.clear();
         // unbind();
 
+        if (_attributeStates != null) {
+          _attributeStates.clear();
+        }
+
         try {
           id = (String) in.readObject();
           int size = in.readInt();
@@ -809,6 +839,10 @@ public class SessionImpl implements HttpSession, CacheListener {
             String key = (String) in.readObject();
             Object value = in.readObject();
 
+            if (value instanceof SessionAttributeRef) {
+              value = loadAttribute(key, (SessionAttributeRef) value);
+            }
+
             if (value != null) {
               _values.put(key, value);
 
@@ -943,13 +977,27 @@ public class SessionImpl implements HttpSession, CacheListener {
       
       SessionSerializer out = _manager.createSessionSerializer(crcOs);
 
-      store(out);
+      store(out, true);
       
       out.close();
       crcOs.close();
 
       final int length = os.getLength();
 
+      boolean isWriteBehind = _manager.isSaveWriteBehind();
+
+      if (isWriteBehind) {
+        long digest = crcOs.getDigest();
+
+        // skip sessions whose serialized data hasn't changed
+        if (digest == _lastSaveDigest && length == _lastSaveLength) {
+          os.destroy();
+          return;
+        }
+
+        _lastSaveDigest = digest;
+      }
+
       _manager.addSessionSaveSample(length);
 
       _lastSaveLength = length;
@@ -958,6 +1006,19 @@ public class SessionImpl implements HttpSession, CacheListener {
       long lastAccessTime = _accessTime;
       long lastModifiedTime = lastAccessTime;
 
+      if (isWriteBehind) {
+        // the stale entries belong to this blob, and are only removed
+        // after this blob is written
+        ArrayList<String> staleKeys = takeStaleAttributes();
+
+        if (_manager.queueWriteBehind(this, os, staleKeys,
+                                      lastAccessTime, lastModifiedTime)) {
+          return;
+        }
+
+        addStaleAttributes(staleKeys);
+      }
+
       _cacheEntry = _manager.getCache().put(_id, os.getInputStream(),
                                             _idleTimeout,
                                             -1,
@@ -969,12 +1030,71 @@ public class SessionImpl implements HttpSession, CacheListener {
                  + (_cacheEntry != null ? Long.toHexString(_cacheEntry.getValueHash()) : null));
       }
 
+      removeStaleAttributes();
+
       os.close();
     } catch (Exception e) {
       log.log(Level.WARNING, this + ": can't serialize session", e);
     }
   }
 
+  /**
+   * Writes a session serialized by save() to the cache, called by the
+   * write-behind queue.
+   */
+  void saveWriteBehind(TempOutputStream os,
+                       ArrayList<String> staleKeys,
+                       long lastAccessTime,
+                       long lastModifiedTime)
+    throws IOException
+  {
+    ByteStreamCache cache = _manager.getCache();
+
+    // an invalidated session is not written, only its stale entries are
+    // removed.  A session which was only dropped from the LRU is written.
+    if (_isStoreRemoved || cache == null) {
+      removeAttributeEntries(staleKeys);
+      return;
+    }
+
+    boolean isSaved = false;
+
+    try {
+      _cacheEntry = cache.put(_id, os.getInputStream(),
+                              _idleTimeout,
+                              -1,
+                              lastAccessTime,
+                              lastModifiedTime);
+
+      isSaved = true;
+    } finally {
+      // a failed write must not suppress the next save, which also
+      // takes over the stale entries
+      if (! isSaved) {
+        _lastSaveDigest = 0;
+
+        addStaleAttributes(staleKeys);
+      }
+    }
+
+    if (log.isLoggable(Level.FINE)) {
+      ExtCacheEntry entry = _cacheEntry;
+
+      log.fine(this + " session write-behind valueHash="
+               + (entry != null ? Long.toHexString(entry.getValueHash()) : null));
+    }
+
+    // an invalidation racing the write must not leave the data behind
+    if (_isStoreRemoved) {
+      cache.remove(_id);
+
+      removeAttributeEntries(staleKeys);
+    }
+    else {
+      removeStaleAttributes(staleKeys);
+    }
+  }
+
   /**
    * Store on shutdown.
    */
@@ -1018,6 +1138,42 @@ public class SessionImpl implements HttpSession, CacheListener {
    */
   public void store(SessionSerializer out)
     throws IOException
+  {
+    store(out, false);
+  }
+
+  /**
+   * Saves the object to the input stream.
+   *
+   * @param isSave true when saving to the cache, which may save large
+   *   attributes as their own cache entries
+   */
+  private void store(SessionSerializer out, boolean isSave)
+    throws IOException
+  {
+    int threshold = _manager.getSaveAttributeThreshold();
+
+    AttributeSave attrSave = null;
+
+    if (isSave && threshold > 0 && _manager.getCache() != null) {
+      attrSave = new AttributeSave(threshold);
+    }
+
+    try {
+      storeImpl(out, attrSave);
+
+      if (attrSave != null) {
+        saveAttributes(attrSave);
+      }
+    } finally {
+      if (attrSave != null) {
+        attrSave.close();
+      }
+    }
+  }
+
+  private void storeImpl(SessionSerializer out, AttributeSave attrSave)
+    throws IOException
   {
     Set<Map.Entry<String,Object>> set = null;
 
@@ -1090,6 +1246,10 @@ public class SessionImpl implements HttpSession, CacheListener {
           }
 
           try {
+            if (attrSave != null) {
+              value = storeAttribute(attrSave, (String) entry.getKey(), value);
+            }
+
             out.writeObject(value);
           } catch (NotSerializableException e) {
             log.warning(L.l("{0}: failed storing persistent session attribute '{1}'.  Persistent session values must extend java.io.Serializable.\n{2}",
@@ -1101,6 +1261,302 @@ public class SessionImpl implements HttpSession, CacheListener {
     }
   }
 
+  /**
+   * Serializes an attribute on its own.  Attributes at least as large
+   * as the threshold are replaced by a reference to their own cache
+   * entry, which is only written when the attribute's data changes.
+   *
+   * @return the value or reference to write in the session blob
+   */
+  private Object storeAttribute(AttributeSave attrSave,
+                                String name,
+                                Object value)
+    throws IOException
+  {
+    TempOutputStream os = new TempOutputStream();
+    HashChunkOutputStream crcOs = new HashChunkOutputStream(os);
+
+    SessionSerializer out = _manager.createSessionSerializer(crcOs);
+
+    try {
+      out.writeObject(value);
+
+      out.close();
+      crcOs.close();
+    } catch (IOException e) {
+      os.destroy();
+
+      throw e;
+    }
+
+    int length = os.getLength();
+
+    if (length < attrSave.getThreshold()) {
+      os.destroy();
+
+      return value;
+    }
+
+    long digest = crcOs.getDigest();
+
+    AttributeState state = null;
+
+    if (_attributeStates != null) {
+      state = _attributeStates.get(name);
+    }
+
+    if (state != null
+        && state.getDigest() == digest
+        && state.getLength() == length) {
+      os.destroy();
+
+      attrSave.addUnchanged(state);
+    }
+    else {
+      String key = _id + ':' + name + ':' + Long.toHexString(digest);
+
+      state = new AttributeState(name, key, digest, length);
+
+      attrSave.addUpdate(state, os);
+    }
+
+    return state.createRef();
+  }
+
+  /**
+   * Writes the changed attribute entries and refreshes the unchanged
+   * ones before the session blob referring to them is saved.
+   */
+  private void saveAttributes(AttributeSave attrSave)
+    throws IOException
+  {
+    ByteStreamCache cache = _manager.getCache();
+
+    for (AttributeState state : attrSave.getUpdates()) {
+      TempOutputStream os = attrSave.removeOutputStream(state);
+
+      ExtCacheEntry entry = cache.put(state.getKey(), os.getInputStream(),
+                                      _idleTimeout, -1);
+
+      state.setEntry(entry);
+
+      if (log.isLoggable(Level.FINER)) {
+        log.finer(this + " save attribute " + state.getName()
+                  + " length=" + state.getLength());
+      }
+    }
+
+    for (AttributeState state : attrSave.getUnchanged()) {
+      ExtCacheEntry entry = state.getEntry();
+
+      // keeps the entry from expiring before the session
+      if (entry != null) {
+        entry.updateAccessTime();
+      }
+    }
+
+    synchronized (_values) {
+      HashMap<String,AttributeState> oldStates = _attributeStates;
+      HashMap<String,AttributeState> newStates
+        = new HashMap<String,AttributeState>();
+
+      for (AttributeState state : attrSave.getUnchanged()) {
+        newStates.put(state.getName(), state);
+      }
+
+      for (AttributeState state : attrSave.getUpdates()) {
+        newStates.put(state.getName(), state);
+      }
+
+      if (oldStates != null) {
+        for (AttributeState oldState : oldStates.values()) {
+          AttributeState state = newStates.get(oldState.getName());
+
+          if (state == null || ! state.getKey().equals(oldState.getKey())) {
+            addStaleAttribute(oldState.getKey());
+          }
+        }
+      }
+
+      _attributeStates = newStates;
+    }
+  }
+
+  /**
+   * Loads an attribute saved as its own cache entry.
+   */
+  private Object loadAttribute(String name, SessionAttributeRef ref)
+    throws IOException, ClassNotFoundException
+  {
+    ByteStreamCache cache = _manager.getCache();
+
+    if (cache == null) {
+      throw new IOException(L.l("{0}: can't load attribute '{1}' without a session store",
+                                this, name));
+    }
+
+    TempOutputStream os = new TempOutputStream();
+
+    if (! cache.get(ref.getKey(), os)) {
+      throw new IOException(L.l("{0}: missing saved data for attribute '{1}'",
+                                this, name));
+    }
+
+    InputStream is = os.getInputStream();
+    Object value;
+
+    try {
+      HashChunkInputStream crcIs = new HashChunkInputStream(is);
+
+      SessionDeserializer in = _manager.createSessionDeserializer(crcIs);
+
+      value = in.readObject();
+
+      in.close();
+      crcIs.close();
+    } finally {
+      is.close();
+    }
+
+    AttributeState state = new AttributeState(name, ref.getKey(),
+                                              ref.getDigest(),
+                                              ref.getLength());
+
+    state.setEntry(cache.getExtCacheEntry(ref.getKey()));
+
+    if (_attributeStates == null) {
+      _attributeStates = new HashMap<String,AttributeState>();
+    }
+
+    _attributeStates.put(name, state);
+
+    return value;
+  }
+
+  private void addStaleAttribute(String key)
+  {
+    if (_staleAttributeKeys == null) {
+      _staleAttributeKeys = new ArrayList<String>();
+    }
+
+    _staleAttributeKeys.add(key);
+  }
+
+  /**
+   * Returns stale attribute entries to the session, e.g. from a queued
+   * write which was dropped or failed.
+   */
+  void addStaleAttributes(ArrayList<String> keys)
+  {
+    if (keys == null) {
+      return;
+    }
+
+    synchronized (_values) {
+      for (String key : keys) {
+        addStaleAttribute(key);
+      }
+    }
+  }
+
+  /**
+   * Takes the attribute entries replaced by the session just stored.
+   */
+  private ArrayList<String> takeStaleAttributes()
+  {
+    synchronized (_values) {
+      ArrayList<String> staleKeys = _staleAttributeKeys;
+
+      if (staleKeys == null) {
+        return null;
+      }
+
+      _staleAttributeKeys = null;
+
+      // an attribute may have changed back to a stale version
+      if (_attributeStates != null) {
+        for (AttributeState state : _attributeStates.values()) {
+          staleKeys.remove(state.getKey());
+        }
+      }
+
+      return staleKeys;
+    }
+  }
+
+  /**
+   * Removes attribute entries replaced by a saved session blob.
+   */
+  private void removeStaleAttributes()
+  {
+    removeAttributeEntries(takeStaleAttributes());
+  }
+
+  /**
+   * Removes the attribute entries replaced by a written session blob.
+   */
+  private void removeStaleAttributes(ArrayList<String> staleKeys)
+  {
+    if (staleKeys == null) {
+      return;
+    }
+
+    synchronized (_values) {
+      // a later save may have changed back to a stale version
+      if (_attributeStates != null) {
+        for (AttributeState state : _attributeStates.values()) {
+          staleKeys.remove(state.getKey());
+        }
+      }
+    }
+
+    removeAttributeEntries(staleKeys);
+  }
+
+  /**
+   * Removes all attribute entries for an invalidated session.
+   */
+  private void removeAttributes()
+  {
+    ArrayList<String> keys;
+
+    synchronized (_values) {
+      keys = _staleAttributeKeys;
+      _staleAttributeKeys = null;
+
+      if (_attributeStates != null) {
+        if (keys == null) {
+          keys = new ArrayList<String>();
+        }
+
+        for (AttributeState state : _attributeStates.values()) {
+          keys.add(state.getKey());
+        }
+
+        _attributeStates = null;
+      }
+    }
+
+    removeAttributeEntries(keys);
+  }
+
+  private void removeAttributeEntries(ArrayList<String> keys)
+  {
+    ByteStreamCache cache = _manager.getSessionStore();
+
+    if (keys == null || cache == null) {
+      return;
+    }
+
+    for (String key : keys) {
+      try {
+        cache.remove(key);
+      } catch (Exception e) {
+        log.log(Level.FINE, e.toString(), e);
+      }
+    }
+  }
+
   //
   // invalidation, lru, timeout
   //
@@ -1320,7 +1776,13 @@ public class SessionImpl implements HttpSession, CacheListener {
         isRemove = true;
 
         if (isRemove) {
+          _isStoreRemoved = true;
+
+          _manager.removeWriteBehind(_id);
+
           _manager.getSessionStore().remove(_id);
+
+          removeAttributes();
         }
       }
     } catch (Exception e) {
@@ -1436,6 +1898,128 @@ public class SessionImpl implements HttpSession, CacheListener {
     TIMEOUT
   };
 
+  /**
+   * Saved state of an attribute stored as its own cache entry.
+   */
+  static final class AttributeState {
+    private final String _name;
+    private final String _key;
+    private final long _digest;
+    private final int _length;
+
+    private volatile ExtCacheEntry _entry;
+
+    AttributeState(String name, String key, long digest, int length)
+    {
+      _name = name;
+      _key = key;
+      _digest = digest;
+      _length = length;
+    }
+
+    String getName()
+    {
+      return _name;
+    }
+
+    String getKey()
+    {
+      return _key;
+    }
+
+    long getDigest()
+    {
+      return _digest;
+    }
+
+    int getLength()
+    {
+      return _length;
+    }
+
+    ExtCacheEntry getEntry()
+    {
+      return _entry;
+    }
+
+    void setEntry(ExtCacheEntry entry)
+    {
+      _entry = entry;
+    }
+
+    SessionAttributeRef createRef()
+    {
+      return new SessionAttributeRef(_key, _digest, _length);
+    }
+  }
+
+  /**
+   * Attributes stored separately by a single save.
+   */
+  static final class AttributeSave {
+    private final int _threshold;
+
+    private final ArrayList<AttributeState> _updates
+      = new ArrayList<AttributeState>();
+    private final ArrayList<TempOutputStream> _updateStreams
+      = new ArrayList<TempOutputStream>();
+    private final ArrayList<AttributeState> _unchanged
+      = new ArrayList<AttributeState>();
+
+    AttributeSave(int threshold)
+    {
+      _threshold = threshold;
+    }
+
+    int getThreshold()
+    {
+      return _threshold;
+    }
+
+    void addUpdate(AttributeState state, TempOutputStream os)
+    {
+      _updates.add(state);
+      _updateStreams.add(os);
+    }
+
+    void addUnchanged(AttributeState state)
+    {
+      _unchanged.add(state);
+    }
+
+    ArrayList<AttributeState> getUpdates()
+    {
+      return _updates;
+    }
+
+    ArrayList<AttributeState> getUnchanged()
+    {
+      return _unchanged;
+    }
+
+    TempOutputStream removeOutputStream(AttributeState state)
+    {
+      int i = _updates.indexOf(state);
+
+      TempOutputStream os = _updateStreams.get(i);
+      _updateStreams.set(i, null);
+
+      return os;
+    }
+
+    void close()
+    {
+      for (int i = 0; i < _updateStreams.size(); i++) {
+        TempOutputStream os = _updateStreams.get(i);
+
+        if (os != null) {
+          _updateStreams.set(i, null);
+          os.destroy();
+        }
+      }
+    }
+  }
+
   enum State {
     active {
       @Override
@@ -56,6 +56,7 @@ import com.caucho.cloud.network.ClusterServer;
 import com.caucho.cloud.topology.CloudServer;
 import com.caucho.config.ConfigException;
 import com.caucho.config.Configurable;
+import com.caucho.config.types.Bytes;
 import com.caucho.config.types.Period;
 import com.caucho.distcache.AbstractCache;
 import com.caucho.distcache.ByteStreamCache;
@@ -177,6 +178,14 @@ public final class SessionManager implements SessionCookieConfig, AlarmListener
   private boolean _isSaveBackup = true;
   private boolean _isDestroyOnLru = true;
 
+  // write-behind window and queue size, zero disables write-behind
+  private long _saveWriteBehindTime;
+  private int _saveWriteBehindMax = 1024;
+  private SessionWriteQueue _writeQueue;
+
+  // attributes at least this large are saved as their own cache entries
+  private int _saveAttributeThreshold;
+
   // If true, serialization errors should not be logged
   // XXX: changed for JSF
   private boolean _ignoreSerializationErrors = true;
@@ -535,6 +544,130 @@ public final class SessionManager implements SessionCookieConfig, AlarmListener
     setSaveOnlyOnShutdown(save);
   }
 
+  /**
+   * Sets the write-behind window.  Saved sessions are queued and
+   * coalesced for the window, then written to the store in a batch.
+   */
+  public void setSaveWriteBehind(Period period)
+  {
+    _saveWriteBehindTime = period.getPeriod();
+  }
+
+  /**
+   * Sets the maximum number of queued write-behind sessions.  A full
+   * queue is written by the saving request.
+   */
+  public void setSaveWriteBehindMax(int max)
+  {
+    if (max < 1)
+      throw new ConfigException(L.l("save-write-behind-max '{0}' must be positive.",
+                                    max));
+
+    _saveWriteBehindMax = max;
+  }
+
+  /**
+   * Sets the size of serialized attributes saved as their own cache
+   * entries, so an unchanged large attribute isn't sent again when
+   * another attribute changes.  Zero, the default, saves the session
+   * as a single entry.
+   */
+  public void setSaveAttributeThreshold(Bytes threshold)
+  {
+    long size = threshold.getBytes();
+
+    if (size < 0 || Integer.MAX_VALUE < size)
+      throw new ConfigException(L.l("save-attribute-threshold '{0}' is an invalid size.",
+                                    size));
+
+    _saveAttributeThreshold = (int) size;
+  }
+
+  /**
+   * Returns the attribute size saved as separate cache entries.
+   */
+  int getSaveAttributeThreshold()
+  {
+    return _saveAttributeThreshold;
+  }
+
+  /**
+   * True if sessions are saved with write-behind.
+   */
+  boolean isSaveWriteBehind()
+  {
+    return _writeQueue != null;
+  }
+
+  /**
+   * Queues a serialized session for write-behind.
+   *
+   * @return false if the session must be written directly
+   */
+  boolean queueWriteBehind(SessionImpl session,
+                           TempOutputStream os,
+                           ArrayList<String> staleKeys,
+                           long accessTime,
+                           long modifiedTime)
+  {
+    SessionWriteQueue writeQueue = _writeQueue;
+
+    return (writeQueue != null
+            && writeQueue.offer(session, os, staleKeys,
+                                accessTime, modifiedTime));
+  }
+
+  /**
+   * Writes any queued write for the session id, before a new session
+   * instance loads it from the store.
+   */
+  void flushWriteBehind(String id)
+  {
+    SessionWriteQueue writeQueue = _writeQueue;
+
+    if (writeQueue != null)
+      writeQueue.flush(id);
+  }
+
+  /**
+   * Removes any queued write for an invalidated session.
+   */
+  void removeWriteBehind(String id)
+  {
+    SessionWriteQueue writeQueue = _writeQueue;
+
+    if (writeQueue != null)
+      writeQueue.remove(id);
+  }
+
+  public int getSaveWriteBehindPendingCount()
+  {
+    SessionWriteQueue writeQueue = _writeQueue;
+
+    return writeQueue != null ? writeQueue.getPendingCount() : 0;
+  }
+
+  public long getSaveWriteBehindWriteCount()
+  {
+    SessionWriteQueue writeQueue = _writeQueue;
+
+    return writeQueue != null ? writeQueue.getWriteCount() : 0;
+  }
+
+  public long getSaveWriteBehindCoalesceCount()
+  {
+    SessionWriteQueue writeQueue = _writeQueue;
+
+    return writeQueue != null ? writeQueue.getCoalesceCount() : 0;
+  }
+
+  public long getSaveWriteBehindOverflowCount()
+  {
+    SessionWriteQueue writeQueue = _writeQueue;
+
+    return writeQueue != null ? writeQueue.getOverflowCount() : 0;
+  }
+
   /**
    * Sets the serialization type.
    */
@@ -1191,6 +1324,11 @@ public final class SessionManager implements SessionCookieConfig, AlarmListener
       }
 
       _sessionStore = cacheBuilder.createIfAbsent();
+
+      if (_saveWriteBehindTime > 0 && ! isSaveOnlyOnShutdown()) {
+        _writeQueue = new SessionWriteQueue(_saveWriteBehindTime,
+                                            _saveWriteBehindMax);
+      }
     }
 
     if (_cookiePath != null) {
@@ -2008,6 +2146,17 @@ public final class SessionManager implements SessionCookieConfig, AlarmListener
       }
     }
 
+    // the shutdown saves are queued, so write them before the store closes
+    SessionWriteQueue writeQueue = _writeQueue;
+
+    if (writeQueue != null) {
+      try {
+        writeQueue.close();
+      } catch (Exception e) {
+        log.log(Level.WARNING, "Can't store session: " + e, e);
+      }
+    }
+
     if (_admin != null)
       _admin.unregister();
 
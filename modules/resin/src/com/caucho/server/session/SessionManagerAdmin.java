@@ -269,6 +269,38 @@ public class SessionManagerAdmin extends AbstractManagedObject
     return _manager.getSessionTimeoutCount();
   }
 
+  /**
+   * Returns the number of sessions queued for write-behind
+   */
+  public int getSaveWriteBehindPendingCount()
+  {
+    return _manager.getSaveWriteBehindPendingCount();
+  }
+
+  /**
+   * Returns the number of write-behind store writes
+   */
+  public long getSaveWriteBehindWriteCountTotal()
+  {
+    return _manager.getSaveWriteBehindWriteCount();
+  }
+
+  /**
+   * Returns the number of saves coalesced by write-behind
+   */
+  public long getSaveWriteBehindCoalesceCountTotal()
+  {
+    return _manager.getSaveWriteBehindCoalesceCount();
+  }
+
+  /**
+   * Returns the number of full write-behind queues
+   */
+  public long getSaveWriteBehindOverflowCountTotal()
+  {
+    return _manager.getSaveWriteBehindOverflowCount();
+  }
+
   /**
    * Returns the session store type
    */
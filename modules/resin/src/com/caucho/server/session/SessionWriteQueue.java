@@ -0,0 +1,385 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+
+package com.caucho.server.session;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.caucho.env.thread.AbstractTaskWorker;
+import com.caucho.util.CurrentTime;
+import com.caucho.vfs.TempOutputStream;
+
+/**
+ * Write-behind queue for session persistence.  Serialized sessions are
+ * coalesced by id for a time window and written to the session store
+ * by a single worker, so a session updated by many requests in the
+ * window costs one store write.
+ *
+ * Writes happen under a flush lock while the pending map is drained,
+ * which keeps the writes for a session id in order.
+ */
+class SessionWriteQueue {
+  private static final Logger log
+    = Logger.getLogger(SessionWriteQueue.class.getName());
+
+  private final long _window;
+  private final int _capacity;
+
+  private final LinkedHashMap<String,SessionWrite> _pending
+    = new LinkedHashMap<String,SessionWrite>();
+
+  private final Object _flushLock = new Object();
+
+  private final WriteWorker _worker;
+
+  // time of the oldest pending write
+  private long _firstTime;
+
+  private volatile boolean _isClosed;
+
+  private final AtomicLong _writeCount = new AtomicLong();
+  private final AtomicLong _coalesceCount = new AtomicLong();
+  private final AtomicLong _overflowCount = new AtomicLong();
+
+  SessionWriteQueue(long window, int capacity)
+  {
+    _window = Math.max(window, 1);
+    _capacity = Math.max(capacity, 1);
+
+    _worker = new WriteWorker();
+  }
+
+  /**
+   * Returns the number of pending writes.
+   */
+  int getPendingCount()
+  {
+    synchronized (_pending) {
+      return _pending.size();
+    }
+  }
+
+  /**
+   * Returns the number of store writes.
+   */
+  long getWriteCount()
+  {
+    return _writeCount.get();
+  }
+
+  /**
+   * Returns the number of saves replaced by a later save before
+   * being written.
+   */
+  long getCoalesceCount()
+  {
+    return _coalesceCount.get();
+  }
+
+  /**
+   * Returns the number of times a full queue was flushed by the
+   * saving request.
+   */
+  long getOverflowCount()
+  {
+    return _overflowCount.get();
+  }
+
+  /**
+   * Queues a serialized session.  The queue owns the stream and closes
+   * it after the write.  The stale attribute entries are removed only
+   * after this session blob, or a later one replacing it, is written.
+   *
+   * @return false if the queue is closed and the caller must write
+   */
+  boolean offer(SessionImpl session,
+                TempOutputStream os,
+                ArrayList<String> staleKeys,
+                long accessTime,
+                long modifiedTime)
+  {
+    if (_isClosed) {
+      return false;
+    }
+
+    SessionWrite write
+      = new SessionWrite(session, os, staleKeys, accessTime, modifiedTime);
+
+    SessionWrite oldWrite;
+    boolean isFull;
+    boolean isWake;
+
+    synchronized (_pending) {
+      oldWrite = _pending.remove(session.getId());
+      _pending.put(session.getId(), write);
+
+      // the replaced blob is never written, so its stale entries
+      // move to this write
+      if (oldWrite != null) {
+        write.addStaleKeys(oldWrite.getStaleKeys());
+      }
+
+      isWake = _pending.size() == 1;
+
+      if (isWake) {
+        _firstTime = CurrentTime.getCurrentTime();
+      }
+
+      isFull = _capacity <= _pending.size();
+    }
+
+    if (oldWrite != null) {
+      _coalesceCount.incrementAndGet();
+      oldWrite.close();
+    }
+
+    if (isFull) {
+      // back-pressure: the saving request writes the batch itself
+      _overflowCount.incrementAndGet();
+
+      flush();
+    }
+    else if (isWake) {
+      _worker.wake();
+    }
+
+    return true;
+  }
+
+  /**
+   * Removes a pending write, e.g. for an invalidated session.
+   */
+  void remove(String id)
+  {
+    SessionWrite write;
+
+    synchronized (_pending) {
+      write = _pending.remove(id);
+    }
+
+    if (write != null) {
+      // the session's own removal handles the dropped stale entries
+      write.getSession().addStaleAttributes(write.getStaleKeys());
+
+      write.close();
+    }
+  }
+
+  /**
+   * Writes all pending sessions.
+   */
+  void flush()
+  {
+    synchronized (_flushLock) {
+      ArrayList<SessionWrite> writes;
+
+      synchronized (_pending) {
+        if (_pending.size() == 0) {
+          return;
+        }
+
+        writes = new ArrayList<SessionWrite>(_pending.values());
+        _pending.clear();
+        _firstTime = 0;
+      }
+
+      if (log.isLoggable(Level.FINER)) {
+        log.finer(this + " write " + writes.size() + " sessions");
+      }
+
+      for (SessionWrite write : writes) {
+        write(write);
+      }
+    }
+  }
+
+  /**
+   * Writes the pending write for a session id, e.g. before a new
+   * session instance loads the id from the store.  Waits for any
+   * batch being written, which may contain the id.
+   */
+  void flush(String id)
+  {
+    synchronized (_flushLock) {
+      SessionWrite write;
+
+      synchronized (_pending) {
+        write = _pending.remove(id);
+
+        if (_pending.size() == 0) {
+          _firstTime = 0;
+        }
+      }
+
+      if (write != null) {
+        write(write);
+      }
+    }
+  }
+
+  private void write(SessionWrite write)
+  {
+    try {
+      write.getSession().saveWriteBehind(write.getOutputStream(),
+                                         write.getStaleKeys(),
+                                         write.getAccessTime(),
+                                         write.getModifiedTime());
+
+      _writeCount.incrementAndGet();
+    } catch (Exception e) {
+      log.log(Level.WARNING, e.toString(), e);
+    } finally {
+      write.close();
+    }
+  }
+
+  /**
+   * Closes the queue, writing all pending sessions.
+   */
+  void close()
+  {
+    _isClosed = true;
+
+    _worker.close();
+
+    flush();
+  }
+
+  private long runWorker()
+  {
+    long firstTime;
+
+    synchronized (_pending) {
+      firstTime = _firstTime;
+    }
+
+    if (firstTime > 0 && ! _isClosed) {
+      long delta = firstTime + _window - CurrentTime.getCurrentTime();
+
+      if (delta > 0) {
+        return delta;
+      }
+    }
+
+    flush();
+
+    return -1;
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _window + "ms]";
+  }
+
+  class WriteWorker extends AbstractTaskWorker {
+    @Override
+    public long runTask()
+    {
+      return runWorker();
+    }
+  }
+
+  static class SessionWrite {
+    private final SessionImpl _session;
+    private TempOutputStream _os;
+    private ArrayList<String> _staleKeys;
+    private final long _accessTime;
+    private final long _modifiedTime;
+
+    SessionWrite(SessionImpl session,
+                 TempOutputStream os,
+                 ArrayList<String> staleKeys,
+                 long accessTime,
+                 long modifiedTime)
+    {
+      _session = session;
+      _os = os;
+      _staleKeys = staleKeys;
+      _accessTime = accessTime;
+      _modifiedTime = modifiedTime;
+    }
+
+    SessionImpl getSession()
+    {
+      return _session;
+    }
+
+    TempOutputStream getOutputStream()
+    {
+      return _os;
+    }
+
+    /**
+     * Returns the attribute entries replaced by this session blob.
+     */
+    ArrayList<String> getStaleKeys()
+    {
+      return _staleKeys;
+    }
+
+    void addStaleKeys(ArrayList<String> keys)
+    {
+      if (keys == null) {
+        return;
+      }
+
+      if (_staleKeys == null) {
+        _staleKeys = new ArrayList<String>();
+      }
+
+      _staleKeys.addAll(keys);
+    }
+
+    long getAccessTime()
+    {
+      return _accessTime;
+    }
+
+    long getModifiedTime()
+    {
+      return _modifiedTime;
+    }
+
+    void close()
+    {
+      TempOutputStream os = _os;
+      _os = null;
+
+      if (os != null) {
+        os.destroy();
+      }
+    }
+  }
+}
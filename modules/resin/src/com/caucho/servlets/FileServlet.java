@@ -60,7 +60,7 @@ import com.caucho.util.Base64;
 import com.caucho.util.CharBuffer;
 import com.caucho.util.Crc64;
 import com.caucho.util.L10N;
-import com.caucho.util.LruCache;
+import com.caucho.util.SegmentedLruCache;
 import com.caucho.util.QDate;
 import com.caucho.util.RandomUtil;
 import com.caucho.vfs.CaseInsensitive;
@@ -78,13 +78,13 @@ public class FileServlet extends GenericServlet {
   private static final Logger log
     = Logger.getLogger(FileServlet.class.getName());
 
-  private static final EnvironmentLocal<LruCache<String,Cache>> _pathCacheLocal
-    = new EnvironmentLocal<LruCache<String,Cache>>();
+  private static final EnvironmentLocal<SegmentedLruCache<String,Cache>> _pathCacheLocal
+    = new EnvironmentLocal<SegmentedLruCache<String,Cache>>();
 
-  private final LruCache<String,Cache> _pathCache;
+  private final SegmentedLruCache<String,Cache> _pathCache;
 
-  private final LruCache<String,Cache> _localCache
-    = new LruCache<String,Cache>(16 * 1024);
+  private final SegmentedLruCache<String,Cache> _localCache
+    = new SegmentedLruCache<String,Cache>(16 * 1024);
 
   private Path _context;
   private WebApp _app;
@@ -99,11 +99,11 @@ public class FileServlet extends GenericServlet {
   {
     ResinSystem resin = ResinSystem.getCurrent();
 
-    LruCache<String,Cache> pathCache;
+    SegmentedLruCache<String,Cache> pathCache;
 
     pathCache = _pathCacheLocal.get(resin.getClassLoader());
     if (pathCache == null) {
-      pathCache = new LruCache<String,Cache>(256 * 1024);
+      pathCache = new SegmentedLruCache<String,Cache>(256 * 1024);
       _pathCacheLocal.set(pathCache, resin.getClassLoader());
     }
 
@@ -51,6 +51,7 @@ import com.caucho.config.inject.BeanBuilder;
 import com.caucho.config.inject.CurrentLiteral;
 import com.caucho.config.inject.HandleAware;
 import com.caucho.config.inject.InjectManager;
+import com.caucho.config.types.Bytes;
 import com.caucho.config.types.InitParam;
 import com.caucho.config.types.Period;
 import com.caucho.env.dbpool.ConnectionPool;
@@ -650,6 +651,38 @@ public class DBPool
     getPool().setPreparedStatementCacheSize(size);
   }
 
+  /**
+   * Sets the memory size of the query result cache.
+   */
+  public void setQueryCacheMemorySize(Bytes size)
+  {
+    getPool().setQueryCacheMemorySize(size);
+  }
+
+  /**
+   * Sets the maximum age of a cached query result.
+   */
+  public void setQueryCacheMaxAge(Period period)
+  {
+    getPool().setQueryCacheMaxAge(period);
+  }
+
+  /**
+   * Sets the maximum number of rows of a cached query result.
+   */
+  public void setQueryCacheMaxRows(int rows)
+  {
+    getPool().setQueryCacheMaxRows(rows);
+  }
+
+  /**
+   * Returns the query result cache, or null if disabled.
+   */
+  QueryCache getQueryCache()
+  {
+    return getPool().getQueryCache();
+  }
+
   /**
    * Set the transaction manager for this pool.
    */
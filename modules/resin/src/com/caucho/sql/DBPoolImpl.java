@@ -30,6 +30,7 @@
 package com.caucho.sql;
 
 import com.caucho.config.ConfigException;
+import com.caucho.config.types.Bytes;
 import com.caucho.config.types.InitParam;
 import com.caucho.config.types.Period;
 import com.caucho.env.meter.ActiveTimeSensor;
@@ -195,6 +196,13 @@ public class DBPoolImpl implements AlarmListener, EnvironmentListener {
   private int _preparedStatementCacheSize = 0;
 
   private boolean _isWrapStatements = true;
+
+  // query result cache configuration
+  private long _queryCacheMemorySize;
+  private long _queryCacheMaxAge = 60 * 1000L;
+  private int _queryCacheMaxRows = 1000;
+
+  private QueryCache _queryCache;
   
   // The connections currently in the pool.
   // transient ArrayList<PoolItem> _connections = new ArrayList<PoolItem>();
@@ -549,6 +557,64 @@ public class DBPoolImpl implements AlarmListener, EnvironmentListener {
     _preparedStatementCacheSize = size;
   }
 
+  /**
+   * Sets the memory size of the query result cache.  A zero size,
+   * the default, disables the cache.
+   */
+  public void setQueryCacheMemorySize(Bytes size)
+  {
+    _queryCacheMemorySize = size.getBytes();
+  }
+
+  /**
+   * Returns the memory size of the query result cache.
+   */
+  public long getQueryCacheMemorySize()
+  {
+    return _queryCacheMemorySize;
+  }
+
+  /**
+   * Sets the maximum age of a cached query result.  The age bounds
+   * the staleness from writes the pool can't see, e.g. other servers.
+   */
+  public void setQueryCacheMaxAge(Period period)
+  {
+    _queryCacheMaxAge = period.getPeriod();
+  }
+
+  /**
+   * Returns the maximum age of a cached query result.
+   */
+  public long getQueryCacheMaxAge()
+  {
+    return _queryCacheMaxAge;
+  }
+
+  /**
+   * Sets the maximum number of rows of a cached query result.
+   */
+  public void setQueryCacheMaxRows(int rows)
+  {
+    _queryCacheMaxRows = rows;
+  }
+
+  /**
+   * Returns the maximum number of rows of a cached query result.
+   */
+  public int getQueryCacheMaxRows()
+  {
+    return _queryCacheMaxRows;
+  }
+
+  /**
+   * Returns the query result cache, or null if disabled.
+   */
+  QueryCache getQueryCache()
+  {
+    return _queryCache;
+  }
+
   /**
    * Get the time in milliseconds a connection will remain in the pool before
    * being closed.
@@ -772,12 +838,10 @@ public class DBPoolImpl implements AlarmListener, EnvironmentListener {
   /**
    * Returns the transaction manager.
    */
-  /*
-  public TransactionManager getTransactionManager()
+  TransactionManager getTransactionManager()
   {
     return _tm;
   }
-  */
 
   /**
    * Returns true if this is transactional.
@@ -984,6 +1048,19 @@ public class DBPoolImpl implements AlarmListener, EnvironmentListener {
       throw new ConfigException(L.l("<database> configuration needs at least one <driver>, because it needs to know the database to connect."));
     }
 
+    if (_queryCacheMemorySize > 0) {
+      if (! _isWrapStatements) {
+        log.warning(L.l("database {0} query-cache requires wrap-statements",
+                        _name));
+      }
+      else if (_queryCacheMaxRows > 0) {
+        _queryCache = new QueryCache(_name,
+                                     _queryCacheMemorySize,
+                                     _queryCacheMaxAge,
+                                     _queryCacheMaxRows);
+      }
+    }
+
     if (_mcf == null)
       _mcf = new ManagedFactoryImpl(this, drivers, backupDrivers);
 
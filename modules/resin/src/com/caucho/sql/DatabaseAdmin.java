@@ -79,6 +79,50 @@ public class DatabaseAdmin extends AbstractManagedObject
     return _dbPool.getName();
   }
 
+  //
+  // query cache statistics
+  //
+
+  @Override
+  public long getQueryCacheHitCountTotal()
+  {
+    QueryCache queryCache = _dbPool.getQueryCache();
+
+    return queryCache != null ? queryCache.getHitCountTotal() : 0;
+  }
+
+  @Override
+  public long getQueryCacheMissCountTotal()
+  {
+    QueryCache queryCache = _dbPool.getQueryCache();
+
+    return queryCache != null ? queryCache.getMissCountTotal() : 0;
+  }
+
+  @Override
+  public long getQueryCacheInvalidateCountTotal()
+  {
+    QueryCache queryCache = _dbPool.getQueryCache();
+
+    return queryCache != null ? queryCache.getInvalidateCountTotal() : 0;
+  }
+
+  @Override
+  public int getQueryCacheEntryCount()
+  {
+    QueryCache queryCache = _dbPool.getQueryCache();
+
+    return queryCache != null ? queryCache.getEntryCount() : 0;
+  }
+
+  @Override
+  public long getQueryCacheMemorySize()
+  {
+    QueryCache queryCache = _dbPool.getQueryCache();
+
+    return queryCache != null ? queryCache.getMemorySize() : 0;
+  }
+
   //
   // ConnectionPoolMXBean
   //
@@ -258,6 +302,51 @@ public class DatabaseAdmin extends AbstractManagedObject
     return _jcaPool.getLastFailTime();
   }
 
+  /**
+   * Returns the number of allocations which waited for a connection.
+   */
+  @Override
+  public long getConnectionWaitCountTotal()
+  {
+    return _jcaPool.getConnectionWaitCountTotal();
+  }
+
+  /**
+   * Returns the total time spent waiting for connections.
+   */
+  @Override
+  public long getConnectionWaitTimeTotal()
+  {
+    return _jcaPool.getConnectionWaitTimeTotal();
+  }
+
+  /**
+   * Returns the longest time spent waiting for a connection.
+   */
+  @Override
+  public long getConnectionWaitTimeMax()
+  {
+    return _jcaPool.getConnectionWaitTimeMax();
+  }
+
+  /**
+   * Returns the upper bounds of the wait histogram buckets.
+   */
+  @Override
+  public long []getConnectionWaitHistogramBounds()
+  {
+    return _jcaPool.getConnectionWaitHistogramBounds();
+  }
+
+  /**
+   * Returns the wait histogram counts.
+   */
+  @Override
+  public long []getConnectionWaitHistogram()
+  {
+    return _jcaPool.getConnectionWaitHistogram();
+  }
+
   //
   // Operations
   //
@@ -271,6 +360,18 @@ public class DatabaseAdmin extends AbstractManagedObject
     _jcaPool.clear();
   }
 
+  /**
+   * Clears the query result cache.
+   */
+  @Override
+  public void clearQueryCache()
+  {
+    QueryCache queryCache = _dbPool.getQueryCache();
+
+    if (queryCache != null)
+      queryCache.clear();
+  }
+
   void register()
   {
     registerSelf();
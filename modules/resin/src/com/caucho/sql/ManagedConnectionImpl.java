@@ -47,6 +47,8 @@ import javax.resource.spi.ManagedConnectionMetaData;
 import javax.security.auth.Subject;
 import javax.sql.PooledConnection;
 import javax.sql.XAConnection;
+import javax.transaction.Status;
+import javax.transaction.TransactionManager;
 import javax.transaction.xa.XAResource;
 import java.io.PrintWriter;
 import java.sql.Connection;
@@ -54,6 +56,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.logging.Level;
@@ -127,6 +130,9 @@ public class ManagedConnectionImpl
   
   private boolean _isPastActiveTime;
 
+  // updates in the current transaction for query cache invalidation
+  private ArrayList<String> _queryCacheUpdates;
+
   ManagedConnectionImpl(ManagedFactoryImpl factory,
                         DriverConfig driver,
                         ConnectionConfig connConfig,
@@ -193,6 +199,72 @@ public class ManagedConnectionImpl
     return _dbPool.isWrapStatements();
   }
 
+  /**
+   * Returns the pool's query cache, or null if disabled.
+   */
+  QueryCache getQueryCache()
+  {
+    return _dbPool.getQueryCache();
+  }
+
+  /**
+   * Returns true if query results can be stored in the query cache,
+   * i.e. the connection is not in a transaction and could not see
+   * uncommitted data.
+   */
+  boolean isQueryCacheStore()
+  {
+    if (! _autoCommit)
+      return false;
+
+    TransactionManager tm = _dbPool.getTransactionManager();
+
+    if (tm == null)
+      return true;
+
+    try {
+      return tm.getStatus() == Status.STATUS_NO_TRANSACTION;
+    } catch (Exception e) {
+      log.log(Level.FINEST, e.toString(), e);
+
+      return false;
+    }
+  }
+
+  /**
+   * Records an update made inside a transaction so the query cache
+   * can be invalidated again when the transaction completes.
+   */
+  void addQueryCacheUpdate(String sql)
+  {
+    if (_autoCommit)
+      return;
+
+    if (_queryCacheUpdates == null)
+      _queryCacheUpdates = new ArrayList<String>();
+
+    if (! _queryCacheUpdates.contains(sql))
+      _queryCacheUpdates.add(sql);
+  }
+
+  /**
+   * Invalidates the query cache for the transaction's updates.
+   */
+  void flushQueryCacheUpdates()
+  {
+    ArrayList<String> updates = _queryCacheUpdates;
+    _queryCacheUpdates = null;
+
+    QueryCache queryCache = getQueryCache();
+
+    if (updates == null || queryCache == null)
+      return;
+
+    for (String sql : updates) {
+      queryCache.invalidate(sql);
+    }
+  }
+
   /**
    * Returns the underlying connection.
    */
@@ -638,6 +710,10 @@ public class ManagedConnectionImpl
     } catch (SQLException e) {
       fatalEvent();
       throw e;
+    } finally {
+      // setAutoCommit(true) commits any pending transaction
+      if (autoCommit)
+        flushQueryCacheUpdates();
     }
   }
 
@@ -784,6 +860,8 @@ public class ManagedConnectionImpl
       }
       _autoCommit = true;
 
+      flushQueryCacheUpdates();
+
       conn.clearWarnings();
     } catch (SQLException e) {
       throw new ResourceException(e);
@@ -970,6 +1048,8 @@ public class ManagedConnectionImpl
         conn.commit();
       } catch (SQLException e) {
         throw new ResourceException(e) ;
+      } finally {
+        flushQueryCacheUpdates();
       }
 
       try {
@@ -992,6 +1072,8 @@ public class ManagedConnectionImpl
         conn.rollback();
       } catch (SQLException e) {
         throw new ResourceException(e) ;
+      } finally {
+        flushQueryCacheUpdates();
       }
 
       try {
@@ -46,7 +46,6 @@ import javax.resource.spi.ValidatingManagedConnectionFactory;
 import javax.security.auth.Subject;
 
 import com.caucho.cloud.network.ClusterServer;
-import com.caucho.env.dbpool.IdlePoolSet;
 import com.caucho.server.cluster.ServletService;
 import com.caucho.util.L10N;
 
@@ -189,22 +188,6 @@ public class ManagedFactoryImpl
                             ConnectionRequestInfo requestInfo)
     throws ResourceException
   {
-    if (connSet instanceof IdlePoolSet) {
-      IdlePoolSet idle = (IdlePoolSet) connSet;
-
-      ManagedConnectionImpl mConn = (ManagedConnectionImpl) idle.first();
-
-      if (mConn == null)
-        return null;
-      
-      Credential mCredentials = mConn.getCredentials();
-
-      if (requestInfo == mCredentials
-          || requestInfo != null && requestInfo.equals(mCredentials)) {
-        return mConn;
-      }
-    }
-    
     Iterator iter = connSet.iterator();
 
     while (iter.hasNext()) {
@@ -62,6 +62,16 @@ class PreparedStatementKey {
     _resultType = -1;
   }
 
+  String getSql()
+  {
+    return _sql;
+  }
+
+  int getResultType()
+  {
+    return _resultType;
+  }
+
   PreparedStatementKey copy()
   {
     return new PreparedStatementKey(_sql, _resultType);
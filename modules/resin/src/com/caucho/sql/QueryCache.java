@@ -0,0 +1,713 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+
+package com.caucho.sql;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.caucho.util.CurrentTime;
+import com.caucho.util.LruCache;
+
+/**
+ * Pool-level read-through cache of SELECT results.
+ *
+ * Entries are keyed by the statement sql and its parameters.  Writes
+ * through UserStatement and UserPreparedStatement invalidate the tables
+ * they name.  Each write advances an invalidation sequence, and an entry
+ * is only valid if none of its tables was written after the sequence
+ * captured before its query ran.
+ */
+class QueryCache {
+  private static final Logger log
+    = Logger.getLogger(QueryCache.class.getName());
+
+  // parameter set to SQL null
+  static final Object NULL_PARAM = new Object() {
+      public String toString() { return "null"; }
+    };
+
+  // parameter, such as a stream, which can't be part of a key
+  static final Object UNCACHEABLE_PARAM = new Object() {
+      public String toString() { return "uncacheable"; }
+    };
+
+  private static final SqlInfo NONE = new SqlInfo(false, new String[0]);
+  private static final SqlInfo ALL = new SqlInfo(false, null);
+
+  private static final HashSet<String> _aliasStopWords
+    = new HashSet<String>();
+
+  private final String _name;
+
+  private final long _maxMemory;
+  private final long _maxEntryMemory;
+  private final long _maxAge;
+  private final int _maxRows;
+
+  private final LruCache<QueryCacheKey,QueryResult> _cache;
+  private final LruCache<String,SqlInfo> _sqlCache
+    = new LruCache<String,SqlInfo>(1024);
+
+  // invalidation sequence of each table's last write
+  private final ConcurrentHashMap<String,Long> _tableSequenceMap
+    = new ConcurrentHashMap<String,Long>();
+  private final AtomicLong _sequence = new AtomicLong();
+  private volatile long _invalidateAllSequence;
+
+  private final AtomicLong _memorySize = new AtomicLong();
+
+  private final AtomicLong _hitCount = new AtomicLong();
+  private final AtomicLong _missCount = new AtomicLong();
+  private final AtomicLong _invalidateCount = new AtomicLong();
+
+  QueryCache(String name, long maxMemory, long maxAge, int maxRows)
+  {
+    _name = name;
+    _maxMemory = maxMemory;
+    _maxEntryMemory = Math.max(maxMemory / 16, 1);
+    _maxAge = maxAge;
+    _maxRows = maxRows;
+
+    int capacity = (int) Math.min(Math.max(maxMemory / 1024, 64), 65536);
+
+    _cache = new LruCache<QueryCacheKey,QueryResult>(capacity);
+  }
+
+  //
+  // statistics
+  //
+
+  long getHitCountTotal()
+  {
+    return _hitCount.get();
+  }
+
+  long getMissCountTotal()
+  {
+    return _missCount.get();
+  }
+
+  long getInvalidateCountTotal()
+  {
+    return _invalidateCount.get();
+  }
+
+  int getEntryCount()
+  {
+    return _cache.size();
+  }
+
+  long getMemorySize()
+  {
+    return _memorySize.get();
+  }
+
+  /**
+   * Returns an immutable copy of a parameter for a cache key.
+   */
+  static Object toKeyParam(Object value)
+  {
+    if (value == null)
+      return NULL_PARAM;
+    else if (value instanceof String
+             || value instanceof Integer
+             || value instanceof Long
+             || value instanceof Short
+             || value instanceof Byte
+             || value instanceof Double
+             || value instanceof Float
+             || value instanceof BigDecimal
+             || value instanceof BigInteger
+             || value instanceof Boolean
+             || value instanceof Character)
+      return value;
+    else if (value instanceof byte[])
+      return ((byte []) value).clone();
+    else if (value instanceof java.util.Date)
+      return ((java.util.Date) value).clone();
+    else
+      return UNCACHEABLE_PARAM;
+  }
+
+  /**
+   * Returns the cache key for a query, or null if the query or its
+   * parameters can't be cached.
+   */
+  QueryCacheKey createKey(PreparedStatementKey stmtKey, Object []params)
+  {
+    SqlInfo info = getSqlInfo(stmtKey.getSql());
+
+    if (! info.isQuery())
+      return null;
+
+    if (params != null) {
+      for (Object param : params) {
+        if (param == null || param == UNCACHEABLE_PARAM)
+          return null;
+      }
+    }
+
+    return new QueryCacheKey(stmtKey, params, _sequence.get());
+  }
+
+  /**
+   * Returns a ResultSet for a cached query, or null if the query isn't
+   * cached or is stale.
+   */
+  ResultSet get(Statement stmt, QueryCacheKey key)
+  {
+    QueryResult result = _cache.get(key);
+
+    if (result != null && ! isValid(result)) {
+      _cache.remove(key);
+      result = null;
+    }
+
+    if (result == null) {
+      _missCount.incrementAndGet();
+      return null;
+    }
+
+    _hitCount.incrementAndGet();
+
+    return new QueryResultSet(stmt, result.getMetaData(),
+                              result.getRows(), null);
+  }
+
+  /**
+   * Reads a driver ResultSet into a detached ResultSet, caching the
+   * result if it's small enough and the caller isn't in a transaction.
+   *
+   * @param isStore true if the result may be added to the cache
+   */
+  ResultSet fill(Statement stmt, QueryCacheKey key, ResultSet rs,
+                 boolean isStore)
+    throws SQLException
+  {
+    if (rs == null)
+      return null;
+
+    QueryResultMetaData metaData;
+
+    try {
+      metaData = new QueryResultMetaData(rs.getMetaData());
+    } catch (SQLException e) {
+      log.log(Level.FINER, e.toString(), e);
+
+      return rs;
+    }
+
+    ArrayList<Object[]> rows = new ArrayList<Object[]>();
+    long memorySize = metaData.getMemorySize();
+    boolean isComplete = false;
+    boolean isCacheable = isStore;
+
+    while (rows.size() < _maxRows && memorySize < _maxEntryMemory) {
+      if (! rs.next()) {
+        isComplete = true;
+        break;
+      }
+
+      Object []row = QueryResultSet.readRow(rs, metaData);
+
+      rows.add(row);
+      memorySize += QueryResultSet.getMemorySize(row);
+
+      if (! QueryResultSet.isCacheable(row)) {
+        // driver-specific values may depend on the open ResultSet
+        isCacheable = false;
+        break;
+      }
+    }
+
+    Object [][]rowArray = new Object[rows.size()][];
+    rows.toArray(rowArray);
+
+    if (! isComplete)
+      return new QueryResultSet(stmt, metaData, rowArray, rs);
+
+    rs.close();
+
+    if (isCacheable && memorySize < _maxEntryMemory) {
+      String []tables = getSqlInfo(key.getStatementKey().getSql()).getTables();
+
+      QueryResult result
+        = new QueryResult(this, metaData, rowArray, tables,
+                          key.getSequence(),
+                          CurrentTime.getCurrentTime() + _maxAge,
+                          memorySize);
+
+      // a write during the query makes the result stale
+      if (isValid(result))
+        put(key, result);
+    }
+
+    return new QueryResultSet(stmt, metaData, rowArray, null);
+  }
+
+  private void put(QueryCacheKey key, QueryResult result)
+  {
+    _memorySize.addAndGet(result.getMemorySize());
+
+    _cache.put(key, result);
+
+    while (_maxMemory < _memorySize.get() && _cache.removeTail()) {
+    }
+  }
+
+  /**
+   * Called when an entry is removed from the LRU.
+   */
+  void onRemove(QueryResult result)
+  {
+    _memorySize.addAndGet(- result.getMemorySize());
+  }
+
+  private boolean isValid(QueryResult result)
+  {
+    long sequence = result.getSequence();
+
+    if (result.getExpireTime() < CurrentTime.getCurrentTime())
+      return false;
+    else if (sequence < _invalidateAllSequence)
+      return false;
+
+    for (String table : result.getTables()) {
+      Long tableSequence = _tableSequenceMap.get(table);
+
+      if (tableSequence != null && sequence < tableSequence)
+        return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * Returns true if the sql might modify tables.
+   */
+  boolean isUpdate(String sql)
+  {
+    SqlInfo info = getSqlInfo(sql);
+
+    return info != NONE && ! info.isQuery();
+  }
+
+  /**
+   * Invalidates the tables written by an update statement.
+   */
+  void invalidate(String sql)
+  {
+    SqlInfo info = getSqlInfo(sql);
+
+    if (info.isQuery() || info == NONE)
+      return;
+
+    _invalidateCount.incrementAndGet();
+
+    String []tables = info.getTables();
+
+    long sequence = _sequence.incrementAndGet();
+
+    if (tables == null) {
+      _invalidateAllSequence = sequence;
+      _cache.clear();
+
+      if (log.isLoggable(Level.FINER))
+        log.finer(this + " invalidate all: " + sql);
+
+      return;
+    }
+
+    for (String table : tables) {
+      _tableSequenceMap.put(table, sequence);
+    }
+
+    if (log.isLoggable(Level.FINER))
+      log.finer(this + " invalidate " + java.util.Arrays.asList(tables));
+  }
+
+  /**
+   * Clears the cache.
+   */
+  void clear()
+  {
+    _invalidateAllSequence = _sequence.incrementAndGet();
+
+    _cache.clear();
+  }
+
+  private SqlInfo getSqlInfo(String sql)
+  {
+    SqlInfo info = _sqlCache.get(sql);
+
+    if (info == null) {
+      info = parse(sql);
+
+      _sqlCache.put(sql, info);
+    }
+
+    return info;
+  }
+
+  /**
+   * Classifies sql as a cacheable query, a statement which can't change
+   * data, or an update with the tables it writes.
+   */
+  static SqlInfo parse(String sql)
+  {
+    ArrayList<String> tokens = tokenize(sql);
+
+    if (tokens.size() == 0)
+      return NONE;
+
+    int semicolon = tokens.indexOf(";");
+
+    // multiple statements
+    if (0 <= semicolon && semicolon < tokens.size() - 1)
+      return ALL;
+
+    String op = tokens.get(0);
+
+    if (op.equals("select")) {
+      for (int i = 1; i < tokens.size(); i++) {
+        String token = tokens.get(i);
+
+        if (token.equals("into") || token.equals("lock")
+            || token.equals("for") && i + 1 < tokens.size()
+               && (tokens.get(i + 1).equals("update")
+                   || tokens.get(i + 1).equals("share"))) {
+          return NONE;
+        }
+      }
+
+      HashSet<String> tables = new HashSet<String>();
+
+      addTables(tokens, 1, tables);
+
+      if (tables.size() == 0)
+        return NONE;
+
+      return new SqlInfo(true, tables.toArray(new String[tables.size()]));
+    }
+    else if (op.equals("show") || op.equals("set") || op.equals("explain")
+             || op.equals("describe") || op.equals("desc")
+             || op.equals("use") || op.equals("begin")
+             || op.equals("commit") || op.equals("rollback")
+             || op.equals("start") || op.equals("savepoint")
+             || op.equals("release") || op.equals("with")
+             && ! tokens.contains("insert") && ! tokens.contains("update")
+             && ! tokens.contains("delete") && ! tokens.contains("merge")) {
+      return NONE;
+    }
+
+    HashSet<String> tables = new HashSet<String>();
+
+    if (op.equals("insert") || op.equals("replace") || op.equals("merge")) {
+      int i = 1;
+
+      while (i < tokens.size() && isModifier(tokens.get(i)))
+        i++;
+
+      if (i < tokens.size() && tokens.get(i).equals("into"))
+        i++;
+
+      if (i < tokens.size() && isIdentifier(tokens.get(i)))
+        tables.add(tokens.get(i));
+    }
+    else if (op.equals("update")) {
+      int i = 1;
+
+      while (i < tokens.size() && isModifier(tokens.get(i)))
+        i++;
+
+      int end = tokens.indexOf("set");
+
+      if (end < 0)
+        end = tokens.size();
+
+      addTableList(tokens, i, end, tables);
+      addTables(tokens.subList(0, end), i, tables);
+    }
+    else if (op.equals("delete")) {
+      int i = 1;
+
+      while (i < tokens.size() && isModifier(tokens.get(i)))
+        i++;
+
+      int end = tokens.indexOf("where");
+
+      if (end < 0)
+        end = tokens.size();
+
+      // multi-table "delete t1, t2 from ..."
+      int from = tokens.indexOf("from");
+
+      if (i < from)
+        addTableList(tokens, i, from, tables);
+
+      addTables(tokens.subList(0, end), i, tables);
+    }
+    else if (op.equals("truncate")) {
+      int i = 1;
+
+      if (i < tokens.size() && tokens.get(i).equals("table"))
+        i++;
+
+      addTableList(tokens, i, tokens.size(), tables);
+    }
+
+    if (tables.size() == 0)
+      return ALL;
+
+    return new SqlInfo(false, tables.toArray(new String[tables.size()]));
+  }
+
+  /**
+   * Adds the tables following FROM, JOIN and USING.
+   */
+  private static void addTables(java.util.List<String> tokens, int i,
+                                HashSet<String> tables)
+  {
+    for (; i < tokens.size(); i++) {
+      String token = tokens.get(i);
+
+      if (token.equals("from") || token.equals("join")
+          || token.equals("using") && i + 1 < tokens.size()
+             && ! tokens.get(i + 1).equals("(")) {
+        addTableList(tokens, i + 1, tokens.size(), tables);
+      }
+    }
+  }
+
+  /**
+   * Adds a comma-separated table list with optional aliases.
+   */
+  private static void addTableList(java.util.List<String> tokens,
+                                   int i, int end,
+                                   HashSet<String> tables)
+  {
+    while (i < end) {
+      String token = tokens.get(i);
+
+      if (! isIdentifier(token))
+        return;
+
+      tables.add(token);
+      i++;
+
+      if (i < end && tokens.get(i).equals("as"))
+        i++;
+
+      if (i < end && isIdentifier(tokens.get(i))
+          && ! _aliasStopWords.contains(tokens.get(i))) {
+        i++;
+      }
+
+      if (i < end && tokens.get(i).equals(","))
+        i++;
+      else
+        return;
+    }
+  }
+
+  private static boolean isModifier(String token)
+  {
+    return (token.equals("low_priority") || token.equals("delayed")
+            || token.equals("high_priority") || token.equals("ignore")
+            || token.equals("quick") || token.equals("only")
+            || token.equals("top"));
+  }
+
+  private static boolean isIdentifier(String token)
+  {
+    if (token.length() == 0)
+      return false;
+
+    char ch = token.charAt(0);
+
+    return (Character.isJavaIdentifierStart(ch) || ch == '#' || ch == '@')
+            && ! _aliasStopWords.contains(token);
+  }
+
+  /**
+   * Splits sql into lower-case identifiers and punctuation.  Literals
+   * become a single quote and qualified names keep their last part.
+   */
+  static ArrayList<String> tokenize(String sql)
+  {
+    ArrayList<String> tokens = new ArrayList<String>();
+
+    int len = sql.length();
+    int i = 0;
+
+    while (i < len) {
+      char ch = sql.charAt(i);
+
+      if (Character.isWhitespace(ch)) {
+        i++;
+      }
+      else if (ch == '-' && i + 1 < len && sql.charAt(i + 1) == '-') {
+        while (i < len && sql.charAt(i) != '\n')
+          i++;
+      }
+      else if (ch == '/' && i + 1 < len && sql.charAt(i + 1) == '*') {
+        int end = sql.indexOf("*/", i + 2);
+
+        i = end < 0 ? len : end + 2;
+      }
+      else if (ch == '\'') {
+        for (i++; i < len; i++) {
+          ch = sql.charAt(i);
+
+          if (ch == '\\')
+            i++;
+          else if (ch == '\'') {
+            if (i + 1 < len && sql.charAt(i + 1) == '\'')
+              i++;
+            else
+              break;
+          }
+        }
+
+        i++;
+        tokens.add("'");
+      }
+      else if (ch == '"' || ch == '`' || ch == '['
+               || Character.isJavaIdentifierStart(ch)
+               || ch == '#' || ch == '@') {
+        String name = null;
+
+        // qualified names like schema.table use the last part
+        do {
+          if (name != null)
+            i++;
+
+          ch = i < len ? sql.charAt(i) : 0;
+
+          if (ch == '"' || ch == '`' || ch == '[') {
+            char end = ch == '[' ? ']' : ch;
+            int tail = sql.indexOf(end, i + 1);
+
+            if (tail < 0)
+              tail = len;
+
+            name = sql.substring(i + 1, tail).toLowerCase();
+            i = tail + 1;
+          }
+          else {
+            int start = i;
+
+            while (i < len
+                   && (Character.isJavaIdentifierPart(sql.charAt(i))
+                       || sql.charAt(i) == '#' || sql.charAt(i) == '@')) {
+              i++;
+            }
+
+            name = sql.substring(start, i).toLowerCase();
+          }
+        } while (i < len && sql.charAt(i) == '.');
+
+        tokens.add(name);
+      }
+      else if (Character.isDigit(ch)) {
+        while (i < len && (Character.isLetterOrDigit(sql.charAt(i))
+                           || sql.charAt(i) == '.')) {
+          i++;
+        }
+
+        tokens.add("0");
+      }
+      else {
+        tokens.add(String.valueOf(ch));
+        i++;
+      }
+    }
+
+    return tokens;
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _name + "]";
+  }
+
+  static final class SqlInfo {
+    private final boolean _isQuery;
+    private final String []_tables;
+
+    SqlInfo(boolean isQuery, String []tables)
+    {
+      _isQuery = isQuery;
+      _tables = tables;
+    }
+
+    /**
+     * True for a cacheable SELECT.
+     */
+    boolean isQuery()
+    {
+      return _isQuery;
+    }
+
+    /**
+     * Tables read by a query or written by an update, or null if an
+     * update's tables are unknown.
+     */
+    String []getTables()
+    {
+      return _tables;
+    }
+  }
+
+  static {
+    String []words = new String[] {
+      "where", "join", "inner", "left", "right", "full", "outer", "cross",
+      "natural", "on", "using", "group", "order", "having", "limit",
+      "union", "offset", "fetch", "for", "window", "straight_join",
+      "except", "intersect", "set", "values", "select", "from", "as",
+      "with", "lock", "into", "partition", "force", "use",
+    };
+
+    for (String word : words) {
+      _aliasStopWords.add(word);
+    }
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+
+package com.caucho.sql;
+
+import java.util.Arrays;
+
+/**
+ * Key for the query result cache: the statement's sql and its
+ * bound parameters.
+ */
+final class QueryCacheKey {
+  private final PreparedStatementKey _stmtKey;
+  private final Object []_params;
+  private final int _hash;
+
+  // invalidation sequence when the key was created, i.e. before the query
+  private final long _sequence;
+
+  QueryCacheKey(PreparedStatementKey stmtKey, Object []params, long sequence)
+  {
+    _stmtKey = stmtKey;
+    _params = params;
+    _sequence = sequence;
+
+    int hash = stmtKey.hashCode();
+
+    if (params != null)
+      hash = 65521 * hash + Arrays.deepHashCode(params);
+
+    _hash = hash;
+  }
+
+  PreparedStatementKey getStatementKey()
+  {
+    return _stmtKey;
+  }
+
+  long getSequence()
+  {
+    return _sequence;
+  }
+
+  @Override
+  public int hashCode()
+  {
+    return _hash;
+  }
+
+  @Override
+  public boolean equals(Object o)
+  {
+    if (! (o instanceof QueryCacheKey))
+      return false;
+
+    QueryCacheKey key = (QueryCacheKey) o;
+
+    return (_hash == key._hash
+            && _stmtKey.equals(key._stmtKey)
+            && Arrays.deepEquals(_params, key._params));
+  }
+
+  @Override
+  public String toString()
+  {
+    return (getClass().getSimpleName() + "[" + _stmtKey.getSql()
+            + "," + Arrays.deepToString(_params) + "]");
+  }
+}
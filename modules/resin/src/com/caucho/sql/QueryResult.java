@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+
+package com.caucho.sql;
+
+import com.caucho.util.CacheListener;
+
+/**
+ * Cached result of a query.  The rows are immutable and shared by
+ * every ResultSet created from the entry.
+ */
+final class QueryResult implements CacheListener {
+  private final QueryCache _cache;
+
+  private final QueryResultMetaData _metaData;
+  private final Object [][]_rows;
+
+  private final String []_tables;
+  private final long _sequence;
+  private final long _expireTime;
+  private final long _memorySize;
+
+  QueryResult(QueryCache cache,
+              QueryResultMetaData metaData,
+              Object [][]rows,
+              String []tables,
+              long sequence,
+              long expireTime,
+              long memorySize)
+  {
+    _cache = cache;
+    _metaData = metaData;
+    _rows = rows;
+    _tables = tables;
+    _sequence = sequence;
+    _expireTime = expireTime;
+    _memorySize = memorySize;
+  }
+
+  QueryResultMetaData getMetaData()
+  {
+    return _metaData;
+  }
+
+  Object [][]getRows()
+  {
+    return _rows;
+  }
+
+  /**
+   * Returns the tables the query reads, used for invalidation.
+   */
+  String []getTables()
+  {
+    return _tables;
+  }
+
+  /**
+   * Returns the invalidation sequence before the query executed.
+   */
+  long getSequence()
+  {
+    return _sequence;
+  }
+
+  long getExpireTime()
+  {
+    return _expireTime;
+  }
+
+  long getMemorySize()
+  {
+    return _memorySize;
+  }
+
+  /**
+   * Called by the LRU when the entry is removed.
+   */
+  @Override
+  public void removeEvent()
+  {
+    _cache.onRemove(this);
+  }
+
+  @Override
+  public String toString()
+  {
+    return (getClass().getSimpleName() + "[rows=" + _rows.length
+            + ",size=" + _memorySize + "]");
+  }
+}
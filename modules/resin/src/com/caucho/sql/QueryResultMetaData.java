@@ -0,0 +1,316 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+
+package com.caucho.sql;
+
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+import com.caucho.util.L10N;
+
+/**
+ * Detached copy of a query's result metadata.
+ */
+class QueryResultMetaData implements ResultSetMetaData {
+  private static final L10N L = new L10N(QueryResultMetaData.class);
+
+  private final Column []_columns;
+
+  QueryResultMetaData(ResultSetMetaData md)
+    throws SQLException
+  {
+    int count = md.getColumnCount();
+
+    _columns = new Column[count];
+
+    for (int i = 0; i < count; i++) {
+      _columns[i] = new Column(md, i + 1);
+    }
+  }
+
+  /**
+   * Returns the approximate memory used by the metadata.
+   */
+  long getMemorySize()
+  {
+    return 32 + 128L * _columns.length;
+  }
+
+  /**
+   * Returns the 1-based index of a column label or name, or 0.
+   */
+  int findColumn(String name)
+  {
+    for (int i = 0; i < _columns.length; i++) {
+      if (name.equalsIgnoreCase(_columns[i]._label))
+        return i + 1;
+    }
+
+    for (int i = 0; i < _columns.length; i++) {
+      if (name.equalsIgnoreCase(_columns[i]._name))
+        return i + 1;
+    }
+
+    return 0;
+  }
+
+  @Override
+  public int getColumnCount()
+  {
+    return _columns.length;
+  }
+
+  @Override
+  public boolean isAutoIncrement(int column)
+    throws SQLException
+  {
+    return getColumn(column)._isAutoIncrement;
+  }
+
+  @Override
+  public boolean isCaseSensitive(int column)
+    throws SQLException
+  {
+    return getColumn(column)._isCaseSensitive;
+  }
+
+  @Override
+  public boolean isSearchable(int column)
+    throws SQLException
+  {
+    return getColumn(column)._isSearchable;
+  }
+
+  @Override
+  public boolean isCurrency(int column)
+    throws SQLException
+  {
+    return getColumn(column)._isCurrency;
+  }
+
+  @Override
+  public int isNullable(int column)
+    throws SQLException
+  {
+    return getColumn(column)._nullable;
+  }
+
+  @Override
+  public boolean isSigned(int column)
+    throws SQLException
+  {
+    return getColumn(column)._isSigned;
+  }
+
+  @Override
+  public int getColumnDisplaySize(int column)
+    throws SQLException
+  {
+    return getColumn(column)._displaySize;
+  }
+
+  @Override
+  public String getColumnLabel(int column)
+    throws SQLException
+  {
+    return getColumn(column)._label;
+  }
+
+  @Override
+  public String getColumnName(int column)
+    throws SQLException
+  {
+    return getColumn(column)._name;
+  }
+
+  @Override
+  public String getSchemaName(int column)
+    throws SQLException
+  {
+    return getColumn(column)._schemaName;
+  }
+
+  @Override
+  public int getPrecision(int column)
+    throws SQLException
+  {
+    return getColumn(column)._precision;
+  }
+
+  @Override
+  public int getScale(int column)
+    throws SQLException
+  {
+    return getColumn(column)._scale;
+  }
+
+  @Override
+  public String getTableName(int column)
+    throws SQLException
+  {
+    return getColumn(column)._tableName;
+  }
+
+  @Override
+  public String getCatalogName(int column)
+    throws SQLException
+  {
+    return getColumn(column)._catalogName;
+  }
+
+  @Override
+  public int getColumnType(int column)
+    throws SQLException
+  {
+    return getColumn(column)._type;
+  }
+
+  @Override
+  public String getColumnTypeName(int column)
+    throws SQLException
+  {
+    return getColumn(column)._typeName;
+  }
+
+  @Override
+  public boolean isReadOnly(int column)
+    throws SQLException
+  {
+    getColumn(column);
+
+    return true;
+  }
+
+  @Override
+  public boolean isWritable(int column)
+    throws SQLException
+  {
+    getColumn(column);
+
+    return false;
+  }
+
+  @Override
+  public boolean isDefinitelyWritable(int column)
+    throws SQLException
+  {
+    getColumn(column);
+
+    return false;
+  }
+
+  @Override
+  public String getColumnClassName(int column)
+    throws SQLException
+  {
+    return getColumn(column)._className;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T> T unwrap(Class<T> iface)
+    throws SQLException
+  {
+    if (iface.isAssignableFrom(getClass()))
+      return (T) this;
+    else
+      throw new SQLException(L.l("{0} is not a wrapper for {1}", this, iface));
+  }
+
+  @Override
+  public boolean isWrapperFor(Class<?> iface)
+    throws SQLException
+  {
+    return iface.isAssignableFrom(getClass());
+  }
+
+  private Column getColumn(int column)
+    throws SQLException
+  {
+    if (column < 1 || _columns.length < column)
+      throw new SQLException(L.l("column {0} is out of range", column));
+
+    return _columns[column - 1];
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _columns.length + "]";
+  }
+
+  static final class Column {
+    private final String _name;
+    private final String _label;
+    private final int _type;
+    private final String _typeName;
+    private final String _className;
+
+    private final String _tableName;
+    private final String _schemaName;
+    private final String _catalogName;
+
+    private final int _precision;
+    private final int _scale;
+    private final int _displaySize;
+    private final int _nullable;
+
+    private final boolean _isAutoIncrement;
+    private final boolean _isCaseSensitive;
+    private final boolean _isSearchable;
+    private final boolean _isCurrency;
+    private final boolean _isSigned;
+
+    Column(ResultSetMetaData md, int i)
+      throws SQLException
+    {
+      _name = md.getColumnName(i);
+      _label = md.getColumnLabel(i);
+      _type = md.getColumnType(i);
+      _typeName = md.getColumnTypeName(i);
+      _className = md.getColumnClassName(i);
+
+      _tableName = md.getTableName(i);
+      _schemaName = md.getSchemaName(i);
+      _catalogName = md.getCatalogName(i);
+
+      _precision = md.getPrecision(i);
+      _scale = md.getScale(i);
+      _displaySize = md.getColumnDisplaySize(i);
+      _nullable = md.isNullable(i);
+
+      _isAutoIncrement = md.isAutoIncrement(i);
+      _isCaseSensitive = md.isCaseSensitive(i);
+      _isSearchable = md.isSearchable(i);
+      _isCurrency = md.isCurrency(i);
+      _isSigned = md.isSigned(i);
+    }
+  }
+}
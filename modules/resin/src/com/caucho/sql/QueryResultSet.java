@@ -0,0 +1,970 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+
+package com.caucho.sql;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Date;
+import java.sql.NClob;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.RowId;
+import java.sql.SQLException;
+import java.sql.SQLXML;
+import java.sql.Statement;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+
+import javax.sql.rowset.serial.SerialBlob;
+import javax.sql.rowset.serial.SerialClob;
+
+import com.caucho.db.jdbc.AbstractResultSet;
+
+/**
+ * Detached, read-only ResultSet over buffered rows.
+ *
+ * The rows either come from a cached QueryResult, or are the buffered
+ * prefix of a live query which was too large to cache.  In the second
+ * case, the remaining rows are read from the driver's ResultSet.
+ */
+class QueryResultSet extends AbstractResultSet {
+  private final Statement _stmt;
+  private final QueryResultMetaData _metaData;
+  private final Object [][]_rows;
+
+  // driver result for rows past the buffered prefix
+  private ResultSet _tail;
+
+  private Object []_row;
+  private int _index = -1;
+  private int _rowNumber;
+  private boolean _isAfterLast;
+  private boolean _wasNull;
+  private boolean _isClosed;
+
+  QueryResultSet(Statement stmt,
+                 QueryResultMetaData metaData,
+                 Object [][]rows,
+                 ResultSet tail)
+  {
+    _stmt = stmt;
+    _metaData = metaData;
+    _rows = rows;
+    _tail = tail;
+  }
+
+  /**
+   * Reads the current row of a driver ResultSet as plain values.
+   */
+  static Object []readRow(ResultSet rs, QueryResultMetaData metaData)
+    throws SQLException
+  {
+    int count = metaData.getColumnCount();
+    Object []row = new Object[count];
+
+    for (int i = 1; i <= count; i++) {
+      switch (metaData.getColumnType(i)) {
+      case Types.DATE:
+        row[i - 1] = rs.getDate(i);
+        break;
+
+      case Types.TIME:
+        row[i - 1] = rs.getTime(i);
+        break;
+
+      case Types.TIMESTAMP:
+        row[i - 1] = rs.getTimestamp(i);
+        break;
+
+      case Types.BINARY:
+      case Types.VARBINARY:
+      case Types.LONGVARBINARY:
+      case Types.BLOB:
+        row[i - 1] = rs.getBytes(i);
+        break;
+
+      case Types.CHAR:
+      case Types.VARCHAR:
+      case Types.LONGVARCHAR:
+      case Types.CLOB:
+      case Types.NCHAR:
+      case Types.NVARCHAR:
+      case Types.LONGNVARCHAR:
+      case Types.NCLOB:
+        row[i - 1] = rs.getString(i);
+        break;
+
+      default:
+        row[i - 1] = rs.getObject(i);
+        break;
+      }
+    }
+
+    return row;
+  }
+
+  /**
+   * Returns true if every value in the row is an immutable value which
+   * can be shared between requests.
+   */
+  static boolean isCacheable(Object []row)
+  {
+    for (Object value : row) {
+      if (value == null
+          || value instanceof String
+          || value instanceof Number
+          || value instanceof Boolean
+          || value instanceof java.util.Date
+          || value instanceof byte[]
+          || value instanceof Character) {
+        continue;
+      }
+
+      return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * Returns the approximate memory size of a row.
+   */
+  static long getMemorySize(Object []row)
+  {
+    long size = 24 + 8 * row.length;
+
+    for (Object value : row) {
+      if (value == null) {
+      }
+      else if (value instanceof String)
+        size += 40 + 2 * ((String) value).length();
+      else if (value instanceof byte[])
+        size += 16 + ((byte []) value).length;
+      else
+        size += 32;
+    }
+
+    return size;
+  }
+
+  @Override
+  public Statement getStatement()
+  {
+    return _stmt;
+  }
+
+  @Override
+  public ResultSetMetaData getMetaData()
+  {
+    return _metaData;
+  }
+
+  @Override
+  public int getType()
+  {
+    return ResultSet.TYPE_FORWARD_ONLY;
+  }
+
+  @Override
+  public int getConcurrency()
+  {
+    return ResultSet.CONCUR_READ_ONLY;
+  }
+
+  @Override
+  public int getHoldability()
+  {
+    return ResultSet.HOLD_CURSORS_OVER_COMMIT;
+  }
+
+  @Override
+  public boolean next()
+    throws SQLException
+  {
+    if (_isClosed)
+      throw new SQLException(L.l("{0} is closed", this));
+
+    if (_index + 1 < _rows.length) {
+      _index++;
+      _rowNumber++;
+      _row = _rows[_index];
+
+      return true;
+    }
+
+    _index = _rows.length;
+
+    ResultSet tail = _tail;
+
+    if (tail != null && tail.next()) {
+      _rowNumber++;
+      _row = readRow(tail, _metaData);
+
+      return true;
+    }
+
+    _row = null;
+    _isAfterLast = true;
+
+    return false;
+  }
+
+  @Override
+  public int getRow()
+  {
+    return _isAfterLast ? 0 : _rowNumber;
+  }
+
+  @Override
+  public boolean isBeforeFirst()
+  {
+    return _rowNumber == 0 && (_rows.length > 0 || _tail != null);
+  }
+
+  @Override
+  public boolean isFirst()
+  {
+    return _rowNumber == 1 && ! _isAfterLast;
+  }
+
+  @Override
+  public boolean isAfterLast()
+  {
+    return _isAfterLast && _rowNumber > 0;
+  }
+
+  @Override
+  public boolean wasNull()
+  {
+    return _wasNull;
+  }
+
+  @Override
+  public int findColumn(String columnName)
+    throws SQLException
+  {
+    int index = _metaData.findColumn(columnName);
+
+    if (index <= 0)
+      throw new SQLException(L.l("'{0}' is an unknown column.", columnName));
+
+    return index;
+  }
+
+  /**
+   * Returns the column value of the current row.
+   */
+  private Object getValue(int columnIndex)
+    throws SQLException
+  {
+    Object []row = _row;
+
+    if (row == null)
+      throw new SQLException(L.l("{0} is not positioned on a row", this));
+    else if (columnIndex < 1 || row.length < columnIndex)
+      throw new SQLException(L.l("column {0} is out of range", columnIndex));
+
+    Object value = row[columnIndex - 1];
+
+    _wasNull = value == null;
+
+    return value;
+  }
+
+  @Override
+  public Object getObject(int columnIndex)
+    throws SQLException
+  {
+    Object value = getValue(columnIndex);
+
+    // shared values are copied when they're mutable
+    if (value instanceof byte[])
+      return ((byte []) value).clone();
+    else if (value instanceof java.util.Date)
+      return ((java.util.Date) value).clone();
+    else
+      return value;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T> T getObject(int columnIndex, Class<T> type)
+    throws SQLException
+  {
+    if (type == String.class)
+      return (T) getString(columnIndex);
+    else if (type == Integer.class)
+      return (T) (getValue(columnIndex) == null ? null : getInt(columnIndex));
+    else if (type == Long.class)
+      return (T) (getValue(columnIndex) == null ? null : getLong(columnIndex));
+    else if (type == Double.class)
+      return (T) (getValue(columnIndex) == null ? null : getDouble(columnIndex));
+    else if (type == Boolean.class)
+      return (T) (getValue(columnIndex) == null ? null : getBoolean(columnIndex));
+    else if (type == BigDecimal.class)
+      return (T) getBigDecimal(columnIndex);
+    else if (type == Date.class)
+      return (T) getDate(columnIndex);
+    else if (type == Time.class)
+      return (T) getTime(columnIndex);
+    else if (type == Timestamp.class)
+      return (T) getTimestamp(columnIndex);
+    else if (type == byte[].class)
+      return (T) getBytes(columnIndex);
+
+    Object value = getObject(columnIndex);
+
+    if (value == null || type.isInstance(value))
+      return (T) value;
+
+    throw new SQLException(L.l("column {0} value '{1}' can't be converted to {2}",
+                               columnIndex, value, type.getName()));
+  }
+
+  @Override
+  public <T> T getObject(String columnLabel, Class<T> type)
+    throws SQLException
+  {
+    return getObject(findColumn(columnLabel), type);
+  }
+
+  @Override
+  public String getString(int columnIndex)
+    throws SQLException
+  {
+    Object value = getValue(columnIndex);
+
+    if (value == null)
+      return null;
+    else if (value instanceof byte[])
+      return new String((byte []) value);
+    else
+      return value.toString();
+  }
+
+  @Override
+  public boolean getBoolean(int columnIndex)
+    throws SQLException
+  {
+    Object value = getValue(columnIndex);
+
+    if (value == null)
+      return false;
+    else if (value instanceof Boolean)
+      return (Boolean) value;
+    else if (value instanceof Number)
+      return ((Number) value).intValue() != 0;
+
+    String v = value.toString().trim();
+
+    return (v.equalsIgnoreCase("true") || v.equals("1")
+            || v.equalsIgnoreCase("y") || v.equalsIgnoreCase("yes"));
+  }
+
+  @Override
+  public int getInt(int columnIndex)
+    throws SQLException
+  {
+    return (int) getLong(columnIndex);
+  }
+
+  @Override
+  public long getLong(int columnIndex)
+    throws SQLException
+  {
+    Object value = getValue(columnIndex);
+
+    if (value == null)
+      return 0;
+    else if (value instanceof Number)
+      return ((Number) value).longValue();
+    else if (value instanceof Boolean)
+      return ((Boolean) value) ? 1 : 0;
+
+    try {
+      return new BigDecimal(value.toString().trim()).longValue();
+    } catch (NumberFormatException e) {
+      throw new SQLException(L.l("column {0} value '{1}' is not a number",
+                                 columnIndex, value), e);
+    }
+  }
+
+  @Override
+  public double getDouble(int columnIndex)
+    throws SQLException
+  {
+    Object value = getValue(columnIndex);
+
+    if (value == null)
+      return 0;
+    else if (value instanceof Number)
+      return ((Number) value).doubleValue();
+    else if (value instanceof Boolean)
+      return ((Boolean) value) ? 1 : 0;
+
+    try {
+      return Double.parseDouble(value.toString().trim());
+    } catch (NumberFormatException e) {
+      throw new SQLException(L.l("column {0} value '{1}' is not a number",
+                                 columnIndex, value), e);
+    }
+  }
+
+  @Override
+  public BigDecimal getBigDecimal(int columnIndex)
+    throws SQLException
+  {
+    Object value = getValue(columnIndex);
+
+    if (value == null)
+      return null;
+    else if (value instanceof BigDecimal)
+      return (BigDecimal) value;
+    else if (value instanceof BigInteger)
+      return new BigDecimal((BigInteger) value);
+    else if (value instanceof Boolean)
+      return ((Boolean) value) ? BigDecimal.ONE : BigDecimal.ZERO;
+
+    try {
+      return new BigDecimal(value.toString().trim());
+    } catch (NumberFormatException e) {
+      throw new SQLException(L.l("column {0} value '{1}' is not a number",
+                                 columnIndex, value), e);
+    }
+  }
+
+  @Override
+  public Date getDate(int columnIndex)
+    throws SQLException
+  {
+    Object value = getValue(columnIndex);
+
+    if (value == null)
+      return null;
+    else if (value instanceof Date)
+      return (Date) ((Date) value).clone();
+    else if (value instanceof java.util.Date)
+      return new Date(((java.util.Date) value).getTime());
+
+    try {
+      return Date.valueOf(value.toString().trim());
+    } catch (IllegalArgumentException e) {
+      throw new SQLException(L.l("column {0} value '{1}' is not a date",
+                                 columnIndex, value), e);
+    }
+  }
+
+  @Override
+  public Time getTime(int columnIndex)
+    throws SQLException
+  {
+    Object value = getValue(columnIndex);
+
+    if (value == null)
+      return null;
+    else if (value instanceof Time)
+      return (Time) ((Time) value).clone();
+    else if (value instanceof java.util.Date)
+      return new Time(((java.util.Date) value).getTime());
+
+    try {
+      return Time.valueOf(value.toString().trim());
+    } catch (IllegalArgumentException e) {
+      throw new SQLException(L.l("column {0} value '{1}' is not a time",
+                                 columnIndex, value), e);
+    }
+  }
+
+  @Override
+  public Timestamp getTimestamp(int columnIndex)
+    throws SQLException
+  {
+    Object value = getValue(columnIndex);
+
+    if (value == null)
+      return null;
+    else if (value instanceof Timestamp)
+      return (Timestamp) ((Timestamp) value).clone();
+    else if (value instanceof java.util.Date)
+      return new Timestamp(((java.util.Date) value).getTime());
+
+    try {
+      return Timestamp.valueOf(value.toString().trim());
+    } catch (IllegalArgumentException e) {
+      throw new SQLException(L.l("column {0} value '{1}' is not a timestamp",
+                                 columnIndex, value), e);
+    }
+  }
+
+  @Override
+  public byte []getBytes(int columnIndex)
+    throws SQLException
+  {
+    Object value = getValue(columnIndex);
+
+    if (value == null)
+      return null;
+    else if (value instanceof byte[])
+      return ((byte []) value).clone();
+    else
+      return value.toString().getBytes();
+  }
+
+  @Override
+  public InputStream getBinaryStream(int columnIndex)
+    throws SQLException
+  {
+    byte []bytes = getBytes(columnIndex);
+
+    return bytes != null ? new ByteArrayInputStream(bytes) : null;
+  }
+
+  @Override
+  public Reader getCharacterStream(int columnIndex)
+    throws SQLException
+  {
+    String value = getString(columnIndex);
+
+    return value != null ? new StringReader(value) : null;
+  }
+
+  @Override
+  public Blob getBlob(int columnIndex)
+    throws SQLException
+  {
+    byte []bytes = getBytes(columnIndex);
+
+    return bytes != null ? new SerialBlob(bytes) : null;
+  }
+
+  @Override
+  public Clob getClob(int columnIndex)
+    throws SQLException
+  {
+    String value = getString(columnIndex);
+
+    return value != null ? new SerialClob(value.toCharArray()) : null;
+  }
+
+  @Override
+  public String getNString(int columnIndex)
+    throws SQLException
+  {
+    return getString(columnIndex);
+  }
+
+  @Override
+  public String getNString(String columnLabel)
+    throws SQLException
+  {
+    return getString(findColumn(columnLabel));
+  }
+
+  @Override
+  public Reader getNCharacterStream(int columnIndex)
+    throws SQLException
+  {
+    return getCharacterStream(columnIndex);
+  }
+
+  @Override
+  public Reader getNCharacterStream(String columnLabel)
+    throws SQLException
+  {
+    return getCharacterStream(findColumn(columnLabel));
+  }
+
+  @Override
+  public NClob getNClob(int columnIndex)
+    throws SQLException
+  {
+    throw new UnsupportedOperationException(getClass().getName());
+  }
+
+  @Override
+  public NClob getNClob(String columnLabel)
+    throws SQLException
+  {
+    throw new UnsupportedOperationException(getClass().getName());
+  }
+
+  @Override
+  public RowId getRowId(int columnIndex)
+    throws SQLException
+  {
+    throw new UnsupportedOperationException(getClass().getName());
+  }
+
+  @Override
+  public RowId getRowId(String columnLabel)
+    throws SQLException
+  {
+    throw new UnsupportedOperationException(getClass().getName());
+  }
+
+  @Override
+  public SQLXML getSQLXML(int columnIndex)
+    throws SQLException
+  {
+    throw new UnsupportedOperationException(getClass().getName());
+  }
+
+  @Override
+  public SQLXML getSQLXML(String columnLabel)
+    throws SQLException
+  {
+    throw new UnsupportedOperationException(getClass().getName());
+  }
+
+  //
+  // updates are not allowed on a detached result
+  //
+
+  @Override
+  public void updateRowId(int columnIndex, RowId x)
+    throws SQLException
+  {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateRowId(String columnLabel, RowId x)
+    throws SQLException
+  {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateNString(int columnIndex, String nString)
+    throws SQLException
+  {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateNString(String columnLabel, String nString)
+    throws SQLException
+  {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateNClob(int columnIndex, NClob nClob)
+    throws SQLException
+  {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateNClob(String columnLabel, NClob nClob)
+    throws SQLException
+  {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateSQLXML(int columnIndex, SQLXML xmlObject)
+    throws SQLException
+  {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateSQLXML(String columnLabel, SQLXML xmlObject)
+    throws SQLException
+  {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateNCharacterStream(int columnIndex, Reader x, long length)
+    throws SQLException
+  {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateNCharacterStream(String columnLabel, Reader reader,
+                                     long length)
+    throws SQLException
+  {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateAsciiStream(int columnIndex, InputStream x, long length)
+    throws SQLException
+  {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateBinaryStream(int columnIndex, InputStream x, long length)
+    throws SQLException
+  {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateCharacterStream(int columnIndex, Reader x, long length)
+    throws SQLException
+  {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateAsciiStream(String columnLabel, InputStream x, long length)
+    throws SQLException
+  {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateBinaryStream(String columnLabel, InputStream x,
+                                 long length)
+    throws SQLException
+  {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateCharacterStream(String columnLabel, Reader reader,
+                                    long length)
+    throws SQLException
+  {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateBlob(int columnIndex, InputStream inputStream, long length)
+    throws SQLException
+  {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateBlob(String columnLabel, InputStream inputStream,
+                         long length)
+    throws SQLException
+  {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateClob(int columnIndex, Reader reader, long length)
+    throws SQLException
+  {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateClob(String columnLabel, Reader reader, long length)
+    throws SQLException
+  {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateNClob(int columnIndex, Reader reader, long length)
+    throws SQLException
+  {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateNClob(String columnLabel, Reader reader, long length)
+    throws SQLException
+  {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateNCharacterStream(int columnIndex, Reader x)
+    throws SQLException
+  {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateNCharacterStream(String columnLabel, Reader reader)
+    throws SQLException
+  {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateAsciiStream(int columnIndex, InputStream x)
+    throws SQLException
+  {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateBinaryStream(int columnIndex, InputStream x)
+    throws SQLException
+  {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateCharacterStream(int columnIndex, Reader x)
+    throws SQLException
+  {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateAsciiStream(String columnLabel, InputStream x)
+    throws SQLException
+  {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateBinaryStream(String columnLabel, InputStream x)
+    throws SQLException
+  {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateCharacterStream(String columnLabel, Reader reader)
+    throws SQLException
+  {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateBlob(int columnIndex, InputStream inputStream)
+    throws SQLException
+  {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateBlob(String columnLabel, InputStream inputStream)
+    throws SQLException
+  {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateClob(int columnIndex, Reader reader)
+    throws SQLException
+  {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateClob(String columnLabel, Reader reader)
+    throws SQLException
+  {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateNClob(int columnIndex, Reader reader)
+    throws SQLException
+  {
+    throw readOnly();
+  }
+
+  @Override
+  public void updateNClob(String columnLabel, Reader reader)
+    throws SQLException
+  {
+    throw readOnly();
+  }
+
+  private SQLException readOnly()
+  {
+    return new SQLException(L.l("{0} is a read-only cached result", this));
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T> T unwrap(Class<T> iface)
+    throws SQLException
+  {
+    if (iface.isAssignableFrom(getClass()))
+      return (T) this;
+    else if (_tail != null)
+      return _tail.unwrap(iface);
+    else
+      throw new SQLException(L.l("{0} is not a wrapper for {1}", this, iface));
+  }
+
+  @Override
+  public boolean isWrapperFor(Class<?> iface)
+    throws SQLException
+  {
+    if (iface.isAssignableFrom(getClass()))
+      return true;
+    else if (_tail != null)
+      return _tail.isWrapperFor(iface);
+    else
+      return false;
+  }
+
+  @Override
+  public boolean isClosed()
+  {
+    return _isClosed;
+  }
+
+  @Override
+  public void close()
+    throws SQLException
+  {
+    _isClosed = true;
+    _row = null;
+
+    ResultSet tail = _tail;
+    _tail = null;
+
+    if (tail != null)
+      tail.close();
+  }
+
+  @Override
+  public String toString()
+  {
+    return (getClass().getSimpleName() + "[rows=" + _rows.length
+            + (_tail != null ? ",tail=" + _tail : "") + "]");
+  }
+}
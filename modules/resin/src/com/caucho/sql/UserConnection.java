@@ -93,6 +93,43 @@ public class UserConnection implements java.sql.Connection {
     return _mConn.getDBPool().getTimeProbe();
   }
 
+  /**
+   * Returns the pool's query cache, or null if disabled.
+   */
+  QueryCache getQueryCache()
+  {
+    return _mConn.getQueryCache();
+  }
+
+  /**
+   * True if query results may be stored in the query cache.
+   */
+  boolean isQueryCacheStore()
+  {
+    ManagedConnectionImpl mConn = _mConn;
+
+    return mConn != null && mConn.isQueryCacheStore();
+  }
+
+  /**
+   * Records an update for invalidation when the transaction completes.
+   */
+  void addQueryCacheUpdate(String sql)
+  {
+    ManagedConnectionImpl mConn = _mConn;
+
+    if (mConn != null)
+      mConn.addQueryCacheUpdate(sql);
+  }
+
+  private void flushQueryCacheUpdates()
+  {
+    ManagedConnectionImpl mConn = _mConn;
+
+    if (mConn != null)
+      mConn.flushQueryCacheUpdates();
+  }
+
   public Class<?> getDriverClass()
   {
     return getMConn().getDriverClass();
@@ -103,6 +140,52 @@ public class UserConnection implements java.sql.Connection {
     return getMConn().getDBPool().getURL();
   }
 
+  private UserPreparedStatement createPreparedStatement(String sql,
+                                                        PreparedStatement stmt)
+  {
+    UserPreparedStatement uStmt = new UserPreparedStatement(this, stmt);
+
+    if (getQueryCache() != null)
+      uStmt.initQueryCache(new PreparedStatementKey(sql));
+
+    return uStmt;
+  }
+
+  private UserPreparedStatement createPreparedStatement(String sql,
+                                                        PreparedStatement stmt,
+                                                        int resultSetType,
+                                                        int concurrency)
+  {
+    UserPreparedStatement uStmt = createPreparedStatement(sql, stmt);
+
+    if (! isQueryCacheResultSet(resultSetType, concurrency))
+      uStmt.disableQueryCache();
+
+    return uStmt;
+  }
+
+  private UserStatement createUserStatement(Statement stmt,
+                                            int resultSetType,
+                                            int concurrency)
+  {
+    UserStatement uStmt = new UserStatement(this, stmt);
+
+    if (! isQueryCacheResultSet(resultSetType, concurrency))
+      uStmt.disableQueryCache();
+
+    return uStmt;
+  }
+
+  /**
+   * The query cache only returns forward-only, read-only results.
+   */
+  private static boolean isQueryCacheResultSet(int resultSetType,
+                                               int concurrency)
+  {
+    return (resultSetType == ResultSet.TYPE_FORWARD_ONLY
+            && concurrency == ResultSet.CONCUR_READ_ONLY);
+  }
+
   /**
    * Associates with a different mConn.
    */
@@ -175,7 +258,7 @@ public class UserConnection implements java.sql.Connection {
     addStatement(stmt);
 
     if (_mConn.isWrapStatements())
-      return new UserStatement(this, stmt);
+      return createUserStatement(stmt, resultSetType, resultSetConcurrency);
     else
       return stmt;
   }
@@ -210,7 +293,7 @@ public class UserConnection implements java.sql.Connection {
     addStatement(stmt);
 
     if (_mConn.isWrapStatements())
-      return new UserStatement(this, stmt);
+      return createUserStatement(stmt, resultSetType, resultSetConcurrency);
     else
       return stmt;
   }
@@ -246,7 +329,7 @@ public class UserConnection implements java.sql.Connection {
     addStatement(stmt);
 
     if (_mConn.isWrapStatements())
-      return new UserPreparedStatement(this, stmt);
+      return createPreparedStatement(sql, stmt);
     else
       return stmt;
   }
@@ -284,7 +367,8 @@ public class UserConnection implements java.sql.Connection {
     addStatement(stmt);
 
     if (_mConn.isWrapStatements())
-      return new UserPreparedStatement(this, stmt);
+      return createPreparedStatement(sql, stmt, resultSetType,
+                                     resultSetConcurrency);
     else
       return stmt;
   }
@@ -326,7 +410,8 @@ public class UserConnection implements java.sql.Connection {
     addStatement(stmt);
 
     if (_mConn.isWrapStatements())
-      return new UserPreparedStatement(this, stmt);
+      return createPreparedStatement(sql, stmt, resultSetType,
+                                     resultSetConcurrency);
     else
       return stmt;
   }
@@ -367,7 +452,7 @@ public class UserConnection implements java.sql.Connection {
     addStatement(stmt);
 
     if (_mConn.isWrapStatements())
-      return new UserPreparedStatement(this, stmt);
+      return createPreparedStatement(sql, stmt);
     else
       return stmt;
   }
@@ -404,7 +489,7 @@ public class UserConnection implements java.sql.Connection {
     addStatement(stmt);
 
     if (_mConn.isWrapStatements())
-      return new UserPreparedStatement(this, stmt);
+      return createPreparedStatement(sql, stmt);
     else
       return stmt;
   }
@@ -441,7 +526,7 @@ public class UserConnection implements java.sql.Connection {
     addStatement(stmt);
 
     if (_mConn.isWrapStatements())
-      return new UserPreparedStatement(this, stmt);
+      return createPreparedStatement(sql, stmt);
     else
       return stmt;
   }
@@ -829,6 +914,8 @@ public class UserConnection implements java.sql.Connection {
       onRuntimeException(e);
       
       throw e;
+    } finally {
+      flushQueryCacheUpdates();
     }
   }
 
@@ -849,6 +936,8 @@ public class UserConnection implements java.sql.Connection {
       onRuntimeException(e);
       
       throw e;
+    } finally {
+      flushQueryCacheUpdates();
     }
   }
 
@@ -66,6 +66,10 @@ public class UserPreparedStatement extends UserStatement
   private boolean _isClosed;
 
   private ActiveTimeSensor _timeProbe;
+
+  // query cache key and bound parameters, when the query cache is enabled
+  private PreparedStatementKey _queryKey;
+  private Object []_queryParams;
   
   UserPreparedStatement(UserConnection conn,
                         PreparedStatement pStmt,
@@ -95,6 +99,15 @@ public class UserPreparedStatement extends UserStatement
     return _pstmt;
   }
 
+  /**
+   * Enables the query cache for the statement's sql.
+   */
+  void initQueryCache(PreparedStatementKey key)
+  {
+    if (_queryCache != null)
+      _queryKey = key;
+  }
+
   /**
    * Executes the prepared statement's query.
    */
@@ -105,7 +118,28 @@ public class UserPreparedStatement extends UserStatement
     long startTime = _timeProbe.start();
     
     try {
-      return _pstmt.executeQuery();
+      QueryCacheKey key = null;
+
+      if (_queryKey != null && isQueryCacheable()) {
+        Object []params = _queryParams;
+
+        key = _queryCache.createKey(_queryKey,
+                                    params != null ? params.clone() : null);
+
+        if (key != null) {
+          ResultSet rs = _queryCache.get(this, key);
+
+          if (rs != null)
+            return rs;
+        }
+      }
+
+      ResultSet rs = _pstmt.executeQuery();
+
+      if (key != null)
+        rs = _queryCache.fill(this, key, rs, _conn.isQueryCacheStore());
+
+      return rs;
     } catch (RuntimeException e) {
       onRuntimeException(e);
       
@@ -139,6 +173,9 @@ public class UserPreparedStatement extends UserStatement
       
       throw e;
     } finally {
+      if (_queryKey != null)
+        onUpdate(_queryKey.getSql());
+
       _timeProbe.end(startTime);
     }
   }
@@ -163,6 +200,9 @@ public class UserPreparedStatement extends UserStatement
       
       throw e;
     } finally {
+      if (_queryKey != null)
+        onUpdate(_queryKey.getSql());
+
       _timeProbe.end(startTime);
     }
   }
@@ -174,6 +214,9 @@ public class UserPreparedStatement extends UserStatement
   public void addBatch()
     throws SQLException
   {
+    if (_queryKey != null)
+      addBatchUpdate(_queryKey.getSql());
+
     try {
       _pstmt.addBatch();
     } catch (RuntimeException e) {
@@ -194,6 +237,8 @@ public class UserPreparedStatement extends UserStatement
   public void clearParameters()
     throws SQLException
   {
+    _queryParams = null;
+
     try {
       _pstmt.clearParameters();
     } catch (RuntimeException e) {
@@ -279,6 +324,8 @@ public class UserPreparedStatement extends UserStatement
   public void setNull(int parameterIndex, int sqlType)
     throws SQLException
   {
+    setQueryParam(parameterIndex, null);
+
     try {
       _pstmt.setNull(parameterIndex, sqlType);
     } catch (RuntimeException e) {
@@ -299,6 +346,8 @@ public class UserPreparedStatement extends UserStatement
   public void setNull(int parameterIndex, int sqlType, String typeName)
     throws SQLException
   {
+    setQueryParam(parameterIndex, null);
+
     try {
       _pstmt.setNull(parameterIndex, sqlType, typeName);
     } catch (RuntimeException e) {
@@ -319,6 +368,8 @@ public class UserPreparedStatement extends UserStatement
   public void setBoolean(int index, boolean value)
     throws SQLException
   {
+    setQueryParam(index, value);
+
     try {
       _pstmt.setBoolean(index, value);
     } catch (RuntimeException e) {
@@ -339,6 +390,8 @@ public class UserPreparedStatement extends UserStatement
   public void setByte(int index, byte value)
     throws SQLException
   {
+    setQueryParam(index, value);
+
     try {
       _pstmt.setByte(index, value);
     } catch (RuntimeException e) {
@@ -359,6 +412,8 @@ public class UserPreparedStatement extends UserStatement
   public void setShort(int index, short value)
     throws SQLException
   {
+    setQueryParam(index, value);
+
     try {
       _pstmt.setShort(index, value);
     } catch (RuntimeException e) {
@@ -379,6 +434,8 @@ public class UserPreparedStatement extends UserStatement
   public void setInt(int index, int value)
     throws SQLException
   {
+    setQueryParam(index, value);
+
     try {
       _pstmt.setInt(index, value);
     } catch (RuntimeException e) {
@@ -399,6 +456,8 @@ public class UserPreparedStatement extends UserStatement
   public void setLong(int index, long value)
     throws SQLException
   {
+    setQueryParam(index, value);
+
     try {
       _pstmt.setLong(index, value);
     } catch (RuntimeException e) {
@@ -419,6 +478,8 @@ public class UserPreparedStatement extends UserStatement
   public void setFloat(int index, float value)
     throws SQLException
   {
+    setQueryParam(index, value);
+
     try {
       _pstmt.setFloat(index, value);
     } catch (RuntimeException e) {
@@ -439,6 +500,8 @@ public class UserPreparedStatement extends UserStatement
   public void setDouble(int index, double value)
     throws SQLException
   {
+    setQueryParam(index, value);
+
     try {
       _pstmt.setDouble(index, value);
     } catch (RuntimeException e) {
@@ -459,6 +522,8 @@ public class UserPreparedStatement extends UserStatement
   public void setBigDecimal(int index, BigDecimal value)
     throws SQLException
   {
+    setQueryParam(index, value);
+
     try {
       _pstmt.setBigDecimal(index, value);
     } catch (RuntimeException e) {
@@ -479,6 +544,8 @@ public class UserPreparedStatement extends UserStatement
   public void setString(int index, String value)
     throws SQLException
   {
+    setQueryParam(index, value);
+
     try {
       _pstmt.setString(index, value);
     } catch (RuntimeException e) {
@@ -499,6 +566,8 @@ public class UserPreparedStatement extends UserStatement
   public void setBytes(int index, byte []value)
     throws SQLException
   {
+    setQueryParam(index, value);
+
     try {
       _pstmt.setBytes(index, value);
     } catch (RuntimeException e) {
@@ -519,6 +588,8 @@ public class UserPreparedStatement extends UserStatement
   public void setDate(int index, Date value)
     throws SQLException
   {
+    setQueryParam(index, value);
+
     try {
       _pstmt.setDate(index, value);
     } catch (RuntimeException e) {
@@ -539,6 +610,8 @@ public class UserPreparedStatement extends UserStatement
   public void setDate(int index, Date value, Calendar cal)
     throws SQLException
   {
+    setQueryParam(index, QueryCache.UNCACHEABLE_PARAM);
+
     try {
       _pstmt.setDate(index, value, cal);
     } catch (RuntimeException e) {
@@ -559,6 +632,8 @@ public class UserPreparedStatement extends UserStatement
   public void setTime(int index, Time value)
     throws SQLException
   {
+    setQueryParam(index, value);
+
     try {
       _pstmt.setTime(index, value);
     } catch (RuntimeException e) {
@@ -579,6 +654,8 @@ public class UserPreparedStatement extends UserStatement
   public void setTime(int index, Time value, Calendar cal)
     throws SQLException
   {
+    setQueryParam(index, QueryCache.UNCACHEABLE_PARAM);
+
     try {
       _pstmt.setTime(index, value, cal);
     } catch (RuntimeException e) {
@@ -599,6 +676,8 @@ public class UserPreparedStatement extends UserStatement
   public void setTimestamp(int index, Timestamp value)
     throws SQLException
   {
+    setQueryParam(index, value);
+
     try {
       _pstmt.setTimestamp(index, value);
     } catch (RuntimeException e) {
@@ -619,6 +698,8 @@ public class UserPreparedStatement extends UserStatement
   public void setTimestamp(int index, Timestamp value, Calendar cal)
     throws SQLException
   {
+    setQueryParam(index, QueryCache.UNCACHEABLE_PARAM);
+
     try {
       _pstmt.setTimestamp(index, value, cal);
     } catch (RuntimeException e) {
@@ -639,6 +720,8 @@ public class UserPreparedStatement extends UserStatement
   public void setAsciiStream(int index, InputStream value, int length)
     throws SQLException
   {
+    setQueryParam(index, QueryCache.UNCACHEABLE_PARAM);
+
     try {
       _pstmt.setAsciiStream(index, value, length);
     } catch (RuntimeException e) {
@@ -660,6 +743,8 @@ public class UserPreparedStatement extends UserStatement
   public void setUnicodeStream(int index, InputStream value, int length)
     throws SQLException
   {
+    setQueryParam(index, QueryCache.UNCACHEABLE_PARAM);
+
     try {
       _pstmt.setUnicodeStream(index, value, length);
     } catch (RuntimeException e) {
@@ -680,6 +765,8 @@ public class UserPreparedStatement extends UserStatement
   public void setBinaryStream(int index, InputStream value, int length)
     throws SQLException
   {
+    setQueryParam(index, QueryCache.UNCACHEABLE_PARAM);
+
     try {
       _pstmt.setBinaryStream(index, value, length);
     } catch (RuntimeException e) {
@@ -700,6 +787,8 @@ public class UserPreparedStatement extends UserStatement
   public void setCharacterStream(int index, Reader value, int length)
     throws SQLException
   {
+    setQueryParam(index, QueryCache.UNCACHEABLE_PARAM);
+
     try {
       _pstmt.setCharacterStream(index, value, length);
     } catch (RuntimeException e) {
@@ -720,6 +809,8 @@ public class UserPreparedStatement extends UserStatement
   public void setObject(int index, Object value, int type, int scale)
     throws SQLException
   {
+    setQueryParam(index, QueryCache.UNCACHEABLE_PARAM);
+
     try {
       _pstmt.setObject(index, value, type, scale);
     } catch (RuntimeException e) {
@@ -739,6 +830,8 @@ public class UserPreparedStatement extends UserStatement
                              long length)
     throws SQLException
   {
+    setQueryParam(parameterIndex, QueryCache.UNCACHEABLE_PARAM);
+
     try {
       _pstmt.setAsciiStream(parameterIndex, x, length);
     } catch (RuntimeException e) {
@@ -758,6 +851,8 @@ public class UserPreparedStatement extends UserStatement
                               long length)
     throws SQLException
   {
+    setQueryParam(parameterIndex, QueryCache.UNCACHEABLE_PARAM);
+
     try {
       _pstmt.setBinaryStream(parameterIndex, x, length);
     } catch (RuntimeException e) {
@@ -777,6 +872,8 @@ public class UserPreparedStatement extends UserStatement
                                  long length)
     throws SQLException
   {
+    setQueryParam(parameterIndex, QueryCache.UNCACHEABLE_PARAM);
+
     try {
       _pstmt.setCharacterStream(parameterIndex, reader, length);
     } catch (RuntimeException e) {
@@ -794,6 +891,8 @@ public class UserPreparedStatement extends UserStatement
   public void setAsciiStream(int parameterIndex, InputStream x)
     throws SQLException
   {
+    setQueryParam(parameterIndex, QueryCache.UNCACHEABLE_PARAM);
+
     try {
       _pstmt.setAsciiStream(parameterIndex, x);
     } catch (RuntimeException e) {
@@ -811,6 +910,8 @@ public class UserPreparedStatement extends UserStatement
   public void setBinaryStream(int parameterIndex, InputStream x)
     throws SQLException
   {
+    setQueryParam(parameterIndex, QueryCache.UNCACHEABLE_PARAM);
+
     try {
       _pstmt.setBinaryStream(parameterIndex, x);
     } catch (RuntimeException e) {
@@ -828,6 +929,8 @@ public class UserPreparedStatement extends UserStatement
   public void setCharacterStream(int parameterIndex, Reader reader)
     throws SQLException
   {
+    setQueryParam(parameterIndex, QueryCache.UNCACHEABLE_PARAM);
+
     try {
       _pstmt.setCharacterStream(parameterIndex, reader);
     } catch (RuntimeException e) {
@@ -845,6 +948,8 @@ public class UserPreparedStatement extends UserStatement
   public void setNCharacterStream(int parameterIndex, Reader value)
     throws SQLException
   {
+    setQueryParam(parameterIndex, QueryCache.UNCACHEABLE_PARAM);
+
     try {
       _pstmt.setNCharacterStream(parameterIndex, value);
     } catch (RuntimeException e) {
@@ -862,6 +967,8 @@ public class UserPreparedStatement extends UserStatement
   public void setClob(int parameterIndex, Reader reader)
     throws SQLException
   {
+    setQueryParam(parameterIndex, QueryCache.UNCACHEABLE_PARAM);
+
     try {
       _pstmt.setClob(parameterIndex, reader);
     } catch (RuntimeException e) {
@@ -879,6 +986,8 @@ public class UserPreparedStatement extends UserStatement
   public void setBlob(int parameterIndex, InputStream inputStream)
     throws SQLException
   {
+    setQueryParam(parameterIndex, QueryCache.UNCACHEABLE_PARAM);
+
     try {
       _pstmt.setBlob(parameterIndex, inputStream);
     } catch (RuntimeException e) {
@@ -896,6 +1005,8 @@ public class UserPreparedStatement extends UserStatement
   public void setNClob(int parameterIndex, Reader reader)
     throws SQLException
   {
+    setQueryParam(parameterIndex, QueryCache.UNCACHEABLE_PARAM);
+
     try {
       _pstmt.setNClob(parameterIndex, reader);
     } catch (RuntimeException e) {
@@ -916,6 +1027,8 @@ public class UserPreparedStatement extends UserStatement
   public void setObject(int index, Object value, int type)
     throws SQLException
   {
+    setQueryParam(index, value, type);
+
     try {
       _pstmt.setObject(index, value, type);
     } catch (RuntimeException e) {
@@ -936,6 +1049,8 @@ public class UserPreparedStatement extends UserStatement
   public void setObject(int index, Object value)
     throws SQLException
   {
+    setQueryParam(index, value);
+
     try {
       _pstmt.setObject(index, value);
     } catch (RuntimeException e) {
@@ -956,6 +1071,8 @@ public class UserPreparedStatement extends UserStatement
   public void setRef(int index, Ref value)
     throws SQLException
   {
+    setQueryParam(index, QueryCache.UNCACHEABLE_PARAM);
+
     try {
       _pstmt.setRef(index, value);
     } catch (RuntimeException e) {
@@ -976,6 +1093,8 @@ public class UserPreparedStatement extends UserStatement
   public void setBlob(int index, Blob value)
     throws SQLException
   {
+    setQueryParam(index, QueryCache.UNCACHEABLE_PARAM);
+
     try {
       _pstmt.setBlob(index, value);
     } catch (RuntimeException e) {
@@ -996,6 +1115,8 @@ public class UserPreparedStatement extends UserStatement
   public void setClob(int index, Clob value)
     throws SQLException
   {
+    setQueryParam(index, QueryCache.UNCACHEABLE_PARAM);
+
     try {
       _pstmt.setClob(index, value);
     } catch (RuntimeException e) {
@@ -1016,6 +1137,8 @@ public class UserPreparedStatement extends UserStatement
   public void setArray(int index, Array value)
     throws SQLException
   {
+    setQueryParam(index, QueryCache.UNCACHEABLE_PARAM);
+
     try {
       _pstmt.setArray(index, value);
     } catch (RuntimeException e) {
@@ -1036,6 +1159,8 @@ public class UserPreparedStatement extends UserStatement
   public void setURL(int index, URL value)
     throws SQLException
   {
+    setQueryParam(index, QueryCache.UNCACHEABLE_PARAM);
+
     try {
       _pstmt.setURL(index, value);
     } catch (RuntimeException e) {
@@ -1053,6 +1178,8 @@ public class UserPreparedStatement extends UserStatement
   public void setRowId(int parameterIndex, RowId x)
     throws SQLException
   {
+    setQueryParam(parameterIndex, QueryCache.UNCACHEABLE_PARAM);
+
     try {
       _pstmt.setRowId(parameterIndex, x);
     } catch (RuntimeException e) {
@@ -1070,6 +1197,8 @@ public class UserPreparedStatement extends UserStatement
   public void setNString(int parameterIndex, String value)
     throws SQLException
   {
+    setQueryParam(parameterIndex, value);
+
     try {
       _pstmt.setNString(parameterIndex, value);
     } catch (RuntimeException e) {
@@ -1089,6 +1218,8 @@ public class UserPreparedStatement extends UserStatement
                                   long length)
     throws SQLException
   {
+    setQueryParam(parameterIndex, QueryCache.UNCACHEABLE_PARAM);
+
     try {
       _pstmt.setNCharacterStream(parameterIndex, value, length);
     } catch (RuntimeException e) {
@@ -1106,6 +1237,8 @@ public class UserPreparedStatement extends UserStatement
   public void setNClob(int parameterIndex, NClob value)
     throws SQLException
   {
+    setQueryParam(parameterIndex, QueryCache.UNCACHEABLE_PARAM);
+
     try {
       _pstmt.setNClob(parameterIndex, value);
     } catch (RuntimeException e) {
@@ -1123,6 +1256,8 @@ public class UserPreparedStatement extends UserStatement
   public void setClob(int parameterIndex, Reader reader, long length)
     throws SQLException
   {
+    setQueryParam(parameterIndex, QueryCache.UNCACHEABLE_PARAM);
+
     try {
       _pstmt.setClob(parameterIndex, reader, length);
     } catch (RuntimeException e) {
@@ -1142,6 +1277,8 @@ public class UserPreparedStatement extends UserStatement
                       long length)
     throws SQLException
   {
+    setQueryParam(parameterIndex, QueryCache.UNCACHEABLE_PARAM);
+
     try {
       _pstmt.setBlob(parameterIndex, inputStream, length);
     } catch (RuntimeException e) {
@@ -1159,6 +1296,8 @@ public class UserPreparedStatement extends UserStatement
   public void setNClob(int parameterIndex, Reader reader, long length)
     throws SQLException
   {
+    setQueryParam(parameterIndex, QueryCache.UNCACHEABLE_PARAM);
+
     try {
       _pstmt.setNClob(parameterIndex, reader, length);
     } catch (RuntimeException e) {
@@ -1176,6 +1315,8 @@ public class UserPreparedStatement extends UserStatement
   public void setSQLXML(int parameterIndex, SQLXML xmlObject)
     throws SQLException
   {
+    setQueryParam(parameterIndex, QueryCache.UNCACHEABLE_PARAM);
+
     try {
       _pstmt.setSQLXML(parameterIndex, xmlObject);
     } catch (RuntimeException e) {
@@ -1189,6 +1330,51 @@ public class UserPreparedStatement extends UserStatement
     }
   }
 
+  /**
+   * Records a parameter for the query cache key.
+   */
+  private void setQueryParam(int index, Object value)
+  {
+    if (_queryKey != null)
+      putQueryParam(index, QueryCache.toKeyParam(value));
+  }
+
+  /**
+   * Records a typed parameter for the query cache key.
+   */
+  private void setQueryParam(int index, Object value, int type)
+  {
+    if (_queryKey == null)
+      return;
+
+    Object param = QueryCache.toKeyParam(value);
+
+    if (param != QueryCache.UNCACHEABLE_PARAM)
+      param = new Object[] { param, type };
+
+    putQueryParam(index, param);
+  }
+
+  private void putQueryParam(int index, Object param)
+  {
+    if (index < 1)
+      return;
+
+    Object []params = _queryParams;
+
+    if (params == null || params.length < index) {
+      Object []newParams = new Object[index];
+
+      if (params != null)
+        System.arraycopy(params, 0, newParams, 0, params.length);
+
+      params = newParams;
+      _queryParams = params;
+    }
+
+    params[index - 1] = param;
+  }
+
   /**
    * Closes the prepared statement.
    */
@@ -33,6 +33,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.SQLWarning;
 import java.sql.Statement;
+import java.util.ArrayList;
 
 import com.caucho.env.meter.ActiveTimeSensor;
 import com.caucho.util.L10N;
@@ -53,13 +54,41 @@ public class UserStatement implements Statement {
   // True if the statement is changed in a way that forbids its caching.
   protected boolean _isPoolable = true;
 
+  // The pool's query cache, or null if disabled
+  protected final QueryCache _queryCache;
+
+  // False if the result set options or limits aren't the defaults the
+  // query cache stores, e.g. a max-rows or a scrollable result
+  private boolean _isQueryCacheable = true;
+
   private final ActiveTimeSensor _timeProbe;
 
+  // sql of the pending batch for query cache invalidation
+  private ArrayList<String> _batchSql;
+
   UserStatement(UserConnection conn, Statement stmt)
   {
     _conn = conn;
     _stmt = stmt;
     _timeProbe = conn.getTimeProbe();
+    _queryCache = conn.getQueryCache();
+  }
+
+  /**
+   * Disables query cache lookups for the statement's results.  Updates
+   * still invalidate the cache.
+   */
+  void disableQueryCache()
+  {
+    _isQueryCacheable = false;
+  }
+
+  /**
+   * True if the statement's results can use the query cache.
+   */
+  protected boolean isQueryCacheable()
+  {
+    return _queryCache != null && _isQueryCacheable;
   }
 
   @Override
@@ -93,6 +122,8 @@ public class UserStatement implements Statement {
   public void addBatch(String sql)
     throws SQLException
   {
+    addBatchUpdate(sql);
+
     try {
       _stmt.addBatch(sql);
     } catch (RuntimeException e) {
@@ -127,6 +158,8 @@ public class UserStatement implements Statement {
   public void clearBatch()
     throws SQLException
   {
+    _batchSql = null;
+
     try {
       _stmt.clearBatch();
     } catch (RuntimeException e) {
@@ -200,7 +233,25 @@ public class UserStatement implements Statement {
       throw new SQLException(L.l("statement `{0}' appears to be closed", this));
 
     try {
-      return _stmt.executeQuery(sql);
+      QueryCacheKey key = null;
+
+      if (isQueryCacheable()) {
+        key = _queryCache.createKey(new PreparedStatementKey(sql), null);
+
+        if (key != null) {
+          ResultSet rs = _queryCache.get(this, key);
+
+          if (rs != null)
+            return rs;
+        }
+      }
+
+      ResultSet rs = _stmt.executeQuery(sql);
+
+      if (key != null)
+        rs = _queryCache.fill(this, key, rs, _conn.isQueryCacheStore());
+
+      return rs;
     } catch (RuntimeException e) {
       onRuntimeException(e);
       
@@ -237,6 +288,8 @@ public class UserStatement implements Statement {
       
       throw e;
     } finally {
+      onUpdate(sql);
+
       _timeProbe.end(startTime);
     }
   }
@@ -264,6 +317,8 @@ public class UserStatement implements Statement {
       
       throw e;
     } finally {
+      onUpdate(query);
+
       _timeProbe.end(startTime);
     }
   }
@@ -291,6 +346,8 @@ public class UserStatement implements Statement {
       
       throw e;
     } finally {
+      onUpdate(query);
+
       _timeProbe.end(startTime);
     }
   }
@@ -318,6 +375,8 @@ public class UserStatement implements Statement {
       
       throw e;
     } finally {
+      onUpdate(query);
+
       _timeProbe.end(startTime);
     }
   }
@@ -344,6 +403,8 @@ public class UserStatement implements Statement {
       
       throw e;
     } finally {
+      onUpdate(sql);
+
       _timeProbe.end(startTime);
     }
   }
@@ -371,6 +432,8 @@ public class UserStatement implements Statement {
       
       throw e;
     } finally {
+      onUpdate(query);
+
       _timeProbe.end(startTime);
     }
   }
@@ -399,6 +462,8 @@ public class UserStatement implements Statement {
       
       throw e;
     } finally {
+      onUpdate(query);
+
       _timeProbe.end(startTime);
     }
   }
@@ -427,6 +492,8 @@ public class UserStatement implements Statement {
       
       throw e;
     } finally {
+      onUpdate(query);
+
       _timeProbe.end(startTime);
     }
   }
@@ -454,6 +521,14 @@ public class UserStatement implements Statement {
       
       throw e;
     } finally {
+      ArrayList<String> batchSql = _batchSql;
+      _batchSql = null;
+
+      if (batchSql != null) {
+        for (String sql : batchSql)
+          onUpdate(sql);
+      }
+
       _timeProbe.end(startTime);
     }
   }
@@ -621,6 +696,9 @@ public class UserStatement implements Statement {
     try {
       setPoolable(false);
 
+      if (max != 0)
+        disableQueryCache();
+
       _stmt.setMaxFieldSize(max);
     } catch (RuntimeException e) {
       onRuntimeException(e);
@@ -662,6 +740,9 @@ public class UserStatement implements Statement {
     try {
       setPoolable(false);
 
+      if (max != 0)
+        disableQueryCache();
+
       _stmt.setMaxRows(max);
     } catch (RuntimeException e) {
       onRuntimeException(e);
@@ -948,6 +1029,35 @@ public class UserStatement implements Statement {
     return false;
   }
 
+  /**
+   * Records batched sql for query cache invalidation.
+   */
+  protected void addBatchUpdate(String sql)
+  {
+    if (_queryCache == null || sql == null)
+      return;
+
+    if (_batchSql == null)
+      _batchSql = new ArrayList<String>();
+
+    if (! _batchSql.contains(sql))
+      _batchSql.add(sql);
+  }
+
+  /**
+   * Invalidates cached queries for the tables written by the sql.
+   */
+  protected void onUpdate(String sql)
+  {
+    QueryCache queryCache = _queryCache;
+
+    if (queryCache != null && sql != null && queryCache.isUpdate(sql)) {
+      queryCache.invalidate(sql);
+
+      _conn.addQueryCacheUpdate(sql);
+    }
+  }
+
   protected void onSqlException(SQLException e)
   {
     setPoolable(false);
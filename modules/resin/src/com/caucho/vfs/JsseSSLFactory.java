@@ -52,6 +52,7 @@ import java.security.Key;
 import java.security.KeyStore;
 import java.security.cert.Certificate;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -66,6 +67,8 @@ public class JsseSSLFactory implements SSLFactory {
 
   private static Method _honorCipherOrderMethod;
   private static Method _getSSLParametersMethod;
+  private static Method _setSSLParametersMethod;
+  private static Method _setApplicationProtocolsMethod;
 
   private Path _keyStoreFile;
   private String _alias;
@@ -77,6 +80,7 @@ public class JsseSSLFactory implements SSLFactory {
   private String []_cipherSuites;
   private String []_cipherSuitesForbidden;
   private String []_protocols;
+  private String []_applicationProtocols;
 
   private String _selfSignedName;
 
@@ -211,6 +215,24 @@ public class JsseSSLFactory implements SSLFactory {
     _protocols = protocol.split("[\\s,]+");
   }
 
+  /**
+   * Sets the ALPN application protocols, in server preference order.
+   */
+  public void setApplicationProtocol(String protocol)
+  {
+    _applicationProtocols = protocol.split("[\\s,]+");
+  }
+
+  /**
+   * Advertises h2 and http/1.1 for a port with HTTP/2 enabled, unless
+   * the application protocols are configured.
+   */
+  public void enableHttp2()
+  {
+    if (_applicationProtocols == null)
+      _applicationProtocols = new String[] { "h2", "http/1.1" };
+  }
+
   public Boolean getHonorCipherOrder()
   {
     return _isHonorCipherOrder;
@@ -351,10 +373,38 @@ public class JsseSSLFactory implements SSLFactory {
       sslServerSocket.setWantClientAuth(true);
 
     setHonorCipherOrder(sslServerSocket);
+    setApplicationProtocols(sslServerSocket);
 
     return new QServerSocketWrapper(serverSocket);
   }
 
+  /**
+   * Advertises the application protocols with ALPN, letting h2 clients
+   * skip the HTTP/1.1 upgrade.  ALPN requires JDK 9 or JDK 8u251.
+   */
+  private void setApplicationProtocols(SSLServerSocket serverSocket)
+  {
+    if (_setApplicationProtocolsMethod == null
+        || _applicationProtocols == null
+        || _applicationProtocols.length == 0)
+      return;
+
+    try {
+      SSLParameters params
+        = (SSLParameters) _getSSLParametersMethod.invoke(serverSocket);
+
+      _setApplicationProtocolsMethod.invoke(params,
+                                            (Object) _applicationProtocols);
+
+      _setSSLParametersMethod.invoke(serverSocket, params);
+
+      log.log(Level.FINER, L.l("setting ALPN application protocols {0}",
+                               Arrays.asList(_applicationProtocols)));
+    } catch (Throwable t) {
+      log.log(Level.WARNING, t.getMessage(), t);
+    }
+  }
+
   private void setHonorCipherOrder(SSLServerSocket serverSocket)
   {
     if (_isHonorCipherOrder == null)
@@ -509,6 +559,21 @@ public class JsseSSLFactory implements SSLFactory {
     } catch (Exception e) {
       log.log(Level.FINER, e.getMessage(), e);
     }
+
+    try {
+      Method method = SSLServerSocket.class.getMethod("setSSLParameters",
+                                                      SSLParameters.class);
+      method.setAccessible(true);
+      _setSSLParametersMethod = method;
+
+      method = SSLParameters.class.getMethod("setApplicationProtocols",
+                                             String[].class);
+      method.setAccessible(true);
+
+      _setApplicationProtocolsMethod = method;
+    } catch (Exception e) {
+      log.log(Level.FINER, e.getMessage(), e);
+    }
   }
 }
 